@@ -35,4 +35,28 @@ public class Vec2D {
   public void setY(float y) {
     this.y = y;
   }
+
+  /**
+   * Two vectors are equal when their coordinates are, compared like
+   * {@link Float#equals}. A vector used as a map key must not be moved while
+   * it is in the map.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof Vec2D)) return false;
+    Vec2D other = (Vec2D) o;
+    return Float.floatToIntBits(x) == Float.floatToIntBits(other.x)
+        && Float.floatToIntBits(y) == Float.floatToIntBits(other.y);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Float.floatToIntBits(x) + Float.floatToIntBits(y);
+  }
+
+  @Override
+  public String toString() {
+    return "(" + x + ", " + y + ")";
+  }
 }
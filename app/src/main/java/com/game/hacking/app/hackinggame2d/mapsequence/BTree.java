@@ -1,50 +1,187 @@
 package com.game.hacking.app.hackinggame2d.mapsequence;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
 /**
  * This is a B tree, designed for self balancing O (log n) implementation.
  * Much thanks to Princeton University for this implementation.
+ * Values live only in the leaves and each leaf links to its right sibling,
+ * B+ tree style, so ordered scans stream across the leaf level. The fanout
+ * is picked at construction time; wide nodes keep large tables shallow.
+ * Each node keeps its keys in one contiguous array and is searched with a
+ * binary search, so a wide node costs O(log M) comparisons rather than O(M).
+ * As a {@link Tree}, adding puts and looking up gets, so a key holds one
+ * value at a time. Serialization writes only the pairs, in key order, and
+ * packs the nodes again when reading them back.
  * @param <Key>
  * @param <Value>
  */
-public class BTree<Key extends Comparable<Key>, Value> {
+public class BTree<Key extends Comparable<Key>, Value> implements Iterable<Key>, Tree<Key, Value> {
+  private static final long serialVersionUID = 1L;
+
+  // default max children per B-tree node = M-1
+  private static final int DEFAULT_ORDER = 4;
+
+  // how full to pack nodes when rebuilding a tree that will keep changing
+  private static final double RELOAD_FILL = 0.75;
+
   // max children per B-tree node = M-1
   // (must be even and greater than 2)
-  private static final int M = 4;
+  private final int M;
 
-  private Node root;       // root of the B-tree
-  private int height;      // height of the B-tree
-  private int n;           // number of key-value pairs in the B-tree
+  private transient Node root;       // root of the B-tree
+  private transient int height;      // height of the B-tree
+  private transient int n;           // number of key-value pairs in the B-tree
+
+  // scratch for put: the node and child slot taken at each height on the way
+  // down (path[0] is the leaf), reused across calls and regrown only when
+  // the tree gets taller
+  private transient Node[] path = new Node[4];
+  private transient int[] slots = new int[4];
 
   // helper B-tree node data type
+  // internal nodes: keys[j] is a lower bound for the subtree next[j]
+  // (keys[0] is never consulted), external nodes: keys[j] maps to vals[j]
   private static final class Node {
     private int m;                             // number of children
-    private Entry[] children = new Entry[M];   // the array of children
+    private final Object[] keys;               // the keys, kept contiguous for searching
+    private final Object[] vals;               // the values (leaves only)
+    private final Node[] next;                 // the subtrees (internal nodes only)
+    private Node sibling;                      // next leaf to the right (leaves only)
 
-    // create a node with k children
-    private Node(int k) {
+    // create a node with k children and room for M
+    private Node(int k, int M, boolean leaf) {
       m = k;
+      keys = new Object[M];
+      vals = leaf ? new Object[M] : null;
+      next = leaf ? null : new Node[M];
     }
   }
 
-  // internal nodes: only use key and next
-  // external nodes: only use key and value
-  private static class Entry {
-    private Comparable key;
-    private Object val;
-    private Node next;     // helper field to iterate over array entries
+  /**
+   * Initializes an empty B-tree.
+   */
+  public BTree() {
+    this(DEFAULT_ORDER);
+  }
 
-    public Entry(Comparable key, Object val, Node next) {
-      this.key = key;
-      this.val = val;
-      this.next = next;
-    }
+  /**
+   * Initializes an empty B-tree whose nodes hold up to <tt>order - 1</tt> children.
+   *
+   * @param order the node capacity; must be even and greater than 2
+   * @throws IllegalArgumentException if <tt>order</tt> is odd or not greater than 2
+   */
+  public BTree(int order) {
+    if (order <= 2 || order % 2 != 0)
+      throw new IllegalArgumentException("order must be even and greater than 2: " + order);
+    M = order;
+    root = new Node(0, M, true);
   }
 
   /**
-   * Initializes an empty B-tree.
+   * Builds a B-tree of the default order from keys that are already sorted,
+   * packing every node as full as the order allows.
+   *
+   * @param sortedKeys the keys in strictly ascending order
+   * @param values the value for each key, index for index
+   * @return a B-tree holding every key-value pair
+   * @throws IllegalArgumentException if the keys are not strictly ascending or
+   * the arrays differ in length
+   * @throws NullPointerException if a key or value is <tt>null</tt>
    */
-  public BTree() {
-    root = new Node(0);
+  public static <Key extends Comparable<Key>, Value> BTree<Key, Value> bulkLoad(
+          Key[] sortedKeys, Value[] values) {
+    return bulkLoad(sortedKeys, values, DEFAULT_ORDER, 1.0);
+  }
+
+  /**
+   * Builds a B-tree from keys that are already sorted in O(n). Leaves are
+   * packed left to right and the index levels are stacked on top of them,
+   * so no node is ever split.
+   *
+   * @param sortedKeys the keys in strictly ascending order
+   * @param values the value for each key, index for index
+   * @param order the node capacity; must be even and greater than 2
+   * @param fillFactor the fraction of each node to fill, in (0, 1]; nodes are
+   * never packed below half capacity
+   * @return a B-tree holding every key-value pair
+   * @throws IllegalArgumentException if the keys are not strictly ascending,
+   * the arrays differ in length, or the order or fill factor is out of range
+   * @throws NullPointerException if a key or value is <tt>null</tt>
+   */
+  public static <Key extends Comparable<Key>, Value> BTree<Key, Value> bulkLoad(
+          Key[] sortedKeys, Value[] values, int order, double fillFactor) {
+    if (sortedKeys.length != values.length)
+      throw new IllegalArgumentException("keys and values differ in length");
+    if (!(fillFactor > 0 && fillFactor <= 1))
+      throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+    for (int i = 0; i < sortedKeys.length; i++) {
+      if (sortedKeys[i] == null) throw new NullPointerException("key must not be null");
+      if (values[i] == null) throw new NullPointerException("value must not be null");
+      if (i > 0 && sortedKeys[i - 1].compareTo(sortedKeys[i]) >= 0)
+        throw new IllegalArgumentException("keys are not strictly ascending at index " + i);
+    }
+    BTree<Key, Value> tree = new BTree<>(order);
+    tree.load(sortedKeys, values, sortedKeys.length, fillFactor);
+    return tree;
+  }
+
+  // pack count sorted entries bottom-up, replacing the current contents
+  private void load(Object[] keys, Object[] vals, int count, double fillFactor) {
+    int target = Math.max(M / 2, Math.min(M - 1, (int) Math.ceil(fillFactor * (M - 1))));
+    n = count;
+    height = 0;
+    if (count == 0) {
+      root = new Node(0, M, true);
+      return;
+    }
+
+    int width = nodesFor(count, target);
+    Node[] level = new Node[width];
+    Node prev = null;
+    for (int i = 0, from = 0; i < width; i++) {
+      int size = (count - from) / (width - i);
+      Node leaf = new Node(size, M, true);
+      System.arraycopy(keys, from, leaf.keys, 0, size);
+      System.arraycopy(vals, from, leaf.vals, 0, size);
+      if (prev != null) prev.sibling = leaf;
+      level[i] = prev = leaf;
+      from += size;
+    }
+
+    // each pass replaces the front of level with the parents of the pass before
+    while (width > 1) {
+      int parents = nodesFor(width, target);
+      for (int i = 0, from = 0; i < parents; i++) {
+        int size = (width - from) / (parents - i);
+        Node t = new Node(size, M, false);
+        for (int j = 0; j < size; j++) {
+          t.next[j] = level[from + j];
+          t.keys[j] = level[from + j].keys[0];
+        }
+        level[i] = t;
+        from += size;
+      }
+      width = parents;
+      height++;
+    }
+    root = level[0];
+  }
+
+  // number of nodes to spread count children over so each gets about target,
+  // but never fewer than M / 2 unless everything fits in a single node
+  private int nodesFor(int count, int target) {
+    int k = (count + target - 1) / target;
+    if (k > 1 && count / k < M / 2) k = count / (M / 2);
+    return k;
   }
 
   /**
@@ -85,29 +222,37 @@ public class BTree<Key extends Comparable<Key>, Value> {
    */
   public Value get(Key key) {
     if (key == null) throw new NullPointerException("key must not be null");
-    return search(root, key, height);
+    Node x = root;
+    for (int ht = height; ht > 0; ht--)
+      x = x.next[childIndex(x, key)];
+    int j = indexOf(x, key);
+    return j < 0 ? null : value(x, j);
   }
 
-  private Value search(Node x, Key key, int ht) {
-    Entry[] children = x.children;
-
-    // external node
-    if (ht == 0) {
-      for (int j = 0; j < x.m; j++) {
-        if (eq(key, children[j].key)) return (Value) children[j].val;
-      }
-    }
 
-    // internal node
-    else {
-      for (int j = 0; j < x.m; j++) {
-        if (j + 1 == x.m || less(key, children[j + 1].key))
-          return search(children[j].next, key, ht - 1);
-      }
-    }
-    return null;
+  /**
+   * Returns the value associated with the given key, as {@link #get} does.
+   *
+   * @param key the key
+   * @return the value associated with the key, or <tt>null</tt> if none
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  @Override
+  public Value lookup(Key key) {
+    return get(key);
   }
 
+  /**
+   * Inserts the key-value pair, as {@link #put} does.
+   *
+   * @param key the key
+   * @param value the value
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  @Override
+  public void add(Key key, Value value) {
+    put(key, value);
+  }
 
   /**
    * Inserts the key-value pair into the symbol table, overwriting the old value
@@ -120,57 +265,632 @@ public class BTree<Key extends Comparable<Key>, Value> {
    */
   public void put(Key key, Value val) {
     if (key == null) throw new NullPointerException("key must not be null");
-    Node u = insert(root, key, val, height);
+    if (val == null) {
+      remove(key);
+      return;
+    }
+    growPath();
+    place(descend(key, height), key, val);
+    // don't keep nodes reachable from the scratch path once they leave the tree
+    Arrays.fill(path, null);
+  }
+
+  /**
+   * Inserts the key-value pairs of a batch sorted by key. Each key is found
+   * by climbing the path recorded for the previous key only as far as the
+   * lowest node whose range still holds it and descending from there, so
+   * keys that land near each other share most of the descent; a split or a
+   * removal starts the next key from the root again.
+   * As in {@link #put}, a repeated key keeps the last value, and a
+   * <tt>null</tt> value deletes the key.
+   *
+   * @param sortedBatch the pairs, in ascending key order
+   * @throws IllegalArgumentException if the keys are not in ascending order,
+   * in which case nothing is inserted
+   * @throws NullPointerException if a key is <tt>null</tt>
+   */
+  @Override
+  public void addAll(List<? extends Map.Entry<Key, Value>> sortedBatch) {
+    // walked with the list's own iterator, since get(i) is linear on some lists
+    Key previous = null;
+    int i = 0;
+    for (Map.Entry<Key, Value> entry : sortedBatch) {
+      Key key = entry.getKey();
+      if (key == null) throw new NullPointerException("key must not be null");
+      if (previous != null && less(key, previous))
+        throw new IllegalArgumentException("batch is not sorted at index " + i);
+      previous = key;
+      i++;
+    }
+
+    boolean onPath = false;
+    for (Map.Entry<Key, Value> entry : sortedBatch) {
+      Key key = entry.getKey();
+      Value val = entry.getValue();
+      if (val == null) {
+        remove(key);
+        onPath = false;
+        continue;
+      }
+      growPath();
+      int from = onPath ? lowestHolding(key) : height;
+      onPath = !place(descend(key, from), key, val);
+    }
+    Arrays.fill(path, null);
+  }
+
+  // the lowest height whose node on the recorded path still holds the place
+  // of key, which sorts at or after the key the path was recorded for; each
+  // node's range ends at the next separator key found going up
+  private int lowestHolding(Key key) {
+    int ht = 0;
+    for (int up = 1; up <= height; up++) {
+      int j = slots[up] + 1;
+      if (j < path[up].m) {
+        if (less(key, key(path[up], j))) return ht;
+        ht = up;
+      }
+    }
+    return ht;
+  }
+
+  private void growPath() {
+    if (path.length <= height) {
+      path = new Node[2 * (height + 1)];
+      slots = new int[path.length];
+    }
+  }
+
+  // walk down from the node recorded at height from (the root when from is
+  // the height), remembering the child taken at each level; returns the leaf
+  private Node descend(Key key, int from) {
+    Node x = (from == height) ? root : path[from];
+    for (int ht = from; ht > 0; ht--) {
+      int j = childIndex(x, key);
+      path[ht] = x;
+      slots[ht] = j;
+      x = x.next[j];
+    }
+    path[0] = x;
+    return x;
+  }
+
+  // put the pair into leaf x reached through the recorded path; returns true
+  // if nodes split, which leaves the path out of date
+  private boolean place(Node x, Key key, Value val) {
+    int j = indexOf(x, key);
+    if (j >= 0) {
+      x.vals[j] = val;
+      return false;
+    }
+    j = -j - 1;
+    System.arraycopy(x.keys, j, x.keys, j + 1, x.m - j);
+    System.arraycopy(x.vals, j, x.vals, j + 1, x.m - j);
+    x.keys[j] = key;
+    x.vals[j] = val;
     n++;
-    if (u == null) return;
+    if (++x.m < M) return false;
+    splitUpward(split(x, 0));
+    return true;
+  }
+
+  // hang the new right sibling u off each parent on the recorded path,
+  // splitting parents that fill up in turn, and grow a new root if the old one split
+  private void splitUpward(Node u) {
+    for (int ht = 1; ht <= height; ht++) {
+      Node h = path[ht];
+      int j = slots[ht] + 1;
+      System.arraycopy(h.keys, j, h.keys, j + 1, h.m - j);
+      System.arraycopy(h.next, j, h.next, j + 1, h.m - j);
+      h.keys[j] = u.keys[0];
+      h.next[j] = u;
+      if (++h.m < M) return;
+      u = split(h, ht);
+    }
 
     // need to split root
-    Node t = new Node(2);
-    t.children[0] = new Entry(root.children[0].key, null, root);
-    t.children[1] = new Entry(u.children[0].key, null, u);
+    Node t = new Node(2, M, false);
+    t.keys[0] = root.keys[0];
+    t.next[0] = root;
+    t.keys[1] = u.keys[0];
+    t.next[1] = u;
     root = t;
     height++;
   }
 
-  private Node insert(Node h, Key key, Value val, int ht) {
-    int j;
-    Entry t = new Entry(key, val, null);
+  // split node in half
+  private Node split(Node h, int ht) {
+    Node t = new Node(M / 2, M, ht == 0);
+    h.m = M / 2;
+    System.arraycopy(h.keys, M / 2, t.keys, 0, M / 2);
+    Arrays.fill(h.keys, M / 2, M, null);
+    if (ht == 0) {
+      System.arraycopy(h.vals, M / 2, t.vals, 0, M / 2);
+      Arrays.fill(h.vals, M / 2, M, null);
+      t.sibling = h.sibling;
+      h.sibling = t;
+    } else {
+      System.arraycopy(h.next, M / 2, t.next, 0, M / 2);
+      Arrays.fill(h.next, M / 2, M, null);
+    }
+    return t;
+  }
 
+  /**
+   * Removes the key and its associated value from this symbol table, merging
+   * or rebalancing nodes that fall below half capacity on the way back up.
+   *
+   * @param key the key
+   * @return the value that was associated with the key, or <tt>null</tt> if
+   * the key was not in the symbol table
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  public Value remove(Key key) {
+    if (key == null) throw new NullPointerException("key must not be null");
+    Value old = delete(root, key, height);
+    if (old == null) return null;
+    n--;
+
+    // an internal root left with a single child is collapsed
+    if (height > 0 && root.m == 1) {
+      root = root.next[0];
+      height--;
+    }
+    return old;
+  }
+
+  /**
+   * Removes every key in the half-open range [<tt>lo</tt>, <tt>hi</tt>) in
+   * one pass: it descends to <tt>lo</tt>, empties the leaves it meets in
+   * key order up to <tt>hi</tt>, and on the way back up merges or evens out
+   * the nodes it left short, so k keys cost O(k + log n) rather than a
+   * descent and rebalance each.
+   *
+   * @param lo the lowest key to remove, inclusive
+   * @param hi the key to stop at, exclusive
+   * @return the number of keys removed
+   * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+   */
+  @Override
+  public int removeRange(Key lo, Key hi) {
+    if (lo == null || hi == null) throw new NullPointerException("bounds must not be null");
+    if (!less(lo, hi)) return 0;
+    int count = deleteRange(root, lo, hi, height);
+    n -= count;
+
+    // merges may leave a chain of single children under the root
+    while (height > 0 && root.m == 1) {
+      root = root.next[0];
+      height--;
+    }
+    return count;
+  }
+
+  // remove the keys in [lo, hi) from the subtree h at height ht and refill
+  // the children it emptied; returns the number removed. h itself may be
+  // left short, as may a lone child of it, and so on down
+  private int deleteRange(Node h, Key lo, Key hi, int ht) {
+    if (ht == 0) {
+      int from = indexOf(h, lo);
+      if (from < 0) from = -from - 1;
+      int to = indexOf(h, hi);
+      if (to < 0) to = -to - 1;
+      int count = to - from;
+      System.arraycopy(h.keys, to, h.keys, from, h.m - to);
+      System.arraycopy(h.vals, to, h.vals, from, h.m - to);
+      Arrays.fill(h.keys, h.m - count, h.m, null);
+      Arrays.fill(h.vals, h.m - count, h.m, null);
+      h.m -= count;
+      return count;
+    }
+
+    int first = childIndex(h, lo);
+    int last = childIndex(h, hi);
+    int count = 0;
+    for (int j = first; j <= last; j++)
+      count += deleteRange(h.next[j], lo, hi, ht - 1);
+    // right to left, so a merge never moves a child still to be refilled
+    for (int j = last; j >= first; j = Math.min(j, h.m) - 1)
+      refill(h, j, ht - 1);
+    return count;
+  }
+
+  // bring the j-th child of h, which sits at height ht, back to half full by
+  // merging it with a neighbour or sharing a neighbour's entries, however
+  // short it is; then do the same for any of its children left short. Does
+  // nothing while the child has no neighbour
+  private void refill(Node h, int j, int ht) {
+    if (h.next[j].m >= M / 2 || h.m < 2) return;
+    int i = (j + 1 < h.m) ? j : j - 1;
+    Node left = h.next[i];
+    Node right = h.next[i + 1];
+    if (left.m + right.m < M) {
+      merge(h, i, ht);
+      refillChildren(left, ht);
+    } else {
+      share(h, i, ht);
+      refillChildren(left, ht);
+      refillChildren(right, ht);
+      refill(h, i + 1, ht);
+    }
+    // merges among their children may have left them short again
+    refill(h, i, ht);
+  }
+
+  private void refillChildren(Node h, int ht) {
+    if (ht == 0) return;
+    for (int j = h.m - 1; j >= 0; j = Math.min(j, h.m) - 1)
+      refill(h, j, ht - 1);
+  }
+
+  // even out the entries of the i-th and (i+1)-th children of h, which sit
+  // at height ht and hold M or more between them, so both are half full
+  private void share(Node h, int i, int ht) {
+    Node left = h.next[i];
+    Node right = h.next[i + 1];
+    if (ht > 0) right.keys[0] = h.keys[i + 1];
+    int total = left.m + right.m;
+    int half = total / 2;
+    if (left.m < half) {
+      // the front of right moves to the end of left
+      int k = half - left.m;
+      System.arraycopy(right.keys, 0, left.keys, left.m, k);
+      System.arraycopy(right.keys, k, right.keys, 0, right.m - k);
+      Arrays.fill(right.keys, right.m - k, right.m, null);
+      Object[] from = (ht == 0) ? right.vals : right.next;
+      Object[] to = (ht == 0) ? left.vals : left.next;
+      System.arraycopy(from, 0, to, left.m, k);
+      System.arraycopy(from, k, from, 0, right.m - k);
+      Arrays.fill(from, right.m - k, right.m, null);
+    } else if (left.m > half) {
+      // the end of left moves to the front of right
+      int k = left.m - half;
+      System.arraycopy(right.keys, 0, right.keys, k, right.m);
+      System.arraycopy(left.keys, half, right.keys, 0, k);
+      Arrays.fill(left.keys, half, left.m, null);
+      Object[] from = (ht == 0) ? left.vals : left.next;
+      Object[] to = (ht == 0) ? right.vals : right.next;
+      System.arraycopy(to, 0, to, k, right.m);
+      System.arraycopy(from, half, to, 0, k);
+      Arrays.fill(from, half, left.m, null);
+    }
+    left.m = half;
+    right.m = total - half;
+    h.keys[i + 1] = right.keys[0];
+  }
+
+  private Value delete(Node h, Key key, int ht) {
     // external node
     if (ht == 0) {
-      for (j = 0; j < h.m; j++) {
-        if (less(key, h.children[j].key)) break;
-      }
+      int j = indexOf(h, key);
+      if (j < 0) return null;
+      Value old = value(h, j);
+      removeAt(h, j);
+      return old;
     }
 
     // internal node
+    int j = childIndex(h, key);
+    Value old = delete(h.next[j], key, ht - 1);
+    if (old != null && h.next[j].m < M / 2) rebalance(h, j, ht - 1);
+    return old;
+  }
+
+  // drop the j-th key and its value or subtree from h
+  private void removeAt(Node h, int j) {
+    int tail = h.m - j - 1;
+    System.arraycopy(h.keys, j + 1, h.keys, j, tail);
+    if (h.vals != null) {
+      System.arraycopy(h.vals, j + 1, h.vals, j, tail);
+      h.vals[h.m - 1] = null;
+    } else {
+      System.arraycopy(h.next, j + 1, h.next, j, tail);
+      h.next[h.m - 1] = null;
+    }
+    h.keys[--h.m] = null;
+  }
+
+  // restore the minimum fill of the j-th child of h, which sits at height ht,
+  // by borrowing an entry from a sibling or merging with one
+  private void rebalance(Node h, int j, int ht) {
+    Node x = h.next[j];
+
+    if (j > 0 && h.next[j - 1].m > M / 2) {
+      Node left = h.next[j - 1];
+      int last = left.m - 1;
+      Object moved = left.keys[last];
+      System.arraycopy(x.keys, 0, x.keys, 1, x.m);
+      x.keys[0] = moved;
+      if (ht == 0) {
+        System.arraycopy(x.vals, 0, x.vals, 1, x.m);
+        x.vals[0] = left.vals[last];
+      } else {
+        System.arraycopy(x.next, 0, x.next, 1, x.m);
+        x.next[0] = left.next[last];
+        // the old first child now needs a real separator
+        x.keys[1] = h.keys[j];
+      }
+      x.m++;
+      removeAt(left, last);
+      h.keys[j] = moved;
+    }
+    else if (j + 1 < h.m && h.next[j + 1].m > M / 2) {
+      Node right = h.next[j + 1];
+      if (ht == 0) {
+        x.keys[x.m] = right.keys[0];
+        x.vals[x.m] = right.vals[0];
+      } else {
+        x.keys[x.m] = h.keys[j + 1];
+        x.next[x.m] = right.next[0];
+      }
+      x.m++;
+      Object separator = right.keys[1];
+      removeAt(right, 0);
+      h.keys[j + 1] = separator;
+    }
     else {
-      for (j = 0; j < h.m; j++) {
-        if ((j + 1 == h.m) || less(key, h.children[j + 1].key)) {
-          Node u = insert(h.children[j++].next, key, val, ht - 1);
-          if (u == null) return null;
-          t.key = u.children[0].key;
-          t.next = u;
-          break;
-        }
+      // merge with a sibling; both are at minimum fill so the result fits
+      int i = (j + 1 < h.m) ? j : j - 1;
+      merge(h, i, ht);
+    }
+  }
+
+  // fold the (i+1)-th child of h into the i-th one and drop its entry from h
+  private void merge(Node h, int i, int ht) {
+    Node left = h.next[i];
+    Node right = h.next[i + 1];
+
+    if (ht > 0) {
+      right.keys[0] = h.keys[i + 1];
+      System.arraycopy(right.next, 0, left.next, left.m, right.m);
+    } else {
+      System.arraycopy(right.vals, 0, left.vals, left.m, right.m);
+      left.sibling = right.sibling;
+    }
+    System.arraycopy(right.keys, 0, left.keys, left.m, right.m);
+    left.m += right.m;
+    removeAt(h, i + 1);
+  }
+
+  /**
+   * Returns the largest key in the symbol table less than or equal to <tt>key</tt>.
+   *
+   * @param key the key
+   * @return the largest key less than or equal to <tt>key</tt>, or <tt>null</tt>
+   * if there is no such key
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  public Key floorKey(Key key) {
+    if (key == null) throw new NullPointerException("key must not be null");
+    return floor(root, key, height);
+  }
+
+  private Key floor(Node h, Key key, int ht) {
+    if (ht == 0) {
+      int j = indexOf(h, key);
+      if (j >= 0) return key(h, j);
+      j = -j - 1;
+      return j > 0 ? key(h, j - 1) : null;
+    }
+
+    int j = childIndex(h, key);
+    Key k = floor(h.next[j], key, ht - 1);
+    // every key of the left neighbour is smaller than the separator we followed
+    if (k == null && j > 0) k = max(h.next[j - 1], ht - 1);
+    return k;
+  }
+
+  /**
+   * Returns the smallest key in the symbol table greater than or equal to <tt>key</tt>.
+   *
+   * @param key the key
+   * @return the smallest key greater than or equal to <tt>key</tt>, or <tt>null</tt>
+   * if there is no such key
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  public Key ceilingKey(Key key) {
+    if (key == null) throw new NullPointerException("key must not be null");
+    return ceiling(root, key, height);
+  }
+
+  private Key ceiling(Node h, Key key, int ht) {
+    if (ht == 0) {
+      int j = indexOf(h, key);
+      if (j >= 0) return key(h, j);
+      j = -j - 1;
+      return j < h.m ? key(h, j) : null;
+    }
+
+    int j = childIndex(h, key);
+    Key k = ceiling(h.next[j], key, ht - 1);
+    if (k == null && j + 1 < h.m) k = min(h.next[j + 1], ht - 1);
+    return k;
+  }
+
+  private Key min(Node h, int ht) {
+    for (; ht > 0; ht--)
+      h = h.next[0];
+    return h.m == 0 ? null : key(h, 0);
+  }
+
+  private Key max(Node h, int ht) {
+    for (; ht > 0; ht--)
+      h = h.next[h.m - 1];
+    return h.m == 0 ? null : key(h, h.m - 1);
+  }
+
+  // binary search of leaf h: the slot holding key, or -(insertion point) - 1
+  private int indexOf(Node h, Key key) {
+    int lo = 0;
+    int hi = h.m - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = key(h, mid).compareTo(key);
+      if (cmp < 0) lo = mid + 1;
+      else if (cmp > 0) hi = mid - 1;
+      else return mid;
+    }
+    return -(lo + 1);
+  }
+
+  // binary search of internal node h: the last child whose lower bound is <= key
+  private int childIndex(Node h, Key key) {
+    int lo = 1;
+    int hi = h.m - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (less(key, key(h, mid))) hi = mid - 1;
+      else lo = mid + 1;
+    }
+    return lo - 1;
+  }
+
+  /**
+   * Returns an iterator over every key of this B-tree in ascending order.
+   *
+   * @return an iterator over all keys in ascending order
+   */
+  @Override
+  public RangeIterator iterator() {
+    return new RangeIterator(null, null);
+  }
+
+  /**
+   * Returns an iterator over the keys in the half-open range
+   * [<tt>lo</tt>, <tt>hi</tt>) in ascending order. The iterator descends once
+   * and then follows the leaf siblings, so the tree must not be modified while
+   * it is in use.
+   *
+   * @param lo the lowest key to return, inclusive
+   * @param hi the key to stop at, exclusive
+   * @return an iterator over the keys in the given range
+   * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+   */
+  public RangeIterator rangeIterator(Key lo, Key hi) {
+    if (lo == null || hi == null) throw new NullPointerException("bounds must not be null");
+    return new RangeIterator(lo, hi);
+  }
+
+  /**
+   * In-order cursor over a range of keys. It streams along the linked leaf
+   * level and hands out the value of the last returned key through
+   * {@link #value()} so no entry objects are created.
+   */
+  public final class RangeIterator implements Iterator<Key> {
+    private final Key hi;
+    private Node leaf;
+    private int index;
+    private Value val;
+
+    private RangeIterator(Key lo, Key hi) {
+      this.hi = hi;
+      Node x = root;
+      for (int ht = height; ht > 0; ht--)
+        x = x.next[(lo == null) ? 0 : childIndex(x, lo)];
+      int j = 0;
+      if (lo != null) {
+        j = indexOf(x, lo);
+        if (j < 0) j = -j - 1;
       }
+      leaf = x;
+      index = j;
+      skipExhaustedLeaves();
+    }
+
+    private void skipExhaustedLeaves() {
+      while (leaf != null && index == leaf.m) {
+        leaf = leaf.sibling;
+        index = 0;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return leaf != null && (hi == null || less(key(leaf, index), hi));
+    }
+
+    @Override
+    public Key next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Key key = key(leaf, index);
+      val = BTree.this.value(leaf, index++);
+      skipExhaustedLeaves();
+      return key;
+    }
+
+    /**
+     * Returns the value associated with the key last returned by {@link #next()}.
+     *
+     * @return the value of the current key
+     */
+    public Value value() {
+      return val;
     }
 
-    for (int i = h.m; i > j; i--)
-      h.children[i] = h.children[i - 1];
-    h.children[j] = t;
-    h.m++;
-    if (h.m < M) return null;
-    else return split(h);
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
   }
 
-  // split node in half
-  private Node split(Node h) {
-    Node t = new Node(M / 2);
-    h.m = M / 2;
-    for (int j = 0; j < M / 2; j++)
-      t.children[j] = h.children[M / 2 + j];
-    return t;
+  /**
+   * Checks the structure every other method relies on: keys strictly
+   * ascending within each node and bounded by the separators above it, all
+   * leaves at the same depth, every node but the root at least half full and
+   * never full, unused slots cleared, the leaf siblings linked in key order
+   * and the size matching the pairs present. Takes linear time (for testing).
+   *
+   * @throws IllegalStateException if the tree is broken, saying where
+   */
+  void checkInvariants() {
+    if (height > 0 && root.m < 2)
+      throw new IllegalStateException("internal root with " + root.m + " children");
+    Node[] lastLeaf = new Node[1];
+    int count = check(root, height, null, null, lastLeaf);
+    if (lastLeaf[0].sibling != null)
+      throw new IllegalStateException("last leaf has a sibling");
+    if (count != n)
+      throw new IllegalStateException(count + " pairs in the leaves, size is " + n);
+  }
+
+  // check the subtree h at height ht, whose keys must lie in [lo, hi) where a
+  // null bound is open; lastLeaf holds the leaf met before it. Returns the
+  // number of pairs in the subtree
+  private int check(Node h, int ht, Key lo, Key hi, Node[] lastLeaf) {
+    if ((h.vals == null) != (ht > 0))
+      throw new IllegalStateException("leaf and internal node mixed up at height " + ht);
+    if (h.m >= M || (h != root && h.m < M / 2))
+      throw new IllegalStateException("node with " + h.m + " children at height " + ht);
+    for (int j = h.m; j < M; j++) {
+      if (h.keys[j] != null || (ht == 0 ? h.vals[j] : h.next[j]) != null)
+        throw new IllegalStateException("uncleared slot " + j + " at height " + ht);
+    }
+    for (int j = (ht == 0) ? 0 : 1; j < h.m; j++) {
+      Key key = key(h, j);
+      if (key == null)
+        throw new IllegalStateException("null key at height " + ht);
+      if ((lo != null && less(key, lo)) || (hi != null && !less(key, hi)))
+        throw new IllegalStateException("key " + key + " outside its separators [" + lo + ", " + hi + ")");
+      if (j > ((ht == 0) ? 0 : 1) && !less(key(h, j - 1), key))
+        throw new IllegalStateException("keys out of order at " + key);
+    }
+
+    if (ht == 0) {
+      for (int j = 0; j < h.m; j++) {
+        if (h.vals[j] == null) throw new IllegalStateException("null value for " + h.keys[j]);
+      }
+      if (lastLeaf[0] != null && lastLeaf[0].sibling != h)
+        throw new IllegalStateException("leaf sibling chain skips or reorders a leaf");
+      lastLeaf[0] = h;
+      return h.m;
+    }
+    int count = 0;
+    for (int j = 0; j < h.m; j++) {
+      Key childLo = (j == 0) ? lo : key(h, j);
+      Key childHi = (j + 1 < h.m) ? key(h, j + 1) : hi;
+      count += check(h.next[j], ht - 1, childLo, childHi, lastLeaf);
+    }
+    return count;
   }
 
   /**
@@ -179,33 +899,130 @@ public class BTree<Key extends Comparable<Key>, Value> {
    * @return a string representation of this B-tree.
    */
   public String toString() {
-    return toString(root, height, "") + "\n";
+    StringBuilder s = new StringBuilder();
+    try {
+      dump(s, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    } catch (IOException e) {
+      throw new AssertionError(e);   // a StringBuilder never throws
+    }
+    return s.append('\n').toString();
   }
 
-  private String toString(Node h, int ht, String indent) {
-    StringBuilder s = new StringBuilder();
-    Entry[] children = h.children;
+  /**
+   * Returns the indented outline of {@link #toString()}.
+   *
+   * @return a string representation of this B-tree
+   */
+  @Override
+  public String toPrettyString() {
+    return toString();
+  }
 
-    if (ht == 0) {
-      for (int j = 0; j < h.m; j++) {
-        s.append(indent + children[j].key + " " + children[j].val + "\n");
+  /**
+   * Writes the same indented outline as {@link #toString()} straight to
+   * <tt>out</tt>, in time linear in what is written and without building the
+   * whole text in memory. Nodes deeper than <tt>maxDepth</tt> below the root
+   * are shown as "..." and output stops with "..." after <tt>maxEntries</tt>
+   * lines, so large trees can be inspected a piece at a time.
+   *
+   * @param out where to write the outline
+   * @param maxDepth the deepest level to expand; the root is at depth 0
+   * @param maxEntries the most key lines to write
+   * @throws IOException if <tt>out</tt> fails
+   * @throws IllegalArgumentException if a limit is negative
+   */
+  public void dump(Appendable out, int maxDepth, int maxEntries) throws IOException {
+    if (maxDepth < 0 || maxEntries < 0)
+      throw new IllegalArgumentException("limits must not be negative");
+    dump(out, root, height, 0, maxDepth, maxEntries);
+  }
+
+  // write the subtree h found at depth below the root; returns how many more
+  // lines may be written, or -1 once the limit has cut the output short
+  private int dump(Appendable out, Node h, int ht, int depth, int maxDepth, int left)
+          throws IOException {
+    if (depth > maxDepth) {
+      indent(out, depth).append("...\n");
+      return left;
+    }
+    for (int j = 0; j < h.m; j++) {
+      if (ht == 0 || j > 0) {
+        if (left == 0) {
+          indent(out, depth).append("...\n");
+          return -1;
+        }
+        left--;
+        if (ht == 0) {
+          indent(out, depth).append(String.valueOf(h.keys[j]))
+                  .append(' ').append(String.valueOf(h.vals[j])).append('\n');
+        } else {
+          indent(out, depth).append('(').append(String.valueOf(h.keys[j])).append(")\n");
+        }
       }
-    } else {
-      for (int j = 0; j < h.m; j++) {
-        if (j > 0) s.append(indent + "(" + children[j].key + ")\n");
-        s.append(toString(children[j].next, ht - 1, indent + "     "));
+      if (ht > 0) {
+        left = dump(out, h.next[j], ht - 1, depth + 1, maxDepth, left);
+        if (left < 0) return left;
       }
     }
-    return s.toString();
+    return left;
+  }
+
+  private static Appendable indent(Appendable out, int depth) throws IOException {
+    for (int i = 0; i < depth; i++)
+      out.append("     ");
+    return out;
   }
 
 
-  // comparison functions - make Comparable instead of Key to avoid casts
-  private boolean less(Comparable k1, Comparable k2) {
-    return k1.compareTo(k2) < 0;
+  // the pairs go out in key order; the leaf sibling chain would otherwise be
+  // written by one nested call per leaf
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(n);
+    for (RangeIterator it = iterator(); it.hasNext(); ) {
+      out.writeObject(it.next());
+      out.writeObject(it.value());
+    }
   }
 
-  private boolean eq(Comparable k1, Comparable k2) {
-    return k1.compareTo(k2) == 0;
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int count = in.readInt();
+    if (count < 0) throw new InvalidObjectException("negative size: " + count);
+    Object[] keys = new Object[count];
+    Object[] vals = new Object[count];
+    Key previous = null;
+    for (int i = 0; i < count; i++) {
+      // the cast checks only that it is Comparable; a key of the wrong kind
+      // fails once compared
+      @SuppressWarnings("unchecked")
+      Key key = (Key) in.readObject();
+      keys[i] = key;
+      vals[i] = in.readObject();
+      if (key == null || vals[i] == null)
+        throw new InvalidObjectException("null key or value at " + i);
+      if (previous != null && !less(previous, key))
+        throw new InvalidObjectException("keys are not strictly ascending at " + i);
+      previous = key;
+    }
+    path = new Node[4];
+    slots = new int[4];
+    load(keys, vals, count, RELOAD_FILL);
+  }
+
+  // the key and value slots only ever hold Keys and Values
+  @SuppressWarnings("unchecked")
+  private Key key(Node h, int j) {
+    return (Key) h.keys[j];
+  }
+
+  @SuppressWarnings("unchecked")
+  private Value value(Node h, int j) {
+    return (Value) h.vals[j];
+  }
+
+  // comparison functions
+  private boolean less(Key k1, Key k2) {
+    return k1.compareTo(k2) < 0;
   }
-}
\ No newline at end of file
+}
@@ -1,8 +1,16 @@
 package com.game.hacking.app.hackinggame2d.mapsequence;
 
-// For the pretty string.
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Red-Black Tree, the data structure that works well when it comes to situations
@@ -21,10 +29,26 @@ import java.util.LinkedList;
  * as well as the binary search tree property.
  * @param <V> The value that will correspond with the key paired with it. Value
  * is the data that will be stored in the data structure.
+ * Used as a {@link Scheduler}, the keys are deadlines. Equal keys are kept in
+ * insertion order, and the leftmost node is cached so the next due task is
+ * found in O(1), while scheduling, cancelling and polling stay O(log n).
+ * In multimap mode all entries that share a key hang off a single tree node
+ * as a bucket, so a burst of events on the same tick costs one tree node
+ * instead of making the tree deeper.
+ * Every tree node also counts the entries in its subtree, which gives rank
+ * and select in O(log n), and the entries can be walked in key order, as a
+ * whole or within a key range, without copying the tree.
+ * Entries may also be intervals, keyed by their start; once the first one
+ * is added, every tree node keeps the latest end in its subtree as well, so
+ * the intervals overlapping a window are found without visiting subtrees
+ * that end before it.
+ * Serialization writes only the entries, in key order, and reading them
+ * back builds a balanced tree in O(n); handles taken before serializing do
+ * not carry over to the copy.
  * @author MAGarcia
  */
 public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
-        Serializable
+        Scheduler<K,V>, Iterable<Map.Entry<K,V>>, Serializable
 {
   private static final long serialVersionUID = 1L;
   /**************************************************************************
@@ -41,9 +65,11 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
    * The node class used for holding the key and value, as well as the
    * color, of the data which corresponds to the Red-Black Tree. This class
    * must be self referential in order to keep track of children, as well as
-   * its parent.
+   * its parent. A node doubles as the handle of its scheduled task, so a
+   * node is only ever unlinked from the tree, never reused for other data.
+   * For the same reason, nodes handed out as map entries compare by identity.
    */
-  private class Node implements Serializable
+  private class Node implements Scheduler.Handle, Map.Entry<K,V>, Serializable
   {
     private static final long serialVersionUID = 1L;
     /**
@@ -71,16 +97,105 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
      * parent, or null value if it is root.
      */
     protected Node parent;
+    /**
+     * Whether the node is currently part of the tree, so a handle that was
+     * already polled or cancelled is recognized.
+     */
+    protected boolean linked;
+    /**
+     * The next entry of the bucket of entries sharing this key. Buckets are
+     * circular, so a lone entry points at itself.
+     */
+    protected Node bucketNext = this;
+    /**
+     * The previous entry of the bucket; for the entry in the tree, which is
+     * the oldest, this is the newest one.
+     */
+    protected Node bucketPrev = this;
+    /**
+     * The number of entries in the bucket of this tree node, itself included.
+     */
+    protected int count = 1;
+    /**
+     * The number of entries in the subtree of this tree node, bucket entries
+     * included.
+     */
+    protected int size = 1;
+    /**
+     * The end of the entry's interval; the key itself for a point entry.
+     */
+    protected K end;
+    /**
+     * The latest end among the entries of the bucket of this tree node,
+     * kept in interval mode only.
+     */
+    protected K bucketEnd;
+    /**
+     * The latest end among the entries in the subtree of this tree node,
+     * kept in interval mode only; null while the subtree is empty of
+     * entries during a removal.
+     */
+    protected K maxEnd;
+
+    @Override
+    public K getKey()
+    {
+      return key;
+    }
+
+    @Override
+    public V getValue()
+    {
+      return value;
+    }
+
+    @Override
+    public V setValue(V newValue)
+    {
+      V old = value;
+      value = newValue;
+      return old;
+    }
+
+    @Override
+    public String toString()
+    {
+      return key + "=" + value;
+    }
+
+    /**
+     * Gives the tree the node belongs to, so a handle from another scheduler
+     * is recognized.
+     * @return The tree that created the node.
+     */
+    private BalancedScheduler<K,V> owner()
+    {
+      return BalancedScheduler.this;
+    }
   }
 
   /**
    * The root node, which stems to the top of the tree.
    */
-  private Node root;
+  private transient Node root;
+  /**
+   * Number of entries currently present in the Red-Black Tree, bucket
+   * entries included.
+   */
+  private transient int nodes;
   /**
-   * Number of nodes currently present in the Red-Black Tree.
+   * Whether entries with equal keys share one tree node through its bucket.
    */
-  private int nodes;
+  private final boolean multimap;
+  /**
+   * The leftmost node, which holds the smallest key and so the next due task.
+   */
+  private transient Node first;
+  /**
+   * Whether an interval has been added, from which point on the nodes keep
+   * the latest end in their buckets and subtrees.
+   */
+  private boolean intervals;
 
   /**
    * The constructor for the Red-Black Tree. This method will be used to
@@ -88,7 +203,21 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
    */
   public BalancedScheduler()
   {
+    this(false);
+  }
+
+  /**
+   * The constructor for the Red-Black Tree, choosing how equal keys are
+   * stored. Either way, entries with equal keys come back in the order they
+   * were added.
+   * @param multimap True to keep entries with equal keys in a bucket on one
+   * tree node, false to give every entry its own tree node.
+   */
+  public BalancedScheduler(boolean multimap)
+  {
+    this.multimap = multimap;
     root = null;
+    first = null;
     nodes = 0;
   }
 
@@ -107,11 +236,241 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
     // check if key is null before proceeding.
     if(key == null)
       return;
+    insert(key, value);
+  }
+
+  /**
+   * Schedules the task as a node keyed by its deadline. Tasks with equal
+   * deadlines are placed after each other, so they come due in the order
+   * they were scheduled.
+   * @param deadline The point at which the task becomes due.
+   * @param task The task to hand back once due.
+   * @return The handle used to cancel the task.
+   * @throws NullPointerException If the deadline is null.
+   */
+  @Override
+  public Handle schedule(K deadline, V task)
+  {
+    if(deadline == null)
+      throw new NullPointerException("deadline must not be null");
+    return insert(deadline, task);
+  }
+
+  /**
+   * Adds a value that holds over the closed interval from start to end,
+   * keyed by its start, after any entries with an equal start. The first
+   * interval switches the tree to interval mode, which visits every node
+   * once to work out the latest ends; from then on each change keeps them
+   * up to date on its way to the root and through the rotations.
+   * @param start The start of the interval, used as its key.
+   * @param end The end of the interval, inclusive.
+   * @param value The data that is to be stored.
+   * @return The handle used to cancel the interval, as with schedule.
+   * @throws NullPointerException If start or end is null.
+   * @throws IllegalArgumentException If end is before start.
+   */
+  public Handle addInterval(K start, K end, V value)
+  {
+    if(start == null || end == null)
+      throw new NullPointerException("interval bounds must not be null");
+    if(end.compareTo(start) < 0)
+      throw new IllegalArgumentException("interval ends before it starts: " + start + ", " + end);
+    if(!intervals)
+    {
+      intervals = true;
+      augmentIntervals(root);
+    }
+    return insert(start, end, value, root);
+  }
+
+  /**
+   * Works out the latest ends of every bucket and subtree below a node,
+   * children first.
+   * @param node The root of the subtree, or null.
+   */
+  private void augmentIntervals(Node node)
+  {
+    if(node == null)
+      return;
+    augmentIntervals(node.leftChild);
+    augmentIntervals(node.rightChild);
+    K latest = node.end;
+    for(Node entry = node.bucketNext; entry != node; entry = entry.bucketNext)
+      latest = later(latest, entry.end);
+    node.bucketEnd = latest;
+    updateAugment(node);
+  }
+
+  /**
+   * Collects the entries whose intervals overlap the closed window from
+   * start to end, in key order, oldest first among equal starts. A point
+   * entry counts as an interval that starts and ends at its key. Subtrees
+   * whose latest end is before the window, or whose keys start after it,
+   * are never entered, so the query costs O(log n) plus at most O(log n)
+   * per entry found, and usually little more than O(log n + k).
+   * @param start The start of the window.
+   * @param end The end of the window, inclusive.
+   * @param out Receives the overlapping entries; it is not cleared first,
+   * so one list can be reused across frames.
+   * @return The number of entries added to out.
+   * @throws NullPointerException If start or end is null.
+   */
+  public int overlapping(K start, K end, Collection<? super Map.Entry<K,V>> out)
+  {
+    if(start == null || end == null)
+      throw new NullPointerException("window bounds must not be null");
+    if(!intervals)
+    {
+      // only points so far: the entries with keys inside the window.
+      int found = 0;
+      for(Node node = ceilingNode(start); node != null && node.key.compareTo(end) <= 0;
+          node = getInOrderSuccessor(node))
+      {
+        Node entry = node;
+        do
+        {
+          out.add(entry);
+          found++;
+          entry = entry.bucketNext;
+        }
+        while(entry != node);
+      }
+      return found;
+    }
+    return collectOverlaps(root, start, end, out);
+  }
+
+  /**
+   * Collects the overlapping entries below a node, going down the left
+   * subtrees by recursion and along the right ones by the loop.
+   * @param node The root of the subtree, or null.
+   * @param start The start of the window.
+   * @param end The end of the window, inclusive.
+   * @param out Receives the overlapping entries.
+   * @return The number of entries added to out.
+   */
+  private int collectOverlaps(Node node, K start, K end, Collection<? super Map.Entry<K,V>> out)
+  {
+    int found = 0;
+    while(node != null && node.maxEnd.compareTo(start) >= 0)
+    {
+      found += collectOverlaps(node.leftChild, start, end, out);
+      // the node and everything right of it start after the window.
+      if(node.key.compareTo(end) > 0)
+        break;
+      Node entry = node;
+      do
+      {
+        if(entry.end.compareTo(start) >= 0)
+        {
+          out.add(entry);
+          found++;
+        }
+        entry = entry.bucketNext;
+      }
+      while(entry != node);
+      node = node.rightChild;
+    }
+    return found;
+  }
+
+  /**
+   * Adds the pairs of a sorted batch. Each pair is placed by climbing from
+   * the tree node of the pair before it to the lowest node whose subtree
+   * holds the new key's place, and searching down from there, so pairs that
+   * land close together cost little more than their fix ups. Null keys are
+   * skipped, as in add.
+   * @param sortedBatch The pairs to add, in ascending key order.
+   * @throws IllegalArgumentException If the batch is not in key order, in
+   * which case nothing is added.
+   */
+  @Override
+  public void addAll(List<? extends Map.Entry<K,V>> sortedBatch)
+  {
+    // walked with the list's own iterator, since get(i) is linear on some lists
+    K previous = null;
+    int i = 0;
+    for(Map.Entry<K,V> entry : sortedBatch)
+    {
+      K key = entry.getKey();
+      if(key != null)
+      {
+        if(previous != null && previous.compareTo(key) > 0)
+          throw new IllegalArgumentException("batch is not sorted at index " + i);
+        previous = key;
+      }
+      i++;
+    }
+
+    Node finger = null;
+    for(Map.Entry<K,V> entry : sortedBatch)
+    {
+      K key = entry.getKey();
+      if(key == null)
+        continue;
+      Node node = insert(key, key, entry.getValue(), climbFrom(finger, key));
+      // an entry that joined a bucket is not in the tree; its bucket's tree
+      // node, the oldest entry, is the next entry in the ring.
+      finger = (node.parent != null || node == root) ? node : node.bucketNext;
+    }
+  }
+
+  /**
+   * Finds where to start searching for the place of a key that sorts at or
+   * after the finger: the lowest ancestor of the finger whose subtree still
+   * reaches past the key.
+   * @param finger The tree node of the last key placed, or null.
+   * @param key The key to place next.
+   * @return The node to search down from.
+   */
+  private Node climbFrom(Node finger, K key)
+  {
+    if(finger == null)
+      return root;
+    Node node = finger;
+    // a right child's subtree ends where its parent's does, and a parent
+    // whose key is not above the key ends before the key's place.
+    while(node.parent != null && (node == node.parent.rightChild
+            || node.parent.key.compareTo(key) <= 0))
+      node = node.parent;
+    return node;
+  }
+
+  /**
+   * Creates the node for the key and value and links it into the tree,
+   * keeping the cached leftmost node up to date. In multimap mode a key that
+   * is already present gets the node appended to its bucket instead.
+   * @param key The key used to store the value in the Red-Black Tree.
+   * @param value The data that is to be stored into the Red-Black Tree.
+   * @return The node that was added.
+   */
+  private Node insert(K key, V value)
+  {
+    return insert(key, key, value, root);
+  }
+
+  /**
+   * Creates the node for the interval and value and links it into the tree,
+   * searching for its place from the given node, whose subtree must hold
+   * that place.
+   * @param key The key used to store the value in the Red-Black Tree, which
+   * is the start of the interval.
+   * @param end The end of the interval, the key itself for a point.
+   * @param value The data that is to be stored into the Red-Black Tree.
+   * @param start The node to search down from.
+   * @return The node that was added.
+   */
+  private Node insert(K key, K end, V value, Node start)
+  {
     // Create the node to add into the Red-Black Tree.
     Node node = new Node();
     node.key = key;
     node.value = value;
     node.color = COLOR.RED;
+    node.linked = true;
+    node.end = end;
+    node.bucketEnd = end;
+    node.maxEnd = end;
 
     // Base case: Check if root is null, which means no nodes are currently
     // stored.
@@ -122,20 +481,40 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
     else
     {
       // Find the node spot in which the added node will go in.
-      Node currentNode = findAdderNode(root, key);
+      Node currentNode = findAdderNode(start, key);
+      if(multimap && currentNode.key.compareTo(key) == 0)
+      {
+        // join the bucket as its newest entry; the tree is unchanged.
+        node.bucketPrev = currentNode.bucketPrev;
+        node.bucketNext = currentNode;
+        currentNode.bucketPrev.bucketNext = node;
+        currentNode.bucketPrev = node;
+        currentNode.count++;
+        if(intervals)
+          currentNode.bucketEnd = later(currentNode.bucketEnd, end);
+        updatePath(currentNode);
+        nodes++;
+        return node;
+      }
       // Set nodes parent to the currentn node.
       node.parent = currentNode;
-      // check if node's parent' key is greater than or equal to node key.
-      if(currentNode.key.compareTo(key) >= 0)
+      // check if node's parent' key is greater than node key; equal keys
+      // go right so they stay in insertion order.
+      if(currentNode.key.compareTo(key) > 0)
         currentNode.leftChild = node;
       else
         currentNode.rightChild = node;
 
     }
-    // increment nodes.
+    // a strictly smaller key becomes the new leftmost node.
+    if(first == null || first.key.compareTo(key) > 0)
+      first = node;
+    // increment nodes, and the subtree sizes above the new node.
     nodes++;
+    updatePath(node.parent);
     // start calling to check Red-Black Tree invariants.
     fixTree(node);
+    return node;
   }
 
   /**
@@ -284,6 +663,8 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
 
     left.rightChild = node;
     node.parent = left;
+    updateAugment(node);
+    updateAugment(left);
   }
 
   /**
@@ -304,6 +685,94 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
 
     right.leftChild = node;
     node.parent = right;
+    updateAugment(node);
+    updateAugment(right);
+  }
+
+  /**
+   * Recomputes what a node keeps about its subtree from its children, which
+   * must already be up to date.
+   * @param node The node to update, or null.
+   */
+  private void updateAugment(Node node)
+  {
+    if(node == null)
+      return;
+    node.size = node.count + sizeOf(node.leftChild) + sizeOf(node.rightChild);
+    if(intervals)
+    {
+      // a node on its way out has no entries left to count.
+      K maxEnd = (node.count > 0) ? node.bucketEnd : null;
+      if(node.leftChild != null)
+        maxEnd = later(maxEnd, node.leftChild.maxEnd);
+      if(node.rightChild != null)
+        maxEnd = later(maxEnd, node.rightChild.maxEnd);
+      node.maxEnd = maxEnd;
+    }
+  }
+
+  /**
+   * The later of two ends, either of which may be null.
+   * @param a One end, or null.
+   * @param b The other end, or null.
+   * @return The later end, or null if both are null.
+   */
+  private K later(K a, K b)
+  {
+    if(a == null)
+      return b;
+    if(b == null)
+      return a;
+    return (a.compareTo(b) >= 0) ? a : b;
+  }
+
+  /**
+   * Finds the latest end in a bucket, walking its ring from one entry and
+   * leaving another out. The walk stops early at an entry that ends at the
+   * old latest end, since nothing in the bucket ends later, so a bucket of
+   * points costs one step.
+   * @param from The entry to start the walk at.
+   * @param skip The entry to leave out, which is being removed.
+   * @param old The latest end before the removal.
+   * @return The latest end of the remaining entries.
+   */
+  private K bucketEndWithout(Node from, Node skip, K old)
+  {
+    K latest = null;
+    Node entry = from;
+    do
+    {
+      if(entry != skip)
+      {
+        if(entry.end.compareTo(old) == 0)
+          return old;
+        latest = later(latest, entry.end);
+      }
+      entry = entry.bucketNext;
+    }
+    while(entry != from);
+    return latest;
+  }
+
+  /**
+   * Recomputes what the nodes keep about their subtrees from the node up to
+   * the root, after the entries below the node have changed.
+   * @param node The lowest node whose subtree changed, or null.
+   */
+  private void updatePath(Node node)
+  {
+    for( ; node != null; node = node.parent)
+      updateAugment(node);
+  }
+
+  /**
+   * The number of entries in the subtree of a node.
+   * @param node The root of the subtree, or null.
+   * @return The number of entries, 0 for a null subtree.
+   */
+  private int sizeOf(Node node)
+  {
+    return (node == null) ? 0 : node.size;
   }
 
   /**
@@ -337,10 +806,11 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
    * Locates the node which performs traversing through the tree in a normal
    * binary search tree way. Once the node reaches null, the previous node
    * is returned and the node to be added is to be assigned to either
-   * the left or right child of the previous node.
+   * the left or right child of the previous node. In multimap mode a node
+   * with an equal key is returned as soon as it is met.
    * @param initNode The starting node for the traversal of the tree.
    * @param key The key used to compare each node, by which determines if
-   * the node being compared is greater or less than or equal to the key.
+   * the node being compared is greater than, or less than or equal to, the key.
    * @return The previous node after traversal.
    */
   private Node findAdderNode(Node initNode, K key)
@@ -350,9 +820,12 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
     while( initNode != null )
     {
       prevNode = initNode;
+      int cmp = initNode.key.compareTo(key);
 
-      if( initNode.key.compareTo(key) >= 0 )
+      if( cmp > 0 )
         initNode = initNode.leftChild;
+      else if( cmp == 0 && multimap )
+        break;
       else
         initNode = initNode.rightChild;
     }
@@ -369,7 +842,7 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
    * perform both binary tree cases 1, 2, and 3 together, sort of like killing
    * two birds with one stone. Since null nodes are considered black by
    * default, we can make the assumption that null nodes exist and are colored
-   * black.
+   * black. With several entries for the key, the one added first is removed.
    * @param key The key used to search and remove the node.
    * @return The value of the removed node.
    */
@@ -384,44 +857,257 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
     else
     {
       result = remNode.value;
-      // Case 3: If node has both children!!
-      if(isFull(remNode))
-      {
-        // Grab and replace the removed node with predecessor
-        // Invariants are not broken as color is the same
-        // when replacing the removed node with predecessor.
-        Node predecessor = getInOrderPredecessor(remNode);
-        remNode.key = predecessor.key;
-        remNode.value = predecessor.value;
-        // Successor node now becomes our node to remove.
-        remNode = predecessor;
-      }
+      removeEntry(remNode);
+    }
 
-      // Case 1 and 2: If node has at most 1 child!!
-      if(remNode.leftChild == null || remNode.rightChild == null)
-      {
-        // Assume null children are empty black leaf nodes.
-        Node child = ((remNode.rightChild == null) ? remNode.leftChild :
-                remNode.rightChild);
-        // Check if node to be removed is black, then already invariant
-        // 5 is going to be broken once we removed this node.
-        if(remNode.color == COLOR.BLACK)
-        {
-          // Change color to that of the child and proceed to first
-          // remove case checkpoint.
-          remNode.color = getNodeColor(child);
-          rBRemoveCase1(remNode);
-        }
-        // Since child is null, we set remNodes parent pointer to null.
-        replaceParent(remNode, child);
-        nodes--;
-      }
+    return result;
+  }
+
+  /**
+   * Removes every entry whose key is at least lo and below hi, walking the
+   * entries in order from the first one in range, so this costs O(log n)
+   * plus the fix ups of the removed entries.
+   * @param lo The lowest key to remove, inclusive.
+   * @param hi The key to stop at, exclusive.
+   * @return The number of entries removed.
+   * @throws NullPointerException If a bound is null.
+   */
+  @Override
+  public int removeRange(K lo, K hi)
+  {
+    if(lo == null || hi == null)
+      throw new NullPointerException("bounds must not be null");
+    int removed = 0;
+    EntryIterator entries = new EntryIterator(ceilingNode(lo), hi);
+    while(entries.hasNext())
+    {
+      entries.next();
+      entries.remove();
+      removed++;
     }
+    return removed;
+  }
+
+  /**
+   * Cancels the task behind the handle by unlinking its node from the tree.
+   * @param handle The handle returned when the task was scheduled.
+   * @return True if the task was still scheduled, false if it had already
+   * been polled or cancelled, or belongs to another scheduler.
+   */
+  @Override
+  public boolean cancel(Handle handle)
+  {
+    if(!(handle instanceof BalancedScheduler.Node))
+      return false;
+    // only used once owner() shows it is ours, and so of our K and V
+    @SuppressWarnings("unchecked")
+    Node node = (Node) handle;
+    if(node.owner() != this || !node.linked)
+      return false;
+    removeEntry(node);
+    return true;
+  }
+
+  /**
+   * Looks at the task that is due first, held by the cached leftmost node.
+   * @return The task with the earliest deadline, or null if none.
+   */
+  @Override
+  public V peekMin()
+  {
+    return (first == null) ? null : first.value;
+  }
+
+  /**
+   * Looks at the earliest deadline, held by the cached leftmost node.
+   * @return The earliest deadline, or null if nothing is scheduled.
+   */
+  @Override
+  public K peekDeadline()
+  {
+    return (first == null) ? null : first.key;
+  }
+
+  /**
+   * Removes the task that is due first.
+   * @return The task with the earliest deadline, or null if none.
+   */
+  public V pollFirst()
+  {
+    Node node = first;
+    if(node == null)
+      return null;
+    removeEntry(node);
+    return node.value;
+  }
+
+  /**
+   * Removes every task whose deadline is at or before now, handing each to
+   * the sink in deadline order. Each task is unlinked before the sink sees
+   * it, so the sink may schedule or cancel freely; a task it schedules that
+   * is already due is handed out by this same call.
+   * @param now The current time.
+   * @param sink Receives the due tasks.
+   * @return The number of tasks handed to the sink.
+   */
+  @Override
+  public int pollDue(K now, EventSink<K,V> sink)
+  {
+    int polled = 0;
+    while(first != null && first.key.compareTo(now) <= 0)
+    {
+      Node node = first;
+      removeEntry(node);
+      sink.accept(node.key, node.value);
+      polled++;
+    }
+    return polled;
+  }
+
+  /**
+   * The number of tasks currently scheduled.
+   * @return The number of entries in the Red-Black Tree.
+   */
+  @Override
+  public int size()
+  {
+    return nodes;
+  }
+
+  /**
+   * Removes one entry. An entry that waits in a bucket is simply unlinked
+   * from it. The entry in the tree hands its place, color and children over
+   * to the next entry of its bucket, if there is one, and is otherwise
+   * removed from the tree.
+   * @param entry The entry to remove.
+   */
+  private void removeEntry(Node entry)
+  {
+    Node next = entry.bucketNext;
+    boolean inTree = entry.parent != null || entry == root;
+
+    if(inTree && next != entry)
+    {
+      next.color = entry.color;
+      next.count = entry.count - 1;
+      if(intervals)
+        next.bucketEnd = bucketEndWithout(next, entry, entry.bucketEnd);
+      next.leftChild = entry.leftChild;
+      next.rightChild = entry.rightChild;
+      if(next.leftChild != null)
+        next.leftChild.parent = next;
+      if(next.rightChild != null)
+        next.rightChild.parent = next;
+      replaceParent(entry, next);
+      updatePath(next);
+      if(first == entry)
+        first = next;
+    }
+    else if(inTree)
+      removeNode(entry);
+    else
+    {
+      // a bucket entry; its key leads to the tree node that counts it.
+      Node owner = nodeLookUp(entry.key);
+      owner.count--;
+      if(intervals && entry.end.compareTo(owner.bucketEnd) == 0)
+        owner.bucketEnd = bucketEndWithout(owner, entry, owner.bucketEnd);
+      updatePath(owner);
+    }
+
+    entry.bucketPrev.bucketNext = next;
+    next.bucketPrev = entry.bucketPrev;
+    entry.bucketNext = entry;
+    entry.bucketPrev = entry;
+    entry.linked = false;
+    entry.parent = null;
+    entry.leftChild = null;
+    entry.rightChild = null;
+    nodes--;
+  }
+
+  /**
+   * Unlinks the node from the Red-Black Tree. Such cases are similar to the
+   * binary search tree, with the node holding no children, one child, or
+   * two. A node with two children first trades places with its in order
+   * predecessor, which has at most one child, so the node itself is always
+   * what leaves the tree and handles to every other node stay valid.
+   * @param remNode The node to remove.
+   */
+  private void removeNode(Node remNode)
+  {
+    // the successor of the leftmost node is the next leftmost node, and
+    // the rotations below never change the in order sequence.
+    if(remNode == first)
+      first = getInOrderSuccessor(remNode);
+
+    // Case 3: If node has both children!!
+    if(isFull(remNode))
+      swapWithPredecessor(remNode, getInOrderPredecessor(remNode));
+
+    // the node stays in place during the fix up below, so it stops counting
+    // itself now, and the sizes from its new place up to the root are redone.
+    remNode.count = 0;
+    updatePath(remNode);
+
+    // Case 1 and 2: the node now has at most 1 child!!
+    // Assume null children are empty black leaf nodes.
+    Node child = ((remNode.rightChild == null) ? remNode.leftChild :
+            remNode.rightChild);
+    // Check if node to be removed is black, then already invariant
+    // 5 is going to be broken once we removed this node.
+    if(remNode.color == COLOR.BLACK)
+    {
+      // Change color to that of the child and proceed to first
+      // remove case checkpoint.
+      remNode.color = getNodeColor(child);
+      rBRemoveCase1(remNode);
+    }
+    // Since child is null, we set remNodes parent pointer to null.
+    replaceParent(remNode, child);
 
     if(root != null)
       root.color = COLOR.BLACK;
+  }
 
-    return result;
+  /**
+   * Trades the places and colors of a node with two children and its in
+   * order predecessor, leaving the node where the predecessor was with at
+   * most a left child. Keys and values stay with their nodes.
+   * @param node The node with two children.
+   * @param pred The in order predecessor of node.
+   */
+  private void swapWithPredecessor(Node node, Node pred)
+  {
+    COLOR color = node.color;
+    node.color = pred.color;
+    pred.color = color;
+
+    Node nodeLeft = node.leftChild;
+    Node nodeRight = node.rightChild;
+    Node predParent = pred.parent;
+    Node predLeft = pred.leftChild;
+
+    replaceParent(node, pred);
+    if(pred == nodeLeft)
+    {
+      pred.leftChild = node;
+      node.parent = pred;
+    }
+    else
+    {
+      pred.leftChild = nodeLeft;
+      nodeLeft.parent = pred;
+      predParent.rightChild = node;
+      node.parent = predParent;
+    }
+    pred.rightChild = nodeRight;
+    nodeRight.parent = pred;
+
+    node.leftChild = predLeft;
+    if(predLeft != null)
+      predLeft.parent = node;
+    node.rightChild = null;
   }
 
   /**
@@ -635,46 +1321,75 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
     return currentNode;
   }
 
+  /**
+   * Grabs the in order successor of a node by walking its right subtree,
+   * or the parent pointers when it has none.
+   * @param node The node to find the in order successor of.
+   * @return The next node in key order, or null if node is the last.
+   */
+  private Node getInOrderSuccessor(Node node)
+  {
+    Node currentNode = node.rightChild;
+    if(currentNode != null)
+    {
+      while(currentNode.leftChild != null)
+        currentNode = currentNode.leftChild;
+      return currentNode;
+    }
+
+    currentNode = node;
+    while(currentNode.parent != null && currentNode == currentNode.parent.rightChild)
+      currentNode = currentNode.parent;
+    return currentNode.parent;
+  }
+
 //    private boolean childLess(Node node)
 //    {
 //        return node.leftChild == null && node.rightChild == null;
 //    }
 
   /**
-   * Looks up the node for use or to extract the value of the node.
+   * Looks up the node for use or to extract the value of the node. When
+   * several nodes share the key, the leftmost one is found, which is the
+   * one added first.
    * @param key The key used to find the node in the Red-Black tree.
-   * @return The node that corresponds to the key.
+   * @return The node that corresponds to the key, or null if none does.
    */
   private Node nodeLookUp(K key)
   {
     Node currentNode = root;
+    Node found = null;
 
-    while( currentNode != null && currentNode.key.compareTo(key) != 0)
+    while( currentNode != null )
     {
-      if( currentNode.key.compareTo(key) < 0)
+      int cmp = currentNode.key.compareTo(key);
+      if( cmp < 0 )
         currentNode = currentNode.rightChild;
       else
+      {
+        // keep going left in case an older entry shares the key.
+        if( cmp == 0 )
+          found = currentNode;
         currentNode = currentNode.leftChild;
+      }
     }
 
-    return currentNode;
+    return found;
   }
 
   /**
    * Looks up the value of a node by the key. If no value is found that
-   * corresponds to the key, we must simply return null.
+   * corresponds to the key, we must simply return null. With several
+   * entries for the key, the value of the one added first is returned.
    * @param key The key used to find the value in the Red-Black Tree.
    * @return The value that corresponds to the key.
    */
   @Override
   public V lookup(K key)
   {
-    V result = null;
-
-    if( nodes > 0 )
-      result = nodeLookUp(key).value;
+    Node node = nodeLookUp(key);
 
-    return result;
+    return (node == null) ? null : node.value;
   }
 
   /**
@@ -728,43 +1443,571 @@ public class BalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
   }
 
   /**
-   * Returns a pyramid structured string diagram of the Red-Black Tree.
-   * @return The Red-Black Tree in a pyramid fashion.
+   * Walks every entry in key order, entries with equal keys in the order
+   * they were added. The walk follows parent pointers, so it needs no stack
+   * and allocates nothing past the iterator itself. The tree must not be
+   * changed during the walk other than through the iterator's remove.
+   * @return An iterator over all entries in key order.
    */
   @Override
-  public String toPrettyString()
+  public Iterator<Map.Entry<K,V>> iterator()
+  {
+    return new EntryIterator(first, null);
+  }
+
+  /**
+   * A live view of the entries with keys strictly less than hi.
+   * @param hi The key that ends the view, not included.
+   * @return The view of the entries before hi.
+   * @throws NullPointerException If hi is null.
+   */
+  public View headMap(K hi)
+  {
+    if(hi == null)
+      throw new NullPointerException("bound must not be null");
+    return new View(null, hi);
+  }
+
+  /**
+   * A live view of the entries with keys from lo, included, up to hi, not
+   * included.
+   * @param lo The key that starts the view, included.
+   * @param hi The key that ends the view, not included.
+   * @return The view of the entries in the range.
+   * @throws NullPointerException If a bound is null.
+   */
+  public View subMap(K lo, K hi)
+  {
+    if(lo == null || hi == null)
+      throw new NullPointerException("bounds must not be null");
+    return new View(lo, hi);
+  }
+
+  /**
+   * Counts the entries whose keys are strictly less than the key, which is
+   * also the position the first entry with the key has in key order.
+   * @param key The key to rank.
+   * @return The number of entries before the key.
+   */
+  public int rank(K key)
   {
-    String treeString = "";
-    int items = 0;
-    int levelLimit = 1;
+    int rank = 0;
+    Node currentNode = root;
 
-    if(nodes > 0)
+    while(currentNode != null)
     {
-      LinkedList<Node> queue = new LinkedList<>();
-      queue.add(root);
+      if(currentNode.key.compareTo(key) < 0)
+      {
+        // everything on the left and the node's own bucket come first.
+        rank += sizeOf(currentNode.leftChild) + currentNode.count;
+        currentNode = currentNode.rightChild;
+      }
+      else
+        currentNode = currentNode.leftChild;
+    }
+    return rank;
+  }
 
-      while(!queue.isEmpty())
+  /**
+   * Finds the entry at a position in key order, such as the entry at the
+   * 90th percentile of the deadlines. Inside a bucket the entries are
+   * counted off one by one.
+   * @param index The position, counting from 0.
+   * @return The entry at the position.
+   * @throws IndexOutOfBoundsException If index is negative or not less than
+   * the number of entries.
+   */
+  public Map.Entry<K,V> select(int index)
+  {
+    if(index < 0 || index >= nodes)
+      throw new IndexOutOfBoundsException("index " + index + ", size " + nodes);
+    Node currentNode = root;
+
+    while(true)
+    {
+      int left = sizeOf(currentNode.leftChild);
+      if(index < left)
+        currentNode = currentNode.leftChild;
+      else if(index < left + currentNode.count)
       {
-        Node traverse = queue.removeFirst();
-        items++;
-        if(items >= levelLimit)
-        {
-          treeString += "\n";
-          levelLimit *= 2;
+        Node entry = currentNode;
+        for(int i = left; i < index; i++)
+          entry = entry.bucketNext;
+        return entry;
+      }
+      else
+      {
+        index -= left + currentNode.count;
+        currentNode = currentNode.rightChild;
+      }
+    }
+  }
 
-        }
+  /**
+   * Finds the leftmost tree node whose key is not less than the key.
+   * @param key The lowest key of interest.
+   * @return The first node at or after key, or null if there is none.
+   */
+  private Node ceilingNode(K key)
+  {
+    Node currentNode = root;
+    Node found = null;
 
-        if(traverse != null)
-        {
-          queue.add(traverse.leftChild);
-          queue.add(traverse.rightChild);
-          treeString += "[" + traverse.value + " "
-                  + traverse.color.name() + "] ";
-        }
-        else
-          treeString += "[NILL BLACK] ";
+    while(currentNode != null)
+    {
+      if(currentNode.key.compareTo(key) < 0)
+        currentNode = currentNode.rightChild;
+      else
+      {
+        found = currentNode;
+        currentNode = currentNode.leftChild;
       }
     }
-    return treeString;
+    return found;
+  }
+
+  /**
+   * A live view of the entries within a range of keys, as made by headMap
+   * and subMap. Its size is worked out from two ranks, so it costs
+   * O(log n) whatever the view holds.
+   */
+  public final class View implements Iterable<Map.Entry<K,V>>
+  {
+    /**
+     * The lowest key in the view, or null for no lower bound.
+     */
+    private final K lo;
+    /**
+     * The key that ends the view, not included.
+     */
+    private final K hi;
+
+    private View(K lo, K hi)
+    {
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    /**
+     * Walks the entries of the view in key order.
+     * @return An iterator over the entries in the range.
+     */
+    @Override
+    public Iterator<Map.Entry<K,V>> iterator()
+    {
+      return new EntryIterator((lo == null) ? first : ceilingNode(lo), hi);
+    }
+
+    /**
+     * The number of entries currently in the range.
+     * @return The number of entries in the view.
+     */
+    public int size()
+    {
+      int below = (lo == null) ? 0 : rank(lo);
+      return Math.max(0, rank(hi) - below);
+    }
+
+    /**
+     * Whether the range currently holds no entries.
+     * @return True if the view is empty.
+     */
+    public boolean isEmpty()
+    {
+      return size() == 0;
+    }
+  }
+
+  /**
+   * Walks the entries in key order, each tree node followed by the rest of
+   * its bucket, moving between tree nodes through the parent pointers.
+   */
+  private final class EntryIterator implements Iterator<Map.Entry<K,V>>
+  {
+    /**
+     * The key that ends the walk, not included, or null to walk to the end.
+     */
+    private final K hi;
+    /**
+     * The entry to return next, or null at the end.
+     */
+    private Node next;
+    /**
+     * The tree node whose bucket holds the next entry.
+     */
+    private Node nextTree;
+    /**
+     * The entry returned last, which remove takes out.
+     */
+    private Node last;
+
+    private EntryIterator(Node start, K hi)
+    {
+      this.hi = hi;
+      nextTree = start;
+      next = (start != null && (hi == null || start.key.compareTo(hi) < 0))
+              ? start : null;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<K,V> next()
+    {
+      if(next == null)
+        throw new NoSuchElementException();
+      last = next;
+      if(next.bucketNext != nextTree)
+        next = next.bucketNext;
+      else
+      {
+        nextTree = getInOrderSuccessor(nextTree);
+        next = (nextTree != null && (hi == null || nextTree.key.compareTo(hi) < 0))
+                ? nextTree : null;
+      }
+      return last;
+    }
+
+    @Override
+    public void remove()
+    {
+      if(last == null)
+        throw new IllegalStateException();
+      // the next entry of the bucket takes the tree node's place.
+      if(last == nextTree)
+        nextTree = last.bucketNext;
+      removeEntry(last);
+      last = null;
+    }
+  }
+
+  /**
+   * Writes the number of entries and then each key and value in key order,
+   * instead of the nodes with all their links. In interval mode each entry's
+   * end follows its key.
+   * @param out The stream to write to.
+   * @throws IOException If the stream fails.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException
+  {
+    out.defaultWriteObject();
+    out.writeInt(nodes);
+    for(Node node = first; node != null; node = getInOrderSuccessor(node))
+    {
+      Node entry = node;
+      do
+      {
+        out.writeObject(entry.key);
+        if(intervals)
+          out.writeObject(entry.end);
+        out.writeObject(entry.value);
+        entry = entry.bucketNext;
+      }
+      while(entry != node);
+    }
+  }
+
+  /**
+   * Reads the entries written by {@link #writeObject} and builds the tree
+   * from them directly: in multimap mode each run of equal keys becomes one
+   * bucket, and the tree nodes are linked into a balanced tree in O(n)
+   * rather than added one at a time.
+   * @param in The stream to read from.
+   * @throws IOException If the stream fails.
+   * @throws ClassNotFoundException If a key or value class is missing.
+   * @throws InvalidObjectException If the entries are not in key order.
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    int count = in.readInt();
+    if(count < 0)
+      throw new InvalidObjectException("negative entry count: " + count);
+
+    List<Node> treeNodes = new ArrayList<>();
+    Node previous = null;
+    for(int i = 0; i < count; i++)
+    {
+      Node node = new Node();
+      node.key = (K) in.readObject();
+      node.end = intervals ? (K) in.readObject() : node.key;
+      node.value = (V) in.readObject();
+      node.linked = true;
+      if(node.key == null || node.end == null)
+        throw new InvalidObjectException("null key");
+      node.bucketEnd = node.end;
+      int cmp = (previous == null) ? 1 : node.key.compareTo(previous.key);
+      if(cmp < 0)
+        throw new InvalidObjectException("keys out of order at entry " + i);
+      if(multimap && cmp == 0)
+      {
+        // join the bucket of the tree node holding the previous entry.
+        Node bucket = treeNodes.get(treeNodes.size() - 1);
+        node.bucketPrev = bucket.bucketPrev;
+        node.bucketNext = bucket;
+        bucket.bucketPrev.bucketNext = node;
+        bucket.bucketPrev = node;
+        bucket.count++;
+        if(intervals)
+          bucket.bucketEnd = later(bucket.bucketEnd, node.end);
+      }
+      else
+        treeNodes.add(node);
+      previous = node;
+    }
+
+    nodes = count;
+    first = treeNodes.isEmpty() ? null : treeNodes.get(0);
+    // with the middle of every range as its root, all levels but the deepest
+    // are full; painting just the deepest level red keeps the black heights
+    // equal whether or not it is full.
+    int redDepth = 31 - Integer.numberOfLeadingZeros(Math.max(treeNodes.size(), 1));
+    root = buildBalanced(treeNodes, 0, treeNodes.size() - 1, 0, redDepth);
+    if(root != null)
+    {
+      root.parent = null;
+      root.color = COLOR.BLACK;
+    }
+  }
+
+  /**
+   * Links the sorted tree nodes of a range into a balanced subtree, setting
+   * the colors and subtree sizes on the way back up.
+   * @param sorted The tree nodes in key order.
+   * @param low The first index of the range.
+   * @param high The last index of the range.
+   * @param depth The depth the subtree root goes at.
+   * @param redDepth The depth of the deepest level, which is painted red.
+   * @return The root of the subtree, or null for an empty range.
+   */
+  private Node buildBalanced(List<Node> sorted, int low, int high, int depth, int redDepth)
+  {
+    if(low > high)
+      return null;
+    int middle = (low + high) >>> 1;
+    Node node = sorted.get(middle);
+    node.color = (depth == redDepth && depth > 0) ? COLOR.RED : COLOR.BLACK;
+    node.leftChild = buildBalanced(sorted, low, middle - 1, depth + 1, redDepth);
+    node.rightChild = buildBalanced(sorted, middle + 1, high, depth + 1, redDepth);
+    if(node.leftChild != null)
+      node.leftChild.parent = node;
+    if(node.rightChild != null)
+      node.rightChild.parent = node;
+    updateAugment(node);
+    return node;
+  }
+
+  /**
+   * Walks the whole tree and checks everything the other methods rely on:
+   * the five Red-Black Tree invariants, the parent links, the key order,
+   * the buckets, the entry counts and subtree sizes, the cached leftmost
+   * node and, in interval mode, the latest ends. This costs O(n), so it is
+   * meant for tests rather than for the game loop.
+   * @throws IllegalStateException If something is broken, saying what.
+   */
+  void checkInvariants()
+  {
+    if(root != null && root.parent != null)
+      throw new IllegalStateException("root has a parent");
+    if(getNodeColor(root) != COLOR.BLACK)
+      throw new IllegalStateException("root is red");
+    checkSubtree(root, null);
+    if(sizeOf(root) != nodes)
+      throw new IllegalStateException("root counts " + sizeOf(root) + " entries, size is " + nodes);
+
+    Node leftmost = root;
+    while(leftmost != null && leftmost.leftChild != null)
+      leftmost = leftmost.leftChild;
+    if(first != leftmost)
+      throw new IllegalStateException("cached first is not the leftmost node");
+    // equal keys may sit on either side of each other once rotated, so the
+    // order is checked on the in order sequence rather than per node.
+    for(Node node = first; node != null; )
+    {
+      Node next = getInOrderSuccessor(node);
+      if(next != null)
+      {
+        int cmp = node.key.compareTo(next.key);
+        if(cmp > 0 || (cmp == 0 && multimap))
+          throw new IllegalStateException("keys out of order at " + node.key + ", " + next.key);
+      }
+      node = next;
+    }
+  }
+
+  /**
+   * Checks one subtree for {@link #checkInvariants()}.
+   * @param node The root of the subtree, or null.
+   * @param parent The node the subtree should hang from.
+   * @return The black height of the subtree, counting the null leaves.
+   * @throws IllegalStateException If something is broken, saying what.
+   */
+  private int checkSubtree(Node node, Node parent)
+  {
+    if(node == null)
+      return 1;
+    if(node.parent != parent)
+      throw new IllegalStateException("bad parent link at " + node.key);
+    if(!node.linked)
+      throw new IllegalStateException("unlinked node in the tree at " + node.key);
+    if(node.color == COLOR.RED && (getNodeColor(node.leftChild) == COLOR.RED
+            || getNodeColor(node.rightChild) == COLOR.RED))
+      throw new IllegalStateException("red node with a red child at " + node.key);
+
+    int count = 0;
+    K latest = null;
+    Node entry = node;
+    do
+    {
+      if(entry.bucketNext.bucketPrev != entry)
+        throw new IllegalStateException("broken bucket ring at " + node.key);
+      if(entry != node && (!entry.linked || entry.parent != null || entry.leftChild != null
+              || entry.rightChild != null || entry.key.compareTo(node.key) != 0))
+        throw new IllegalStateException("bad bucket entry at " + node.key);
+      if(intervals)
+      {
+        if(entry.end == null || entry.end.compareTo(entry.key) < 0)
+          throw new IllegalStateException("interval ends before it starts at " + entry.key);
+        latest = later(latest, entry.end);
+      }
+      count++;
+      entry = entry.bucketNext;
+    }
+    while(entry != node && count <= nodes);
+    if(count != node.count || (!multimap && count != 1))
+      throw new IllegalStateException("bucket of " + node.key + " holds " + count
+              + " entries, counted " + node.count);
+
+    int leftHeight = checkSubtree(node.leftChild, node);
+    int rightHeight = checkSubtree(node.rightChild, node);
+    if(leftHeight != rightHeight)
+      throw new IllegalStateException("black heights differ below " + node.key);
+    if(node.size != node.count + sizeOf(node.leftChild) + sizeOf(node.rightChild))
+      throw new IllegalStateException("wrong subtree size at " + node.key);
+    if(intervals)
+    {
+      if(node.bucketEnd.compareTo(latest) != 0)
+        throw new IllegalStateException("wrong bucket end at " + node.key);
+      K maxEnd = latest;
+      if(node.leftChild != null)
+        maxEnd = later(maxEnd, node.leftChild.maxEnd);
+      if(node.rightChild != null)
+        maxEnd = later(maxEnd, node.rightChild.maxEnd);
+      if(node.maxEnd.compareTo(maxEnd) != 0)
+        throw new IllegalStateException("wrong subtree end at " + node.key);
+    }
+    return leftHeight + ((node.color == COLOR.BLACK) ? 1 : 0);
+  }
+
+  /**
+   * Returns a pyramid structured string diagram of the Red-Black Tree.
+   * @return The Red-Black Tree in a pyramid fashion.
+   */
+  @Override
+  public String toPrettyString()
+  {
+    StringBuilder treeString = new StringBuilder();
+    try
+    {
+      dump(treeString, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+    catch(IOException e)
+    {
+      // a StringBuilder never throws.
+      throw new AssertionError(e);
+    }
+    return treeString.toString();
+  }
+
+  /**
+   * Writes the pyramid diagram of {@link #toPrettyString()} straight to the
+   * given output, one line per level, without building the whole diagram in
+   * memory. Each level is written from the nodes of the level above, so the
+   * work is linear in what is written and only two levels are held at a time.
+   * Levels deeper than maxDepth are left out, and once maxEntries nodes have
+   * been written the output ends with "...", which keeps the diagram of a
+   * production sized tree small enough to read.
+   * @param out Where the diagram is written.
+   * @param maxDepth The deepest level to write, the root being at depth 0.
+   * @param maxEntries The most nodes to write.
+   * @throws IOException If the output fails.
+   * @throws IllegalArgumentException If a limit is negative.
+   */
+  public void dump(Appendable out, int maxDepth, int maxEntries)
+          throws IOException
+  {
+    if(maxDepth < 0 || maxEntries < 0)
+      throw new IllegalArgumentException("limits must not be negative");
+    if(root == null)
+      return;
+
+    int left = maxEntries;
+    List<Node> level = new ArrayList<>();
+    List<Node> below = new ArrayList<>();
+    level.add(root);
+    out.append('\n');
+    left = dumpNode(out, root, left);
+
+    // each pass writes the children of level, null children included, and
+    // keeps the real ones for the next pass.
+    for(int depth = 1; depth <= maxDepth && left >= 0 && !level.isEmpty();
+        depth++)
+    {
+      out.append('\n');
+      for(int i = 0; i < level.size() && left >= 0; i++)
+      {
+        Node node = level.get(i);
+        left = dumpNode(out, node.leftChild, left);
+        if(left >= 0)
+          left = dumpNode(out, node.rightChild, left);
+        if(node.leftChild != null)
+          below.add(node.leftChild);
+        if(node.rightChild != null)
+          below.add(node.rightChild);
+      }
+      List<Node> swap = level;
+      level = below;
+      below = swap;
+      below.clear();
+    }
+  }
+
+  /**
+   * Writes one node of the diagram, or the NILL leaf if node is null. A node
+   * with a bucket is followed by the number of other entries in it.
+   * @param out Where the diagram is written.
+   * @param node The node to write, possibly null.
+   * @param left How many more nodes may be written.
+   * @return How many more nodes may be written after this one, or -1 if
+   * the limit was reached and "..." was written instead.
+   * @throws IOException If the output fails.
+   */
+  private int dumpNode(Appendable out, Node node, int left) throws IOException
+  {
+    if(left == 0)
+    {
+      out.append("...");
+      return -1;
+    }
+    if(node == null)
+    {
+      out.append("[NILL BLACK] ");
+      return left - 1;
+    }
+    out.append('[').append(String.valueOf(node.value)).append(' ')
+            .append(node.color.name());
+    // a bucket shows how many more entries share the key.
+    int more = 0;
+    for(Node entry = node.bucketNext; entry != node; entry = entry.bucketNext)
+      more++;
+    if(more > 0)
+      out.append(" +").append(String.valueOf(more));
+    out.append("] ");
+    return left - 1;
   }
 }
@@ -0,0 +1,1049 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Red-Black Tree kept in parallel arrays instead of node objects. A node is
+ * an index into the arrays: its key and value sit in two object arrays, its
+ * links and subtree size in int arrays, and its color is one bit of a long
+ * array. Freed indices go on a free list and are handed out again, so once
+ * the arrays have grown to the working set, adding, removing and polling
+ * entries allocate nothing, and neighbouring nodes tend to share cache
+ * lines. Insertion and removal fix the tree up in loops rather than through
+ * recursive cases.
+ * Equal keys are kept in insertion order and the leftmost node is cached,
+ * so the next due task is found in O(1). Every node counts the entries in
+ * its subtree, which gives rank and select in O(log n), and the entries can
+ * be walked in key order, as a whole or within a key range.
+ * It is not a drop-in for {@link BalancedScheduler}: it has no multimap
+ * mode, since every entry is a node of its own, and no interval entries,
+ * and the entries it hands out are copies rather than live nodes.
+ * @param <K> The key used for comparison, such as a deadline.
+ * @param <V> The value that will correspond with the key paired with it.
+ */
+public class CompactBalancedScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
+        Scheduler<K,V>, Iterable<Map.Entry<K,V>>
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Index of the sentinel that stands for every null child. It is always
+   * black, and removal may park a parent link on it while fixing up.
+   */
+  private static final int NIL = 0;
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private Object[] keys;
+  private Object[] values;
+  private int[] left;
+  private int[] right;
+  private int[] parent;
+  private int[] count;            // entries in the subtree of node i, 0 for the sentinel
+  private long[] red;             // bit i set when node i is red
+  private int[] generation;       // bumped when index i is freed, to spot stale handles
+
+  private int root = NIL;
+  private int first = NIL;        // the leftmost node, holding the next due task
+  private int size;
+  private int used = 1;           // indices below this have been handed out at least once
+  private int free = NIL;         // head of the free list, linked through right
+
+  /**
+   * A scheduled entry's index together with the generation it was handed
+   * out in, so the handle goes stale once the index is reused.
+   */
+  private static final class Slot implements Scheduler.Handle
+  {
+    private final CompactBalancedScheduler<?,?> owner;
+    private final int index;
+    private final int generation;
+
+    private Slot(CompactBalancedScheduler<?,?> owner, int index, int generation)
+    {
+      this.owner = owner;
+      this.index = index;
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * Creates an empty tree with room for a few entries.
+   */
+  public CompactBalancedScheduler()
+  {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates an empty tree with room for the given number of entries before
+   * the arrays have to grow.
+   * @param capacity The number of entries to make room for.
+   * @throws IllegalArgumentException If capacity is negative.
+   */
+  public CompactBalancedScheduler(int capacity)
+  {
+    if(capacity < 0)
+      throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+    int length = capacity + 1;     // the sentinel takes index 0
+    keys = new Object[length];
+    values = new Object[length];
+    left = new int[length];
+    right = new int[length];
+    parent = new int[length];
+    count = new int[length];
+    generation = new int[length];
+    red = new long[(length + 63) >>> 6];
+  }
+
+  /**
+   * Adds the key and value, after any entries with an equal key.
+   * @param key The key used to store the value; a null key is ignored.
+   * @param value The data that is to be stored.
+   */
+  @Override
+  public void add(K key, V value)
+  {
+    if(key == null)
+      return;
+    insert(key, value);
+  }
+
+  /**
+   * Adds the pairs of a sorted batch, searching for each pair's place from
+   * the lowest ancestor of the previous pair's node whose subtree holds it.
+   * Null keys are skipped, as in add.
+   * @param sortedBatch The pairs to add, in ascending key order.
+   * @throws IllegalArgumentException If the batch is not in key order, in
+   * which case nothing is added.
+   */
+  @Override
+  public void addAll(List<? extends Map.Entry<K,V>> sortedBatch)
+  {
+    // walked with the list's own iterator, since get(i) is linear on some lists
+    K previous = null;
+    int i = 0;
+    for(Map.Entry<K,V> entry : sortedBatch)
+    {
+      K key = entry.getKey();
+      if(key != null)
+      {
+        if(previous != null && previous.compareTo(key) > 0)
+          throw new IllegalArgumentException("batch is not sorted at index " + i);
+        previous = key;
+      }
+      i++;
+    }
+
+    int finger = NIL;
+    for(Map.Entry<K,V> entry : sortedBatch)
+    {
+      K key = entry.getKey();
+      if(key == null)
+        continue;
+      int start = root;
+      if(finger != NIL)
+      {
+        // climb past right children and parents that sort before the key
+        start = finger;
+        while(parent[start] != NIL && (start == right[parent[start]]
+                || key(parent[start]).compareTo(key) <= 0))
+          start = parent[start];
+      }
+      finger = insert(key, entry.getValue(), start);
+    }
+  }
+
+  /**
+   * Schedules the task, after any tasks with an equal deadline.
+   * @param deadline The point at which the task becomes due.
+   * @param task The task to hand back once due.
+   * @return The handle used to cancel the task.
+   * @throws NullPointerException If the deadline is null.
+   */
+  @Override
+  public Handle schedule(K deadline, V task)
+  {
+    if(deadline == null)
+      throw new NullPointerException("deadline must not be null");
+    int node = insert(deadline, task);
+    return new Slot(this, node, generation[node]);
+  }
+
+  /**
+   * Removes the entry added first among those with the key.
+   * @param key The key to remove.
+   * @return The value of the removed entry, or null if the key is absent.
+   */
+  @Override
+  public V remove(K key)
+  {
+    int node = find(key);
+    if(node == NIL)
+      return null;
+    V value = value(node);
+    delete(node);
+    return value;
+  }
+
+  /**
+   * Removes every entry whose key is at least lo and below hi, stepping to
+   * each next entry through the links rather than searching for it.
+   * @param lo The lowest key to remove, inclusive.
+   * @param hi The key to stop at, exclusive.
+   * @return The number of entries removed.
+   * @throws NullPointerException If a bound is null.
+   */
+  @Override
+  public int removeRange(K lo, K hi)
+  {
+    if(lo == null || hi == null)
+      throw new NullPointerException("bounds must not be null");
+    int next = ceiling(lo);
+    int removed = 0;
+    // a deleted node's successor keeps its index when it moves up
+    while(next != NIL && key(next).compareTo(hi) < 0)
+    {
+      int x = next;
+      next = successor(x);
+      delete(x);
+      removed++;
+    }
+    return removed;
+  }
+
+  /**
+   * Looks up the value of the entry added first among those with the key.
+   * @param key The key to look up.
+   * @return The value, or null if the key is absent.
+   */
+  @Override
+  public V lookup(K key)
+  {
+    int node = find(key);
+    return (node == NIL) ? null : value(node);
+  }
+
+  /**
+   * Cancels the task behind the handle.
+   * @param handle The handle returned when the task was scheduled.
+   * @return True if the task was still scheduled, false if it had already
+   * been polled or cancelled, or belongs to another scheduler.
+   */
+  @Override
+  public boolean cancel(Handle handle)
+  {
+    if(!(handle instanceof Slot))
+      return false;
+    Slot slot = (Slot) handle;
+    if(slot.owner != this || generation[slot.index] != slot.generation)
+      return false;
+    delete(slot.index);
+    return true;
+  }
+
+  @Override
+  public V peekMin()
+  {
+    return (first == NIL) ? null : value(first);
+  }
+
+  @Override
+  public K peekDeadline()
+  {
+    return (first == NIL) ? null : key(first);
+  }
+
+  /**
+   * Removes the task that is due first.
+   * @return The task with the earliest deadline, or null if none.
+   */
+  public V pollFirst()
+  {
+    if(first == NIL)
+      return null;
+    V value = value(first);
+    delete(first);
+    return value;
+  }
+
+  /**
+   * Removes every task whose deadline is at or before now, handing each to
+   * the sink in deadline order. Each task is removed before the sink sees
+   * it, so the sink may schedule or cancel freely; a task it schedules that
+   * is already due is handed out by this same call.
+   * @param now The current time.
+   * @param sink Receives the due tasks.
+   * @return The number of tasks handed to the sink.
+   */
+  @Override
+  public int pollDue(K now, EventSink<K,V> sink)
+  {
+    int polled = 0;
+    while(first != NIL && key(first).compareTo(now) <= 0)
+    {
+      K key = key(first);
+      V value = value(first);
+      delete(first);
+      sink.accept(key, value);
+      polled++;
+    }
+    return polled;
+  }
+
+  @Override
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Walks every entry in key order, entries with equal keys in the order
+   * they were added, stepping between nodes through the parent links. Each
+   * entry handed out is a copy; the tree must not be changed during the
+   * walk other than through the iterator's remove.
+   * @return An iterator over all entries in key order.
+   */
+  @Override
+  public Iterator<Map.Entry<K,V>> iterator()
+  {
+    return new EntryIterator(first, null);
+  }
+
+  /**
+   * A live view of the entries with keys strictly less than hi.
+   * @param hi The key that ends the view, not included.
+   * @return The view of the entries before hi.
+   * @throws NullPointerException If hi is null.
+   */
+  public View headMap(K hi)
+  {
+    if(hi == null)
+      throw new NullPointerException("bound must not be null");
+    return new View(null, hi);
+  }
+
+  /**
+   * A live view of the entries with keys from lo, included, up to hi, not
+   * included.
+   * @param lo The key that starts the view, included.
+   * @param hi The key that ends the view, not included.
+   * @return The view of the entries in the range.
+   * @throws NullPointerException If a bound is null.
+   */
+  public View subMap(K lo, K hi)
+  {
+    if(lo == null || hi == null)
+      throw new NullPointerException("bounds must not be null");
+    return new View(lo, hi);
+  }
+
+  /**
+   * Counts the entries whose keys are strictly less than the key, which is
+   * also the position the first entry with the key has in key order.
+   * @param key The key to rank.
+   * @return The number of entries before the key.
+   */
+  public int rank(K key)
+  {
+    int rank = 0;
+    int x = root;
+    while(x != NIL)
+    {
+      if(key(x).compareTo(key) < 0)
+      {
+        rank += count[left[x]] + 1;
+        x = right[x];
+      }
+      else
+        x = left[x];
+    }
+    return rank;
+  }
+
+  /**
+   * Finds the entry at a position in key order.
+   * @param index The position, counting from 0.
+   * @return A copy of the entry at the position.
+   * @throws IndexOutOfBoundsException If index is negative or not less than
+   * the number of entries.
+   */
+  public Map.Entry<K,V> select(int index)
+  {
+    if(index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+    int x = root;
+    while(index != count[left[x]])
+    {
+      if(index < count[left[x]])
+        x = left[x];
+      else
+      {
+        index -= count[left[x]] + 1;
+        x = right[x];
+      }
+    }
+    return entry(x);
+  }
+
+  /**
+   * A live view of the entries within a range of keys, as made by headMap
+   * and subMap. Its size is worked out from two ranks, so it costs
+   * O(log n) whatever the view holds.
+   */
+  public final class View implements Iterable<Map.Entry<K,V>>
+  {
+    /**
+     * The lowest key in the view, or null for no lower bound.
+     */
+    private final K lo;
+    /**
+     * The key that ends the view, not included.
+     */
+    private final K hi;
+
+    private View(K lo, K hi)
+    {
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    /**
+     * Walks the entries of the view in key order.
+     * @return An iterator over the entries in the range.
+     */
+    @Override
+    public Iterator<Map.Entry<K,V>> iterator()
+    {
+      return new EntryIterator((lo == null) ? first : ceiling(lo), hi);
+    }
+
+    /**
+     * The number of entries currently in the range.
+     * @return The number of entries in the view.
+     */
+    public int size()
+    {
+      int below = (lo == null) ? 0 : rank(lo);
+      return Math.max(0, rank(hi) - below);
+    }
+
+    /**
+     * Whether the range currently holds no entries.
+     * @return True if the view is empty.
+     */
+    public boolean isEmpty()
+    {
+      return size() == 0;
+    }
+  }
+
+  /**
+   * Walks the nodes in key order up to a key, handing out a copy of each
+   * entry. A removed node's successor keeps its index, so the next node
+   * stays valid across remove.
+   */
+  private final class EntryIterator implements Iterator<Map.Entry<K,V>>
+  {
+    /**
+     * The key that ends the walk, not included, or null to walk to the end.
+     */
+    private final K hi;
+    /**
+     * The node to return next, or the sentinel at the end.
+     */
+    private int next;
+    /**
+     * The node returned last, which remove takes out.
+     */
+    private int last = NIL;
+
+    private EntryIterator(int start, K hi)
+    {
+      this.hi = hi;
+      next = within(start);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return next != NIL;
+    }
+
+    @Override
+    public Map.Entry<K,V> next()
+    {
+      if(next == NIL)
+        throw new NoSuchElementException();
+      last = next;
+      next = within(successor(next));
+      return entry(last);
+    }
+
+    @Override
+    public void remove()
+    {
+      if(last == NIL)
+        throw new IllegalStateException();
+      delete(last);
+      last = NIL;
+    }
+
+    // the node itself if it comes before hi, else the sentinel
+    private int within(int x)
+    {
+      return (x != NIL && (hi == null || key(x).compareTo(hi) < 0)) ? x : NIL;
+    }
+  }
+
+  // link a new red node below the last node met on the way down; equal keys
+  // go right so they stay in insertion order
+  private int insert(K key, V value)
+  {
+    return insert(key, value, root);
+  }
+
+  // as above, searching down from start, whose subtree must hold the place
+  private int insert(K key, V value, int start)
+  {
+    int z = allocate();
+    keys[z] = key;
+    values[z] = value;
+
+    int y = NIL;
+    int x = start;
+    boolean goLeft = false;
+    while(x != NIL)
+    {
+      y = x;
+      goLeft = key(x).compareTo(key) > 0;
+      x = goLeft ? left[x] : right[x];
+    }
+    parent[z] = y;
+    if(y == NIL)
+      root = z;
+    else if(goLeft)
+      left[y] = z;
+    else
+      right[y] = z;
+    left[z] = NIL;
+    right[z] = NIL;
+    count[z] = 1;
+    for(int p = y; p != NIL; p = parent[p])
+      count[p]++;
+    setRed(z, true);
+
+    if(first == NIL || key(first).compareTo(key) > 0)
+      first = z;
+    size++;
+    insertFixup(z);
+    return z;
+  }
+
+  // restore the red-black properties after inserting the red node z
+  private void insertFixup(int z)
+  {
+    while(isRed(parent[z]))
+    {
+      int p = parent[z];
+      int g = parent[p];
+      if(p == left[g])
+      {
+        int uncle = right[g];
+        if(isRed(uncle))
+        {
+          // red uncle: push the red up to the grandparent and go on from there
+          setRed(p, false);
+          setRed(uncle, false);
+          setRed(g, true);
+          z = g;
+        }
+        else
+        {
+          if(z == right[p])
+          {
+            z = p;
+            rotateLeft(z);
+            p = parent[z];
+          }
+          setRed(p, false);
+          setRed(g, true);
+          rotateRight(g);
+        }
+      }
+      else
+      {
+        int uncle = left[g];
+        if(isRed(uncle))
+        {
+          setRed(p, false);
+          setRed(uncle, false);
+          setRed(g, true);
+          z = g;
+        }
+        else
+        {
+          if(z == left[p])
+          {
+            z = p;
+            rotateRight(z);
+            p = parent[z];
+          }
+          setRed(p, false);
+          setRed(g, true);
+          rotateLeft(g);
+        }
+      }
+    }
+    setRed(root, false);
+  }
+
+  // unlink node z by moving nodes rather than copying entries, so every
+  // other index keeps its entry, then free z
+  private void delete(int z)
+  {
+    if(z == first)
+      first = successor(z);
+
+    int y = z;
+    boolean removedRed = isRed(y);
+    int x;
+    if(left[z] == NIL)
+    {
+      x = right[z];
+      uncount(parent[z], NIL);
+      transplant(z, x);
+    }
+    else if(right[z] == NIL)
+    {
+      x = left[z];
+      uncount(parent[z], NIL);
+      transplant(z, x);
+    }
+    else
+    {
+      // the successor takes z's place and color, and z's count less one
+      y = minimum(right[z]);
+      uncount(parent[z], NIL);
+      uncount(parent[y], z);
+      count[y] = count[z] - 1;
+      removedRed = isRed(y);
+      x = right[y];
+      if(parent[y] == z)
+        parent[x] = y;
+      else
+      {
+        transplant(y, x);
+        right[y] = right[z];
+        parent[right[y]] = y;
+      }
+      transplant(z, y);
+      left[y] = left[z];
+      parent[left[y]] = y;
+      setRed(y, isRed(z));
+    }
+    if(!removedRed)
+      deleteFixup(x);
+
+    size--;
+    release(z);
+  }
+
+  // restore the red-black properties after a black node left from above x
+  private void deleteFixup(int x)
+  {
+    while(x != root && !isRed(x))
+    {
+      int p = parent[x];
+      if(x == left[p])
+      {
+        int w = right[p];
+        if(isRed(w))
+        {
+          setRed(w, false);
+          setRed(p, true);
+          rotateLeft(p);
+          w = right[p];
+        }
+        if(!isRed(left[w]) && !isRed(right[w]))
+        {
+          setRed(w, true);
+          x = p;
+        }
+        else
+        {
+          if(!isRed(right[w]))
+          {
+            setRed(left[w], false);
+            setRed(w, true);
+            rotateRight(w);
+            w = right[p];
+          }
+          setRed(w, isRed(p));
+          setRed(p, false);
+          setRed(right[w], false);
+          rotateLeft(p);
+          x = root;
+        }
+      }
+      else
+      {
+        int w = left[p];
+        if(isRed(w))
+        {
+          setRed(w, false);
+          setRed(p, true);
+          rotateRight(p);
+          w = left[p];
+        }
+        if(!isRed(left[w]) && !isRed(right[w]))
+        {
+          setRed(w, true);
+          x = p;
+        }
+        else
+        {
+          if(!isRed(left[w]))
+          {
+            setRed(right[w], false);
+            setRed(w, true);
+            rotateLeft(w);
+            w = left[p];
+          }
+          setRed(w, isRed(p));
+          setRed(p, false);
+          setRed(left[w], false);
+          rotateRight(p);
+          x = root;
+        }
+      }
+    }
+    setRed(x, false);
+  }
+
+  // take one off the counts from x up to, but not including, top
+  private void uncount(int x, int top)
+  {
+    for(; x != top; x = parent[x])
+      count[x]--;
+  }
+
+  // put v where u hangs; v may be the sentinel, whose parent is then set
+  private void transplant(int u, int v)
+  {
+    int p = parent[u];
+    if(p == NIL)
+      root = v;
+    else if(u == left[p])
+      left[p] = v;
+    else
+      right[p] = v;
+    parent[v] = p;
+  }
+
+  private void rotateLeft(int x)
+  {
+    int y = right[x];
+    right[x] = left[y];
+    if(left[y] != NIL)
+      parent[left[y]] = x;
+    transplant(x, y);
+    left[y] = x;
+    parent[x] = y;
+    count[y] = count[x];
+    count[x] = count[left[x]] + count[right[x]] + 1;
+  }
+
+  private void rotateRight(int x)
+  {
+    int y = left[x];
+    left[x] = right[y];
+    if(right[y] != NIL)
+      parent[right[y]] = x;
+    transplant(x, y);
+    right[y] = x;
+    parent[x] = y;
+    count[y] = count[x];
+    count[x] = count[left[x]] + count[right[x]] + 1;
+  }
+
+  private int minimum(int x)
+  {
+    while(left[x] != NIL)
+      x = left[x];
+    return x;
+  }
+
+  private int successor(int x)
+  {
+    if(right[x] != NIL)
+      return minimum(right[x]);
+    int p = parent[x];
+    while(p != NIL && x == right[p])
+    {
+      x = p;
+      p = parent[p];
+    }
+    return p;
+  }
+
+  // the leftmost node whose key is not less than the key
+  private int ceiling(K key)
+  {
+    int x = root;
+    int found = NIL;
+    while(x != NIL)
+    {
+      if(key(x).compareTo(key) < 0)
+        x = right[x];
+      else
+      {
+        found = x;
+        x = left[x];
+      }
+    }
+    return found;
+  }
+
+  // the leftmost node with the key, which is the one added first
+  private int find(K key)
+  {
+    int x = root;
+    int found = NIL;
+    while(x != NIL)
+    {
+      int cmp = key(x).compareTo(key);
+      if(cmp < 0)
+        x = right[x];
+      else
+      {
+        if(cmp == 0)
+          found = x;
+        x = left[x];
+      }
+    }
+    return found;
+  }
+
+  // take an index off the free list, or a fresh one, growing the arrays
+  private int allocate()
+  {
+    int z = free;
+    if(z != NIL)
+    {
+      free = right[z];
+      return z;
+    }
+    if(used == keys.length)
+      grow();
+    return used++;
+  }
+
+  private void release(int z)
+  {
+    keys[z] = null;
+    values[z] = null;
+    generation[z]++;
+    count[z] = 0;
+    left[z] = NIL;
+    parent[z] = NIL;
+    right[z] = free;
+    free = z;
+  }
+
+  private void grow()
+  {
+    int length = Math.max(2 * keys.length, DEFAULT_CAPACITY);
+    keys = Arrays.copyOf(keys, length);
+    values = Arrays.copyOf(values, length);
+    left = Arrays.copyOf(left, length);
+    right = Arrays.copyOf(right, length);
+    parent = Arrays.copyOf(parent, length);
+    count = Arrays.copyOf(count, length);
+    generation = Arrays.copyOf(generation, length);
+    red = Arrays.copyOf(red, (length + 63) >>> 6);
+  }
+
+  private boolean isRed(int x)
+  {
+    return (red[x >>> 6] & (1L << x)) != 0;
+  }
+
+  private void setRed(int x, boolean isRed)
+  {
+    // the sentinel stays black whatever the fix ups ask of it
+    if(isRed && x != NIL)
+      red[x >>> 6] |= 1L << x;
+    else
+      red[x >>> 6] &= ~(1L << x);
+  }
+
+  @SuppressWarnings("unchecked")
+  private K key(int x)
+  {
+    return (K) keys[x];
+  }
+
+  @SuppressWarnings("unchecked")
+  private V value(int x)
+  {
+    return (V) values[x];
+  }
+
+  private Map.Entry<K,V> entry(int x)
+  {
+    return new AbstractMap.SimpleImmutableEntry<>(key(x), value(x));
+  }
+
+  /**
+   * Walks the whole tree and the free list and checks everything the other
+   * methods rely on: the red-black properties, the parent links, the key
+   * order, the size, the subtree counts, the cached leftmost node, and that every index below
+   * used is either in the tree or free, never both. This costs O(n), so it
+   * is meant for tests rather than for the game loop.
+   * @throws IllegalStateException If something is broken, saying what.
+   */
+  void checkInvariants()
+  {
+    if(isRed(NIL) || count[NIL] != 0)
+      throw new IllegalStateException("sentinel is red or counted");
+    if(root != NIL && (parent[root] != NIL || isRed(root)))
+      throw new IllegalStateException("root is red or has a parent");
+    boolean[] seen = new boolean[used];
+    checkSubtree(root, NIL, seen);
+    int linked = 0;
+    for(boolean inTree : seen)
+      if(inTree)
+        linked++;
+    if(linked != size)
+      throw new IllegalStateException(linked + " nodes in the tree, size is " + size);
+
+    int freed = 0;
+    for(int z = free; z != NIL; z = right[z])
+    {
+      if(z >= used || seen[z] || keys[z] != null || values[z] != null)
+        throw new IllegalStateException("bad free index " + z);
+      seen[z] = true;
+      freed++;
+    }
+    if(size + freed != used - 1)
+      throw new IllegalStateException("indices lost: " + (used - 1 - size - freed));
+
+    if(first != ((root == NIL) ? NIL : minimum(root)))
+      throw new IllegalStateException("cached first is not the leftmost node");
+    for(int x = first; x != NIL; )
+    {
+      int next = successor(x);
+      if(next != NIL && key(x).compareTo(key(next)) > 0)
+        throw new IllegalStateException("keys out of order at " + key(x) + ", " + key(next));
+      x = next;
+    }
+  }
+
+  // check the subtree of x for checkInvariants, marking its indices in seen;
+  // returns its black height, counting the sentinel
+  private int checkSubtree(int x, int p, boolean[] seen)
+  {
+    if(x == NIL)
+      return 1;
+    if(x >= used || seen[x])
+      throw new IllegalStateException("index " + x + " is out of range or linked twice");
+    seen[x] = true;
+    if(parent[x] != p)
+      throw new IllegalStateException("bad parent link at index " + x);
+    if(keys[x] == null)
+      throw new IllegalStateException("null key at index " + x);
+    if(count[x] != count[left[x]] + count[right[x]] + 1)
+      throw new IllegalStateException("bad subtree count at index " + x);
+    if(isRed(x) && (isRed(left[x]) || isRed(right[x])))
+      throw new IllegalStateException("red node with a red child at index " + x);
+    int leftHeight = checkSubtree(left[x], x, seen);
+    int rightHeight = checkSubtree(right[x], x, seen);
+    if(leftHeight != rightHeight)
+      throw new IllegalStateException("black heights differ below index " + x);
+    return leftHeight + (isRed(x) ? 0 : 1);
+  }
+
+  /**
+   * Returns a pyramid structured string diagram of the tree, in the format
+   * of {@link BalancedScheduler#toPrettyString()}.
+   * @return The tree in a pyramid fashion.
+   */
+  @Override
+  public String toPrettyString()
+  {
+    StringBuilder treeString = new StringBuilder();
+    try
+    {
+      dump(treeString, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+    catch(IOException e)
+    {
+      // a StringBuilder never throws.
+      throw new AssertionError(e);
+    }
+    return treeString.toString();
+  }
+
+  /**
+   * Writes the pyramid diagram straight to the given output, one line per
+   * level, as {@link BalancedScheduler#dump} does.
+   * @param out Where the diagram is written.
+   * @param maxDepth The deepest level to write, the root being at depth 0.
+   * @param maxEntries The most nodes to write.
+   * @throws IOException If the output fails.
+   * @throws IllegalArgumentException If a limit is negative.
+   */
+  public void dump(Appendable out, int maxDepth, int maxEntries) throws IOException
+  {
+    if(maxDepth < 0 || maxEntries < 0)
+      throw new IllegalArgumentException("limits must not be negative");
+    if(root == NIL)
+      return;
+
+    int[] level = {root};
+    int width = 1;
+    out.append('\n');
+    int remaining = dumpNode(out, root, maxEntries);
+
+    for(int depth = 1; depth <= maxDepth && remaining >= 0 && width > 0; depth++)
+    {
+      out.append('\n');
+      int[] below = new int[2 * width];
+      int next = 0;
+      for(int i = 0; i < width && remaining >= 0; i++)
+      {
+        int x = level[i];
+        remaining = dumpNode(out, left[x], remaining);
+        if(remaining >= 0)
+          remaining = dumpNode(out, right[x], remaining);
+        if(left[x] != NIL)
+          below[next++] = left[x];
+        if(right[x] != NIL)
+          below[next++] = right[x];
+      }
+      level = below;
+      width = next;
+    }
+  }
+
+  private int dumpNode(Appendable out, int x, int remaining) throws IOException
+  {
+    if(remaining == 0)
+    {
+      out.append("...");
+      return -1;
+    }
+    if(x == NIL)
+      out.append("[NILL BLACK] ");
+    else
+      out.append('[').append(String.valueOf(values[x])).append(' ')
+              .append(isRed(x) ? "RED" : "BLACK").append("] ");
+    return remaining - 1;
+  }
+}
@@ -0,0 +1,368 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread safe B tree that lets the render thread read while game logic writes.
+ * It follows the optimistic lock coupling scheme: every node carries a version
+ * counter whose low bit doubles as a write latch. Readers never write to the
+ * tree, not even to a version: they note the version of each node on the way
+ * down and start over from the root if any of them changed. Writers descend the same way, split full nodes
+ * eagerly on the way down so a split only ever needs the node and its parent,
+ * and latch nothing but the nodes they actually change.
+ * Removals leave underfull nodes in place rather than merging them, which keeps
+ * every structural change local to one parent and child.
+ * @param <Key>
+ * @param <Value>
+ */
+public class ConcurrentBTree<Key extends Comparable<Key>, Value> {
+  // default max children per B-tree node = M-1
+  private static final int DEFAULT_ORDER = 16;
+
+  // how many restarts a thread spins through before yielding to the writer
+  private static final int SPINS_BEFORE_YIELD = 64;
+
+  private static final AtomicLongFieldUpdater<Node> VERSION =
+          AtomicLongFieldUpdater.newUpdater(Node.class, "version");
+
+  // max children per B-tree node = M-1
+  // (must be even and greater than 2)
+  private final int M;
+
+  private volatile Node root;       // root of the B-tree
+  private volatile int height;      // height of the B-tree
+  private final AtomicInteger n = new AtomicInteger();  // number of key-value pairs
+
+  // helper B-tree node data type
+  // internal nodes: keys[j] is a lower bound for the subtree next[j]
+  // (keys[0] is never consulted), external nodes: keys[j] maps to vals[j]
+  // Every slot is read and written as a volatile, so the loads a reader makes
+  // of a node stay ahead of its second, plain volatile read of the version;
+  // plain array loads could drift past it on ARM and let a torn read through.
+  private static final class Node {
+    // package-private so the field updater can reach it
+    volatile long version;                        // even when free, odd while latched
+    private volatile int m;                       // number of children
+    private final AtomicReferenceArray<Object> keys;  // the keys, kept contiguous for searching
+    private final AtomicReferenceArray<Object> vals;  // the values (leaves only)
+    private final AtomicReferenceArray<Node> next;    // the subtrees (internal nodes only)
+
+    // create a node with room for M children
+    private Node(int M, boolean leaf) {
+      keys = new AtomicReferenceArray<>(M);
+      vals = leaf ? new AtomicReferenceArray<>(M) : null;
+      next = leaf ? null : new AtomicReferenceArray<Node>(M);
+    }
+
+    private boolean isLeaf() {
+      return next == null;
+    }
+  }
+
+  /**
+   * Initializes an empty B-tree.
+   */
+  public ConcurrentBTree() {
+    this(DEFAULT_ORDER);
+  }
+
+  /**
+   * Initializes an empty B-tree whose nodes hold up to <tt>order - 1</tt> children.
+   *
+   * @param order the node capacity; must be even and greater than 2
+   * @throws IllegalArgumentException if <tt>order</tt> is odd or not greater than 2
+   */
+  public ConcurrentBTree(int order) {
+    if (order <= 2 || order % 2 != 0)
+      throw new IllegalArgumentException("order must be even and greater than 2: " + order);
+    M = order;
+    root = new Node(M, true);
+  }
+
+  /**
+   * Returns true if this symbol table is empty.
+   *
+   * @return <tt>true</tt> if this symbol table is empty; <tt>false</tt> otherwise
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Returns the number of key-value pairs in this symbol table.
+   *
+   * @return the number of key-value pairs in this symbol table
+   */
+  public int size() {
+    return n.get();
+  }
+
+  /**
+   * Returns the height of this B-tree (for debugging).
+   *
+   * @return the height of this B-tree
+   */
+  public int height() {
+    return height;
+  }
+
+  /**
+   * Returns the value associated with the given key. Never blocks; if a writer
+   * changes a node while it is being read the lookup starts over.
+   *
+   * @param key the key
+   * @return the value associated with the given key if the key is in the symbol table
+   * and <tt>null</tt> if the key is not in the symbol table
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  public Value get(Key key) {
+    if (key == null) throw new NullPointerException("key must not be null");
+    int restarts = 0;
+
+    restart:
+    while (true) {
+      if (++restarts % SPINS_BEFORE_YIELD == 0) Thread.yield();
+      Node node = root;
+      long v = node.version;
+      if (isLatched(v) || node != root) continue;
+
+      while (!node.isLeaf()) {
+        Node child = childFor(node, key);
+        if (child == null) continue restart;
+        long cv = child.version;
+        if (isLatched(cv) || node.version != v) continue restart;
+        node = child;
+        v = cv;
+      }
+
+      Value val = null;
+      int j = indexOf(node, key);
+      if (j >= 0) val = value(node, j);
+      if (node.version != v) continue;
+      return val;
+    }
+  }
+
+  /**
+   * Inserts the key-value pair into the symbol table, overwriting the old value
+   * with the new value if the key is already in the symbol table.
+   * If the value is <tt>null</tt>, this effectively deletes the key from the symbol table.
+   *
+   * @param key the key
+   * @param val the value
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  public void put(Key key, Value val) {
+    if (key == null) throw new NullPointerException("key must not be null");
+    if (val == null) {
+      remove(key);
+      return;
+    }
+
+    Node leaf;
+    while (true) {
+      leaf = latchLeaf(key);
+      if (leaf != null) break;
+    }
+
+    int j = indexOf(leaf, key);
+    if (j >= 0) {
+      leaf.vals.set(j, val);
+    } else {
+      j = -j - 1;
+      int m = leaf.m;
+      copy(leaf.keys, j, leaf.keys, j + 1, m - j);
+      copy(leaf.vals, j, leaf.vals, j + 1, m - j);
+      leaf.keys.set(j, key);
+      leaf.vals.set(j, val);
+      leaf.m = m + 1;
+      n.incrementAndGet();
+    }
+    unlatch(leaf);
+  }
+
+  /**
+   * Removes the key and its associated value from this symbol table.
+   *
+   * @param key the key
+   * @return the value that was associated with the key, or <tt>null</tt> if
+   * the key was not in the symbol table
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  public Value remove(Key key) {
+    if (key == null) throw new NullPointerException("key must not be null");
+
+    Node leaf;
+    while (true) {
+      leaf = latchLeaf(key);
+      if (leaf != null) break;
+    }
+
+    Value old = null;
+    int j = indexOf(leaf, key);
+    if (j >= 0) {
+      old = value(leaf, j);
+      int m = leaf.m;
+      copy(leaf.keys, j + 1, leaf.keys, j, m - j - 1);
+      copy(leaf.vals, j + 1, leaf.vals, j, m - j - 1);
+      // keys past m stay behind so a racing reader never meets a null key
+      leaf.vals.set(m - 1, null);
+      leaf.m = m - 1;
+      n.decrementAndGet();
+    }
+    unlatch(leaf);
+    return old;
+  }
+
+  // descend to the leaf for key and return it latched, splitting every full
+  // node met on the way so the leaf has room for one more key. Returns null
+  // when a version check failed and the caller has to start over.
+  private Node latchLeaf(Key key) {
+    Node node = root;
+    long v = node.version;
+    if (isLatched(v) || node != root) return backOff();
+    Node parent = null;
+    long pv = 0;
+
+    while (true) {
+      if (node.m == M - 1) {
+        if (parent != null && !latch(parent, pv)) return backOff();
+        if (!latch(node, v)) {
+          if (parent != null) unlatch(parent);
+          return backOff();
+        }
+        if (parent == null && node != root) {
+          unlatch(node);
+          return backOff();
+        }
+        split(parent, node);
+        unlatch(node);
+        if (parent != null) unlatch(parent);
+        return null;
+      }
+      if (node.isLeaf()) break;
+
+      // nothing above the parent can change what we are about to do
+      if (parent != null && parent.version != pv) return backOff();
+      parent = node;
+      pv = v;
+      node = childFor(parent, key);
+      if (node == null) return backOff();
+      v = node.version;
+      if (isLatched(v) || parent.version != pv) return backOff();
+    }
+
+    // the leaf's version is unchanged since its parent routed us here, so
+    // no split has moved our key elsewhere
+    if (!latch(node, v)) return backOff();
+    return node;
+  }
+
+  // split the latched, full node h in half and hang the new right half off
+  // the latched parent, or off a new root if h is the root
+  private void split(Node parent, Node h) {
+    int m = h.m;
+    int half = m / 2;
+    Node t = new Node(M, h.isLeaf());
+    copy(h.keys, half, t.keys, 0, m - half);
+    if (h.isLeaf()) copy(h.vals, half, t.vals, 0, m - half);
+    else copy(h.next, half, t.next, 0, m - half);
+    t.m = m - half;
+    h.m = half;
+
+    if (parent == null) {
+      Node r = new Node(M, false);
+      r.keys.set(0, h.keys.get(0));
+      r.next.set(0, h);
+      r.keys.set(1, t.keys.get(0));
+      r.next.set(1, t);
+      r.m = 2;
+      height++;
+      root = r;
+      return;
+    }
+
+    int pm = parent.m;
+    int j = 0;
+    while (parent.next.get(j) != h)
+      j++;
+    j++;
+    copy(parent.keys, j, parent.keys, j + 1, pm - j);
+    copy(parent.next, j, parent.next, j + 1, pm - j);
+    parent.keys.set(j, t.keys.get(0));
+    parent.next.set(j, t);
+    parent.m = pm + 1;
+  }
+
+  // route key through internal node h; may return null on a torn read
+  private Node childFor(Node h, Key key) {
+    int lo = 1;
+    int hi = h.m - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      Key k = key(h, mid);
+      if (k == null) return null;
+      if (key.compareTo(k) < 0) hi = mid - 1;
+      else lo = mid + 1;
+    }
+    return h.next.get(lo - 1);
+  }
+
+  // binary search of leaf h: the slot holding key, or -(insertion point) - 1
+  private int indexOf(Node h, Key key) {
+    int lo = 0;
+    int hi = h.m - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      Key k = key(h, mid);
+      // a torn read; the caller's version check will send it round again
+      if (k == null) return -(lo + 1);
+      int cmp = k.compareTo(key);
+      if (cmp < 0) lo = mid + 1;
+      else if (cmp > 0) hi = mid - 1;
+      else return mid;
+    }
+    return -(lo + 1);
+  }
+
+  private static boolean isLatched(long version) {
+    return (version & 1L) != 0;
+  }
+
+  // the slots only ever hold Keys and Values put there by put()
+  @SuppressWarnings("unchecked")
+  private Key key(Node h, int j) {
+    return (Key) h.keys.get(j);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Value value(Node h, int j) {
+    return (Value) h.vals.get(j);
+  }
+
+  // System.arraycopy for the slot arrays, safe when the two ranges overlap
+  private static <T> void copy(AtomicReferenceArray<T> src, int from, AtomicReferenceArray<T> dst, int to, int count) {
+    if (src == dst && from < to) {
+      for (int i = count - 1; i >= 0; i--) dst.set(to + i, src.get(from + i));
+    } else {
+      for (int i = 0; i < count; i++) dst.set(to + i, src.get(from + i));
+    }
+  }
+
+  // take the write latch if the node is still at the version we read
+  private static boolean latch(Node h, long version) {
+    return VERSION.compareAndSet(h, version, version + 1);
+  }
+
+  // release the write latch, publishing a new version
+  private static void unlatch(Node h) {
+    h.version = h.version + 1;
+  }
+
+  private Node backOff() {
+    Thread.yield();
+    return null;
+  }
+}
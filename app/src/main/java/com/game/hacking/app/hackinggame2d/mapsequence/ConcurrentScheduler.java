@@ -0,0 +1,310 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe alternative to {@link BalancedScheduler}, for events enqueued
+ * from several threads at once such as the network simulation and the UI
+ * handlers. Entries live in a lock-free {@link ConcurrentSkipListMap}, keyed
+ * by the caller's key together with a sequence number taken when the entry
+ * is added, so equal keys are kept in the order they were added and no two
+ * entries ever collide. Every removal, whether through {@link #remove},
+ * {@link #pollFirst}, {@link #pollDue} or {@link #cancel}, takes an entry out
+ * with a single atomic removal from the map, so each entry is handed to
+ * exactly one caller however many threads race for it.
+ * Adds and removals scale with threads because no lock is shared; the cost
+ * is a skip list step per level where the single threaded trees follow one
+ * pointer, so prefer {@link BalancedScheduler} when only one thread uses it.
+ * @param <K> The key used for comparison, such as a deadline.
+ * @param <V> The value that will correspond with the key paired with it.
+ */
+public class ConcurrentScheduler<K extends Comparable<K>, V> implements Tree<K,V>,
+        Scheduler<K,V>
+{
+  private static final long serialVersionUID = 1L;
+
+  // the map does not take null values, so a null value is stored as this
+  private enum Null { VALUE }
+
+  private final ConcurrentSkipListMap<Entry<K>, Object> map = new ConcurrentSkipListMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * A key of the map: the caller's key and the order it was added in. It is
+   * also the handle of a scheduled task.
+   */
+  private static final class Entry<K extends Comparable<K>> implements Comparable<Entry<K>>,
+          Scheduler.Handle, Serializable
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final transient ConcurrentScheduler<?,?> owner;
+    private final K key;
+    private final long sequence;
+
+    private Entry(ConcurrentScheduler<?,?> owner, K key, long sequence)
+    {
+      this.owner = owner;
+      this.key = key;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Entry<K> other)
+    {
+      int cmp = key.compareTo(other.key);
+      if(cmp != 0)
+        return cmp;
+      return (sequence < other.sequence) ? -1 : (sequence == other.sequence) ? 0 : 1;
+    }
+  }
+
+  /**
+   * Adds the key and value, after any entries with an equal key.
+   * @param key The key used to store the value; a null key is ignored.
+   * @param value The data that is to be stored.
+   */
+  @Override
+  public void add(K key, V value)
+  {
+    if(key == null)
+      return;
+    insert(key, value);
+  }
+
+  /**
+   * Adds the pairs of a sorted batch one at a time; other threads may see
+   * part of the batch before the rest. A skip list insert is already
+   * cheap, so the batch gains nothing from being sorted beyond locality.
+   * Null keys are skipped, as in add.
+   * @param sortedBatch The pairs to add, in ascending key order.
+   * @throws IllegalArgumentException If the batch is not in key order, in
+   * which case nothing is added.
+   */
+  @Override
+  public void addAll(List<? extends Map.Entry<K,V>> sortedBatch)
+  {
+    // walked with the list's own iterator, since get(i) is linear on some lists
+    K previous = null;
+    int i = 0;
+    for(Map.Entry<K,V> entry : sortedBatch)
+    {
+      K key = entry.getKey();
+      if(key != null)
+      {
+        if(previous != null && previous.compareTo(key) > 0)
+          throw new IllegalArgumentException("batch is not sorted at index " + i);
+        previous = key;
+      }
+      i++;
+    }
+    for(Map.Entry<K,V> entry : sortedBatch)
+      add(entry.getKey(), entry.getValue());
+  }
+
+  /**
+   * Schedules the task, after any tasks with an equal deadline.
+   * @param deadline The point at which the task becomes due.
+   * @param task The task to hand back once due.
+   * @return The handle used to cancel the task.
+   * @throws NullPointerException If the deadline is null.
+   */
+  @Override
+  public Handle schedule(K deadline, V task)
+  {
+    if(deadline == null)
+      throw new NullPointerException("deadline must not be null");
+    return insert(deadline, task);
+  }
+
+  /**
+   * Removes the entry added first among those with the key. Should another
+   * thread take that entry first, the next one with the key is tried.
+   * @param key The key to remove.
+   * @return The value of the removed entry, or null if the key is absent.
+   */
+  @Override
+  public V remove(K key)
+  {
+    if(key == null)
+      return null;
+    Entry<K> probe = new Entry<>(this, key, Long.MIN_VALUE);
+    while(true)
+    {
+      Entry<K> oldest = map.ceilingKey(probe);
+      if(oldest == null || oldest.key.compareTo(key) != 0)
+        return null;
+      Object value = map.remove(oldest);
+      if(value != null)
+      {
+        size.decrementAndGet();
+        return unmask(value);
+      }
+    }
+  }
+
+  /**
+   * Removes every entry whose key is at least lo and below hi. Entries are
+   * taken one at a time, so one added in range meanwhile may or may not be
+   * removed, and one taken by another thread first is not counted.
+   * @param lo The lowest key to remove, inclusive.
+   * @param hi The key to stop at, exclusive.
+   * @return The number of entries this call removed.
+   * @throws NullPointerException If a bound is null.
+   */
+  @Override
+  public int removeRange(K lo, K hi)
+  {
+    if(lo == null || hi == null)
+      throw new NullPointerException("bounds must not be null");
+    if(lo.compareTo(hi) >= 0)
+      return 0;
+    int removed = 0;
+    for(Entry<K> entry : map.subMap(new Entry<>(this, lo, Long.MIN_VALUE),
+            new Entry<>(this, hi, Long.MIN_VALUE)).keySet())
+    {
+      if(map.remove(entry) != null)
+      {
+        size.decrementAndGet();
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Looks up the value of the entry added first among those with the key.
+   * @param key The key to look up.
+   * @return The value, or null if the key is absent.
+   */
+  @Override
+  public V lookup(K key)
+  {
+    if(key == null)
+      return null;
+    Map.Entry<Entry<K>, Object> oldest = map.ceilingEntry(new Entry<>(this, key, Long.MIN_VALUE));
+    if(oldest == null || oldest.getKey().key.compareTo(key) != 0)
+      return null;
+    return unmask(oldest.getValue());
+  }
+
+  /**
+   * Cancels the task behind the handle. Of several threads cancelling or
+   * polling the same task, exactly one succeeds.
+   * @param handle The handle returned when the task was scheduled.
+   * @return True if the task was still scheduled, false if it had already
+   * been polled or cancelled, or belongs to another scheduler.
+   */
+  @Override
+  public boolean cancel(Handle handle)
+  {
+    if(!(handle instanceof Entry) || ((Entry<?>) handle).owner != this)
+      return false;
+    if(map.remove(handle) == null)
+      return false;
+    size.decrementAndGet();
+    return true;
+  }
+
+  @Override
+  public V peekMin()
+  {
+    Map.Entry<Entry<K>, Object> first = map.firstEntry();
+    return (first == null) ? null : unmask(first.getValue());
+  }
+
+  @Override
+  public K peekDeadline()
+  {
+    Map.Entry<Entry<K>, Object> first = map.firstEntry();
+    return (first == null) ? null : first.getKey().key;
+  }
+
+  /**
+   * Removes the task that is due first.
+   * @return The task with the earliest deadline, or null if none.
+   */
+  public V pollFirst()
+  {
+    Map.Entry<Entry<K>, Object> first = map.pollFirstEntry();
+    if(first == null)
+      return null;
+    size.decrementAndGet();
+    return unmask(first.getValue());
+  }
+
+  /**
+   * Removes every task whose deadline is at or before now, handing each to
+   * the sink in deadline order. Tasks taken by other threads meanwhile are
+   * skipped, and a due task scheduled while this runs may be handed out by
+   * this call or left for the next.
+   * @param now The current time.
+   * @param sink Receives the due tasks.
+   * @return The number of tasks handed to the sink.
+   */
+  @Override
+  public int pollDue(K now, EventSink<K,V> sink)
+  {
+    int polled = 0;
+    Map.Entry<Entry<K>, Object> first;
+    while((first = map.firstEntry()) != null && first.getKey().key.compareTo(now) <= 0)
+    {
+      if(map.remove(first.getKey()) == null)
+        continue;
+      size.decrementAndGet();
+      sink.accept(first.getKey().key, unmask(first.getValue()));
+      polled++;
+    }
+    return polled;
+  }
+
+  /**
+   * The number of entries, exact whenever no other thread is changing the
+   * scheduler.
+   * @return The number of entries.
+   */
+  @Override
+  public int size()
+  {
+    return size.get();
+  }
+
+  /**
+   * A skip list has no pyramid to draw, so this writes one line listing
+   * the values in key order, each in the bracketed form of
+   * {@link BalancedScheduler#toPrettyString()}. Entries added or removed
+   * meanwhile may or may not show.
+   * @return The values in key order.
+   */
+  @Override
+  public String toPrettyString()
+  {
+    StringBuilder treeString = new StringBuilder();
+    if(map.isEmpty())
+      return "";
+    treeString.append('\n');
+    for(Object value : map.values())
+      treeString.append('[').append(unmask(value)).append("] ");
+    return treeString.toString();
+  }
+
+  private Entry<K> insert(K key, V value)
+  {
+    Entry<K> entry = new Entry<>(this, key, sequence.getAndIncrement());
+    map.put(entry, (value == null) ? Null.VALUE : value);
+    size.incrementAndGet();
+    return entry;
+  }
+
+  @SuppressWarnings("unchecked")
+  private V unmask(Object value)
+  {
+    return (value == Null.VALUE) ? null : (V) value;
+  }
+}
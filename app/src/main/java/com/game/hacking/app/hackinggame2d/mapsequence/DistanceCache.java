@@ -0,0 +1,336 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers shortest distances on a {@link GameGraph} for code that asks
+ * the same questions every tick, such as the trace AI. Each source vertex
+ * asked about gets a tree: its distance to every vertex, found once with a
+ * {@link PathFinder}. While the graph has at most a given number of
+ * vertices, the first question fills in the trees of every source, and all
+ * pairs are answered from then on; on a larger graph the most recently used
+ * trees are kept, up to a given number.
+ * <p>
+ * The cache listens to the graph and keeps the trees up to date as the map
+ * changes. A new edge can only shorten distances, so each tree it improves
+ * is repaired by a search that starts at the edge and visits only the
+ * vertices whose distance drops. A removed vertex can only lengthen
+ * distances, and only those of trees that reached it, so just those trees
+ * are dropped, to be found again when next asked for; a removed edge drops
+ * the trees whose shortest paths may have used it. Changes made on
+ * vertices or edges directly, bypassing the graph, are not seen.
+ * <p>
+ * Distances are those of {@link PathFinder}: edge distances must not be
+ * negative. The cache is not thread safe.
+ * @param <T> the data held by the vertices
+ */
+public class DistanceCache<T> implements GraphListener<T> {
+  private static final long UNREACHED = Long.MAX_VALUE;
+
+  private final GameGraph<T> graph;
+  private final int capacity;
+  private final int allPairsLimit;
+
+  // every vertex of the graph has a slot that it keeps until it is removed;
+  // trees are indexed by slot, and slots past a tree's end are unreached
+  private final IdentityHashMap<Vertex<T>, Integer> slots = new IdentityHashMap<>();
+  private final List<Vertex<T>> bySlot = new ArrayList<>();
+  private int[] freeSlots = new int[8];
+  private int freeCount;
+
+  // the trees by source, least recently used first
+  private final LinkedHashMap<Vertex<T>, long[]> trees = new LinkedHashMap<>(16, 0.75f, true);
+
+  // searches a snapshot of the graph, rebuilt on the first miss after a change
+  private PathFinder<T> finder;
+  private int[] slotOfIndex;
+
+  // the heap of the repair search, (distance, slot) pairs in two arrays
+  private long[] repairKeys = new long[16];
+  private int[] repairSlots = new int[16];
+
+  private long hits;
+  private long misses;
+
+  /**
+   * Creates a cache that answers all pairs on graphs of up to 256 vertices
+   * and keeps 16 trees on larger ones.
+   *
+   * @param graph the graph to answer for
+   */
+  public DistanceCache(GameGraph<T> graph) {
+    this(graph, 16, 256);
+  }
+
+  /**
+   * Creates a cache and starts listening to the graph.
+   *
+   * @param graph the graph to answer for
+   * @param capacity the most trees to keep on a large graph
+   * @param allPairsLimit the most vertices the graph may have for every tree
+   * to be found and kept
+   * @throws IllegalArgumentException if <tt>capacity</tt> is less than 1 or
+   * <tt>allPairsLimit</tt> is negative
+   */
+  public DistanceCache(GameGraph<T> graph, int capacity, int allPairsLimit) {
+    if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    if (allPairsLimit < 0) throw new IllegalArgumentException("negative all pairs limit: " + allPairsLimit);
+    this.graph = graph;
+    this.capacity = capacity;
+    this.allPairsLimit = allPairsLimit;
+    for (Vertex<T> vertex : graph.getVertices()) slotOf(vertex, true);
+    graph.addListener(this);
+  }
+
+  /**
+   * Stops listening to the graph and forgets every tree.
+   */
+  public void detach() {
+    graph.removeListener(this);
+    trees.clear();
+    finder = null;
+  }
+
+  /**
+   * Returns the shortest distance between two vertices of the graph.
+   *
+   * @param from the vertex to start from
+   * @param to the vertex to reach
+   * @return the distance, or <tt>Long.MAX_VALUE</tt> if <tt>to</tt> cannot
+   * be reached or either vertex is not in the graph
+   * @throws IllegalStateException if an edge has a negative distance
+   */
+  public long distance(Vertex<T> from, Vertex<T> to) {
+    Integer source = slots.get(from);
+    Integer target = slots.get(to);
+    if (source == null || target == null) return UNREACHED;
+
+    long[] tree = trees.get(from);
+    if (tree != null) {
+      hits++;
+      return read(tree, target);
+    }
+    misses++;
+    if (slots.size() <= allPairsLimit) {
+      for (Vertex<T> vertex : bySlot) {
+        if (vertex != null && !trees.containsKey(vertex)) trees.put(vertex, findTree(vertex));
+      }
+      tree = trees.get(from);
+    } else {
+      tree = findTree(from);
+      trees.put(from, tree);
+      // the graph may have grown past the all pairs limit since
+      Iterator<long[]> eldest = trees.values().iterator();
+      while (trees.size() > capacity) {
+        eldest.next();
+        eldest.remove();
+      }
+    }
+    return read(tree, target);
+  }
+
+  /**
+   * Returns how many questions were answered from a kept tree.
+   *
+   * @return the number of hits since the counters were last reset
+   */
+  public long hits() {
+    return hits;
+  }
+
+  /**
+   * Returns how many questions needed a search. In all pairs mode one miss
+   * fills in every tree.
+   *
+   * @return the number of misses since the counters were last reset
+   */
+  public long misses() {
+    return misses;
+  }
+
+  /**
+   * Sets the hit and miss counters back to 0.
+   */
+  public void resetCounters() {
+    hits = 0;
+    misses = 0;
+  }
+
+  /**
+   * Returns how many trees are kept.
+   *
+   * @return the number of source vertices with a tree
+   */
+  public int size() {
+    return trees.size();
+  }
+
+  @Override
+  public void vertexAdded(Vertex<T> vertex) {
+    // no edges reach it yet, so every tree already has it unreached
+    slotOf(vertex, true);
+    finder = null;
+  }
+
+  @Override
+  public void vertexRemoved(Vertex<T> vertex) {
+    finder = null;
+    Integer slot = slots.remove(vertex);
+    if (slot == null) return;
+    trees.remove(vertex);
+    for (Iterator<long[]> it = trees.values().iterator(); it.hasNext(); ) {
+      if (read(it.next(), slot) != UNREACHED) it.remove();
+    }
+    bySlot.set(slot, null);
+    if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, 2 * freeCount);
+    freeSlots[freeCount++] = slot;
+  }
+
+  @Override
+  public void edgeAdded(Edge<T> edge) {
+    finder = null;
+    Integer from = slots.get(edge.getSource());
+    Integer to = slots.get(edge.getDestination());
+    if (from == null || to == null) return;
+    Integer weight = edge.getDistance();
+    if (weight == null || weight < 0) {
+      // nothing can be repaired; the next search reports the bad edge
+      trees.clear();
+      return;
+    }
+    for (Map.Entry<Vertex<T>, long[]> entry : trees.entrySet()) {
+      long[] tree = entry.getValue();
+      long reached = read(tree, from);
+      if (reached != UNREACHED && reached + weight < read(tree, to)) {
+        entry.setValue(tree = fit(tree));
+        repair(tree, to, reached + weight);
+      }
+    }
+  }
+
+  @Override
+  public void edgeRemoved(Edge<T> edge) {
+    finder = null;
+    Integer from = slots.get(edge.getSource());
+    Integer to = slots.get(edge.getDestination());
+    if (from == null || to == null) return;
+    Integer weight = edge.getDistance();
+    // only a tree whose shortest path to the destination may use the edge
+    // can get longer
+    for (Iterator<long[]> it = trees.values().iterator(); it.hasNext(); ) {
+      long[] tree = it.next();
+      long reached = read(tree, from);
+      if (reached != UNREACHED && (weight == null || reached + weight <= read(tree, to))) it.remove();
+    }
+  }
+
+  // lower the distance of slot start to distance and carry the drop on to
+  // every vertex it shortens, Dijkstra style; vertices whose distance stays
+  // the same are never visited
+  private void repair(long[] tree, int start, long distance) {
+    tree[start] = distance;
+    int size = push(0, distance, start);
+    while (size > 0) {
+      long d = repairKeys[0];
+      int v = repairSlots[0];
+      size = pop(size);
+      if (d > tree[v]) continue;   // a later, shorter push settled it
+      for (Edge<T> edge : bySlot.get(v).getOutgoingEdges()) {
+        Integer w = slots.get(edge.getDestination());
+        if (w == null) continue;
+        long candidate = d + edge.getDistance();
+        if (candidate < tree[w]) {
+          tree[w] = candidate;
+          size = push(size, candidate, w);
+        }
+      }
+    }
+  }
+
+  private int push(int size, long key, int slot) {
+    if (size == repairKeys.length) {
+      repairKeys = Arrays.copyOf(repairKeys, 2 * size);
+      repairSlots = Arrays.copyOf(repairSlots, 2 * size);
+    }
+    int i = size;
+    while (i > 0) {
+      int up = (i - 1) >>> 1;
+      if (repairKeys[up] <= key) break;
+      repairKeys[i] = repairKeys[up];
+      repairSlots[i] = repairSlots[up];
+      i = up;
+    }
+    repairKeys[i] = key;
+    repairSlots[i] = slot;
+    return size + 1;
+  }
+
+  private int pop(int size) {
+    size--;
+    long key = repairKeys[size];
+    int slot = repairSlots[size];
+    int i = 0;
+    while (2 * i + 1 < size) {
+      int child = 2 * i + 1;
+      if (child + 1 < size && repairKeys[child + 1] < repairKeys[child]) child++;
+      if (key <= repairKeys[child]) break;
+      repairKeys[i] = repairKeys[child];
+      repairSlots[i] = repairSlots[child];
+      i = child;
+    }
+    repairKeys[i] = key;
+    repairSlots[i] = slot;
+    return size;
+  }
+
+  // search a snapshot of the graph for the tree of source, in slot order
+  private long[] findTree(Vertex<T> source) {
+    if (finder == null) {
+      finder = new PathFinder<>(graph);
+      FrozenGraph<T> frozen = finder.graph();
+      slotOfIndex = new int[frozen.vertexCount()];
+      for (int i = 0; i < slotOfIndex.length; i++) slotOfIndex[i] = slotOf(frozen.vertex(i), true);
+    }
+    long[] tree = new long[bySlot.size()];
+    Arrays.fill(tree, UNREACHED);
+    int index = finder.graph().indexOf(source);
+    if (index < 0) return tree;
+    finder.dijkstra(index, -1);
+    for (int i = 0; i < slotOfIndex.length; i++) tree[slotOfIndex[i]] = finder.distanceTo(i);
+    return tree;
+  }
+
+  // the slot of a vertex, handing it a free one if asked to and it has none
+  private int slotOf(Vertex<T> vertex, boolean assign) {
+    Integer slot = slots.get(vertex);
+    if (slot != null || !assign) return (slot == null) ? -1 : slot;
+    int fresh;
+    if (freeCount > 0) {
+      fresh = freeSlots[--freeCount];
+      bySlot.set(fresh, vertex);
+    } else {
+      fresh = bySlot.size();
+      bySlot.add(vertex);
+    }
+    slots.put(vertex, fresh);
+    return fresh;
+  }
+
+  // trees made before a vertex was added end short of its slot
+  private long[] fit(long[] tree) {
+    if (tree.length == bySlot.size()) return tree;
+    long[] longer = Arrays.copyOf(tree, bySlot.size());
+    Arrays.fill(longer, tree.length, longer.length, UNREACHED);
+    return longer;
+  }
+
+  private static long read(long[] tree, int slot) {
+    return (slot < tree.length) ? tree[slot] : UNREACHED;
+  }
+}
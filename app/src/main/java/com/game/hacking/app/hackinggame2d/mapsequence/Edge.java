@@ -9,6 +9,11 @@ public class Edge<V> {
   private Vertex<V> destination;
 
   private Integer distance;
+  // handle in the GameGraph holding the edge, and places in the edge lists
+  // of its source and destination, for removal in O(1)
+  long handle = SlotMap.NO_HANDLE;
+  int outgoingIndex = -1;
+  int incomingIndex = -1;
 
 
   public Edge(Vertex<V> source, Vertex<V> destination, int distance) {
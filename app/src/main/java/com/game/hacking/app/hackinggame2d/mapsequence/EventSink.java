@@ -0,0 +1,16 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+/**
+ * Receives the tasks a {@link Scheduler} hands out once they are due.
+ * @param <K> The deadline type.
+ * @param <V> The task type.
+ */
+public interface EventSink<K, V>
+{
+  /**
+   * Called once for every due task, in deadline order.
+   * @param deadline The deadline the task was scheduled for.
+   * @param task The task that became due.
+   */
+  public void accept(K deadline, V task);
+}
@@ -0,0 +1,321 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A read-only snapshot of a {@link GameGraph} in compressed sparse row form,
+ * taken by {@link GameGraph#freeze()}. Vertices are numbered 0 to
+ * <tt>vertexCount() - 1</tt>, and the edges leaving vertex v are numbered
+ * <tt>edgeBegin(v)</tt> up to <tt>edgeEnd(v)</tt>, in no particular order.
+ * All of it lives in three int arrays, so a traversal streams through
+ * contiguous memory instead of following linked list nodes and boxed
+ * distances scattered over the heap, and a map takes 4 bytes per vertex and
+ * 8 per edge.
+ * @param <T> the data held by the vertices
+ */
+public class FrozenGraph<T> {
+  // edges of vertex v are the slots offsets[v] until offsets[v + 1] of
+  // targets and weights
+  final int[] offsets;
+  final int[] targets;
+  final int[] weights;
+  private final Vertex<T>[] vertices;
+  private final boolean negativeWeights;
+
+  // number the vertices in list order, where each appears once, then lay out
+  // the edges between them; edges leading out of the snapshot are dropped
+  @SuppressWarnings("unchecked")
+  FrozenGraph(List<Vertex<T>> graphVertices) {
+    vertices = (Vertex<T>[]) new Vertex<?>[graphVertices.size()];
+    int n = 0;
+    for (Vertex<T> vertex : graphVertices) {
+      vertex.setIndex(n);
+      vertices[n++] = vertex;
+    }
+
+    offsets = new int[n + 1];
+    for (int v = 0; v < n; v++) {
+      int degree = 0;
+      for (Edge<T> edge : vertices[v].getOutgoingEdges()) {
+        if (indexOf(edge.getDestination()) >= 0) degree++;
+      }
+      offsets[v + 1] = offsets[v] + degree;
+    }
+    targets = new int[offsets[n]];
+    weights = new int[offsets[n]];
+    boolean negative = false;
+    for (int v = 0; v < n; v++) {
+      int e = offsets[v];
+      for (Edge<T> edge : vertices[v].getOutgoingEdges()) {
+        int w = indexOf(edge.getDestination());
+        if (w < 0) continue;
+        Integer distance = edge.getDistance();
+        if (distance == null) throw new IllegalStateException("edge without a distance from vertex " + v);
+        targets[e] = w;
+        weights[e++] = distance;
+        negative |= distance < 0;
+      }
+    }
+    negativeWeights = negative;
+  }
+
+  /**
+   * Returns the number of vertices.
+   *
+   * @return the number of vertices
+   */
+  public int vertexCount() {
+    return vertices.length;
+  }
+
+  /**
+   * Returns the number of edges.
+   *
+   * @return the number of edges
+   */
+  public int edgeCount() {
+    return targets.length;
+  }
+
+  /**
+   * Returns the vertex numbered <tt>v</tt>.
+   *
+   * @param v the vertex number
+   * @return the vertex
+   */
+  public Vertex<T> vertex(int v) {
+    return vertices[v];
+  }
+
+  /**
+   * Returns the number of a vertex in this snapshot. This is O(1), except
+   * for a vertex that has been frozen into a newer snapshot since, which
+   * takes a scan.
+   *
+   * @param vertex the vertex
+   * @return its number, or -1 if the vertex is not in the snapshot
+   */
+  public int indexOf(Vertex<T> vertex) {
+    if (vertex == null) return -1;
+    int index = vertex.getIndex();
+    if (index >= 0 && index < vertices.length && vertices[index] == vertex) return index;
+    for (int v = 0; v < vertices.length; v++) {
+      if (vertices[v] == vertex) return v;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the number of the first edge leaving vertex <tt>v</tt>.
+   *
+   * @param v the vertex number
+   * @return the first edge number of <tt>v</tt>
+   */
+  public int edgeBegin(int v) {
+    return offsets[v];
+  }
+
+  /**
+   * Returns the number just past the last edge leaving vertex <tt>v</tt>.
+   *
+   * @param v the vertex number
+   * @return the end of the edge numbers of <tt>v</tt>, exclusive
+   */
+  public int edgeEnd(int v) {
+    return offsets[v + 1];
+  }
+
+  /**
+   * Returns the vertex edge <tt>e</tt> leads to.
+   *
+   * @param e the edge number
+   * @return the destination vertex number
+   */
+  public int target(int e) {
+    return targets[e];
+  }
+
+  /**
+   * Returns the distance of edge <tt>e</tt>.
+   *
+   * @param e the edge number
+   * @return the distance
+   */
+  public int weight(int e) {
+    return weights[e];
+  }
+
+  /**
+   * Counts the fewest edges needed to reach each vertex from
+   * <tt>source</tt>, ignoring distances.
+   *
+   * @param source the vertex to start from
+   * @param hops receives the edge count of each vertex, or -1 where it cannot
+   * be reached; must hold at least <tt>vertexCount()</tt> entries
+   * @return the number of vertices reached, <tt>source</tt> included
+   * @throws IllegalArgumentException if <tt>hops</tt> is too short
+   */
+  public int breadthFirst(int source, int[] hops) {
+    int n = vertices.length;
+    if (hops.length < n) throw new IllegalArgumentException("hops holds " + hops.length + " of " + n);
+    checkVertex(source);
+    Arrays.fill(hops, 0, n, -1);
+    // every vertex is queued once, so the queue never wraps
+    int[] queue = new int[n];
+    int head = 0;
+    int tail = 0;
+    hops[source] = 0;
+    queue[tail++] = source;
+    while (head < tail) {
+      int v = queue[head++];
+      int next = hops[v] + 1;
+      for (int e = offsets[v], end = offsets[v + 1]; e < end; e++) {
+        int w = targets[e];
+        if (hops[w] < 0) {
+          hops[w] = next;
+          queue[tail++] = w;
+        }
+      }
+    }
+    return tail;
+  }
+
+  /**
+   * Finds the shortest distance from <tt>source</tt> to every vertex with
+   * Dijkstra's algorithm, in O((V + E) log E).
+   *
+   * @param source the vertex to start from
+   * @param distances receives the distance of each vertex, or
+   * <tt>Long.MAX_VALUE</tt> where it cannot be reached; must hold at least
+   * <tt>vertexCount()</tt> entries
+   * @return the number of vertices reached, <tt>source</tt> included
+   * @throws IllegalArgumentException if <tt>distances</tt> is too short
+   * @throws IllegalStateException if an edge has a negative distance
+   */
+  public int dijkstra(int source, long[] distances) {
+    int n = vertices.length;
+    if (distances.length < n)
+      throw new IllegalArgumentException("distances holds " + distances.length + " of " + n);
+    if (negativeWeights) throw new IllegalStateException("negative edge distance");
+    checkVertex(source);
+    Arrays.fill(distances, 0, n, Long.MAX_VALUE);
+
+    // a binary heap of (distance, vertex) pairs in two parallel arrays; a
+    // vertex whose distance drops is pushed again and its stale entry is
+    // skipped when popped, so each edge pushes at most once
+    long[] keys = new long[targets.length + 1];
+    int[] heap = new int[targets.length + 1];
+    boolean[] settled = new boolean[n];
+    int size = 0;
+    int reached = 0;
+    distances[source] = 0;
+    keys[0] = 0;
+    heap[size++] = source;
+    while (size > 0) {
+      int v = heap[0];
+      long d = keys[0];
+      size--;
+      siftDown(keys, heap, size, keys[size], heap[size]);
+      if (settled[v]) continue;
+      settled[v] = true;
+      reached++;
+      for (int e = offsets[v], end = offsets[v + 1]; e < end; e++) {
+        int w = targets[e];
+        long candidate = d + weights[e];
+        if (candidate < distances[w]) {
+          distances[w] = candidate;
+          size = siftUp(keys, heap, size, candidate, w);
+        }
+      }
+    }
+    return reached;
+  }
+
+  // add (key, vertex) at the bottom of the heap and move it up; returns the new size
+  private static int siftUp(long[] keys, int[] heap, int size, long key, int vertex) {
+    int i = size;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (keys[parent] <= key) break;
+      keys[i] = keys[parent];
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    keys[i] = key;
+    heap[i] = vertex;
+    return size + 1;
+  }
+
+  // put (key, vertex) in the hole at the top of a heap of size entries and move it down
+  private static void siftDown(long[] keys, int[] heap, int size, long key, int vertex) {
+    if (size == 0) return;
+    int i = 0;
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+      if (key <= keys[child]) break;
+      keys[i] = keys[child];
+      heap[i] = heap[child];
+      i = child;
+    }
+    keys[i] = key;
+    heap[i] = vertex;
+  }
+
+  /**
+   * Finds every vertex that can be reached from <tt>source</tt>.
+   *
+   * @param source the vertex to start from
+   * @return the numbers of the reachable vertices, <tt>source</tt> included
+   */
+  public BitSet reachableFrom(int source) {
+    BitSet seen = new BitSet(vertices.length);
+    search(source, -1, seen);
+    return seen;
+  }
+
+  /**
+   * Tells whether a path leads from one vertex to another, stopping as soon
+   * as it is found.
+   *
+   * @param from the vertex to start from
+   * @param to the vertex to look for
+   * @return <tt>true</tt> if <tt>to</tt> can be reached from <tt>from</tt>
+   */
+  public boolean isReachable(int from, int to) {
+    checkVertex(to);
+    return search(from, to, new BitSet(vertices.length));
+  }
+
+  // depth first search from source marking vertices in seen; returns true as
+  // soon as goal is marked
+  private boolean search(int source, int goal, BitSet seen) {
+    checkVertex(source);
+    // every vertex is pushed once, when it is first marked
+    int[] stack = new int[vertices.length];
+    int top = 0;
+    seen.set(source);
+    stack[top++] = source;
+    if (source == goal) return true;
+    while (top > 0) {
+      int v = stack[--top];
+      for (int e = offsets[v], end = offsets[v + 1]; e < end; e++) {
+        int w = targets[e];
+        if (!seen.get(w)) {
+          if (w == goal) return true;
+          seen.set(w);
+          stack[top++] = w;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void checkVertex(int v) {
+    if (v < 0 || v >= vertices.length)
+      throw new IndexOutOfBoundsException("vertex " + v + " of " + vertices.length);
+  }
+}
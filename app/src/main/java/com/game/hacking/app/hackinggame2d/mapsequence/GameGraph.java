@@ -9,18 +9,56 @@ import java.util.List;
 
 /**
  * Created by MAGarcia on 8/11/2016.
+ * <p>
+ * Vertices and edges live in generational slot maps, so adding or removing
+ * either is O(1), and each has a handle that finds it again, or finds
+ * nothing once it has been removed. A vertex belongs to one graph at a time.
  */
 public class GameGraph<T> implements Graph<Vertex<T> , Edge<T> > {
-  private List<Vertex<T> > vertices;
-  private List<Edge<T>> edges;
+  private SlotMap<Vertex<T>> vertices;
+  private SlotMap<Edge<T>> edges;
   private HashMap<Vec2D, Vertex<T> > quickLookup;
   private HashMap<Vertex<T>, Vec2D> coordLookup;
+  private List<GraphListener<T>> listeners;
+  private SpatialGrid<Vertex<T>> spatialIndex;
 
   public GameGraph() {
-    vertices = new ArrayList<>();
-    edges = new ArrayList<>();
+    // map positions are a couple of units apart
+    this(2f);
+  }
+
+  /**
+   * Creates an empty graph whose spatial index uses cells of the given size.
+   *
+   * @param cellSize the side of a cell of the spatial index; about the
+   * distance between neighbouring vertices works best
+   */
+  public GameGraph(float cellSize) {
+    vertices = new SlotMap<>();
+    edges = new SlotMap<>();
     quickLookup = new HashMap<>();
     coordLookup = new HashMap<>();
+    listeners = new ArrayList<>();
+    spatialIndex = new SpatialGrid<>(cellSize);
+  }
+
+  /**
+   * Registers a listener to be told about every later change made through
+   * this graph.
+   *
+   * @param listener the listener
+   */
+  public void addListener(GraphListener<T> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Stops telling a listener about changes to this graph.
+   *
+   * @param listener the listener
+   */
+  public void removeListener(GraphListener<T> listener) {
+    listeners.remove(listener);
   }
 
   public void Randomize() {
@@ -30,16 +68,36 @@ public class GameGraph<T> implements Graph<Vertex<T> , Edge<T> > {
   public void addVertexToGraph(T data, Vec2D coords) {
     Vertex<T> newVertex = new Vertex<>(data);
 
-    vertices.add(newVertex);
-    quickLookup.put(coords, newVertex);
-    coordLookup.put(newVertex, coords);
+    newVertex.handle = vertices.add(newVertex);
+    Vec2D position = copyOf(coords);
+    quickLookup.put(position, newVertex);
+    coordLookup.put(newVertex, position);
+    spatialIndex.add(newVertex, position.getX(), position.getY());
+    for (GraphListener<T> listener : listeners) {
+      listener.vertexAdded(newVertex);
+    }
   }
 
   public void addVertexToGraph(Vertex<T> vertex, Vec2D coords) {
     if ( vertex != null) {
-      vertices.add(vertex);
-      quickLookup.put(coords, vertex);
-      coordLookup.put(vertex, coords);
+      // a vertex added again is moved to its new position
+      boolean known = vertices.get(vertex.handle) == vertex;
+      if (!known) {
+        vertex.handle = vertices.add(vertex);
+      }
+      Vec2D position = copyOf(coords);
+      Vec2D previous = coordLookup.put(vertex, position);
+      if (known && previous != null) {
+        if (quickLookup.get(previous) == vertex) quickLookup.remove(previous);
+        spatialIndex.remove(vertex, previous.getX(), previous.getY());
+      }
+      quickLookup.put(position, vertex);
+      spatialIndex.add(vertex, position.getX(), position.getY());
+      if (!known) {
+        for (GraphListener<T> listener : listeners) {
+          listener.vertexAdded(vertex);
+        }
+      }
     }
   }
 
@@ -55,7 +113,29 @@ public class GameGraph<T> implements Graph<Vertex<T> , Edge<T> > {
 
     start.addToOutgoingEdges(newEdge);
     dest.addToIncomingEdges(newEdge);
-    edges.add(newEdge);
+    newEdge.handle = edges.add(newEdge);
+    for (GraphListener<T> listener : listeners) {
+      listener.edgeAdded(newEdge);
+    }
+  }
+
+  /**
+   * Removes an edge from the graph and from the edge lists of its vertices,
+   * in O(1).
+   *
+   * @param edge the edge
+   * @return <tt>true</tt> if the edge was in the graph
+   */
+  public boolean removeEdge(Edge<T> edge) {
+    if (edges.remove(edge.handle) == null) {
+      return false;
+    }
+    edge.getSource().removeOutgoingEdge(edge);
+    edge.getDestination().removeIncomingEdge(edge);
+    for (GraphListener<T> listener : listeners) {
+      listener.edgeRemoved(edge);
+    }
+    return true;
   }
 
 
@@ -63,10 +143,96 @@ public class GameGraph<T> implements Graph<Vertex<T> , Edge<T> > {
     return quickLookup.get(pos);
   }
 
+  /**
+   * Returns the vertex a handle was given for.
+   *
+   * @param handle the handle from {@link #getHandle(Vertex)}
+   * @return the vertex, or <tt>null</tt> if it has been removed
+   */
+  public Vertex<T> getVertex(long handle) {
+    return vertices.get(handle);
+  }
 
+  /**
+   * Returns a handle that finds a vertex again with {@link #getVertex(long)}
+   * for as long as it stays in the graph.
+   *
+   * @param vertex the vertex
+   * @return the handle, or <tt>SlotMap.NO_HANDLE</tt> if the vertex is not
+   * in the graph
+   */
+  public long getHandle(Vertex<T> vertex) {
+    return (vertices.get(vertex.handle) == vertex) ? vertex.handle : SlotMap.NO_HANDLE;
+  }
 
+  /**
+   * Returns the edge a handle was given for.
+   *
+   * @param handle the handle from {@link #getHandle(Edge)}
+   * @return the edge, or <tt>null</tt> if it has been removed
+   */
+  public Edge<T> getEdge(long handle) {
+    return edges.get(handle);
+  }
 
+  /**
+   * Returns a handle that finds an edge again with {@link #getEdge(long)}
+   * for as long as it stays in the graph.
+   *
+   * @param edge the edge
+   * @return the handle, or <tt>SlotMap.NO_HANDLE</tt> if the edge is not
+   * in the graph
+   */
+  public long getHandle(Edge<T> edge) {
+    return (edges.get(edge.handle) == edge) ? edge.handle : SlotMap.NO_HANDLE;
+  }
 
+  /**
+   * Finds the vertex nearest to a position, such as the one under a finger.
+   *
+   * @param pos the position
+   * @param maxDistance how far from <tt>pos</tt> to look
+   * @return the nearest vertex no farther than <tt>maxDistance</tt>, or
+   * <tt>null</tt> if there is none
+   */
+  public Vertex<T> getNearestVertex(Vec2D pos, float maxDistance) {
+    return spatialIndex.nearest(pos.getX(), pos.getY(), maxDistance);
+  }
+
+  /**
+   * Finds the vertices nearest to a position, nearest first.
+   *
+   * @param pos the position
+   * @param k how many vertices to find
+   * @return the <tt>k</tt> nearest vertices, or all of them if there are fewer
+   */
+  public List<Vertex<T>> getNearestVertices(Vec2D pos, int k) {
+    return spatialIndex.nearest(pos.getX(), pos.getY(), k);
+  }
+
+  /**
+   * Finds the vertices within a distance of a position, in no particular
+   * order.
+   *
+   * @param pos the position
+   * @param radius the distance, inclusive
+   * @return the vertices no farther than <tt>radius</tt> from <tt>pos</tt>
+   */
+  public List<Vertex<T>> getVerticesWithin(Vec2D pos, float radius) {
+    return spatialIndex.within(pos.getX(), pos.getY(), radius);
+  }
+
+
+
+
+
+  /**
+   * Removes the vertex at a position, with its edges, in O(1) plus the
+   * number of its edges. The last vertex of {@link #getVertices()} takes
+   * its place in the list.
+   *
+   * @param coords the position of the vertex
+   */
   public void removeVertexFromGraph(Vec2D coords) {
     Vertex<T> remVert = quickLookup.get(coords);
 
@@ -80,25 +246,75 @@ public class GameGraph<T> implements Graph<Vertex<T> , Edge<T> > {
     for (Edge<T> edge : outgoing) {
       Vertex<T> dest = edge.getDestination();
       dest.removeIncomingEdge(edge);
+      edges.remove(edge.handle);
     }
 
+    // a loop was taken off the incoming edges with the outgoing ones
     for (Edge<T> edge : incoming) {
       Vertex<T> start = edge.getSource();
       start.removeOutgoingEdge(edge);
+      edges.remove(edge.handle);
     }
+    outgoing.clear();
+    incoming.clear();
 
-    vertices.remove(remVert);
+    vertices.remove(remVert.handle);
+    quickLookup.remove(coords);
+    Vec2D at = coordLookup.remove(remVert);
+    spatialIndex.remove(remVert, at.getX(), at.getY());
+    for (GraphListener<T> listener : listeners) {
+      listener.vertexRemoved(remVert);
+    }
   }
 
+  /**
+   * Returns a read-only view of the vertices. Removing a vertex moves the
+   * last one into its place.
+   *
+   * @return the vertices
+   */
   public List<Vertex<T>> getVertices() {
-    return vertices;
+    return vertices.asList();
   }
 
+  /**
+   * Returns a read-only view of the edges. Removing an edge moves the last
+   * one into its place.
+   *
+   * @return the edges
+   */
   public List<Edge<T>> getEdges() {
-    return edges;
+    return edges.asList();
   }
 
+  /**
+   * Returns the position of a vertex. The result is a copy, so moving it
+   * does not move the vertex.
+   *
+   * @param vertex the vertex
+   * @return its position, or <tt>null</tt> if it is not in the graph
+   */
   public Vec2D getCoordForVertex(Vertex<T> vertex) {
-    return coordLookup.get(vertex);
+    Vec2D position = coordLookup.get(vertex);
+    return (position == null) ? null : copyOf(position);
+  }
+
+  // Vec2D is mutable and hashes by value, so the graph keys its lookups on
+  // copies that callers cannot move
+  private static Vec2D copyOf(Vec2D coords) {
+    return new Vec2D(coords.getX(), coords.getY());
+  }
+
+  /**
+   * Takes a compressed sparse row snapshot of the graph for traversals,
+   * numbering the vertices in the order {@link #getVertices()} lists them.
+   * The snapshot does not follow later changes, so freeze the map once it
+   * is built, and again after changing it.
+   *
+   * @return the snapshot
+   * @throws IllegalStateException if an edge has no distance
+   */
+  public FrozenGraph<T> freeze() {
+    return new FrozenGraph<>(vertices.asList());
   }
 }
@@ -0,0 +1,38 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+/**
+ * Told about every change made to a {@link GameGraph} through its methods,
+ * after the change has been made. Changes made directly on a vertex or an
+ * edge are not reported.
+ * @param <T> the data held by the vertices
+ */
+public interface GraphListener<T> {
+  /**
+   * Called when a vertex has been added.
+   *
+   * @param vertex the new vertex
+   */
+  void vertexAdded(Vertex<T> vertex);
+
+  /**
+   * Called when an edge has been added between two vertices of the graph.
+   *
+   * @param edge the new edge
+   */
+  void edgeAdded(Edge<T> edge);
+
+  /**
+   * Called when an edge has been removed on its own. Edges removed with
+   * their vertex are not reported separately.
+   *
+   * @param edge the removed edge
+   */
+  void edgeRemoved(Edge<T> edge);
+
+  /**
+   * Called when a vertex has been removed, together with its edges.
+   *
+   * @param vertex the removed vertex
+   */
+  void vertexRemoved(Vertex<T> vertex);
+}
@@ -0,0 +1,700 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An int-keyed specialization of {@link BTree}. Keys are stored unboxed in
+ * per-node <tt>int[]</tt> arrays, so lookups and overwriting puts allocate
+ * nothing and compare keys without going through {@link Comparable}. Meant
+ * for network ids, ips and vertex numbers.
+ * @param <Value>
+ */
+public class IntBTree<Value> {
+  // default max children per B-tree node = M-1
+  private static final int DEFAULT_ORDER = 4;
+
+  // max children per B-tree node = M-1
+  // (must be even and greater than 2)
+  private final int M;
+
+  private Node root;       // root of the B-tree
+  private int height;      // height of the B-tree
+  private int n;           // number of key-value pairs in the B-tree
+
+  // helper B-tree node data type
+  // internal nodes: keys[j] is a lower bound for the subtree next[j]
+  // (keys[0] is never consulted), external nodes: keys[j] maps to vals[j]
+  private static final class Node {
+    private int m;                             // number of children
+    private final int[] keys;                  // the keys, kept contiguous for searching
+    private final Object[] vals;               // the values (leaves only)
+    private final Node[] next;                 // the subtrees (internal nodes only)
+    private Node sibling;                      // next leaf to the right (leaves only)
+
+    // create a node with k children and room for M
+    private Node(int k, int M, boolean leaf) {
+      m = k;
+      keys = new int[M];
+      vals = leaf ? new Object[M] : null;
+      next = leaf ? null : new Node[M];
+    }
+  }
+
+  /**
+   * Initializes an empty B-tree.
+   */
+  public IntBTree() {
+    this(DEFAULT_ORDER);
+  }
+
+  /**
+   * Initializes an empty B-tree whose nodes hold up to <tt>order - 1</tt> children.
+   *
+   * @param order the node capacity; must be even and greater than 2
+   * @throws IllegalArgumentException if <tt>order</tt> is odd or not greater than 2
+   */
+  public IntBTree(int order) {
+    if (order <= 2 || order % 2 != 0)
+      throw new IllegalArgumentException("order must be even and greater than 2: " + order);
+    M = order;
+    root = new Node(0, M, true);
+  }
+
+  /**
+   * Builds a B-tree of the default order from keys that are already sorted,
+   * packing every node as full as the order allows.
+   *
+   * @param sortedKeys the keys in strictly ascending order
+   * @param values the value for each key, index for index
+   * @return a B-tree holding every key-value pair
+   * @throws IllegalArgumentException if the keys are not strictly ascending or
+   * the arrays differ in length
+   * @throws NullPointerException if a key or value is <tt>null</tt>
+   */
+  public static <Value> IntBTree<Value> bulkLoad(int[] sortedKeys, Value[] values) {
+    return bulkLoad(sortedKeys, values, DEFAULT_ORDER, 1.0);
+  }
+
+  /**
+   * Builds a B-tree from keys that are already sorted in O(n). Leaves are
+   * packed left to right and the index levels are stacked on top of them,
+   * so no node is ever split.
+   *
+   * @param sortedKeys the keys in strictly ascending order
+   * @param values the value for each key, index for index
+   * @param order the node capacity; must be even and greater than 2
+   * @param fillFactor the fraction of each node to fill, in (0, 1]; nodes are
+   * never packed below half capacity
+   * @return a B-tree holding every key-value pair
+   * @throws IllegalArgumentException if the keys are not strictly ascending,
+   * the arrays differ in length, or the order or fill factor is out of range
+   * @throws NullPointerException if a key or value is <tt>null</tt>
+   */
+  public static <Value> IntBTree<Value> bulkLoad(int[] sortedKeys, Value[] values,
+                                                 int order, double fillFactor) {
+    if (sortedKeys.length != values.length)
+      throw new IllegalArgumentException("keys and values differ in length");
+    if (!(fillFactor > 0 && fillFactor <= 1))
+      throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+    for (int i = 0; i < sortedKeys.length; i++) {
+      if (values[i] == null) throw new NullPointerException("value must not be null");
+      if (i > 0 && sortedKeys[i - 1] >= sortedKeys[i])
+        throw new IllegalArgumentException("keys are not strictly ascending at index " + i);
+    }
+    IntBTree<Value> tree = new IntBTree<>(order);
+    tree.load(sortedKeys, values, sortedKeys.length, fillFactor);
+    return tree;
+  }
+
+  // pack count sorted entries bottom-up, replacing the current contents
+  private void load(int[] keys, Object[] vals, int count, double fillFactor) {
+    int target = Math.max(M / 2, Math.min(M - 1, (int) Math.ceil(fillFactor * (M - 1))));
+    n = count;
+    height = 0;
+    if (count == 0) {
+      root = new Node(0, M, true);
+      return;
+    }
+
+    int width = nodesFor(count, target);
+    Node[] level = new Node[width];
+    Node prev = null;
+    for (int i = 0, from = 0; i < width; i++) {
+      int size = (count - from) / (width - i);
+      Node leaf = new Node(size, M, true);
+      System.arraycopy(keys, from, leaf.keys, 0, size);
+      System.arraycopy(vals, from, leaf.vals, 0, size);
+      if (prev != null) prev.sibling = leaf;
+      level[i] = prev = leaf;
+      from += size;
+    }
+
+    // each pass replaces the front of level with the parents of the pass before
+    while (width > 1) {
+      int parents = nodesFor(width, target);
+      for (int i = 0, from = 0; i < parents; i++) {
+        int size = (width - from) / (parents - i);
+        Node t = new Node(size, M, false);
+        for (int j = 0; j < size; j++) {
+          t.next[j] = level[from + j];
+          t.keys[j] = level[from + j].keys[0];
+        }
+        level[i] = t;
+        from += size;
+      }
+      width = parents;
+      height++;
+    }
+    root = level[0];
+  }
+
+  // number of nodes to spread count children over so each gets about target,
+  // but never fewer than M / 2 unless everything fits in a single node
+  private int nodesFor(int count, int target) {
+    int k = (count + target - 1) / target;
+    if (k > 1 && count / k < M / 2) k = count / (M / 2);
+    return k;
+  }
+
+  /**
+   * Returns true if this symbol table is empty.
+   *
+   * @return <tt>true</tt> if this symbol table is empty; <tt>false</tt> otherwise
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Returns the number of key-value pairs in this symbol table.
+   *
+   * @return the number of key-value pairs in this symbol table
+   */
+  public int size() {
+    return n;
+  }
+
+  /**
+   * Returns the height of this B-tree (for debugging).
+   *
+   * @return the height of this B-tree
+   */
+  public int height() {
+    return height;
+  }
+
+  /**
+   * Returns the value associated with the given key.
+   *
+   * @param key the key
+   * @return the value associated with the given key if the key is in the symbol table
+   * and <tt>null</tt> if the key is not in the symbol table
+   */
+  public Value get(int key) {
+    Node x = root;
+    for (int ht = height; ht > 0; ht--)
+      x = x.next[floorSlot(x.keys, x.m, key)];
+    int j = indexOf(x, key);
+    return j < 0 ? null : value(x, j);
+  }
+
+  /**
+   * Returns true if the key is in the symbol table.
+   *
+   * @param key the key
+   * @return <tt>true</tt> if the key is present; <tt>false</tt> otherwise
+   */
+  public boolean containsKey(int key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Inserts the key-value pair into the symbol table, overwriting the old value
+   * with the new value if the key is already in the symbol table.
+   * If the value is <tt>null</tt>, this effectively deletes the key from the symbol table.
+   *
+   * @param key the key
+   * @param val the value
+   */
+  public void put(int key, Value val) {
+    if (val == null) {
+      remove(key);
+      return;
+    }
+    Node u = insert(root, key, val, height);
+    if (u == null) return;
+
+    // need to split root
+    Node t = new Node(2, M, false);
+    t.keys[0] = root.keys[0];
+    t.next[0] = root;
+    t.keys[1] = u.keys[0];
+    t.next[1] = u;
+    root = t;
+    height++;
+  }
+
+  private Node insert(Node h, int key, Value val, int ht) {
+    int j;
+
+    // external node
+    if (ht == 0) {
+      j = indexOf(h, key);
+      if (j >= 0) {
+        h.vals[j] = val;
+        return null;
+      }
+      j = -j - 1;
+      System.arraycopy(h.keys, j, h.keys, j + 1, h.m - j);
+      System.arraycopy(h.vals, j, h.vals, j + 1, h.m - j);
+      h.keys[j] = key;
+      h.vals[j] = val;
+      n++;
+    }
+
+    // internal node
+    else {
+      j = floorSlot(h.keys, h.m, key);
+      Node u = insert(h.next[j++], key, val, ht - 1);
+      if (u == null) return null;
+      System.arraycopy(h.keys, j, h.keys, j + 1, h.m - j);
+      System.arraycopy(h.next, j, h.next, j + 1, h.m - j);
+      h.keys[j] = u.keys[0];
+      h.next[j] = u;
+    }
+
+    h.m++;
+    if (h.m < M) return null;
+    else return split(h, ht);
+  }
+
+  // split node in half
+  private Node split(Node h, int ht) {
+    Node t = new Node(M / 2, M, ht == 0);
+    h.m = M / 2;
+    System.arraycopy(h.keys, M / 2, t.keys, 0, M / 2);
+    if (ht == 0) {
+      System.arraycopy(h.vals, M / 2, t.vals, 0, M / 2);
+      Arrays.fill(h.vals, M / 2, M, null);
+      t.sibling = h.sibling;
+      h.sibling = t;
+    } else {
+      System.arraycopy(h.next, M / 2, t.next, 0, M / 2);
+      Arrays.fill(h.next, M / 2, M, null);
+    }
+    return t;
+  }
+
+  /**
+   * Removes the key and its associated value from this symbol table, merging
+   * or rebalancing nodes that fall below half capacity on the way back up.
+   *
+   * @param key the key
+   * @return the value that was associated with the key, or <tt>null</tt> if
+   * the key was not in the symbol table
+   */
+  public Value remove(int key) {
+    Value old = delete(root, key, height);
+    if (old == null) return null;
+    n--;
+
+    // an internal root left with a single child is collapsed
+    if (height > 0 && root.m == 1) {
+      root = root.next[0];
+      height--;
+    }
+    return old;
+  }
+
+  private Value delete(Node h, int key, int ht) {
+    // external node
+    if (ht == 0) {
+      int j = indexOf(h, key);
+      if (j < 0) return null;
+      Value old = value(h, j);
+      removeAt(h, j);
+      return old;
+    }
+
+    // internal node
+    int j = floorSlot(h.keys, h.m, key);
+    Value old = delete(h.next[j], key, ht - 1);
+    if (old != null && h.next[j].m < M / 2) rebalance(h, j, ht - 1);
+    return old;
+  }
+
+  // drop the j-th key and its value or subtree from h
+  private void removeAt(Node h, int j) {
+    int tail = h.m - j - 1;
+    System.arraycopy(h.keys, j + 1, h.keys, j, tail);
+    if (h.vals != null) {
+      System.arraycopy(h.vals, j + 1, h.vals, j, tail);
+      h.vals[h.m - 1] = null;
+    } else {
+      System.arraycopy(h.next, j + 1, h.next, j, tail);
+      h.next[h.m - 1] = null;
+    }
+    h.m--;
+  }
+
+  // restore the minimum fill of the j-th child of h, which sits at height ht,
+  // by borrowing an entry from a sibling or merging with one
+  private void rebalance(Node h, int j, int ht) {
+    Node x = h.next[j];
+
+    if (j > 0 && h.next[j - 1].m > M / 2) {
+      Node left = h.next[j - 1];
+      int last = left.m - 1;
+      int moved = left.keys[last];
+      System.arraycopy(x.keys, 0, x.keys, 1, x.m);
+      x.keys[0] = moved;
+      if (ht == 0) {
+        System.arraycopy(x.vals, 0, x.vals, 1, x.m);
+        x.vals[0] = left.vals[last];
+      } else {
+        System.arraycopy(x.next, 0, x.next, 1, x.m);
+        x.next[0] = left.next[last];
+        // the old first child now needs a real separator
+        x.keys[1] = h.keys[j];
+      }
+      x.m++;
+      removeAt(left, last);
+      h.keys[j] = moved;
+    }
+    else if (j + 1 < h.m && h.next[j + 1].m > M / 2) {
+      Node right = h.next[j + 1];
+      if (ht == 0) {
+        x.keys[x.m] = right.keys[0];
+        x.vals[x.m] = right.vals[0];
+      } else {
+        x.keys[x.m] = h.keys[j + 1];
+        x.next[x.m] = right.next[0];
+      }
+      x.m++;
+      int separator = right.keys[1];
+      removeAt(right, 0);
+      h.keys[j + 1] = separator;
+    }
+    else {
+      // merge with a sibling; both are at minimum fill so the result fits
+      int i = (j + 1 < h.m) ? j : j - 1;
+      merge(h, i, ht);
+    }
+  }
+
+  // fold the (i+1)-th child of h into the i-th one and drop its entry from h
+  private void merge(Node h, int i, int ht) {
+    Node left = h.next[i];
+    Node right = h.next[i + 1];
+
+    if (ht > 0) {
+      right.keys[0] = h.keys[i + 1];
+      System.arraycopy(right.next, 0, left.next, left.m, right.m);
+    } else {
+      System.arraycopy(right.vals, 0, left.vals, left.m, right.m);
+      left.sibling = right.sibling;
+    }
+    System.arraycopy(right.keys, 0, left.keys, left.m, right.m);
+    left.m += right.m;
+    removeAt(h, i + 1);
+  }
+
+  /**
+   * Returns the largest key in the symbol table less than or equal to <tt>key</tt>.
+   *
+   * @param key the key
+   * @return the largest key less than or equal to <tt>key</tt>, or <tt>null</tt>
+   * if there is no such key
+   */
+  public Integer floorKey(int key) {
+    Node x = floor(root, key, height);
+    if (x == null) return null;
+    return x.keys[floorSlot(x.keys, x.m, key)];
+  }
+
+  // the leaf holding the floor of key, or null if there is none
+  private Node floor(Node h, int key, int ht) {
+    if (ht == 0) {
+      return (h.m > 0 && h.keys[0] <= key) ? h : null;
+    }
+
+    int j = floorSlot(h.keys, h.m, key);
+    Node x = floor(h.next[j], key, ht - 1);
+    // every key of the left neighbour is smaller than the separator we followed
+    if (x == null && j > 0) x = rightmostLeaf(h.next[j - 1], ht - 1);
+    return x;
+  }
+
+  /**
+   * Returns the smallest key in the symbol table greater than or equal to <tt>key</tt>.
+   *
+   * @param key the key
+   * @return the smallest key greater than or equal to <tt>key</tt>, or <tt>null</tt>
+   * if there is no such key
+   */
+  public Integer ceilingKey(int key) {
+    Node x = root;
+    for (int ht = height; ht > 0; ht--)
+      x = x.next[floorSlot(x.keys, x.m, key)];
+    int j = indexOf(x, key);
+    if (j < 0) j = -j - 1;
+    // the ceiling is either in this leaf or first in the next one
+    while (x != null && j == x.m) {
+      x = x.sibling;
+      j = 0;
+    }
+    return x == null ? null : x.keys[j];
+  }
+
+  private Node rightmostLeaf(Node h, int ht) {
+    for (; ht > 0; ht--)
+      h = h.next[h.m - 1];
+    return h.m == 0 ? null : h;
+  }
+
+  // binary search of leaf h: the slot holding key, or -(insertion point) - 1
+  private static int indexOf(Node h, int key) {
+    if (h.m == 0) return -1;
+    int j = floorSlot(h.keys, h.m, key);
+    int k = h.keys[j];
+    if (k == key) return j;
+    return -((k < key ? j + 1 : j) + 1);
+  }
+
+  // branch-light binary search: the last slot in [1, m) whose key is <= key,
+  // or 0 if there is none. The loop runs a fixed log2(m) rounds and the
+  // select compiles to a conditional move rather than a jump.
+  private static int floorSlot(int[] keys, int m, int key) {
+    int base = 0;
+    int len = m;
+    while (len > 1) {
+      int half = len >>> 1;
+      base = (keys[base + half] <= key) ? base + half : base;
+      len -= half;
+    }
+    return base;
+  }
+
+  /**
+   * Returns a cursor over every key of this B-tree in ascending order.
+   *
+   * @return a cursor over all keys in ascending order
+   */
+  public Cursor cursor() {
+    return new Cursor(Integer.MIN_VALUE, Integer.MAX_VALUE, true);
+  }
+
+  /**
+   * Returns a cursor over the keys in the half-open range
+   * [<tt>lo</tt>, <tt>hi</tt>) in ascending order. The cursor descends once
+   * and then follows the leaf siblings, so the tree must not be modified while
+   * it is in use.
+   *
+   * @param lo the lowest key to return, inclusive
+   * @param hi the key to stop at, exclusive
+   * @return a cursor over the keys in the given range
+   */
+  public Cursor rangeCursor(int lo, int hi) {
+    return new Cursor(lo, hi, false);
+  }
+
+  /**
+   * In-order cursor over a range of keys that hands out keys as primitives
+   * and the matching value through {@link #value()}, so iteration does not
+   * box anything.
+   */
+  public final class Cursor {
+    private final int hi;
+    private final boolean unbounded;
+    private Node leaf;
+    private int index;
+    private Value val;
+
+    private Cursor(int lo, int hi, boolean unbounded) {
+      this.hi = hi;
+      this.unbounded = unbounded;
+      Node x = root;
+      for (int ht = height; ht > 0; ht--)
+        x = x.next[floorSlot(x.keys, x.m, lo)];
+      int j = indexOf(x, lo);
+      leaf = x;
+      index = j < 0 ? -j - 1 : j;
+      skipExhaustedLeaves();
+    }
+
+    private void skipExhaustedLeaves() {
+      while (leaf != null && index == leaf.m) {
+        leaf = leaf.sibling;
+        index = 0;
+      }
+    }
+
+    /**
+     * Returns true if the cursor has another key in range.
+     *
+     * @return <tt>true</tt> if {@link #nextKey()} will succeed
+     */
+    public boolean hasNext() {
+      return leaf != null && (unbounded || leaf.keys[index] < hi);
+    }
+
+    /**
+     * Advances the cursor and returns the next key in range.
+     *
+     * @return the next key
+     * @throws NoSuchElementException if the range is exhausted
+     */
+    public int nextKey() {
+      if (!hasNext()) throw new NoSuchElementException();
+      int key = leaf.keys[index];
+      val = IntBTree.this.value(leaf, index++);
+      skipExhaustedLeaves();
+      return key;
+    }
+
+    /**
+     * Returns the value associated with the key last returned by {@link #nextKey()}.
+     *
+     * @return the value of the current key
+     */
+    public Value value() {
+      return val;
+    }
+  }
+
+  /**
+   * Checks the structure every other method relies on: keys strictly
+   * ascending within each node and bounded by the separators above it, all
+   * leaves at the same depth, every node but the root at least half full and
+   * never full, unused value and child slots cleared, the leaf siblings linked
+   * in key order and the size matching the pairs present. Takes linear time
+   * (for testing).
+   *
+   * @throws IllegalStateException if the tree is broken, saying where
+   */
+  void checkInvariants() {
+    if (height > 0 && root.m < 2)
+      throw new IllegalStateException("internal root with " + root.m + " children");
+    Node[] lastLeaf = new Node[1];
+    int count = check(root, height, Long.MIN_VALUE, Long.MAX_VALUE, lastLeaf);
+    if (lastLeaf[0].sibling != null)
+      throw new IllegalStateException("last leaf has a sibling");
+    if (count != n)
+      throw new IllegalStateException(count + " pairs in the leaves, size is " + n);
+  }
+
+  // check the subtree h at height ht, whose keys must lie in [lo, hi);
+  // lastLeaf holds the leaf met before it. Returns the number of pairs in the
+  // subtree
+  private int check(Node h, int ht, long lo, long hi, Node[] lastLeaf) {
+    if ((h.vals == null) != (ht > 0))
+      throw new IllegalStateException("leaf and internal node mixed up at height " + ht);
+    if (h.m >= M || (h != root && h.m < M / 2))
+      throw new IllegalStateException("node with " + h.m + " children at height " + ht);
+    for (int j = h.m; j < M; j++) {
+      if ((ht == 0 ? h.vals[j] : h.next[j]) != null)
+        throw new IllegalStateException("uncleared slot " + j + " at height " + ht);
+    }
+    for (int j = (ht == 0) ? 0 : 1; j < h.m; j++) {
+      int key = h.keys[j];
+      if (key < lo || key >= hi)
+        throw new IllegalStateException("key " + key + " outside its separators [" + lo + ", " + hi + ")");
+      if (j > ((ht == 0) ? 0 : 1) && h.keys[j - 1] >= key)
+        throw new IllegalStateException("keys out of order at " + key);
+    }
+
+    if (ht == 0) {
+      for (int j = 0; j < h.m; j++) {
+        if (h.vals[j] == null) throw new IllegalStateException("null value for " + h.keys[j]);
+      }
+      if (lastLeaf[0] != null && lastLeaf[0].sibling != h)
+        throw new IllegalStateException("leaf sibling chain skips or reorders a leaf");
+      lastLeaf[0] = h;
+      return h.m;
+    }
+    int count = 0;
+    for (int j = 0; j < h.m; j++) {
+      long childLo = (j == 0) ? lo : h.keys[j];
+      long childHi = (j + 1 < h.m) ? h.keys[j + 1] : hi;
+      count += check(h.next[j], ht - 1, childLo, childHi, lastLeaf);
+    }
+    return count;
+  }
+
+  /**
+   * Returns a string representation of this B-tree (for debugging).
+   *
+   * @return a string representation of this B-tree.
+   */
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    try {
+      dump(s, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    } catch (IOException e) {
+      throw new AssertionError(e);   // a StringBuilder never throws
+    }
+    return s.append('\n').toString();
+  }
+
+  /**
+   * Writes the same indented outline as {@link #toString()} straight to
+   * <tt>out</tt>, like {@link BTree#dump}: in time linear in what is written,
+   * with nodes deeper than <tt>maxDepth</tt> shown as "..." and output cut
+   * short with "..." after <tt>maxEntries</tt> lines.
+   *
+   * @param out where to write the outline
+   * @param maxDepth the deepest level to expand; the root is at depth 0
+   * @param maxEntries the most key lines to write
+   * @throws IOException if <tt>out</tt> fails
+   * @throws IllegalArgumentException if a limit is negative
+   */
+  public void dump(Appendable out, int maxDepth, int maxEntries) throws IOException {
+    if (maxDepth < 0 || maxEntries < 0)
+      throw new IllegalArgumentException("limits must not be negative");
+    dump(out, root, height, 0, maxDepth, maxEntries);
+  }
+
+  // write the subtree h found at depth below the root; returns how many more
+  // lines may be written, or -1 once the limit has cut the output short
+  private int dump(Appendable out, Node h, int ht, int depth, int maxDepth, int left)
+          throws IOException {
+    if (depth > maxDepth) {
+      indent(out, depth).append("...\n");
+      return left;
+    }
+    for (int j = 0; j < h.m; j++) {
+      if (ht == 0 || j > 0) {
+        if (left == 0) {
+          indent(out, depth).append("...\n");
+          return -1;
+        }
+        left--;
+        if (ht == 0) {
+          indent(out, depth).append(String.valueOf(h.keys[j]))
+                  .append(' ').append(String.valueOf(h.vals[j])).append('\n');
+        } else {
+          indent(out, depth).append('(').append(String.valueOf(h.keys[j])).append(")\n");
+        }
+      }
+      if (ht > 0) {
+        left = dump(out, h.next[j], ht - 1, depth + 1, maxDepth, left);
+        if (left < 0) return left;
+      }
+    }
+    return left;
+  }
+
+  // the value slots only ever hold Values
+  @SuppressWarnings("unchecked")
+  private Value value(Node h, int j) {
+    return (Value) h.vals[j];
+  }
+
+  private static Appendable indent(Appendable out, int depth) throws IOException {
+    for (int i = 0; i < depth; i++)
+      out.append("     ");
+    return out;
+  }
+}
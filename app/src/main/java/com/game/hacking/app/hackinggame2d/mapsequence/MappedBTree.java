@@ -0,0 +1,711 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Disk resident B tree for save data, mapping long keys to long values. The
+ * tree lives in a file of fixed size pages that is memory mapped, so reopening
+ * a save with millions of entries only reads the header page.
+ * Pages are read and changed through a small page cache with clock eviction.
+ * Changed pages stay in the cache until {@link #commit()}, which first appends
+ * their images to a write-ahead log next to the file and syncs it, then copies
+ * them into the mapped file and clears the log. On open, a complete log is
+ * replayed and a torn one discarded, so after a crash the file always holds
+ * exactly the last committed state.
+ * Like {@link ConcurrentBTree}, removals leave underfull pages in place.
+ * Not thread safe.
+ */
+public class MappedBTree implements Closeable {
+  /**
+   * Size in bytes of every page in the file.
+   */
+  public static final int PAGE_SIZE = 4096;
+
+  private static final int MAGIC = 0x48474254;         // "HGBT"
+  private static final int COMMIT_MARK = -1;
+  private static final int PAGES_PER_REGION = 256;      // pages per mapped region
+  private static final int DEFAULT_CACHE_PAGES = 256;
+
+  // max children per page = M-1; a leaf holds M keys and M values at most
+  private static final int M = 254;
+
+  // node page layout
+  private static final int TYPE = 0;                    // byte: 0 leaf, 1 internal
+  private static final int COUNT = 4;                   // int: number of children
+  private static final int SIBLING = 8;                 // int: next leaf page, 0 if none
+  private static final int KEYS = 16;                   // long[M]
+  private static final int PAYLOAD = KEYS + 8 * M;      // long[M] values or int[M] children
+
+  // header page layout
+  private static final int H_MAGIC = 0;
+  private static final int H_PAGE_SIZE = 4;
+  private static final int H_ROOT = 8;
+  private static final int H_HEIGHT = 12;
+  private static final int H_PAGES = 16;
+  private static final int H_COUNT = 24;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final RandomAccessFile log;
+  private final FileChannel logChannel;
+  private final List<MappedByteBuffer> regions = new ArrayList<>();
+
+  private int root;          // page of the root node
+  private int height;        // height of the B-tree
+  private int pageCount;     // pages in use, including the header
+  private long n;            // number of key-value pairs
+  private boolean headerDirty;
+
+  // page cache
+  private final int capacity;
+  private final List<Frame> frames = new ArrayList<>();
+  private final HashMap<Integer, Frame> table = new HashMap<>();
+  private final List<Frame> pinned = new ArrayList<>();
+  private int hand;
+
+  // a cached copy of one page
+  private static final class Frame {
+    private int page = -1;
+    private final ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+    private boolean dirty;
+    private boolean referenced;
+    private int pins;
+  }
+
+  /**
+   * Opens the tree stored in <tt>file</tt>, creating it if needed, with the
+   * default cache size.
+   *
+   * @param file the data file; the log is kept beside it with a .wal suffix
+   * @throws IOException if the file cannot be opened or recovered
+   */
+  public MappedBTree(File file) throws IOException {
+    this(file, DEFAULT_CACHE_PAGES);
+  }
+
+  /**
+   * Opens the tree stored in <tt>file</tt>, creating it if needed. A log left
+   * behind by a crash is replayed if it is complete and dropped otherwise.
+   *
+   * @param file the data file; the log is kept beside it with a .wal suffix
+   * @param cachePages how many pages to keep cached between commits
+   * @throws IOException if the file cannot be opened or recovered
+   * @throws IllegalArgumentException if <tt>cachePages</tt> is too small
+   */
+  public MappedBTree(File file, int cachePages) throws IOException {
+    if (cachePages < 16) throw new IllegalArgumentException("cache must hold at least 16 pages");
+    capacity = cachePages;
+    this.file = new RandomAccessFile(file, "rw");
+    channel = this.file.getChannel();
+    log = new RandomAccessFile(new File(file.getPath() + ".wal"), "rw");
+    logChannel = log.getChannel();
+
+    recover();
+
+    if (channel.size() < PAGE_SIZE || region(0).getInt(H_MAGIC) == 0) {
+      // fresh file, or one that crashed before its first commit:
+      // a header and one empty leaf
+      pageCount = 1;
+      root = allocate(true);
+      height = 0;
+      n = 0;
+      headerDirty = true;
+      unpinAll();
+      commit();
+    } else {
+      ByteBuffer header = region(0);
+      if (header.getInt(H_MAGIC) != MAGIC || header.getInt(H_PAGE_SIZE) != PAGE_SIZE)
+        throw new IOException("not a B-tree file: " + file);
+      root = header.getInt(H_ROOT);
+      height = header.getInt(H_HEIGHT);
+      pageCount = header.getInt(H_PAGES);
+      n = header.getLong(H_COUNT);
+    }
+  }
+
+  /**
+   * Returns the number of key-value pairs in this tree.
+   *
+   * @return the number of key-value pairs
+   */
+  public long size() {
+    return n;
+  }
+
+  /**
+   * Returns the height of this B-tree (for debugging).
+   *
+   * @return the height of this B-tree
+   */
+  public int height() {
+    return height;
+  }
+
+  /**
+   * Returns the value associated with the given key.
+   *
+   * @param key the key
+   * @param missing what to return if the key is absent
+   * @return the value associated with the key, or <tt>missing</tt>
+   * @throws IOException if a page cannot be mapped
+   */
+  public long get(long key, long missing) throws IOException {
+    try {
+      ByteBuffer x = leafFor(key);
+      int j = indexOf(x, key);
+      return j < 0 ? missing : value(x, j);
+    } finally {
+      unpinAll();
+    }
+  }
+
+  /**
+   * Returns true if the key is in this tree.
+   *
+   * @param key the key
+   * @return <tt>true</tt> if the key is present; <tt>false</tt> otherwise
+   * @throws IOException if a page cannot be mapped
+   */
+  public boolean containsKey(long key) throws IOException {
+    try {
+      return indexOf(leafFor(key), key) >= 0;
+    } finally {
+      unpinAll();
+    }
+  }
+
+  // the pinned leaf whose range covers key
+  private ByteBuffer leafFor(long key) throws IOException {
+    ByteBuffer x = fetch(root).buf;
+    for (int ht = height; ht > 0; ht--)
+      x = fetch(child(x, childIndex(x, key))).buf;
+    return x;
+  }
+
+  /**
+   * Inserts the key-value pair, overwriting the old value if the key is already
+   * present. The change becomes durable at the next {@link #commit()}; if it
+   * leaves more changed pages than the cache holds, it commits by itself.
+   *
+   * @param key the key
+   * @param val the value
+   * @return <tt>true</tt> if the key was not present before
+   * @throws IOException if a page cannot be mapped or the commit fails
+   */
+  public boolean put(long key, long val) throws IOException {
+    long before = n;
+    try {
+      int u = insert(root, key, val, height);
+      if (u != 0) {
+        // need to split root
+        int r = allocate(false);
+        ByteBuffer t = fetch(r).buf;
+        ByteBuffer old = fetch(root).buf;
+        ByteBuffer right = fetch(u).buf;
+        setKey(t, 0, key(old, 0));
+        setChild(t, 0, root);
+        setKey(t, 1, key(right, 0));
+        setChild(t, 1, u);
+        setCount(t, 2);
+        root = r;
+        height++;
+      }
+      headerDirty = true;
+    } finally {
+      unpinAll();
+    }
+    if (frames.size() > capacity) commit();
+    return n != before;
+  }
+
+  /**
+   * Removes the key and its value. The change becomes durable at the next
+   * {@link #commit()}.
+   *
+   * @param key the key
+   * @return <tt>true</tt> if the key was present
+   * @throws IOException if a page cannot be mapped or the commit fails
+   */
+  public boolean remove(long key) throws IOException {
+    boolean found;
+    try {
+      Frame f = fetch(root);
+      for (int ht = height; ht > 0; ht--)
+        f = fetch(child(f.buf, childIndex(f.buf, key)));
+      ByteBuffer x = f.buf;
+      int j = indexOf(x, key);
+      found = j >= 0;
+      if (found) {
+        int m = count(x);
+        shift(x, j + 1, j, m - j - 1, true);
+        setCount(x, m - 1);
+        f.dirty = true;
+        n--;
+        headerDirty = true;
+      }
+    } finally {
+      unpinAll();
+    }
+    if (frames.size() > capacity) commit();
+    return found;
+  }
+
+  // insert into the subtree at page p of height ht; returns the page of the
+  // new right sibling if p had to split, else 0
+  private int insert(int p, long key, long val, int ht) throws IOException {
+    Frame f = fetch(p);
+    ByteBuffer h = f.buf;
+    int m = count(h);
+    int j;
+
+    // external node
+    if (ht == 0) {
+      j = indexOf(h, key);
+      if (j >= 0) {
+        setValue(h, j, val);
+        f.dirty = true;
+        return 0;
+      }
+      j = -j - 1;
+      shift(h, j, j + 1, m - j, true);
+      setKey(h, j, key);
+      setValue(h, j, val);
+      n++;
+    }
+
+    // internal node
+    else {
+      j = childIndex(h, key);
+      int u = insert(child(h, j++), key, val, ht - 1);
+      if (u == 0) return 0;
+      shift(h, j, j + 1, m - j, false);
+      setKey(h, j, key(fetch(u).buf, 0));
+      setChild(h, j, u);
+    }
+
+    f.dirty = true;
+    setCount(h, ++m);
+    if (m < M) return 0;
+    return split(h, ht == 0);
+  }
+
+  // move the upper half of the full node h to a new page and return it
+  private int split(ByteBuffer h, boolean leaf) throws IOException {
+    int p = allocate(leaf);
+    ByteBuffer t = fetch(p).buf;
+    int half = M / 2;
+    for (int j = 0; j < half; j++) {
+      setKey(t, j, key(h, half + j));
+      if (leaf) setValue(t, j, value(h, half + j));
+      else setChild(t, j, child(h, half + j));
+    }
+    setCount(t, half);
+    setCount(h, half);
+    if (leaf) {
+      t.putInt(SIBLING, h.getInt(SIBLING));
+      h.putInt(SIBLING, p);
+    }
+    return p;
+  }
+
+  // shift len slots of node h from index from to index to
+  private static void shift(ByteBuffer h, int from, int to, int len, boolean leaf) {
+    if (len <= 0) return;
+    moveBytes(h, KEYS + 8 * from, KEYS + 8 * to, 8 * len);
+    int width = leaf ? 8 : 4;
+    moveBytes(h, PAYLOAD + width * from, PAYLOAD + width * to, width * len);
+  }
+
+  private static void moveBytes(ByteBuffer h, int from, int to, int len) {
+    byte[] a = h.array();
+    System.arraycopy(a, h.arrayOffset() + from, a, h.arrayOffset() + to, len);
+  }
+
+  // binary search of a leaf: the slot holding key, or -(insertion point) - 1
+  private static int indexOf(ByteBuffer h, long key) {
+    int lo = 0;
+    int hi = count(h) - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      long k = key(h, mid);
+      if (k < key) lo = mid + 1;
+      else if (k > key) hi = mid - 1;
+      else return mid;
+    }
+    return -(lo + 1);
+  }
+
+  // binary search of an internal node: the last child whose lower bound is <= key
+  private static int childIndex(ByteBuffer h, long key) {
+    int lo = 1;
+    int hi = count(h) - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (key < key(h, mid)) hi = mid - 1;
+      else lo = mid + 1;
+    }
+    return lo - 1;
+  }
+
+  private static int count(ByteBuffer h) {
+    return h.getInt(COUNT);
+  }
+
+  private static void setCount(ByteBuffer h, int m) {
+    h.putInt(COUNT, m);
+  }
+
+  private static long key(ByteBuffer h, int j) {
+    return h.getLong(KEYS + 8 * j);
+  }
+
+  private static void setKey(ByteBuffer h, int j, long key) {
+    h.putLong(KEYS + 8 * j, key);
+  }
+
+  private static long value(ByteBuffer h, int j) {
+    return h.getLong(PAYLOAD + 8 * j);
+  }
+
+  private static void setValue(ByteBuffer h, int j, long val) {
+    h.putLong(PAYLOAD + 8 * j, val);
+  }
+
+  private static int child(ByteBuffer h, int j) {
+    return h.getInt(PAYLOAD + 4 * j);
+  }
+
+  private static void setChild(ByteBuffer h, int j, int page) {
+    h.putInt(PAYLOAD + 4 * j, page);
+  }
+
+  /**
+   * Returns a cursor over every key in ascending order. The tree must not be
+   * modified while the cursor is in use.
+   *
+   * @return a cursor over all keys
+   * @throws IOException if a page cannot be mapped
+   */
+  public Cursor cursor() throws IOException {
+    int p = root;
+    try {
+      for (int ht = height; ht > 0; ht--)
+        p = child(fetch(p).buf, 0);
+    } finally {
+      unpinAll();
+    }
+    return new Cursor(p);
+  }
+
+  /**
+   * In-order cursor that follows the leaf sibling links.
+   */
+  public final class Cursor {
+    private int leaf;
+    private int index;
+    private long val;
+
+    private Cursor(int leaf) throws IOException {
+      this.leaf = leaf;
+      skipExhaustedLeaves();
+    }
+
+    private void skipExhaustedLeaves() throws IOException {
+      try {
+        while (leaf != 0) {
+          ByteBuffer x = fetch(leaf).buf;
+          if (index < count(x)) return;
+          leaf = x.getInt(SIBLING);
+          index = 0;
+        }
+      } finally {
+        unpinAll();
+      }
+    }
+
+    /**
+     * Returns true if the cursor has another key.
+     *
+     * @return <tt>true</tt> if {@link #nextKey()} will succeed
+     */
+    public boolean hasNext() {
+      return leaf != 0;
+    }
+
+    /**
+     * Advances the cursor and returns the next key.
+     *
+     * @return the next key
+     * @throws IOException if a page cannot be mapped
+     * @throws NoSuchElementException if every key has been returned
+     */
+    public long nextKey() throws IOException {
+      if (leaf == 0) throw new NoSuchElementException();
+      long key;
+      try {
+        ByteBuffer x = fetch(leaf).buf;
+        key = key(x, index);
+        val = MappedBTree.value(x, index);
+      } finally {
+        unpinAll();
+      }
+      index++;
+      skipExhaustedLeaves();
+      return key;
+    }
+
+    /**
+     * Returns the value associated with the key last returned by {@link #nextKey()}.
+     *
+     * @return the value of the current key
+     */
+    public long value() {
+      return val;
+    }
+  }
+
+  /**
+   * Makes every change since the last commit durable. The changed pages are
+   * logged and synced before the data file is touched, so a crash at any point
+   * leaves either the old or the new state after reopening.
+   *
+   * @throws IOException if the log or the data file cannot be written
+   */
+  public void commit() throws IOException {
+    List<Frame> dirty = new ArrayList<>();
+    for (Frame f : frames) {
+      if (f.dirty) dirty.add(f);
+    }
+    if (dirty.isEmpty() && !headerDirty) return;
+
+    ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+    header.putInt(H_MAGIC, MAGIC);
+    header.putInt(H_PAGE_SIZE, PAGE_SIZE);
+    header.putInt(H_ROOT, root);
+    header.putInt(H_HEIGHT, height);
+    header.putInt(H_PAGES, pageCount);
+    header.putLong(H_COUNT, n);
+
+    // 1. log every page image, then the commit mark, and sync
+    CRC32 crc = new CRC32();
+    logChannel.truncate(0);
+    logChannel.position(0);
+    writeLogRecord(crc, 0, header);
+    for (Frame f : dirty) {
+      writeLogRecord(crc, f.page, f.buf);
+    }
+    ByteBuffer mark = ByteBuffer.allocate(16);
+    mark.putInt(COMMIT_MARK).putInt(dirty.size() + 1).putLong(crc.getValue());
+    mark.flip();
+    writeFully(logChannel, mark);
+    logChannel.force(true);
+
+    // 2. apply the pages to the data file and sync it
+    writePage(0, header);
+    for (Frame f : dirty) {
+      writePage(f.page, f.buf);
+      f.dirty = false;
+    }
+    for (MappedByteBuffer region : regions) {
+      if (region != null) region.force();
+    }
+    headerDirty = false;
+
+    // 3. the data file is now authoritative
+    logChannel.truncate(0);
+    logChannel.force(true);
+
+    trimCache();
+  }
+
+  private void writeLogRecord(CRC32 crc, int page, ByteBuffer image) throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(4 + PAGE_SIZE);
+    record.putInt(page);
+    record.put(image.array(), image.arrayOffset(), PAGE_SIZE);
+    crc.update(record.array(), 0, record.capacity());
+    record.flip();
+    writeFully(logChannel, record);
+  }
+
+  private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining())
+      ch.write(buf);
+  }
+
+  // replay a complete log left behind by a crash, or drop a torn one
+  private void recover() throws IOException {
+    long size = logChannel.size();
+    if (size == 0) return;
+
+    List<Integer> pages = new ArrayList<>();
+    List<ByteBuffer> images = new ArrayList<>();
+    CRC32 crc = new CRC32();
+    boolean complete = false;
+    long pos = 0;
+    ByteBuffer word = ByteBuffer.allocate(4);
+
+    while (pos + 4 <= size) {
+      word.clear();
+      readFully(logChannel, word, pos);
+      int page = word.getInt(0);
+      if (page == COMMIT_MARK) {
+        if (pos + 16 > size) break;
+        ByteBuffer mark = ByteBuffer.allocate(12);
+        readFully(logChannel, mark, pos + 4);
+        complete = mark.getInt(0) == pages.size() && mark.getLong(4) == crc.getValue();
+        break;
+      }
+      if (pos + 4 + PAGE_SIZE > size) break;
+      ByteBuffer record = ByteBuffer.allocate(4 + PAGE_SIZE);
+      readFully(logChannel, record, pos);
+      crc.update(record.array(), 0, record.capacity());
+      ByteBuffer image = ByteBuffer.allocate(PAGE_SIZE);
+      image.put(record.array(), 4, PAGE_SIZE);
+      pages.add(page);
+      images.add(image);
+      pos += 4 + PAGE_SIZE;
+    }
+
+    if (complete) {
+      for (int i = 0; i < pages.size(); i++) {
+        writePage(pages.get(i), images.get(i));
+      }
+      for (MappedByteBuffer region : regions) {
+        if (region != null) region.force();
+      }
+    }
+    logChannel.truncate(0);
+    logChannel.force(true);
+  }
+
+  private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      int r = ch.read(buf, pos + buf.position());
+      if (r < 0) throw new IOException("unexpected end of log");
+    }
+  }
+
+  // copy a page image into the mapped data file
+  private void writePage(int page, ByteBuffer image) throws IOException {
+    region(page).put(image.array(), image.arrayOffset(), PAGE_SIZE);
+  }
+
+  // a view of the mapped bytes of one page, mapping its region on first use
+  private ByteBuffer region(int page) throws IOException {
+    int r = page / PAGES_PER_REGION;
+    while (regions.size() <= r)
+      regions.add(null);
+    MappedByteBuffer region = regions.get(r);
+    if (region == null) {
+      long bytes = (long) PAGES_PER_REGION * PAGE_SIZE;
+      region = channel.map(FileChannel.MapMode.READ_WRITE, r * bytes, bytes);
+      regions.set(r, region);
+    }
+    ByteBuffer view = region.duplicate();
+    view.position((page % PAGES_PER_REGION) * PAGE_SIZE);
+    ByteBuffer slice = view.slice();
+    slice.limit(PAGE_SIZE);
+    return slice;
+  }
+
+  // claim a fresh page at the end of the file and return its number
+  private int allocate(boolean leaf) throws IOException {
+    int page = pageCount++;
+    Frame f = frameFor(page);
+    ByteBuffer buf = f.buf;
+    Arrays.fill(buf.array(), buf.arrayOffset(), buf.arrayOffset() + PAGE_SIZE, (byte) 0);
+    buf.put(TYPE, (byte) (leaf ? 0 : 1));
+    f.dirty = true;
+    headerDirty = true;
+    return page;
+  }
+
+  // the cached frame of a page, reading it in on a miss; pinned until unpinAll
+  private Frame fetch(int page) throws IOException {
+    Frame f = table.get(page);
+    if (f == null) {
+      ByteBuffer src = region(page);
+      f = frameFor(page);
+      src.get(f.buf.array(), f.buf.arrayOffset(), PAGE_SIZE);
+    } else {
+      pin(f);
+    }
+    f.referenced = true;
+    return f;
+  }
+
+  // evict a clean, unpinned frame with the clock hand and bind it to page;
+  // if every frame is dirty or pinned the cache grows until the next commit
+  private Frame frameFor(int page) {
+    Frame victim = null;
+    for (int sweep = 0; sweep < 2 * frames.size() && victim == null; sweep++) {
+      Frame f = frames.get(hand);
+      hand = (hand + 1) % frames.size();
+      if (f.dirty || f.pins > 0) continue;
+      if (f.referenced) f.referenced = false;
+      else victim = f;
+    }
+    if (victim == null) {
+      victim = new Frame();
+      frames.add(victim);
+    } else if (victim.page >= 0) {
+      table.remove(victim.page);
+    }
+    victim.page = page;
+    victim.dirty = false;
+    victim.referenced = true;
+    table.put(page, victim);
+    pin(victim);
+    return victim;
+  }
+
+  private void pin(Frame f) {
+    if (f.pins++ == 0) pinned.add(f);
+  }
+
+  private void unpinAll() {
+    for (Frame f : pinned) {
+      f.pins = 0;
+    }
+    pinned.clear();
+  }
+
+  // after a commit every frame is clean, so drop the ones above capacity
+  private void trimCache() {
+    while (frames.size() > capacity) {
+      Frame f = frames.remove(frames.size() - 1);
+      if (f.page >= 0) table.remove(f.page);
+    }
+    hand = 0;
+  }
+
+  /**
+   * Commits outstanding changes and closes the files.
+   *
+   * @throws IOException if the commit or closing fails
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      commit();
+    } finally {
+      regions.clear();
+      table.clear();
+      frames.clear();
+      log.close();
+      file.close();
+    }
+  }
+}
@@ -0,0 +1,274 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import com.game.hacking.app.hackinggame2d.grafiks.Vec2D;
+
+import java.util.Arrays;
+
+/**
+ * Shortest paths over a frozen {@link GameGraph}, by Dijkstra's algorithm or
+ * by A* guided by the straight line distance between vertex positions.
+ * Vertices are numbered as in {@link #graph()}. Both searches keep their
+ * frontier in an indexed binary heap, so a vertex whose distance drops is
+ * moved up in place rather than added again, and all the scratch arrays are
+ * sized once for the map and reused: each query stamps the entries it
+ * touches instead of clearing them, so a query costs only what it visits
+ * and allocates nothing. A path finder is not thread safe; give each thread
+ * its own.
+ * <p>
+ * Edge distances need not match the map's geometry. The heuristic scales
+ * the straight line distance by the smallest ratio of edge distance to edge
+ * length on the map, which keeps it from ever overestimating, so A* returns
+ * the same distances as Dijkstra. On a map whose distances are unrelated to
+ * positions that ratio may be 0, and A* then searches like Dijkstra.
+ * @param <T> the data held by the vertices
+ */
+public class PathFinder<T> {
+  private static final long UNREACHED = Long.MAX_VALUE;
+
+  private final FrozenGraph<T> graph;
+  private final float[] xs;
+  private final float[] ys;
+  // what the heuristic multiplies straight line distances by
+  private final double scale;
+
+  // per vertex scratch, valid only where stamp equals query
+  private final int[] stamp;
+  private final long[] dist;
+  private final int[] parent;
+  private final boolean[] settled;
+  // the indexed heap: vertices ordered by priority, and each vertex's place
+  // in it, or -1 once it has left
+  private final int[] heap;
+  private final int[] place;
+  private final double[] priority;
+  private int size;
+
+  private int query;
+  private int source = -1;
+
+  /**
+   * Freezes the graph and sizes the scratch arrays for it. Later changes to
+   * the graph are not seen; make a new path finder after changing the map.
+   *
+   * @param gameGraph the map to search
+   * @throws IllegalStateException if an edge has a negative distance or none
+   */
+  public PathFinder(GameGraph<T> gameGraph) {
+    graph = gameGraph.freeze();
+    int n = graph.vertexCount();
+    xs = new float[n];
+    ys = new float[n];
+    boolean placed = true;
+    for (int v = 0; v < n; v++) {
+      Vec2D at = gameGraph.getCoordForVertex(graph.vertex(v));
+      if (at == null) {
+        placed = false;
+        continue;
+      }
+      xs[v] = at.getX();
+      ys[v] = at.getY();
+    }
+
+    double ratio = Double.POSITIVE_INFINITY;
+    for (int v = 0; v < n; v++) {
+      for (int e = graph.offsets[v], end = graph.offsets[v + 1]; e < end; e++) {
+        int weight = graph.weights[e];
+        if (weight < 0) throw new IllegalStateException("negative edge distance from vertex " + v);
+        double length = straightLine(v, graph.targets[e]);
+        if (length > 0) ratio = Math.min(ratio, weight / length);
+      }
+    }
+    // without a position for every vertex there is nothing safe to scale
+    scale = (placed && ratio != Double.POSITIVE_INFINITY) ? ratio : 0;
+
+    stamp = new int[n];
+    dist = new long[n];
+    parent = new int[n];
+    settled = new boolean[n];
+    heap = new int[n];
+    place = new int[n];
+    priority = new double[n];
+  }
+
+  /**
+   * Returns the snapshot the path finder searches, which numbers the vertices.
+   *
+   * @return the frozen graph
+   */
+  public FrozenGraph<T> graph() {
+    return graph;
+  }
+
+  /**
+   * Finds the shortest distance from <tt>from</tt> to <tt>to</tt> with
+   * Dijkstra's algorithm, stopping once <tt>to</tt> is settled. Passing -1
+   * for <tt>to</tt> settles every reachable vertex, after which
+   * {@link #distanceTo} and {@link #pathTo} answer for all of them.
+   *
+   * @param from the vertex to start from
+   * @param to the vertex to find, or -1 for all of them
+   * @return the distance, or <tt>Long.MAX_VALUE</tt> if <tt>to</tt> cannot
+   * be reached or is -1
+   */
+  public long dijkstra(int from, int to) {
+    return search(from, to, 0);
+  }
+
+  /**
+   * Finds the shortest distance from <tt>from</tt> to <tt>to</tt> with A*,
+   * which settles the vertices in the direction of <tt>to</tt> first and so
+   * usually visits far fewer of them than {@link #dijkstra}.
+   *
+   * @param from the vertex to start from
+   * @param to the vertex to find
+   * @return the distance, or <tt>Long.MAX_VALUE</tt> if <tt>to</tt> cannot
+   * be reached
+   */
+  public long aStar(int from, int to) {
+    checkVertex(to);
+    return search(from, to, scale);
+  }
+
+  /**
+   * Returns the distance the last search settled for a vertex.
+   *
+   * @param v the vertex
+   * @return the distance from the last search's start, or
+   * <tt>Long.MAX_VALUE</tt> if the last search did not settle <tt>v</tt>
+   */
+  public long distanceTo(int v) {
+    checkVertex(v);
+    return isSettled(v) ? dist[v] : UNREACHED;
+  }
+
+  /**
+   * Writes the shortest path the last search found to a vertex, from the
+   * start of the search to <tt>v</tt>, both included.
+   *
+   * @param v the vertex the path leads to
+   * @param out receives the vertices of the path in order; a buffer of
+   * <tt>graph().vertexCount()</tt> entries always has room
+   * @return the number of vertices written, or 0 if the last search did not
+   * settle <tt>v</tt>
+   * @throws IllegalArgumentException if the path does not fit in <tt>out</tt>
+   */
+  public int pathTo(int v, int[] out) {
+    checkVertex(v);
+    if (!isSettled(v)) return 0;
+    int length = 1;
+    for (int u = v; u != source; u = parent[u]) length++;
+    if (length > out.length)
+      throw new IllegalArgumentException("path of " + length + " does not fit in " + out.length);
+    for (int u = v, i = length - 1; i >= 0; u = parent[u], i--) out[i] = u;
+    return length;
+  }
+
+  private boolean isSettled(int v) {
+    return stamp[v] == query && settled[v];
+  }
+
+  // Dijkstra when weight is 0, A* otherwise; the priority of a vertex is its
+  // distance plus weight times its straight line distance to the goal
+  private long search(int from, int to, double weight) {
+    checkVertex(from);
+    if (to != -1) checkVertex(to);
+    nextQuery();
+    source = from;
+    size = 0;
+    reach(from, 0, -1, weight * straightLine(from, to));
+
+    int[] offsets = graph.offsets;
+    int[] targets = graph.targets;
+    int[] weights = graph.weights;
+    while (size > 0) {
+      int v = pop();
+      settled[v] = true;
+      if (v == to) return dist[v];
+      long d = dist[v];
+      for (int e = offsets[v], end = offsets[v + 1]; e < end; e++) {
+        int w = targets[e];
+        long candidate = d + weights[e];
+        if (stamp[w] != query) {
+          reach(w, candidate, v, candidate + weight * straightLine(w, to));
+        } else if (!settled[w] && candidate < dist[w]) {
+          // the heuristic part of the priority stays the same
+          priority[w] -= dist[w] - candidate;
+          dist[w] = candidate;
+          parent[w] = v;
+          siftUp(place[w], w);
+        }
+      }
+    }
+    return UNREACHED;
+  }
+
+  // start a new query, clearing the stamps only when the counter wraps
+  private void nextQuery() {
+    if (++query == Integer.MAX_VALUE) {
+      Arrays.fill(stamp, 0);
+      query = 1;
+    }
+  }
+
+  // first sight of v in this query: record it and push it on the heap
+  private void reach(int v, long distance, int from, double key) {
+    stamp[v] = query;
+    dist[v] = distance;
+    parent[v] = from;
+    settled[v] = false;
+    priority[v] = key;
+    siftUp(size++, v);
+  }
+
+  private int pop() {
+    int top = heap[0];
+    place[top] = -1;
+    if (--size > 0) siftDown(0, heap[size]);
+    return top;
+  }
+
+  // move v up from slot i, which is free, to where its priority belongs
+  private void siftUp(int i, int v) {
+    double key = priority[v];
+    while (i > 0) {
+      int up = (i - 1) >>> 1;
+      int u = heap[up];
+      if (priority[u] <= key) break;
+      heap[i] = u;
+      place[u] = i;
+      i = up;
+    }
+    heap[i] = v;
+    place[v] = i;
+  }
+
+  // move v down from slot i, which is free, to where its priority belongs
+  private void siftDown(int i, int v) {
+    double key = priority[v];
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      if (child + 1 < size && priority[heap[child + 1]] < priority[heap[child]]) child++;
+      int u = heap[child];
+      if (key <= priority[u]) break;
+      heap[i] = u;
+      place[u] = i;
+      i = child;
+    }
+    heap[i] = v;
+    place[v] = i;
+  }
+
+  // straight line distance between two vertices, 0 when either is -1
+  private double straightLine(int u, int v) {
+    if (u < 0 || v < 0) return 0;
+    double dx = xs[u] - xs[v];
+    double dy = ys[u] - ys[v];
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  private void checkVertex(int v) {
+    if (v < 0 || v >= stamp.length)
+      throw new IndexOutOfBoundsException("vertex " + v + " of " + stamp.length);
+  }
+}
@@ -0,0 +1,635 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Copy-on-write B tree for handing the renderer a frame-consistent view of game
+ * state while the logic thread keeps changing it. Nodes are never modified once
+ * built: {@link #put} and {@link #remove} copy only the nodes on the path from
+ * the root to the touched leaf (plus a sibling when rebalancing) and publish a
+ * new root, sharing every other node with the versions before it.
+ * {@link #snapshot()} is therefore O(1), and a snapshot stays valid for as long
+ * as someone holds it; versions nobody references are left to the garbage
+ * collector. Writes must come from a single thread, reads may come from any.
+ * @param <Key>
+ * @param <Value>
+ */
+public class PersistentBTree<Key extends Comparable<Key>, Value> {
+  // default max children per B-tree node = M-1
+  private static final int DEFAULT_ORDER = 16;
+
+  // max children per B-tree node = M-1
+  // (must be even and greater than 2)
+  private final int M;
+
+  private volatile Snapshot<Key, Value> head;   // the latest published version
+
+  // scratch state of the single writer while it rebuilds a path
+  private Node splitOff;      // right half produced by the last split
+  private boolean added;      // whether the last insert added a new key
+  private Value removed;      // value dropped by the last delete
+
+  // immutable B-tree node; the arrays are exactly m long and never written
+  // after construction, so versions can share them freely
+  // internal nodes: keys[j] is a lower bound for the subtree next[j]
+  // (keys[0] is never consulted), external nodes: keys[j] maps to vals[j]
+  private static final class Node {
+    private final Object[] keys;               // the keys, read through key()
+    private final Object[] vals;               // the values (leaves only)
+    private final Node[] next;                 // the subtrees (internal nodes only)
+
+    private Node(Object[] keys, Object[] vals, Node[] next) {
+      this.keys = keys;
+      this.vals = vals;
+      this.next = next;
+    }
+
+    private int m() {
+      return keys.length;
+    }
+  }
+
+  /**
+   * Initializes an empty B-tree.
+   */
+  public PersistentBTree() {
+    this(DEFAULT_ORDER);
+  }
+
+  /**
+   * Initializes an empty B-tree whose nodes hold up to <tt>order - 1</tt> children.
+   *
+   * @param order the node capacity; must be even and greater than 2
+   * @throws IllegalArgumentException if <tt>order</tt> is odd or not greater than 2
+   */
+  public PersistentBTree(int order) {
+    if (order <= 2 || order % 2 != 0)
+      throw new IllegalArgumentException("order must be even and greater than 2: " + order);
+    M = order;
+    head = new Snapshot<>(new Node(new Object[0], new Object[0], null), 0, 0);
+  }
+
+  /**
+   * Returns an immutable view of the current contents in O(1).
+   *
+   * @return the latest version of this B-tree
+   */
+  public Snapshot<Key, Value> snapshot() {
+    return head;
+  }
+
+  /**
+   * Returns the number of key-value pairs in the current version.
+   *
+   * @return the number of key-value pairs in the current version
+   */
+  public int size() {
+    return head.size();
+  }
+
+  /**
+   * Returns the value associated with the given key in the current version.
+   *
+   * @param key the key
+   * @return the value associated with the given key, or <tt>null</tt>
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  public Value get(Key key) {
+    return head.get(key);
+  }
+
+  /**
+   * Inserts the key-value pair, overwriting the old value if the key is already
+   * present, and publishes the result as the new current version. Snapshots
+   * taken earlier are not affected. If the value is <tt>null</tt>, this
+   * effectively deletes the key.
+   *
+   * @param key the key
+   * @param val the value
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  public void put(Key key, Value val) {
+    if (key == null) throw new NullPointerException("key must not be null");
+    if (val == null) {
+      remove(key);
+      return;
+    }
+    Snapshot<Key, Value> s = head;
+    Node r = insert(s.root, key, val, s.height);
+    Node u = splitOff;
+    splitOff = null;
+    int height = s.height;
+    if (u != null) {
+      // need to split root
+      r = new Node(new Object[] {r.keys[0], u.keys[0]}, null, new Node[] {r, u});
+      height++;
+    }
+    head = new Snapshot<>(r, height, added ? s.n + 1 : s.n);
+    added = false;
+  }
+
+  /**
+   * Removes the key and publishes the result as the new current version.
+   * Snapshots taken earlier are not affected.
+   *
+   * @param key the key
+   * @return the value that was associated with the key, or <tt>null</tt> if
+   * the key was not present
+   * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+   */
+  public Value remove(Key key) {
+    if (key == null) throw new NullPointerException("key must not be null");
+    Snapshot<Key, Value> s = head;
+    Node r = delete(s.root, key, s.height);
+    if (r == s.root) return null;
+    Value old = removed;
+    removed = null;
+
+    int height = s.height;
+    // an internal root left with a single child is collapsed
+    if (height > 0 && r.m() == 1) {
+      r = r.next[0];
+      height--;
+    }
+    head = new Snapshot<>(r, height, s.n - 1);
+    return old;
+  }
+
+  // copy of h with key inserted; leaves the right half in splitOff on a split
+  private Node insert(Node h, Key key, Value val, int ht) {
+    int m = h.m();
+
+    // external node
+    if (ht == 0) {
+      int j = indexOf(h.keys, key);
+      if (j >= 0) {
+        Object[] vals = h.vals.clone();
+        vals[j] = val;
+        return new Node(h.keys, vals, null);
+      }
+      j = -j - 1;
+      added = true;
+      Object[] keys = new Object[m + 1];
+      Object[] vals = new Object[m + 1];
+      System.arraycopy(h.keys, 0, keys, 0, j);
+      System.arraycopy(h.vals, 0, vals, 0, j);
+      keys[j] = key;
+      vals[j] = val;
+      System.arraycopy(h.keys, j, keys, j + 1, m - j);
+      System.arraycopy(h.vals, j, vals, j + 1, m - j);
+      return splitIfFull(keys, vals, null);
+    }
+
+    // internal node
+    int j = childIndex(h.keys, key);
+    Node c = insert(h.next[j], key, val, ht - 1);
+    Node u = splitOff;
+    splitOff = null;
+    if (u == null) {
+      Node[] next = h.next.clone();
+      next[j] = c;
+      return new Node(h.keys, null, next);
+    }
+    Object[] keys = new Object[m + 1];
+    Node[] next = new Node[m + 1];
+    System.arraycopy(h.keys, 0, keys, 0, j + 1);
+    System.arraycopy(h.next, 0, next, 0, j);
+    next[j] = c;
+    keys[j + 1] = u.keys[0];
+    next[j + 1] = u;
+    System.arraycopy(h.keys, j + 1, keys, j + 2, m - j - 1);
+    System.arraycopy(h.next, j + 1, next, j + 2, m - j - 1);
+    return splitIfFull(keys, null, next);
+  }
+
+  // build a node from the arrays, splitting it in half if it reached M
+  private Node splitIfFull(Object[] keys, Object[] vals, Node[] next) {
+    if (keys.length < M) return new Node(keys, vals, next);
+    int half = M / 2;
+    splitOff = new Node(slice(keys, half, M), vals == null ? null : slice(vals, half, M),
+            next == null ? null : slice(next, half, M));
+    return new Node(slice(keys, 0, half), vals == null ? null : slice(vals, 0, half),
+            next == null ? null : slice(next, 0, half));
+  }
+
+  // copy of h without key, or h itself if the key is absent
+  private Node delete(Node h, Key key, int ht) {
+    // external node
+    if (ht == 0) {
+      int j = indexOf(h.keys, key);
+      if (j < 0) return h;
+      removed = value(h.vals, j);
+      return new Node(without(h.keys, j), without(h.vals, j), null);
+    }
+
+    // internal node
+    int j = childIndex(h.keys, key);
+    Node c = delete(h.next[j], key, ht - 1);
+    if (c == h.next[j]) return h;
+    if (c.m() >= M / 2) {
+      Node[] next = h.next.clone();
+      next[j] = c;
+      return new Node(h.keys, null, next);
+    }
+    return rebalance(h, j, c, ht - 1);
+  }
+
+  // copy of h whose j-th child has been replaced by the underfull c, which sits
+  // at height ht, borrowing from or merging with a sibling to restore its fill
+  private Node rebalance(Node h, int j, Node c, int ht) {
+    Object[] keys = h.keys.clone();
+    Node[] next = h.next.clone();
+
+    if (j > 0 && h.next[j - 1].m() > M / 2) {
+      Node left = h.next[j - 1];
+      int last = left.m() - 1;
+      Object[] ck = prepend(c.keys, left.keys[last]);
+      Node moved;
+      if (ht == 0) {
+        moved = new Node(ck, prepend(c.vals, left.vals[last]), null);
+      } else {
+        // the old first child now needs a real separator
+        ck[1] = h.keys[j];
+        moved = new Node(ck, null, prepend(c.next, left.next[last]));
+      }
+      next[j - 1] = new Node(without(left.keys, last),
+              ht == 0 ? without(left.vals, last) : null, ht == 0 ? null : without(left.next, last));
+      next[j] = moved;
+      keys[j] = left.keys[last];
+      return new Node(keys, null, next);
+    }
+
+    if (j + 1 < h.m() && h.next[j + 1].m() > M / 2) {
+      Node right = h.next[j + 1];
+      Node grown;
+      if (ht == 0) {
+        grown = new Node(append(c.keys, right.keys[0]), append(c.vals, right.vals[0]), null);
+      } else {
+        grown = new Node(append(c.keys, h.keys[j + 1]), null, append(c.next, right.next[0]));
+      }
+      next[j] = grown;
+      next[j + 1] = new Node(without(right.keys, 0),
+              ht == 0 ? without(right.vals, 0) : null, ht == 0 ? null : without(right.next, 0));
+      keys[j + 1] = right.keys[1];
+      return new Node(keys, null, next);
+    }
+
+    // merge with a sibling; both are at minimum fill so the result fits
+    next[j] = c;
+    int i = (j + 1 < h.m()) ? j : j - 1;
+    Node left = next[i];
+    Node right = next[i + 1];
+    Object[] rk = right.keys;
+    if (ht > 0) {
+      rk = rk.clone();
+      rk[0] = h.keys[i + 1];
+    }
+    Node merged = new Node(concat(left.keys, rk),
+            ht == 0 ? concat(left.vals, right.vals) : null,
+            ht == 0 ? null : concat(left.next, right.next));
+    next[i] = merged;
+    return new Node(without(keys, i + 1), null, without(next, i + 1));
+  }
+
+  private static Object[] slice(Object[] a, int from, int to) {
+    Object[] r = new Object[to - from];
+    System.arraycopy(a, from, r, 0, to - from);
+    return r;
+  }
+
+  private static Node[] slice(Node[] a, int from, int to) {
+    Node[] r = new Node[to - from];
+    System.arraycopy(a, from, r, 0, to - from);
+    return r;
+  }
+
+  private static Object[] without(Object[] a, int j) {
+    Object[] r = new Object[a.length - 1];
+    System.arraycopy(a, 0, r, 0, j);
+    System.arraycopy(a, j + 1, r, j, a.length - j - 1);
+    return r;
+  }
+
+  private static Node[] without(Node[] a, int j) {
+    Node[] r = new Node[a.length - 1];
+    System.arraycopy(a, 0, r, 0, j);
+    System.arraycopy(a, j + 1, r, j, a.length - j - 1);
+    return r;
+  }
+
+  private static Object[] prepend(Object[] a, Object x) {
+    Object[] r = new Object[a.length + 1];
+    r[0] = x;
+    System.arraycopy(a, 0, r, 1, a.length);
+    return r;
+  }
+
+  private static Node[] prepend(Node[] a, Node x) {
+    Node[] r = new Node[a.length + 1];
+    r[0] = x;
+    System.arraycopy(a, 0, r, 1, a.length);
+    return r;
+  }
+
+  private static Object[] append(Object[] a, Object x) {
+    Object[] r = new Object[a.length + 1];
+    System.arraycopy(a, 0, r, 0, a.length);
+    r[a.length] = x;
+    return r;
+  }
+
+  private static Node[] append(Node[] a, Node x) {
+    Node[] r = new Node[a.length + 1];
+    System.arraycopy(a, 0, r, 0, a.length);
+    r[a.length] = x;
+    return r;
+  }
+
+  private static Object[] concat(Object[] a, Object[] b) {
+    Object[] r = new Object[a.length + b.length];
+    System.arraycopy(a, 0, r, 0, a.length);
+    System.arraycopy(b, 0, r, a.length, b.length);
+    return r;
+  }
+
+  private static Node[] concat(Node[] a, Node[] b) {
+    Node[] r = new Node[a.length + b.length];
+    System.arraycopy(a, 0, r, 0, a.length);
+    System.arraycopy(b, 0, r, a.length, b.length);
+    return r;
+  }
+
+  // binary search of leaf keys: the slot holding key, or -(insertion point) - 1
+  private static <Key extends Comparable<Key>> int indexOf(Object[] keys, Key key) {
+    int lo = 0;
+    int hi = keys.length - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      Key k = key(keys, mid);
+      int cmp = k.compareTo(key);
+      if (cmp < 0) lo = mid + 1;
+      else if (cmp > 0) hi = mid - 1;
+      else return mid;
+    }
+    return -(lo + 1);
+  }
+
+  // binary search of internal keys: the last child whose lower bound is <= key
+  private static <Key extends Comparable<Key>> int childIndex(Object[] keys, Key key) {
+    int lo = 1;
+    int hi = keys.length - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      Key k = key(keys, mid);
+      if (key.compareTo(k) < 0) hi = mid - 1;
+      else lo = mid + 1;
+    }
+    return lo - 1;
+  }
+
+  // a node's key and value slots only ever hold the Keys and Values of the
+  // tree that built it
+  @SuppressWarnings("unchecked")
+  private static <Key> Key key(Object[] keys, int j) {
+    return (Key) keys[j];
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <Value> Value value(Object[] vals, int j) {
+    return (Value) vals[j];
+  }
+
+  /**
+   * One immutable version of a {@link PersistentBTree}. Safe to read from any
+   * thread; it never changes after it is published.
+   * @param <Key>
+   * @param <Value>
+   */
+  public static final class Snapshot<Key extends Comparable<Key>, Value> implements Iterable<Key> {
+    private final Node root;
+    private final int height;
+    private final int n;
+
+    private Snapshot(Node root, int height, int n) {
+      this.root = root;
+      this.height = height;
+      this.n = n;
+    }
+
+    /**
+     * Returns true if this version is empty.
+     *
+     * @return <tt>true</tt> if this version is empty; <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+      return n == 0;
+    }
+
+    /**
+     * Returns the number of key-value pairs in this version.
+     *
+     * @return the number of key-value pairs in this version
+     */
+    public int size() {
+      return n;
+    }
+
+    /**
+     * Returns the height of this version (for debugging).
+     *
+     * @return the height of this version
+     */
+    public int height() {
+      return height;
+    }
+
+    /**
+     * Returns the value associated with the given key in this version.
+     *
+     * @param key the key
+     * @return the value associated with the given key, or <tt>null</tt>
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Value get(Key key) {
+      if (key == null) throw new NullPointerException("key must not be null");
+      Node x = root;
+      for (int ht = height; ht > 0; ht--)
+        x = x.next[childIndex(x.keys, key)];
+      int j = indexOf(x.keys, key);
+      if (j < 0) return null;
+      return value(x.vals, j);
+    }
+
+    /**
+     * Returns the largest key in this version less than or equal to <tt>key</tt>.
+     *
+     * @param key the key
+     * @return the largest key less than or equal to <tt>key</tt>, or <tt>null</tt>
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Key floorKey(Key key) {
+      if (key == null) throw new NullPointerException("key must not be null");
+      return floor(root, key, height);
+    }
+
+    private Key floor(Node h, Key key, int ht) {
+      if (ht == 0) {
+        int j = indexOf(h.keys, key);
+        if (j >= 0) return key(h.keys, j);
+        j = -j - 1;
+        if (j == 0) return null;
+        return key(h.keys, j - 1);
+      }
+      int j = childIndex(h.keys, key);
+      Key k = floor(h.next[j], key, ht - 1);
+      if (k == null && j > 0) {
+        Node x = h.next[j - 1];
+        for (int i = ht - 1; i > 0; i--)
+          x = x.next[x.m() - 1];
+        k = key(x.keys, x.m() - 1);
+      }
+      return k;
+    }
+
+    /**
+     * Returns the smallest key in this version greater than or equal to <tt>key</tt>.
+     *
+     * @param key the key
+     * @return the smallest key greater than or equal to <tt>key</tt>, or <tt>null</tt>
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Key ceilingKey(Key key) {
+      if (key == null) throw new NullPointerException("key must not be null");
+      return ceiling(root, key, height);
+    }
+
+    private Key ceiling(Node h, Key key, int ht) {
+      if (ht == 0) {
+        int j = indexOf(h.keys, key);
+        if (j >= 0) return key(h.keys, j);
+        j = -j - 1;
+        if (j == h.m()) return null;
+        return key(h.keys, j);
+      }
+      int j = childIndex(h.keys, key);
+      Key k = ceiling(h.next[j], key, ht - 1);
+      if (k == null && j + 1 < h.m()) {
+        Node x = h.next[j + 1];
+        for (int i = ht - 1; i > 0; i--)
+          x = x.next[0];
+        k = key(x.keys, 0);
+      }
+      return k;
+    }
+
+    /**
+     * Returns an iterator over every key of this version in ascending order.
+     *
+     * @return an iterator over all keys in ascending order
+     */
+    @Override
+    public RangeIterator<Key, Value> iterator() {
+      return new RangeIterator<>(this, null, null);
+    }
+
+    /**
+     * Returns an iterator over the keys in the half-open range
+     * [<tt>lo</tt>, <tt>hi</tt>) of this version in ascending order.
+     *
+     * @param lo the lowest key to return, inclusive
+     * @param hi the key to stop at, exclusive
+     * @return an iterator over the keys in the given range
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public RangeIterator<Key, Value> rangeIterator(Key lo, Key hi) {
+      if (lo == null || hi == null) throw new NullPointerException("bounds must not be null");
+      return new RangeIterator<>(this, lo, hi);
+    }
+  }
+
+  /**
+   * In-order cursor over a range of keys of one snapshot. Shared nodes cannot
+   * carry sibling links, so it keeps an explicit root-to-leaf path instead,
+   * and hands out the value of the last returned key through {@link #value()}.
+   * @param <Key>
+   * @param <Value>
+   */
+  public static final class RangeIterator<Key extends Comparable<Key>, Value> implements Iterator<Key> {
+    private final Node[] path;
+    private final int[] index;
+    private final Key hi;
+    private Value val;
+
+    private RangeIterator(Snapshot<Key, Value> s, Key lo, Key hi) {
+      this.hi = hi;
+      path = new Node[s.height + 1];
+      index = new int[s.height + 1];
+      Node x = s.root;
+      for (int ht = s.height; ht > 0; ht--) {
+        int j = (lo == null) ? 0 : childIndex(x.keys, lo);
+        path[ht] = x;
+        index[ht] = j;
+        x = x.next[j];
+      }
+      int j = 0;
+      if (lo != null) {
+        j = indexOf(x.keys, lo);
+        if (j < 0) j = -j - 1;
+      }
+      path[0] = x;
+      index[0] = j;
+      if (j == x.m()) advanceLeaf();
+    }
+
+    // move to the first entry of the next leaf, or mark the end of the tree
+    private void advanceLeaf() {
+      int top = path.length - 1;
+      int ht = 1;
+      while (ht <= top && index[ht] + 1 >= path[ht].m())
+        ht++;
+      if (ht > top) {
+        path[0] = null;
+        return;
+      }
+      index[ht]++;
+      for (; ht > 0; ht--) {
+        path[ht - 1] = path[ht].next[index[ht]];
+        index[ht - 1] = 0;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      Node leaf = path[0];
+      if (leaf == null) return false;
+      Key key = key(leaf.keys, index[0]);
+      return hi == null || key.compareTo(hi) < 0;
+    }
+
+    @Override
+    public Key next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Node leaf = path[0];
+      int j = index[0]++;
+      val = PersistentBTree.value(leaf.vals, j);
+      Key key = key(leaf.keys, j);
+      if (index[0] == leaf.m()) advanceLeaf();
+      return key;
+    }
+
+    /**
+     * Returns the value associated with the key last returned by {@link #next()}.
+     *
+     * @return the value of the current key
+     */
+    public Value value() {
+      return val;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+/**
+ * Scheduler interface for timed game events such as trace countdowns, hack
+ * progress and node respawns. Tasks are ordered by deadline, and tasks with
+ * equal deadlines come out in the order they were scheduled.
+ * @param <K> The deadline type, compared to decide which task is due first.
+ * @param <V> The task that is handed back once its deadline has passed.
+ */
+public interface Scheduler<K extends Comparable<K>, V>
+{
+  /**
+   * Marker for a scheduled task, returned by schedule and accepted by cancel.
+   */
+  public interface Handle
+  {
+  }
+
+  /**
+   * Schedules the task to become due at the deadline.
+   * @param deadline The point at which the task becomes due.
+   * @param task The task to hand back once due.
+   * @return The handle used to cancel the task.
+   */
+  public Handle schedule(K deadline, V task);
+
+  /**
+   * Cancels a scheduled task.
+   * @param handle The handle returned when the task was scheduled.
+   * @return True if the task was still scheduled, false if it had already
+   * been polled or cancelled, or belongs to another scheduler.
+   */
+  public boolean cancel(Handle handle);
+
+  /**
+   * Looks at the task that is due first without removing it.
+   * @return The task with the earliest deadline, or null if none.
+   */
+  public V peekMin();
+
+  /**
+   * Looks at the earliest deadline without removing its task.
+   * @return The earliest deadline, or null if nothing is scheduled.
+   */
+  public K peekDeadline();
+
+  /**
+   * Removes every task whose deadline is at or before now, handing each to
+   * the sink in deadline order.
+   * @param now The current time.
+   * @param sink Receives the due tasks.
+   * @return The number of tasks handed to the sink.
+   */
+  public int pollDue(K now, EventSink<K, V> sink);
+
+  /**
+   * The number of tasks currently scheduled.
+   * @return The number of scheduled tasks.
+   */
+  public int size();
+}
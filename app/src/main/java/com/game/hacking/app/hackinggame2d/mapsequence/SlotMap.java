@@ -0,0 +1,180 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A generational slot map: a collection whose items are reached through
+ * handles, with O(1) add, get and remove. The items are kept packed in a
+ * dense array, and a removal moves the last item into the gap, so iterating
+ * touches no holes. Each handle names a slot, which points into the dense
+ * array, and carries the generation of the slot when the item was added. A
+ * removal bumps the generation and puts the slot on a free list for reuse,
+ * so a handle kept past the removal of its item finds nothing rather than
+ * whatever item took the slot next.
+ * <p>
+ * Handles are longs: the generation in the high half, the slot in the low
+ * half. They are never negative, so -1 is free to mean no handle.
+ * @param <E> the items
+ */
+public class SlotMap<E> {
+  /** Never a handle of any slot map. */
+  public static final long NO_HANDLE = -1;
+
+  // the items, packed, and the slot of each
+  private Object[] dense = new Object[8];
+  private int[] slotOfDense = new int[8];
+  private int size;
+
+  // per slot: where its item is in dense, or for a free slot the next free
+  // slot, -1 ending the list; and its current generation
+  private int[] denseOfSlot = new int[8];
+  private int[] generation = new int[8];
+  private int slots;
+  private int freeHead = -1;
+
+  /**
+   * Returns the number of items.
+   *
+   * @return the number of items
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds an item in O(1), amortized over the growth of the arrays.
+   *
+   * @param item the item
+   * @return the handle of the item
+   */
+  public long add(E item) {
+    int slot;
+    if (freeHead >= 0) {
+      slot = freeHead;
+      freeHead = denseOfSlot[slot];
+    } else {
+      if (slots == denseOfSlot.length) {
+        denseOfSlot = Arrays.copyOf(denseOfSlot, 2 * slots);
+        generation = Arrays.copyOf(generation, 2 * slots);
+      }
+      slot = slots++;
+    }
+    if (size == dense.length) {
+      dense = Arrays.copyOf(dense, 2 * size);
+      slotOfDense = Arrays.copyOf(slotOfDense, 2 * size);
+    }
+    dense[size] = item;
+    slotOfDense[size] = slot;
+    denseOfSlot[slot] = size++;
+    return ((long) generation[slot] << 32) | slot;
+  }
+
+  /**
+   * Returns the item of a handle.
+   *
+   * @param handle the handle
+   * @return the item, or <tt>null</tt> if it has been removed or the handle
+   * is not one of this map's
+   */
+  @SuppressWarnings("unchecked")
+  public E get(long handle) {
+    int at = denseIndex(handle);
+    return (at < 0) ? null : (E) dense[at];
+  }
+
+  /**
+   * Tells whether the item of a handle is still in the map.
+   *
+   * @param handle the handle
+   * @return <tt>true</tt> if the item is there
+   */
+  public boolean contains(long handle) {
+    return denseIndex(handle) >= 0;
+  }
+
+  /**
+   * Removes the item of a handle in O(1). The last item in
+   * {@link #asList()} order moves into its place.
+   *
+   * @param handle the handle
+   * @return the removed item, or <tt>null</tt> if there was none
+   */
+  @SuppressWarnings("unchecked")
+  public E remove(long handle) {
+    int at = denseIndex(handle);
+    if (at < 0) return null;
+    E item = (E) dense[at];
+    int last = --size;
+    dense[at] = dense[last];
+    slotOfDense[at] = slotOfDense[last];
+    denseOfSlot[slotOfDense[at]] = at;
+    dense[last] = null;
+
+    int slot = (int) handle;
+    // a slot whose generation would wrap is retired rather than reused
+    if (++generation[slot] != Integer.MAX_VALUE) {
+      denseOfSlot[slot] = freeHead;
+      freeHead = slot;
+    }
+    return item;
+  }
+
+  /**
+   * Returns the item at a place in the dense order.
+   *
+   * @param index the place, from 0 to <tt>size() - 1</tt>
+   * @return the item
+   */
+  @SuppressWarnings("unchecked")
+  public E at(int index) {
+    checkIndex(index);
+    return (E) dense[index];
+  }
+
+  /**
+   * Returns the handle of the item at a place in the dense order.
+   *
+   * @param index the place, from 0 to <tt>size() - 1</tt>
+   * @return the handle
+   */
+  public long handleAt(int index) {
+    checkIndex(index);
+    int slot = slotOfDense[index];
+    return ((long) generation[slot] << 32) | slot;
+  }
+
+  /**
+   * Returns a read-only view of the items in dense order, which a removal
+   * changes as described at {@link #remove}.
+   *
+   * @return the items
+   */
+  public List<E> asList() {
+    return new AbstractList<E>() {
+      @Override
+      public E get(int index) {
+        return at(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  // where the item of a handle is in dense, or -1
+  private int denseIndex(long handle) {
+    if (handle < 0) return -1;
+    int slot = (int) handle;
+    // a free slot never matches: removal bumped its generation
+    if (slot < 0 || slot >= slots || generation[slot] != (int) (handle >>> 32)) return -1;
+    return denseOfSlot[slot];
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + " of " + size);
+  }
+}
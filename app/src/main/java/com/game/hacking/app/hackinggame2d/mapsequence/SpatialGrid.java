@@ -0,0 +1,384 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A uniform grid of square cells over the plane, for finding the items near
+ * a point without looking at all of them. Only the cells that hold items
+ * exist: they live in an open addressing hash table keyed by their column
+ * and row, so the map may reach any coordinates. Each cell keeps its items
+ * and their positions in parallel arrays.
+ * <p>
+ * A query looks at the cell of its point, then at rings of cells around it,
+ * and stops as soon as the ring it reaches is farther than the answer it
+ * has, so it visits the items of only a few cells when the cell size is
+ * near the spacing of the items. Should the rings grow to cover more cells
+ * than exist, the query scans the cells that exist instead, so a sparse
+ * map never costs more than a scan. Items are compared by identity. The
+ * grid is not thread safe.
+ * @param <V> the items
+ */
+public class SpatialGrid<V> {
+  private static final class Cell {
+    private final int column;
+    private final int row;
+    private int size;
+    private float[] xs = new float[2];
+    private float[] ys = new float[2];
+    private Object[] items = new Object[2];
+
+    private Cell(int column, int row) {
+      this.column = column;
+      this.row = row;
+    }
+  }
+
+  private final float cellSize;
+  // open addressing on packed (column, row) keys; null marks an empty slot
+  private long[] keys = new long[16];
+  private Cell[] table = new Cell[16];
+  private int cells;
+  private int size;
+
+  // bounds on the columns and rows of the cells in the table
+  private int minColumn = Integer.MAX_VALUE;
+  private int maxColumn = Integer.MIN_VALUE;
+  private int minRow = Integer.MAX_VALUE;
+  private int maxRow = Integer.MIN_VALUE;
+
+  /**
+   * Creates an empty grid.
+   *
+   * @param cellSize the side of a cell; about the distance between
+   * neighbouring items works best
+   * @throws IllegalArgumentException if <tt>cellSize</tt> is not positive
+   */
+  public SpatialGrid(float cellSize) {
+    if (!(cellSize > 0) || Float.isInfinite(cellSize))
+      throw new IllegalArgumentException("cell size must be positive: " + cellSize);
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Returns the number of items.
+   *
+   * @return the number of items
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds an item at a position. An item may be added more than once.
+   *
+   * @param item the item
+   * @param x the x coordinate
+   * @param y the y coordinate
+   */
+  public void add(V item, float x, float y) {
+    int column = columnOf(x);
+    int row = columnOf(y);
+    Cell cell = find(column, row);
+    if (cell == null) cell = create(column, row);
+    if (cell.size == cell.items.length) {
+      cell.xs = Arrays.copyOf(cell.xs, 2 * cell.size);
+      cell.ys = Arrays.copyOf(cell.ys, 2 * cell.size);
+      cell.items = Arrays.copyOf(cell.items, 2 * cell.size);
+    }
+    cell.xs[cell.size] = x;
+    cell.ys[cell.size] = y;
+    cell.items[cell.size++] = item;
+    size++;
+  }
+
+  /**
+   * Removes an item from the position it was added at.
+   *
+   * @param item the item
+   * @param x the x coordinate it was added at
+   * @param y the y coordinate it was added at
+   * @return <tt>true</tt> if the item was there
+   */
+  public boolean remove(V item, float x, float y) {
+    Cell cell = find(columnOf(x), columnOf(y));
+    if (cell == null) return false;
+    for (int i = 0; i < cell.size; i++) {
+      if (cell.items[i] == item && cell.xs[i] == x && cell.ys[i] == y) {
+        // the last item of the cell fills the hole
+        int last = --cell.size;
+        cell.xs[i] = cell.xs[last];
+        cell.ys[i] = cell.ys[last];
+        cell.items[i] = cell.items[last];
+        cell.items[last] = null;
+        size--;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Finds the item nearest to a point.
+   *
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   * @param maxDistance how far from the point to look
+   * @return the nearest item no farther than <tt>maxDistance</tt>, or
+   * <tt>null</tt> if there is none
+   */
+  @SuppressWarnings("unchecked")
+  public V nearest(float x, float y, float maxDistance) {
+    Nearest found = new Nearest(1, maxDistance);
+    search(x, y, found);
+    return (found.size == 0) ? null : (V) found.items[0];
+  }
+
+  /**
+   * Finds the items nearest to a point, nearest first.
+   *
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   * @param k how many items to find
+   * @return the <tt>k</tt> nearest items, or all of them if there are fewer
+   * @throws IllegalArgumentException if <tt>k</tt> is negative
+   */
+  @SuppressWarnings("unchecked")
+  public List<V> nearest(float x, float y, int k) {
+    if (k < 0) throw new IllegalArgumentException("negative count: " + k);
+    Nearest found = new Nearest(Math.min(k, size), Float.POSITIVE_INFINITY);
+    if (found.capacity > 0) search(x, y, found);
+    // popping the farthest each time leaves the array nearest first
+    for (int n = found.size; n > 1; n--) found.swapTopWithLast(n);
+    List<V> result = new ArrayList<>(found.size);
+    for (int i = 0; i < found.size; i++) result.add((V) found.items[i]);
+    return result;
+  }
+
+  /**
+   * Finds every item within a distance of a point, in no particular order.
+   *
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   * @param radius the distance, inclusive
+   * @return the items no farther than <tt>radius</tt>
+   */
+  public List<V> within(float x, float y, float radius) {
+    List<V> result = new ArrayList<>();
+    if (!(radius >= 0) || size == 0) return result;
+    double limit = (double) radius * radius;
+    long fromColumn = Math.max(minColumn, (long) Math.floor((x - (double) radius) / cellSize));
+    long toColumn = Math.min(maxColumn, (long) Math.floor((x + (double) radius) / cellSize));
+    long fromRow = Math.max(minRow, (long) Math.floor((y - (double) radius) / cellSize));
+    long toRow = Math.min(maxRow, (long) Math.floor((y + (double) radius) / cellSize));
+    if (fromColumn > toColumn || fromRow > toRow) return result;
+
+    if ((toColumn - fromColumn + 1) * (toRow - fromRow + 1) > cells) {
+      for (Cell cell : table) {
+        if (cell != null) collect(cell, x, y, limit, result);
+      }
+      return result;
+    }
+    for (long column = fromColumn; column <= toColumn; column++) {
+      for (long row = fromRow; row <= toRow; row++) {
+        Cell cell = find((int) column, (int) row);
+        if (cell != null) collect(cell, x, y, limit, result);
+      }
+    }
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void collect(Cell cell, float x, float y, double limit, List<V> result) {
+    for (int i = 0; i < cell.size; i++) {
+      if (squaredDistance(x, y, cell.xs[i], cell.ys[i]) <= limit) result.add((V) cell.items[i]);
+    }
+  }
+
+  // the k best candidates so far, as a max-heap on squared distance so the
+  // worst of them is on top, to be replaced by anything nearer
+  private static final class Nearest {
+    private final int capacity;
+    private final double limit;
+    private final double[] distances;
+    private final Object[] items;
+    private int size;
+
+    private Nearest(int capacity, float maxDistance) {
+      this.capacity = capacity;
+      limit = (maxDistance >= 0) ? (double) maxDistance * maxDistance : -1;
+      distances = new double[capacity];
+      items = new Object[capacity];
+    }
+
+    // how far a candidate may be and still get in
+    private double bound() {
+      return (size < capacity) ? limit : distances[0];
+    }
+
+    private void offer(double distance, Object item) {
+      if (distance > limit || (size == capacity && distance >= distances[0])) return;
+      if (size < capacity) {
+        int i = size++;
+        while (i > 0) {
+          int up = (i - 1) >>> 1;
+          if (distances[up] >= distance) break;
+          distances[i] = distances[up];
+          items[i] = items[up];
+          i = up;
+        }
+        distances[i] = distance;
+        items[i] = item;
+      } else {
+        siftDown(0, distance, item, size);
+      }
+    }
+
+    // move the worst of the first n entries to place n - 1
+    private void swapTopWithLast(int n) {
+      double distance = distances[n - 1];
+      Object item = items[n - 1];
+      distances[n - 1] = distances[0];
+      items[n - 1] = items[0];
+      siftDown(0, distance, item, n - 1);
+    }
+
+    private void siftDown(int i, double distance, Object item, int n) {
+      while (2 * i + 1 < n) {
+        int child = 2 * i + 1;
+        if (child + 1 < n && distances[child + 1] > distances[child]) child++;
+        if (distance >= distances[child]) break;
+        distances[i] = distances[child];
+        items[i] = items[child];
+        i = child;
+      }
+      distances[i] = distance;
+      items[i] = item;
+    }
+  }
+
+  // visit rings of cells around the point until none can beat the candidates
+  private void search(float x, float y, Nearest found) {
+    if (size == 0 || found.limit < 0) return;
+    int column = columnOf(x);
+    int row = columnOf(y);
+    for (long ring = 0; ; ring++) {
+      // every cell of this ring is at least ring - 1 cells from the point
+      double gap = (ring - 1) * (double) cellSize;
+      if (ring > 0 && gap * gap > found.bound()) return;
+      long fromColumn = column - ring;
+      long toColumn = column + ring;
+      long fromRow = row - ring;
+      long toRow = row + ring;
+      if (fromColumn < minColumn && toColumn > maxColumn && fromRow < minRow && toRow > maxRow) return;
+      if (8 * ring > cells) {
+        // the rings have outgrown the map; start over with a plain scan
+        found.size = 0;
+        for (Cell cell : table) {
+          if (cell != null) offerAll(cell, x, y, found);
+        }
+        return;
+      }
+      if (ring == 0) {
+        offerCell(column, row, x, y, found);
+        continue;
+      }
+      for (long c = Math.max(fromColumn, minColumn); c <= Math.min(toColumn, maxColumn); c++) {
+        offerCell(c, fromRow, x, y, found);
+        offerCell(c, toRow, x, y, found);
+      }
+      for (long r = Math.max(fromRow + 1, minRow); r <= Math.min(toRow - 1, maxRow); r++) {
+        offerCell(fromColumn, r, x, y, found);
+        offerCell(toColumn, r, x, y, found);
+      }
+    }
+  }
+
+  private void offerCell(long column, long row, float x, float y, Nearest found) {
+    if (column < minColumn || column > maxColumn || row < minRow || row > maxRow) return;
+    Cell cell = find((int) column, (int) row);
+    if (cell != null) offerAll(cell, x, y, found);
+  }
+
+  private static void offerAll(Cell cell, float x, float y, Nearest found) {
+    for (int i = 0; i < cell.size; i++) found.offer(squaredDistance(x, y, cell.xs[i], cell.ys[i]), cell.items[i]);
+  }
+
+  private static double squaredDistance(float x1, float y1, float x2, float y2) {
+    double dx = (double) x1 - x2;
+    double dy = (double) y1 - y2;
+    return dx * dx + dy * dy;
+  }
+
+  // the column of an x coordinate, or the row of a y coordinate
+  private int columnOf(float coordinate) {
+    double cell = Math.floor(coordinate / (double) cellSize);
+    return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE - 1, cell));
+  }
+
+  private Cell find(int column, int row) {
+    long key = pack(column, row);
+    int mask = table.length - 1;
+    for (int i = slot(key, mask); table[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) return table[i];
+    }
+    return null;
+  }
+
+  private Cell create(int column, int row) {
+    if (2 * (cells + 1) > table.length) rehash();
+    Cell cell = new Cell(column, row);
+    insert(cell);
+    cells++;
+    minColumn = Math.min(minColumn, column);
+    maxColumn = Math.max(maxColumn, column);
+    minRow = Math.min(minRow, row);
+    maxRow = Math.max(maxRow, row);
+    return cell;
+  }
+
+  // grow the table if the live cells need it, leaving empty cells behind
+  // and narrowing the bounds to the cells that are left
+  private void rehash() {
+    Cell[] old = table;
+    int live = 0;
+    for (Cell cell : old) {
+      if (cell != null && cell.size > 0) live++;
+    }
+    int capacity = 16;
+    while (capacity < 4 * (live + 1)) capacity <<= 1;
+    keys = new long[capacity];
+    table = new Cell[capacity];
+    cells = 0;
+    minColumn = minRow = Integer.MAX_VALUE;
+    maxColumn = maxRow = Integer.MIN_VALUE;
+    for (Cell cell : old) {
+      if (cell == null || cell.size == 0) continue;
+      insert(cell);
+      cells++;
+      minColumn = Math.min(minColumn, cell.column);
+      maxColumn = Math.max(maxColumn, cell.column);
+      minRow = Math.min(minRow, cell.row);
+      maxRow = Math.max(maxRow, cell.row);
+    }
+  }
+
+  private void insert(Cell cell) {
+    long key = pack(cell.column, cell.row);
+    int mask = table.length - 1;
+    int i = slot(key, mask);
+    while (table[i] != null) i = (i + 1) & mask;
+    keys[i] = key;
+    table[i] = cell;
+  }
+
+  private static long pack(int column, int row) {
+    return ((long) column << 32) | (row & 0xffffffffL);
+  }
+
+  private static int slot(long key, int mask) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h >>> 32) & mask;
+  }
+}
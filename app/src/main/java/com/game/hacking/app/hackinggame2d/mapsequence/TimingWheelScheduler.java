@@ -0,0 +1,396 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel, a {@link Scheduler} for the many short lived
+ * timers of the game that mostly get cancelled before they fire, such as
+ * hack attempts the player aborts. Deadlines are whole ticks.
+ * Four wheels of 64 slots each cover 64, 64^2, 64^3 and 64^4 ticks ahead of
+ * the current tick; a timer goes into the finest wheel that reaches its
+ * deadline, and timers further out wait in an overflow list. Each timer is
+ * a node of an intrusive doubly linked slot list, so scheduling and
+ * cancelling are O(1) with no rebalancing. As {@link #pollDue} advances the
+ * current tick, each coarse slot is cascaded into the finer wheels when its
+ * range is reached, and a bitmap of occupied slots per wheel lets idle
+ * stretches be skipped rather than walked tick by tick.
+ * Timers with equal deadlines come due in the order they were scheduled.
+ * Not thread safe.
+ * @param <V> The task that is handed back once its deadline has passed.
+ */
+public class TimingWheelScheduler<V> implements Scheduler<Long, V>
+{
+  private static final int LEVELS = 4;
+  private static final int BITS = 6;                    // log2 of slots per wheel
+  private static final int SLOTS = 1 << BITS;
+  private static final long MASK = SLOTS - 1;
+
+  // list indices past the wheel slots
+  private static final int OVERFLOW = LEVELS * SLOTS;   // beyond the coarsest wheel
+  private static final int EXPIRED = OVERFLOW + 1;      // deadline already passed
+  private static final int DETACHED = -1;
+  private static final long NONE = Long.MAX_VALUE;     // no tick has work waiting
+
+  /**
+   * A scheduled task, linked into one slot list at a time.
+   */
+  private static final class Timer<V> implements Scheduler.Handle
+  {
+    private final TimingWheelScheduler<V> owner;
+    private final long deadline;
+    private final long sequence;       // scheduling order, breaks ties
+    private final V task;
+    private Timer<V> prev;
+    private Timer<V> next;
+    private int list = DETACHED;       // the slot list holding the timer
+
+    private Timer(TimingWheelScheduler<V> owner, long deadline, long sequence, V task)
+    {
+      this.owner = owner;
+      this.deadline = deadline;
+      this.sequence = sequence;
+      this.task = task;
+    }
+
+    // whether this timer is due after the other one
+    private boolean after(Timer<V> other)
+    {
+      return deadline != other.deadline ? deadline > other.deadline
+              : sequence > other.sequence;
+    }
+  }
+
+  private final Timer<V>[] heads;
+  private final Timer<V>[] tails;
+  private final long[] occupied = new long[LEVELS];   // bit s set when slot s is not empty
+
+  // every timer with a deadline before this tick has been handed out or
+  // sits in the expired list
+  private long current;
+  private long sequence;
+  private int size;
+
+  /**
+   * Creates an empty scheduler whose clock starts at tick 0.
+   */
+  public TimingWheelScheduler()
+  {
+    this(0);
+  }
+
+  /**
+   * Creates an empty scheduler whose clock starts at the given tick.
+   * @param startTick The first tick that pollDue will process.
+   * @throws IllegalArgumentException If startTick is negative.
+   */
+  @SuppressWarnings("unchecked")
+  public TimingWheelScheduler(long startTick)
+  {
+    if(startTick < 0)
+      throw new IllegalArgumentException("start tick must not be negative: " + startTick);
+    current = startTick;
+    heads = (Timer<V>[]) new Timer<?>[EXPIRED + 1];
+    tails = (Timer<V>[]) new Timer<?>[EXPIRED + 1];
+  }
+
+  /**
+   * Schedules the task to become due at the deadline in O(1). A deadline
+   * that has already passed makes the task due at the next poll.
+   * @param deadline The tick at which the task becomes due.
+   * @param task The task to hand back once due.
+   * @return The handle used to cancel the task.
+   * @throws NullPointerException If the deadline is null.
+   */
+  @Override
+  public Handle schedule(Long deadline, V task)
+  {
+    if(deadline == null)
+      throw new NullPointerException("deadline must not be null");
+    Timer<V> timer = new Timer<>(this, deadline, sequence++, task);
+    place(timer);
+    size++;
+    return timer;
+  }
+
+  /**
+   * Cancels a scheduled task in O(1) by unlinking its timer.
+   * @param handle The handle returned when the task was scheduled.
+   * @return True if the task was still scheduled, false if it had already
+   * been polled or cancelled, or belongs to another scheduler.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public boolean cancel(Handle handle)
+  {
+    if(!(handle instanceof Timer))
+      return false;
+    Timer<?> timer = (Timer<?>) handle;
+    if(timer.owner != this || timer.list == DETACHED)
+      return false;
+    unlink((Timer<V>) timer);
+    size--;
+    return true;
+  }
+
+  /**
+   * Looks at the task that is due first. This searches the wheels from the
+   * finest, so it costs up to the length of one coarse slot.
+   * @return The task with the earliest deadline, or null if none.
+   */
+  @Override
+  public V peekMin()
+  {
+    Timer<V> timer = earliest();
+    return (timer == null) ? null : timer.task;
+  }
+
+  /**
+   * Looks at the earliest deadline, as {@link #peekMin()} does.
+   * @return The earliest deadline, or null if nothing is scheduled.
+   */
+  @Override
+  public Long peekDeadline()
+  {
+    Timer<V> timer = earliest();
+    return (timer == null) ? null : timer.deadline;
+  }
+
+  /**
+   * Advances the clock to now, handing every timer whose deadline is at or
+   * before now to the sink in deadline order. Each timer is unlinked before
+   * the sink sees it, so the sink may schedule or cancel freely; a timer it
+   * schedules that is already due is handed out by this same call.
+   * @param now The current tick; the clock never moves backwards.
+   * @param sink Receives the due tasks.
+   * @return The number of tasks handed to the sink.
+   */
+  @Override
+  public int pollDue(Long now, EventSink<Long, V> sink)
+  {
+    long limit = now;
+    int polled = 0;
+    while(true)
+    {
+      polled += drain(EXPIRED, limit, sink);
+      long tick = nextTick();
+      if(tick == NONE || tick > limit)
+        break;
+      if((tick >>> BITS) == (current >>> BITS))
+      {
+        // a level 0 slot whose timers are all due at exactly this tick
+        current = tick;
+        polled += drain((int) (tick & MASK), limit, sink);
+        advanceTo(tick + 1);
+      }
+      else
+        advanceTo(tick);
+    }
+    // nothing waits before limit, so the ticks up to it can be skipped
+    if(limit >= current && limit != NONE)
+      advanceTo(limit + 1);
+    return polled;
+  }
+
+  /**
+   * The number of tasks currently scheduled.
+   * @return The number of scheduled tasks.
+   */
+  @Override
+  public int size()
+  {
+    return size;
+  }
+
+  // hand out the timers at the front of a list while they are due
+  private int drain(int list, long limit, EventSink<Long, V> sink)
+  {
+    int polled = 0;
+    Timer<V> timer;
+    while((timer = heads[list]) != null && timer.deadline <= limit)
+    {
+      unlink(timer);
+      size--;
+      sink.accept(timer.deadline, timer.task);
+      polled++;
+    }
+    return polled;
+  }
+
+  // move the clock to tick and, on a slot boundary, cascade every coarser
+  // slot whose range starts here into the finer wheels
+  private void advanceTo(long tick)
+  {
+    current = tick;
+    if((tick & MASK) != 0)
+      return;
+    if((tick & ((1L << (BITS * LEVELS)) - 1)) == 0)
+      cascade(OVERFLOW);
+    for(int level = LEVELS - 1; level > 0; level--)
+    {
+      if((tick & ((1L << (BITS * level)) - 1)) == 0)
+        cascade(level * SLOTS + (int) ((tick >>> (BITS * level)) & MASK));
+    }
+  }
+
+  // re-place every timer of a list relative to the current tick; the list
+  // is detached first because overflow timers may land in it again
+  private void cascade(int list)
+  {
+    Timer<V> timer = heads[list];
+    heads[list] = null;
+    tails[list] = null;
+    if(list < OVERFLOW)
+      occupied[list / SLOTS] &= ~(1L << (list % SLOTS));
+    while(timer != null)
+    {
+      Timer<V> next = timer.next;
+      timer.prev = null;
+      timer.next = null;
+      place(timer);
+      timer = next;
+    }
+  }
+
+  // the earliest tick from the current one on where work waits: a level 0
+  // slot holding timers, or the start of a coarser slot that needs cascading
+  private long nextTick()
+  {
+    long bits = occupied[0] >>> (current & MASK);
+    if(bits != 0)
+      return current + Long.numberOfTrailingZeros(bits);
+    for(int level = 1; level < LEVELS; level++)
+    {
+      int shift = BITS * level;
+      int slot = (int) ((current >>> shift) & MASK);
+      // the current tick's own slot was cascaded on the way in
+      bits = (slot == MASK) ? 0 : occupied[level] >>> (slot + 1);
+      if(bits != 0)
+      {
+        long block = (current >>> shift) + 1 + Long.numberOfTrailingZeros(bits);
+        return block << shift;
+      }
+    }
+    if(heads[OVERFLOW] != null)
+      return ((current >>> (BITS * LEVELS)) + 1) << (BITS * LEVELS);
+    return NONE;
+  }
+
+  // the timer that is due first, or null
+  private Timer<V> earliest()
+  {
+    if(heads[EXPIRED] != null)
+      return heads[EXPIRED];
+    long bits = occupied[0] >>> (current & MASK);
+    if(bits != 0)
+      return heads[(int) ((current + Long.numberOfTrailingZeros(bits)) & MASK)];
+    for(int level = 1; level < LEVELS; level++)
+    {
+      int slot = (int) ((current >>> (BITS * level)) & MASK);
+      bits = (slot == MASK) ? 0 : occupied[level] >>> (slot + 1);
+      if(bits != 0)
+        return earliestOf(level * SLOTS + slot + 1 + Long.numberOfTrailingZeros(bits));
+    }
+    return earliestOf(OVERFLOW);
+  }
+
+  private Timer<V> earliestOf(int list)
+  {
+    Timer<V> best = heads[list];
+    for(Timer<V> timer = best; timer != null; timer = timer.next)
+    {
+      if(best.after(timer))
+        best = timer;
+    }
+    return best;
+  }
+
+  // link the timer into the finest wheel that reaches its deadline
+  private void place(Timer<V> timer)
+  {
+    long deadline = timer.deadline;
+    if(deadline < current)
+    {
+      linkInOrder(timer, EXPIRED);
+      return;
+    }
+    for(int level = 0; level < LEVELS; level++)
+    {
+      int shift = BITS * (level + 1);
+      if((deadline >>> shift) == (current >>> shift))
+      {
+        int slot = (int) ((deadline >>> (BITS * level)) & MASK);
+        if(level == 0)
+          linkInOrder(timer, slot);
+        else
+          link(timer, level * SLOTS + slot, tails[level * SLOTS + slot]);
+        occupied[level] |= 1L << slot;
+        return;
+      }
+    }
+    link(timer, OVERFLOW, tails[OVERFLOW]);
+  }
+
+  // link the timer behind the last one due before it; a newly scheduled
+  // timer is due after everything already in its list, so this is O(1)
+  // except for timers cascading in among ones scheduled later
+  private void linkInOrder(Timer<V> timer, int list)
+  {
+    Timer<V> before = tails[list];
+    while(before != null && before.after(timer))
+      before = before.prev;
+    link(timer, list, before);
+  }
+
+  // link the timer into a list right after before, or at the front if null
+  private void link(Timer<V> timer, int list, Timer<V> before)
+  {
+    Timer<V> after = (before == null) ? heads[list] : before.next;
+    timer.prev = before;
+    timer.next = after;
+    if(before == null)
+      heads[list] = timer;
+    else
+      before.next = timer;
+    if(after == null)
+      tails[list] = timer;
+    else
+      after.prev = timer;
+    timer.list = list;
+  }
+
+  private void unlink(Timer<V> timer)
+  {
+    int list = timer.list;
+    if(timer.prev == null)
+      heads[list] = timer.next;
+    else
+      timer.prev.next = timer.next;
+    if(timer.next == null)
+      tails[list] = timer.prev;
+    else
+      timer.next.prev = timer.prev;
+    if(heads[list] == null && list < OVERFLOW)
+      occupied[list / SLOTS] &= ~(1L << (list % SLOTS));
+    timer.prev = null;
+    timer.next = null;
+    timer.list = DETACHED;
+  }
+
+  /**
+   * Returns the deadlines of the scheduled tasks, for debugging.
+   * @return The deadlines in no particular order.
+   */
+  @Override
+  public String toString()
+  {
+    StringBuilder s = new StringBuilder("TimingWheelScheduler@").append(current).append(' ');
+    long[] deadlines = new long[size];
+    int i = 0;
+    for(Timer<V> head : heads)
+    {
+      for(Timer<V> timer = head; timer != null; timer = timer.next)
+        deadlines[i++] = timer.deadline;
+    }
+    return s.append(Arrays.toString(deadlines)).toString();
+  }
+}
@@ -1,6 +1,8 @@
 package com.game.hacking.app.hackinggame2d.mapsequence;
 
 import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Tree interface which is used to develop a workable tree data structure.
@@ -17,6 +19,18 @@ public interface Tree<K extends Comparable<K>, V> extends Serializable
    */
   public void add(K key, V value);
 
+  /**
+   * Adds every key, value pair of a batch, as if each were added in turn.
+   * Because the batch is sorted, each pair is placed starting from where
+   * the previous one went rather than from the root, so a batch of k pairs
+   * costs about O(k log(n/k)) instead of O(k log n).
+   * @param sortedBatch The pairs to add, in ascending key order; pairs with
+   * equal keys are added in batch order.
+   * @throws IllegalArgumentException If the batch is not in key order, in
+   * which case nothing is added.
+   */
+  public void addAll(List<? extends Map.Entry<K,V>> sortedBatch);
+
   /**
    * Removes the key,value pair.
    * @param key The key used to find the value and remove.
@@ -24,6 +38,16 @@ public interface Tree<K extends Comparable<K>, V> extends Serializable
    */
   public V remove(K key);
 
+  /**
+   * Removes every key,value pair whose key is at least lo and below hi,
+   * walking from one pair to the next instead of searching for each.
+   * @param lo The lowest key to remove, inclusive.
+   * @param hi The key to stop at, exclusive.
+   * @return The number of pairs removed.
+   * @throws NullPointerException If a bound is null.
+   */
+  public int removeRange(K lo, K hi);
+
   /**
    * Looks up the value associated with the key.
    * @param key The key used to find the associated value of.
@@ -2,7 +2,7 @@ package com.game.hacking.app.hackinggame2d.mapsequence;
 
 import com.game.hacking.app.hackinggame2d.grafiks.Vec2D;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -14,12 +14,16 @@ public class Vertex<V> {
   private List< Edge<V> > incomingEdges;
   private V data;
   private int number;
+  // position in the last FrozenGraph this vertex was frozen into, or -1
+  private int index = -1;
+  // handle in the GameGraph holding this vertex
+  long handle = SlotMap.NO_HANDLE;
 
 
   public Vertex(V data) {
     this.data = data;
-    outgoingEdges = new LinkedList<>();
-    incomingEdges = new LinkedList<>();
+    outgoingEdges = new ArrayList<>();
+    incomingEdges = new ArrayList<>();
     number = count++;
   }
 
@@ -31,6 +35,7 @@ public class Vertex<V> {
 
   public void addToOutgoingEdges(Edge<V> edge) {
     if (outgoingEdges != null) {
+      edge.outgoingIndex = outgoingEdges.size();
       outgoingEdges.add(edge);
     }
   }
@@ -46,20 +51,46 @@ public class Vertex<V> {
   }
 
 
+  int getIndex() {
+    return index;
+  }
+
+
+  void setIndex(int index) {
+    this.index = index;
+  }
+
+
   public void addToOutgoingEdges(Vertex<V> destination, int distance) {
     Edge<V> edge = new Edge<>(this, destination, distance);
 
-    outgoingEdges.add(edge);
+    addToOutgoingEdges(edge);
   }
 
 
+  /**
+   * Removes an edge from the outgoing edges in O(1). The last outgoing edge
+   * takes its place in the list.
+   */
   public Boolean removeOutgoingEdge(Edge<V> edge) {
-    return outgoingEdges.remove(edge);
+    int at = edge.outgoingIndex;
+    if (at < 0 || at >= outgoingEdges.size() || outgoingEdges.get(at) != edge) {
+      at = outgoingEdges.indexOf(edge);
+      if (at < 0) return false;
+    }
+    Edge<V> last = outgoingEdges.remove(outgoingEdges.size() - 1);
+    if (last != edge) {
+      outgoingEdges.set(at, last);
+      last.outgoingIndex = at;
+    }
+    edge.outgoingIndex = -1;
+    return true;
   }
 
 
   public void addToIncomingEdges(Edge<V> edge) {
     if (incomingEdges != null) {
+      edge.incomingIndex = incomingEdges.size();
       incomingEdges.add(edge);
     }
   }
@@ -67,20 +98,43 @@ public class Vertex<V> {
 
   public void addToIncomingEdges(Vertex<V> source, int distance) {
     Edge<V> edge = new Edge<>(source, this, distance);
-    incomingEdges.add(edge);
+    addToIncomingEdges(edge);
   }
 
 
+  /**
+   * Removes an edge from the incoming edges in O(1). The last incoming edge
+   * takes its place in the list.
+   */
   public Boolean removeIncomingEdge(Edge<V> edge) {
-    return incomingEdges.remove(edge);
+    int at = edge.incomingIndex;
+    if (at < 0 || at >= incomingEdges.size() || incomingEdges.get(at) != edge) {
+      at = incomingEdges.indexOf(edge);
+      if (at < 0) return false;
+    }
+    Edge<V> last = incomingEdges.remove(incomingEdges.size() - 1);
+    if (last != edge) {
+      incomingEdges.set(at, last);
+      last.incomingIndex = at;
+    }
+    edge.incomingIndex = -1;
+    return true;
   }
 
 
+  /**
+   * Returns the outgoing edges in no particular order: removing one moves the
+   * last edge into its place.
+   */
   public List< Edge<V> > getOutgoingEdges() {
     return outgoingEdges;
   }
 
 
+  /**
+   * Returns the incoming edges in no particular order: removing one moves the
+   * last edge into its place.
+   */
   public List< Edge<V> > getIncomingEdges() {
     return incomingEdges;
   }
@@ -0,0 +1,335 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the B-tree symbol table against a {@link TreeMap}.
+ */
+public class BTreeTest {
+
+  @Test
+  public void put_overwritesWithoutGrowing() throws Exception {
+    BTree<Integer, String> tree = new BTree<>();
+    tree.put(1, "a");
+    tree.put(1, "b");
+    assertEquals(1, tree.size());
+    assertEquals("b", tree.get(1));
+  }
+
+  @Test
+  public void putNull_deletesKey() throws Exception {
+    BTree<Integer, String> tree = new BTree<>();
+    tree.put(1, "a");
+    tree.put(2, "b");
+    tree.put(1, null);
+    assertEquals(1, tree.size());
+    assertNull(tree.get(1));
+    assertEquals("b", tree.get(2));
+  }
+
+  @Test
+  public void randomOperations_matchTreeMap() throws Exception {
+    randomOperations(new BTree<Integer, Integer>(), 200000);
+  }
+
+  @Test
+  public void randomOperations_wideFanout() throws Exception {
+    randomOperations(new BTree<Integer, Integer>(32), 100000);
+    randomOperations(new BTree<Integer, Integer>(256), 100000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void oddOrder_isRejected() throws Exception {
+    new BTree<Integer, Integer>(7);
+  }
+
+  @Test
+  public void wideFanout_isShallow() throws Exception {
+    BTree<Integer, Integer> tree = new BTree<>(128);
+    for (int i = 0; i < 100000; i++) {
+      tree.put(i, i);
+    }
+    assertTrue(tree.height() <= 3);
+    Iterator<Integer> it = tree.iterator();
+    for (int i = 0; i < 100000; i++) {
+      assertEquals(Integer.valueOf(i), it.next());
+    }
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void bulkLoad_matchesSortedInput() throws Exception {
+    for (int size : new int[] {0, 1, 2, 3, 5, 17, 1000, 54321}) {
+      for (double fill : new double[] {0.1, 0.7, 1.0}) {
+        Integer[] keys = new Integer[size];
+        Integer[] values = new Integer[size];
+        for (int i = 0; i < size; i++) {
+          keys[i] = i * 2;
+          values[i] = -i;
+        }
+        BTree<Integer, Integer> tree = BTree.bulkLoad(keys, values, 8, fill);
+        assertEquals(size, tree.size());
+        Iterator<Integer> it = tree.iterator();
+        for (int i = 0; i < size; i++) {
+          assertEquals(keys[i], it.next());
+          assertEquals(values[i], tree.get(keys[i]));
+          assertNull(tree.get(keys[i] + 1));
+        }
+        assertFalse(it.hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void bulkLoad_acceptsFurtherUpdates() throws Exception {
+    Integer[] keys = new Integer[5000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i * 2;
+    }
+    BTree<Integer, Integer> tree = BTree.bulkLoad(keys, keys);
+    TreeMap<Integer, Integer> oracle = new TreeMap<>();
+    for (Integer key : keys) {
+      oracle.put(key, key);
+    }
+    Random rand = new Random(3);
+    for (int i = 0; i < 50000; i++) {
+      int key = rand.nextInt(10000);
+      if (rand.nextBoolean()) {
+        assertEquals(oracle.remove(key), tree.remove(key));
+      } else {
+        oracle.put(key, i);
+        tree.put(key, i);
+      }
+      assertEquals(oracle.size(), tree.size());
+      assertEquals(oracle.ceilingKey(key), tree.ceilingKey(key));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void bulkLoad_rejectsUnsortedKeys() throws Exception {
+    BTree.bulkLoad(new Integer[] {1, 3, 2}, new String[] {"a", "b", "c"});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void bulkLoad_rejectsDuplicateKeys() throws Exception {
+    BTree.bulkLoad(new Integer[] {1, 2, 2}, new String[] {"a", "b", "c"});
+  }
+
+  private void randomOperations(BTree<Integer, Integer> tree, int operations) {
+    Random rand = new Random(42);
+    TreeMap<Integer, Integer> oracle = new TreeMap<>();
+
+    for (int i = 0; i < operations; i++) {
+      int key = rand.nextInt(2000);
+      if (rand.nextInt(3) == 0) {
+        assertEquals(oracle.remove(key), tree.remove(key));
+      } else {
+        oracle.put(key, i);
+        tree.put(key, i);
+      }
+      assertEquals(oracle.size(), tree.size());
+      assertEquals(oracle.get(key), tree.get(key));
+      assertEquals(oracle.floorKey(key), tree.floorKey(key));
+      assertEquals(oracle.ceilingKey(key), tree.ceilingKey(key));
+    }
+
+    while (!oracle.isEmpty()) {
+      int key = oracle.firstKey();
+      assertEquals(oracle.remove(key), tree.remove(key));
+    }
+    assertTrue(tree.isEmpty());
+    assertEquals(0, tree.height());
+  }
+
+  @Test
+  public void rangeIterator_walksKeysInOrder() throws Exception {
+    Random rand = new Random(7);
+    BTree<Integer, Integer> tree = new BTree<>();
+    TreeMap<Integer, Integer> oracle = new TreeMap<>();
+    for (int i = 0; i < 5000; i++) {
+      int key = rand.nextInt(10000);
+      tree.put(key, -key);
+      oracle.put(key, -key);
+    }
+
+    for (int i = 0; i < 200; i++) {
+      int lo = rand.nextInt(10000);
+      int hi = lo + rand.nextInt(500);
+      BTree<Integer, Integer>.RangeIterator it = tree.rangeIterator(lo, hi);
+      for (Map.Entry<Integer, Integer> e : oracle.subMap(lo, hi).entrySet()) {
+        assertTrue(it.hasNext());
+        assertEquals(e.getKey(), it.next());
+        assertEquals(e.getValue(), it.value());
+      }
+      assertFalse(it.hasNext());
+    }
+
+    Iterator<Integer> all = tree.iterator();
+    for (Integer key : oracle.keySet()) {
+      assertEquals(key, all.next());
+    }
+    assertFalse(all.hasNext());
+  }
+
+  @Test
+  public void rangeIterator_emptyTree() throws Exception {
+    BTree<Integer, Integer> tree = new BTree<>();
+    assertFalse(tree.iterator().hasNext());
+    assertFalse(tree.rangeIterator(0, 10).hasNext());
+  }
+
+  @Test
+  public void put_allocatesNothingWithoutSplits() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) return;
+    com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+    if (!counter.isThreadAllocatedMemorySupported()) return;
+    counter.setThreadAllocatedMemoryEnabled(true);
+
+    // leaves half full hold 32 evens, and each gets 16 odd keys: no splits
+    int count = 20000;
+    Integer[] evens = new Integer[count];
+    Integer[] odds = new Integer[count / 2];
+    for (int i = 0; i < count; i++) evens[i] = 2 * i;
+    for (int i = 0; i < odds.length; i++) odds[i] = 4 * i + 1;
+
+    long least = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      BTree<Integer, Integer> tree = BTree.bulkLoad(evens, evens, 64, 0.5);
+      long overhead = allocatedBytes(counter) - allocatedBytes(counter);
+      long before = allocatedBytes(counter);
+      for (Integer key : evens) tree.put(key, key);
+      for (Integer key : odds) tree.put(key, key);
+      long spent = allocatedBytes(counter) - before + overhead;
+      least = Math.min(least, spent);
+      assertEquals(count + odds.length, tree.size());
+    }
+    assertEquals(0, least);
+  }
+
+  private static long allocatedBytes(com.sun.management.ThreadMXBean counter) {
+    return counter.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  @Test
+  public void toString_keepsOutlineFormat() throws Exception {
+    BTree<Integer, String> tree = new BTree<>();
+    for (int key = 1; key <= 4; key++) tree.put(key, "v" + key);
+    assertEquals("     1 v1\n     2 v2\n(3)\n     3 v3\n     4 v4\n\n", tree.toString());
+  }
+
+  @Test
+  public void dump_stopsAtLimits() throws Exception {
+    BTree<Integer, Integer> tree = new BTree<>(4);
+    for (int key = 0; key < 100000; key++) tree.put(key, key);
+
+    StringBuilder entries = new StringBuilder();
+    tree.dump(entries, Integer.MAX_VALUE, 10);
+    String[] lines = entries.toString().split("\n");
+    assertEquals(11, lines.length);
+    assertEquals("...", lines[10].trim());
+
+    StringBuilder shallow = new StringBuilder();
+    tree.dump(shallow, 1, Integer.MAX_VALUE);
+    for (String line : shallow.toString().split("\n")) {
+      assertTrue(line, line.trim().startsWith("(") || line.trim().equals("..."));
+    }
+  }
+
+  @Test
+  public void batches_matchTreeMap() throws Exception {
+    for (int order : new int[] {4, 6, 64}) {
+      BTree<Integer, Integer> tree = new BTree<>(order);
+      TreeMap<Integer, Integer> oracle = new TreeMap<>();
+      Random rand = new Random(order);
+      for (int round = 0; round < 300; round++) {
+        int lo = rand.nextInt(20000);
+        if (rand.nextInt(3) == 0) {
+          int hi = lo + rand.nextInt(rand.nextBoolean() ? 50 : 20000);
+          int expected = oracle.subMap(lo, hi).size();
+          oracle.subMap(lo, hi).clear();
+          assertEquals(expected, tree.removeRange(lo, hi));
+        } else {
+          // sorted keys with repeats and now and then a deletion
+          List<Map.Entry<Integer, Integer>> batch = new ArrayList<>();
+          int key = lo;
+          for (int i = rand.nextInt(400); i >= 0; i--) {
+            key += rand.nextInt(rand.nextBoolean() ? 3 : 200);
+            Integer value = rand.nextInt(20) == 0 ? null : round * 1000 + i;
+            batch.add(new AbstractMap.SimpleEntry<>(key, value));
+            if (value == null) oracle.remove(key);
+            else oracle.put(key, value);
+          }
+          tree.addAll(batch);
+        }
+        assertEquals(oracle.size(), tree.size());
+      }
+      assertSameContents(oracle, tree);
+      int probe = rand.nextInt(20000);
+      assertEquals(oracle.floorKey(probe), tree.floorKey(probe));
+      assertEquals(oracle.ceilingKey(probe), tree.ceilingKey(probe));
+    }
+  }
+
+  @Test
+  public void addAll_rejectsUnsortedBatch() throws Exception {
+    BTree<Integer, String> tree = new BTree<>();
+    List<Map.Entry<Integer, String>> batch = new ArrayList<>();
+    batch.add(new AbstractMap.SimpleEntry<>(2, "b"));
+    batch.add(new AbstractMap.SimpleEntry<>(1, "a"));
+    try {
+      tree.addAll(batch);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertTrue(tree.isEmpty());
+    }
+  }
+
+  @Test
+  public void serialization_roundTripsPairs() throws Exception {
+    BTree<Integer, String> tree = new BTree<>(6);
+    TreeMap<Integer, String> oracle = new TreeMap<>();
+    for (int key = 0; key < 50000; key += 3) {
+      tree.put(key, "v" + key);
+      oracle.put(key, "v" + key);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(tree);
+    out.close();
+    @SuppressWarnings("unchecked")
+    BTree<Integer, String> copy = (BTree<Integer, String>)
+            new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertSameContents(oracle, copy);
+    copy.put(1, "one");
+    assertEquals("one", copy.lookup(1));
+    assertEquals(oracle.size() + 1, copy.size());
+  }
+
+  private static <V> void assertSameContents(TreeMap<Integer, V> expected, BTree<Integer, V> tree) {
+    assertEquals(expected.size(), tree.size());
+    BTree<Integer, V>.RangeIterator it = tree.iterator();
+    for (Map.Entry<Integer, V> e : expected.entrySet()) {
+      assertEquals(e.getKey(), it.next());
+      assertEquals(e.getValue(), it.value());
+      assertEquals(e.getValue(), tree.get(e.getKey()));
+    }
+    assertFalse(it.hasNext());
+  }
+}
@@ -0,0 +1,469 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the red-black tree behind the scheduler.
+ */
+public class BalancedSchedulerTest {
+
+  @Test
+  public void toPrettyString_writesOneLinePerLevel() throws Exception {
+    BalancedScheduler<Integer, String> tree = new BalancedScheduler<>();
+    assertEquals("", tree.toPrettyString());
+    tree.add(2, "b");
+    tree.add(1, "a");
+    tree.add(3, "c");
+    assertEquals("\n[b BLACK] \n[a RED] [c RED] "
+            + "\n[NILL BLACK] [NILL BLACK] [NILL BLACK] [NILL BLACK] ", tree.toPrettyString());
+  }
+
+  @Test
+  public void dump_stopsAtLimits() throws Exception {
+    BalancedScheduler<Integer, Integer> tree = new BalancedScheduler<>();
+    for (int key = 0; key < 100000; key++) tree.add(key, key);
+
+    StringBuilder entries = new StringBuilder();
+    tree.dump(entries, Integer.MAX_VALUE, 6);
+    assertTrue(entries.toString(), entries.toString().endsWith("..."));
+    assertEquals(6, entries.toString().split("\\[").length - 1);
+
+    StringBuilder shallow = new StringBuilder();
+    tree.dump(shallow, 2, Integer.MAX_VALUE);
+    assertEquals(4, shallow.toString().split("\n").length);
+    assertEquals(7, shallow.toString().split("\\[").length - 1);
+  }
+
+  @Test
+  public void pollDue_drainsInDeadlineOrderFifoOnTies() throws Exception {
+    BalancedScheduler<Integer, String> scheduler = new BalancedScheduler<>();
+    scheduler.schedule(5, "e1");
+    scheduler.schedule(1, "a");
+    scheduler.schedule(5, "e2");
+    scheduler.schedule(9, "late");
+    scheduler.schedule(5, "e3");
+    assertEquals("a", scheduler.peekMin());
+    assertEquals(Integer.valueOf(1), scheduler.peekDeadline());
+
+    final List<String> due = new ArrayList<>();
+    int polled = scheduler.pollDue(5, new EventSink<Integer, String>() {
+      @Override
+      public void accept(Integer deadline, String task) {
+        due.add(task);
+      }
+    });
+    assertEquals(4, polled);
+    assertEquals("[a, e1, e2, e3]", due.toString());
+    assertEquals("late", scheduler.peekMin());
+    assertEquals(1, scheduler.size());
+  }
+
+  @Test
+  public void cancel_acceptsEachLiveHandleOnce() throws Exception {
+    BalancedScheduler<Integer, String> scheduler = new BalancedScheduler<>();
+    BalancedScheduler<Integer, String> other = new BalancedScheduler<>();
+    Scheduler.Handle a = scheduler.schedule(1, "a");
+    Scheduler.Handle b = scheduler.schedule(2, "b");
+    assertFalse(other.cancel(a));
+    assertTrue(scheduler.cancel(a));
+    assertFalse(scheduler.cancel(a));
+    assertEquals("b", scheduler.peekMin());
+    assertEquals("b", scheduler.pollFirst());
+    assertFalse(scheduler.cancel(b));
+    assertNull(scheduler.peekMin());
+    assertNull(scheduler.pollFirst());
+  }
+
+  // handles must stay attached to their own task however the tree is
+  // rotated and spliced around them
+  @Test
+  public void randomSchedule_matchesTreeMap() throws Exception {
+    randomSchedule(new BalancedScheduler<Integer, Long>(false), 200);
+    randomSchedule(new BalancedScheduler<Integer, Long>(true), 200);
+    randomSchedule(new BalancedScheduler<Integer, Long>(true), 5);
+  }
+
+  private void randomSchedule(final BalancedScheduler<Integer, Long> scheduler, int spread) {
+    final TreeMap<Long, Long> oracle = new TreeMap<>();   // deadline << 32 | sequence
+    List<Scheduler.Handle> handles = new ArrayList<>();
+    List<Long> ids = new ArrayList<>();
+    Random rand = new Random(11);
+    int now = 0;
+
+    for (long seq = 0; seq < 100000; seq++) {
+      int op = rand.nextInt(10);
+      if (op < 6) {
+        int deadline = now + rand.nextInt(spread);
+        long id = ((long) deadline << 32) | seq;
+        handles.add(scheduler.schedule(deadline, id));
+        ids.add(id);
+        oracle.put(id, id);
+      } else if (op < 9 && !handles.isEmpty()) {
+        int pick = rand.nextInt(handles.size());
+        assertEquals(oracle.remove(ids.get(pick)) != null, scheduler.cancel(handles.get(pick)));
+        handles.set(pick, handles.get(handles.size() - 1));
+        handles.remove(handles.size() - 1);
+        ids.set(pick, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+      } else {
+        now += rand.nextInt(20);
+        final long limit = ((long) now << 32) | 0xffffffffL;
+        scheduler.pollDue(now, new EventSink<Integer, Long>() {
+          @Override
+          public void accept(Integer deadline, Long id) {
+            Map.Entry<Long, Long> expected = oracle.pollFirstEntry();
+            assertEquals(expected.getValue(), id);
+            assertTrue(id <= limit);
+            assertEquals((long) deadline, id >> 32);
+          }
+        });
+        assertTrue(oracle.isEmpty() || oracle.firstKey() > limit);
+      }
+      assertEquals(oracle.size(), scheduler.size());
+      assertEquals(oracle.isEmpty() ? null : oracle.firstKey(), scheduler.peekMin());
+    }
+  }
+
+  @Test
+  public void lookup_missingKeyIsNull() throws Exception {
+    BalancedScheduler<Integer, String> tree = new BalancedScheduler<>();
+    assertNull(tree.lookup(1));
+    tree.add(2, "b");
+    assertNull(tree.lookup(1));
+    assertNull(tree.remove(1));
+    assertEquals("b", tree.lookup(2));
+  }
+
+  @Test
+  public void equalKeys_comeBackOldestFirst() throws Exception {
+    for (boolean multimap : new boolean[] {false, true}) {
+      BalancedScheduler<Integer, String> tree = new BalancedScheduler<>(multimap);
+      for (int i = 0; i < 20; i++) {
+        tree.add(i % 4, "v" + i);
+      }
+      assertEquals("v1", tree.lookup(1));
+      assertEquals("v1", tree.remove(1));
+      assertEquals("v5", tree.remove(1));
+      assertEquals("v9", tree.lookup(1));
+      assertEquals(18, tree.size());
+    }
+  }
+
+  @Test
+  public void multimap_burstUsesOneTreeNode() throws Exception {
+    BalancedScheduler<Integer, Integer> scheduler = new BalancedScheduler<>(true);
+    List<Scheduler.Handle> handles = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      handles.add(scheduler.schedule(7, i));
+    }
+    scheduler.schedule(3, -1);
+    assertEquals("\n[0 BLACK +999] \n[-1 RED] [NILL BLACK] "
+            + "\n[NILL BLACK] [NILL BLACK] ", scheduler.toPrettyString());
+
+    // cancelling the entry in the tree hands its place to the next one
+    assertTrue(scheduler.cancel(handles.get(0)));
+    assertTrue(scheduler.cancel(handles.get(500)));
+    assertFalse(scheduler.cancel(handles.get(500)));
+    assertEquals(Integer.valueOf(-1), scheduler.pollFirst());
+    assertEquals(Integer.valueOf(1), scheduler.peekMin());
+
+    final List<Integer> due = new ArrayList<>();
+    scheduler.pollDue(7, new EventSink<Integer, Integer>() {
+      @Override
+      public void accept(Integer deadline, Integer task) {
+        due.add(task);
+      }
+    });
+    assertEquals(998, due.size());
+    for (int i = 1; i < due.size(); i++) {
+      assertTrue(due.get(i - 1) < due.get(i));
+    }
+    assertFalse(due.contains(500));
+    assertEquals(0, scheduler.size());
+  }
+
+  @Test
+  public void orderQueries_matchTreeMap() throws Exception {
+    for (boolean multimap : new boolean[] {false, true}) {
+      BalancedScheduler<Integer, Long> tree = new BalancedScheduler<>(multimap);
+      TreeMap<Long, Long> oracle = new TreeMap<>();   // key << 32 | sequence
+      List<Scheduler.Handle> handles = new ArrayList<>();
+      List<Long> ids = new ArrayList<>();
+      Random rand = new Random(14);
+
+      for (long seq = 0; seq < 20000; seq++) {
+        if (rand.nextInt(3) > 0 || handles.isEmpty()) {
+          int key = rand.nextInt(300);
+          long id = ((long) key << 32) | seq;
+          handles.add(tree.schedule(key, id));
+          ids.add(id);
+          oracle.put(id, id);
+        } else {
+          int pick = rand.nextInt(handles.size());
+          assertEquals(oracle.remove(ids.get(pick)) != null, tree.cancel(handles.get(pick)));
+          handles.set(pick, handles.get(handles.size() - 1));
+          handles.remove(handles.size() - 1);
+          ids.set(pick, ids.get(ids.size() - 1));
+          ids.remove(ids.size() - 1);
+        }
+
+        if (seq % 100 == 0) {
+          assertSameEntries(oracle.values().iterator(), tree.iterator());
+          int lo = rand.nextInt(300);
+          int hi = lo + rand.nextInt(50);
+          long from = (long) lo << 32;
+          long to = (long) hi << 32;
+          assertEquals(oracle.headMap(from).size(), tree.rank(lo));
+          assertEquals(oracle.subMap(from, to).size(), tree.subMap(lo, hi).size());
+          assertEquals(oracle.headMap(to).size(), tree.headMap(hi).size());
+          assertSameEntries(oracle.subMap(from, to).values().iterator(),
+                  tree.subMap(lo, hi).iterator());
+          if (!oracle.isEmpty()) {
+            int index = rand.nextInt(oracle.size());
+            Long expected = oracle.values().toArray(new Long[0])[index];
+            assertEquals(expected, tree.select(index).getValue());
+          }
+        }
+      }
+
+      // removing through the iterator leaves the rest in order
+      Iterator<Map.Entry<Integer, Long>> it = tree.iterator();
+      Iterator<Long> expected = oracle.values().iterator();
+      while (it.hasNext()) {
+        assertEquals(expected.next(), it.next().getValue());
+        if (rand.nextBoolean()) {
+          it.remove();
+          expected.remove();
+        }
+      }
+      assertEquals(oracle.size(), tree.size());
+      assertSameEntries(oracle.values().iterator(), tree.iterator());
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void select_rejectsIndexPastEnd() throws Exception {
+    BalancedScheduler<Integer, String> tree = new BalancedScheduler<>();
+    tree.add(1, "a");
+    tree.select(1);
+  }
+
+  // the copy must hold the same entries in the same order and keep working
+  // as a tree: adding, removing and polling after the rebuild
+  @Test
+  public void serialization_roundTripsEntriesInOrder() throws Exception {
+    for (boolean multimap : new boolean[] {false, true}) {
+      for (int count : new int[] {0, 1, 2, 3, 7, 8, 1000, 4097}) {
+        BalancedScheduler<Integer, Long> tree = new BalancedScheduler<>(multimap);
+        TreeMap<Long, Long> oracle = new TreeMap<>();
+        Random rand = new Random(count);
+        for (long seq = 0; seq < count; seq++) {
+          int key = rand.nextInt(count / 4 + 1);
+          long id = ((long) key << 32) | seq;
+          tree.add(key, id);
+          oracle.put(id, id);
+        }
+
+        BalancedScheduler<Integer, Long> copy = roundTrip(tree);
+        assertEquals(count, copy.size());
+        assertSameEntries(oracle.values().iterator(), copy.iterator());
+        for (long seq = count; seq < count + 500; seq++) {
+          int key = rand.nextInt(count / 4 + 1);
+          long id = ((long) key << 32) | seq;
+          copy.add(key, id);
+          oracle.put(id, id);
+          if (seq % 3 == 0) {
+            Long removed = copy.remove(key);
+            assertEquals(oracle.ceilingKey((long) key << 32), removed);
+            oracle.remove(removed);
+          }
+        }
+        assertSameEntries(oracle.values().iterator(), copy.iterator());
+        while (!oracle.isEmpty()) assertEquals(oracle.pollFirstEntry().getValue(), copy.pollFirst());
+        assertEquals(0, copy.size());
+      }
+    }
+  }
+
+  @Test
+  public void serialization_rebuildsBalancedTree() throws Exception {
+    BalancedScheduler<Integer, String> tree = new BalancedScheduler<>();
+    for (int key = 1; key <= 4; key++) tree.add(key, "v" + key);
+    assertEquals("\n[v2 BLACK] \n[v1 BLACK] [v3 BLACK] "
+            + "\n[NILL BLACK] [NILL BLACK] [NILL BLACK] [v4 RED] "
+            + "\n[NILL BLACK] [NILL BLACK] ", roundTrip(tree).toPrettyString());
+
+    Scheduler.Handle handle = tree.schedule(9, "x");
+    BalancedScheduler<Integer, String> copy = roundTrip(tree);
+    assertFalse(copy.cancel(handle));
+    assertEquals(5, copy.size());
+    assertEquals(3, copy.rank(4));
+    assertEquals("v4", copy.select(3).getValue());
+  }
+
+  // FIFO among equal keys must survive batches placed from a finger
+  @Test
+  public void batches_matchTreeMap() throws Exception {
+    batches(new BalancedScheduler<Integer, Long>(false));
+    batches(new BalancedScheduler<Integer, Long>(true));
+  }
+
+  private void batches(BalancedScheduler<Integer, Long> tree) {
+    TreeMap<Long, Long> oracle = new TreeMap<>();   // key << 32 | sequence
+    Random rand = new Random(21);
+    long seq = 0;
+    for (int round = 0; round < 400; round++) {
+      int lo = rand.nextInt(5000);
+      if (rand.nextInt(3) == 0) {
+        int hi = lo + rand.nextInt(rand.nextBoolean() ? 20 : 5000);
+        Map<Long, Long> range = oracle.subMap((long) lo << 32, (long) hi << 32);
+        int expected = range.size();
+        range.clear();
+        assertEquals(expected, tree.removeRange(lo, hi));
+      } else {
+        List<Map.Entry<Integer, Long>> batch = new ArrayList<>();
+        int key = lo;
+        for (int i = rand.nextInt(300); i >= 0; i--) {
+          key += rand.nextInt(rand.nextBoolean() ? 2 : 100);
+          long id = ((long) key << 32) | seq++;
+          batch.add(new AbstractMap.SimpleEntry<>(key, id));
+          oracle.put(id, id);
+        }
+        tree.addAll(batch);
+      }
+      assertEquals(oracle.size(), tree.size());
+      assertEquals(oracle.isEmpty() ? null : oracle.firstKey(), tree.peekMin());
+    }
+    assertSameEntries(oracle.values().iterator(), tree.iterator());
+    while (!oracle.isEmpty()) assertEquals(oracle.pollFirstEntry().getValue(), tree.pollFirst());
+  }
+
+  @Test
+  public void addAll_rejectsUnsortedBatch() throws Exception {
+    BalancedScheduler<Integer, String> tree = new BalancedScheduler<>();
+    List<Map.Entry<Integer, String>> batch = new ArrayList<>();
+    batch.add(new AbstractMap.SimpleEntry<>(2, "b"));
+    batch.add(new AbstractMap.SimpleEntry<Integer, String>(null, "skipped"));
+    batch.add(new AbstractMap.SimpleEntry<>(1, "a"));
+    try {
+      tree.addAll(batch);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertEquals(0, tree.size());
+    }
+  }
+
+  @Test
+  public void overlapping_findsWindowsActiveDuringQuery() throws Exception {
+    BalancedScheduler<Integer, String> tree = new BalancedScheduler<>();
+    tree.add(5, "point");                       // before interval mode
+    tree.addInterval(0, 10, "firewall");
+    tree.addInterval(3, 4, "scan");
+    tree.addInterval(12, 20, "trace");
+    List<Map.Entry<Integer, String>> found = new ArrayList<>();
+    assertEquals(3, tree.overlapping(4, 6, found));
+    assertEquals("[0=firewall, 3=scan, 5=point]", found.toString());
+    found.clear();
+    assertEquals(2, tree.overlapping(10, 12, found));
+    assertEquals("[0=firewall, 12=trace]", found.toString());
+    found.clear();
+    assertEquals(0, tree.overlapping(21, 30, found));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addInterval_rejectsEndBeforeStart() throws Exception {
+    new BalancedScheduler<Integer, String>().addInterval(5, 4, "backwards");
+  }
+
+  // the latest ends must follow every rotation, bucket change and removal
+  @Test
+  public void overlapping_matchesScan() throws Exception {
+    for (boolean multimap : new boolean[] {false, true}) {
+      BalancedScheduler<Integer, Long> tree = new BalancedScheduler<>(multimap);
+      List<long[]> live = new ArrayList<>();          // start, end, id
+      List<Scheduler.Handle> handles = new ArrayList<>();
+      Random rand = new Random(multimap ? 31 : 13);
+      for (long id = 0; id < 30000; id++) {
+        int op = rand.nextInt(10);
+        if (op < 5) {
+          int start = rand.nextInt(2000);
+          int end = start + (rand.nextInt(8) == 0 ? rand.nextInt(1000) : rand.nextInt(10));
+          handles.add(tree.addInterval(start, end, id));
+          live.add(new long[] {start, end, id});
+        } else if (op < 8 && !live.isEmpty()) {
+          int pick = rand.nextInt(live.size());
+          assertTrue(tree.cancel(handles.get(pick)));
+          handles.set(pick, handles.get(handles.size() - 1));
+          handles.remove(handles.size() - 1);
+          live.set(pick, live.get(live.size() - 1));
+          live.remove(live.size() - 1);
+        } else if (op == 8 && !live.isEmpty()) {
+          Long polled = tree.pollFirst();
+          for (int i = 0; i < live.size(); i++) {
+            if (live.get(i)[2] == polled) {
+              handles.set(i, handles.get(handles.size() - 1));
+              handles.remove(handles.size() - 1);
+              live.set(i, live.get(live.size() - 1));
+              live.remove(live.size() - 1);
+              break;
+            }
+          }
+        } else {
+          int start = rand.nextInt(2100);
+          int end = start + rand.nextInt(50);
+          TreeMap<Long, Long> expected = new TreeMap<>();   // start << 32 | id
+          for (long[] interval : live) {
+            if (interval[0] <= end && interval[1] >= start)
+              expected.put(interval[0] << 32 | interval[2], interval[2]);
+          }
+          List<Map.Entry<Integer, Long>> found = new ArrayList<>();
+          assertEquals(expected.size(), tree.overlapping(start, end, found));
+          int i = 0;
+          for (long value : expected.values()) assertEquals(value, (long) found.get(i++).getValue());
+        }
+        assertEquals(live.size(), tree.size());
+      }
+      BalancedScheduler<Integer, Long> copy = roundTrip(tree);
+      List<Map.Entry<Integer, Long>> before = new ArrayList<>();
+      List<Map.Entry<Integer, Long>> after = new ArrayList<>();
+      tree.overlapping(500, 520, before);
+      copy.overlapping(500, 520, after);
+      assertEquals(before.toString(), after.toString());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(T object) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(object);
+    out.close();
+    return (T) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+  }
+
+  private static void assertSameEntries(Iterator<Long> expected,
+                                        Iterator<Map.Entry<Integer, Long>> actual) {
+    while (expected.hasNext()) {
+      assertTrue(actual.hasNext());
+      Map.Entry<Integer, Long> entry = actual.next();
+      long id = expected.next();
+      assertEquals(id, (long) entry.getValue());
+      assertEquals(id >> 32, (long) entry.getKey());
+    }
+    assertFalse(actual.hasNext());
+  }
+}
@@ -0,0 +1,295 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the array backed red-black tree against {@link BalancedScheduler}
+ * and a {@link TreeMap}.
+ */
+public class CompactBalancedSchedulerTest {
+
+  // removal splices in the successor where BalancedScheduler swaps in the
+  // predecessor, so only the shapes built by insertion are the same
+  @Test
+  public void toPrettyString_matchesBalancedScheduler() throws Exception {
+    CompactBalancedScheduler<Integer, Integer> compact = new CompactBalancedScheduler<>(0);
+    BalancedScheduler<Integer, Integer> nodes = new BalancedScheduler<>();
+    assertEquals("", compact.toPrettyString());
+    Random rand = new Random(3);
+    for (int i = 0; i < 300; i++) {
+      int key = rand.nextInt(1000);
+      compact.add(key, key);
+      nodes.add(key, key);
+    }
+    assertEquals(nodes.toPrettyString(), compact.toPrettyString());
+    for (int i = 0; i < 200; i++) {
+      int key = rand.nextInt(1000);
+      assertEquals(nodes.remove(key), compact.remove(key));
+    }
+    assertEquals(nodes.size(), compact.size());
+    while (nodes.size() > 0) assertEquals(nodes.pollFirst(), compact.pollFirst());
+    assertEquals("", compact.toPrettyString());
+  }
+
+  @Test
+  public void pollDue_drainsInDeadlineOrderFifoOnTies() throws Exception {
+    CompactBalancedScheduler<Integer, String> scheduler = new CompactBalancedScheduler<>();
+    scheduler.schedule(5, "e1");
+    scheduler.add(1, "a");
+    scheduler.schedule(5, "e2");
+    scheduler.schedule(9, "late");
+    scheduler.add(5, "e3");
+    assertEquals("a", scheduler.peekMin());
+    assertEquals(Integer.valueOf(1), scheduler.peekDeadline());
+    assertEquals("e1", scheduler.lookup(5));
+
+    final List<String> due = new ArrayList<>();
+    assertEquals(4, scheduler.pollDue(5, new EventSink<Integer, String>() {
+      @Override
+      public void accept(Integer deadline, String task) {
+        due.add(task);
+      }
+    }));
+    assertEquals("[a, e1, e2, e3]", due.toString());
+    assertEquals("late", scheduler.pollFirst());
+    assertNull(scheduler.pollFirst());
+    assertEquals(0, scheduler.size());
+  }
+
+  @Test
+  public void cancel_rejectsStaleHandleAfterSlotReuse() throws Exception {
+    CompactBalancedScheduler<Integer, String> scheduler = new CompactBalancedScheduler<>();
+    Scheduler.Handle a = scheduler.schedule(1, "a");
+    assertFalse(new CompactBalancedScheduler<Integer, String>().cancel(a));
+    assertFalse(scheduler.cancel(new BalancedScheduler<Integer, String>().schedule(1, "x")));
+    assertEquals("a", scheduler.pollFirst());
+    Scheduler.Handle b = scheduler.schedule(2, "b");    // takes the freed slot
+    assertFalse(scheduler.cancel(a));
+    assertEquals(1, scheduler.size());
+    assertTrue(scheduler.cancel(b));
+    assertFalse(scheduler.cancel(b));
+    assertEquals(0, scheduler.size());
+  }
+
+  // handles must stay attached to their own task however nodes are moved
+  // around and their slots reused
+  @Test
+  public void randomSchedule_matchesTreeMap() throws Exception {
+    randomSchedule(new CompactBalancedScheduler<Integer, Long>(), 200);
+    randomSchedule(new CompactBalancedScheduler<Integer, Long>(0), 5);
+  }
+
+  private void randomSchedule(final CompactBalancedScheduler<Integer, Long> scheduler, int spread) {
+    final TreeMap<Long, Long> oracle = new TreeMap<>();   // deadline << 32 | sequence
+    List<Scheduler.Handle> handles = new ArrayList<>();
+    List<Long> ids = new ArrayList<>();
+    Random rand = new Random(11);
+    int now = 0;
+
+    for (long seq = 0; seq < 100000; seq++) {
+      int op = rand.nextInt(10);
+      if (op < 6) {
+        int deadline = now + rand.nextInt(spread);
+        long id = ((long) deadline << 32) | seq;
+        handles.add(scheduler.schedule(deadline, id));
+        ids.add(id);
+        oracle.put(id, id);
+      } else if (op < 9 && !handles.isEmpty()) {
+        int pick = rand.nextInt(handles.size());
+        assertEquals(oracle.remove(ids.get(pick)) != null, scheduler.cancel(handles.get(pick)));
+        handles.set(pick, handles.get(handles.size() - 1));
+        handles.remove(handles.size() - 1);
+        ids.set(pick, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+      } else {
+        now += rand.nextInt(20);
+        final long limit = ((long) now << 32) | 0xffffffffL;
+        scheduler.pollDue(now, new EventSink<Integer, Long>() {
+          @Override
+          public void accept(Integer deadline, Long id) {
+            Map.Entry<Long, Long> expected = oracle.pollFirstEntry();
+            assertEquals(expected.getValue(), id);
+            assertTrue(id <= limit);
+            assertEquals((long) deadline, id >> 32);
+          }
+        });
+        assertTrue(oracle.isEmpty() || oracle.firstKey() > limit);
+      }
+      assertEquals(oracle.size(), scheduler.size());
+      assertEquals(oracle.isEmpty() ? null : oracle.firstKey(), scheduler.peekMin());
+    }
+  }
+
+  @Test
+  public void orderQueries_matchTreeMap() throws Exception {
+    CompactBalancedScheduler<Integer, Long> tree = new CompactBalancedScheduler<>(0);
+    TreeMap<Long, Long> oracle = new TreeMap<>();   // key << 32 | sequence
+    List<Scheduler.Handle> handles = new ArrayList<>();
+    List<Long> ids = new ArrayList<>();
+    Random rand = new Random(14);
+
+    for (long seq = 0; seq < 20000; seq++) {
+      if (rand.nextInt(3) > 0 || handles.isEmpty()) {
+        int key = rand.nextInt(300);
+        long id = ((long) key << 32) | seq;
+        handles.add(tree.schedule(key, id));
+        ids.add(id);
+        oracle.put(id, id);
+      } else {
+        int pick = rand.nextInt(handles.size());
+        assertEquals(oracle.remove(ids.get(pick)) != null, tree.cancel(handles.get(pick)));
+        handles.set(pick, handles.get(handles.size() - 1));
+        handles.remove(handles.size() - 1);
+        ids.set(pick, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+      }
+
+      if (seq % 100 == 0) {
+        tree.checkInvariants();
+        assertSameEntries(oracle.values().iterator(), tree.iterator());
+        int lo = rand.nextInt(300);
+        int hi = lo + rand.nextInt(50);
+        long from = (long) lo << 32;
+        long to = (long) hi << 32;
+        assertEquals(oracle.headMap(from).size(), tree.rank(lo));
+        assertEquals(oracle.subMap(from, to).size(), tree.subMap(lo, hi).size());
+        assertEquals(oracle.headMap(to).size(), tree.headMap(hi).size());
+        assertSameEntries(oracle.subMap(from, to).values().iterator(),
+                tree.subMap(lo, hi).iterator());
+        if (!oracle.isEmpty()) {
+          int index = rand.nextInt(oracle.size());
+          Long expected = oracle.values().toArray(new Long[0])[index];
+          assertEquals(expected, tree.select(index).getValue());
+        }
+      }
+    }
+
+    // removing through the iterator leaves the rest in order
+    Iterator<Map.Entry<Integer, Long>> it = tree.iterator();
+    Iterator<Long> expected = oracle.values().iterator();
+    while (it.hasNext()) {
+      assertEquals(expected.next(), it.next().getValue());
+      if (rand.nextBoolean()) {
+        it.remove();
+        expected.remove();
+      }
+    }
+    tree.checkInvariants();
+    assertEquals(oracle.size(), tree.size());
+    assertSameEntries(oracle.values().iterator(), tree.iterator());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void select_rejectsIndexPastEnd() throws Exception {
+    CompactBalancedScheduler<Integer, String> tree = new CompactBalancedScheduler<>();
+    tree.add(1, "a");
+    tree.select(1);
+  }
+
+  // FIFO among equal keys must survive batches placed from a finger
+  @Test
+  public void batches_matchTreeMap() throws Exception {
+    batches(new CompactBalancedScheduler<Integer, Long>());
+  }
+
+  private void batches(CompactBalancedScheduler<Integer, Long> tree) {
+    TreeMap<Long, Long> oracle = new TreeMap<>();   // key << 32 | sequence
+    Random rand = new Random(21);
+    long seq = 0;
+    for (int round = 0; round < 400; round++) {
+      int lo = rand.nextInt(5000);
+      if (rand.nextInt(3) == 0) {
+        int hi = lo + rand.nextInt(rand.nextBoolean() ? 20 : 5000);
+        Map<Long, Long> range = oracle.subMap((long) lo << 32, (long) hi << 32);
+        int expected = range.size();
+        range.clear();
+        assertEquals(expected, tree.removeRange(lo, hi));
+      } else {
+        List<Map.Entry<Integer, Long>> batch = new ArrayList<>();
+        int key = lo;
+        for (int i = rand.nextInt(300); i >= 0; i--) {
+          key += rand.nextInt(rand.nextBoolean() ? 2 : 100);
+          long id = ((long) key << 32) | seq++;
+          batch.add(new AbstractMap.SimpleEntry<>(key, id));
+          oracle.put(id, id);
+        }
+        tree.addAll(batch);
+      }
+      assertEquals(oracle.size(), tree.size());
+      assertEquals(oracle.isEmpty() ? null : oracle.firstKey(), tree.peekMin());
+    }
+    while (!oracle.isEmpty()) assertEquals(oracle.pollFirstEntry().getValue(), tree.pollFirst());
+  }
+
+  @Test
+  public void addAll_rejectsUnsortedBatch() throws Exception {
+    CompactBalancedScheduler<Integer, String> tree = new CompactBalancedScheduler<>();
+    List<Map.Entry<Integer, String>> batch = new ArrayList<>();
+    batch.add(new AbstractMap.SimpleEntry<>(2, "b"));
+    batch.add(new AbstractMap.SimpleEntry<Integer, String>(null, "skipped"));
+    batch.add(new AbstractMap.SimpleEntry<>(1, "a"));
+    try {
+      tree.addAll(batch);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertEquals(0, tree.size());
+    }
+  }
+
+  @Test
+  public void addAndPoll_allocateNothingOnceGrown() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) return;
+    com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+    if (!counter.isThreadAllocatedMemorySupported()) return;
+    counter.setThreadAllocatedMemoryEnabled(true);
+
+    int count = 20000;
+    Integer[] keys = new Integer[count];
+    Random rand = new Random(5);
+    for (int i = 0; i < count; i++) keys[i] = rand.nextInt(count);
+
+    CompactBalancedScheduler<Integer, Integer> scheduler = new CompactBalancedScheduler<>(count);
+    long least = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long overhead = allocatedBytes(counter) - allocatedBytes(counter);
+      long before = allocatedBytes(counter);
+      for (Integer key : keys) scheduler.add(key, key);
+      for (Integer key : keys) scheduler.remove(key);
+      for (Integer key : keys) scheduler.add(key, key);
+      while (scheduler.pollFirst() != null) { }
+      long spent = allocatedBytes(counter) - before + overhead;
+      least = Math.min(least, spent);
+      assertEquals(0, scheduler.size());
+    }
+    assertEquals(0, least);
+  }
+
+  private static void assertSameEntries(Iterator<Long> expected,
+                                        Iterator<Map.Entry<Integer, Long>> actual) {
+    while (expected.hasNext()) {
+      assertTrue(actual.hasNext());
+      Map.Entry<Integer, Long> entry = actual.next();
+      long id = expected.next();
+      assertEquals(id, (long) entry.getValue());
+      assertEquals(id >> 32, (long) entry.getKey());
+    }
+    assertFalse(actual.hasNext());
+  }
+
+  private static long allocatedBytes(com.sun.management.ThreadMXBean counter) {
+    return counter.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
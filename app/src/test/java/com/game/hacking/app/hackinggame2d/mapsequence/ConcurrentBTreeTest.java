@@ -0,0 +1,189 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Hammers the concurrent B-tree from several threads and checks it against a
+ * {@link ConcurrentSkipListMap} oracle.
+ */
+public class ConcurrentBTreeTest {
+  private static final int KEY_SPACE = 20000;
+  private static final int OPERATIONS_PER_THREAD = 100000;
+
+  @Test
+  public void singleThread_matchesSkipList() throws Exception {
+    ConcurrentBTree<Integer, Integer> tree = new ConcurrentBTree<>(4);
+    ConcurrentSkipListMap<Integer, Integer> oracle = new ConcurrentSkipListMap<>();
+    Random rand = new Random(5);
+    for (int i = 0; i < 100000; i++) {
+      int key = rand.nextInt(1000);
+      if (rand.nextInt(3) == 0) {
+        assertEquals(oracle.remove(key), tree.remove(key));
+      } else {
+        oracle.put(key, i);
+        tree.put(key, i);
+      }
+      assertEquals(oracle.size(), tree.size());
+      assertEquals(oracle.get(key), tree.get(key));
+    }
+  }
+
+  @Test
+  public void stress_matchesSkipList() throws Exception {
+    for (int order : new int[] {4, 16}) {
+      stress(new ConcurrentBTree<Integer, Long>(order));
+    }
+  }
+
+  // every thread owns the keys congruent to its index and mutates only those,
+  // while reading everybody's; values encode their key so misrouted or torn
+  // reads show up, and a block of pinned keys must always be visible. On x86
+  // loads are not reordered with later loads, so this cannot catch a reader
+  // checking its version before its reads of a node; that ordering is kept by
+  // the volatile slots of ConcurrentBTree and only shows on weaker hardware
+  // such as ARM
+  private void stress(final ConcurrentBTree<Integer, Long> tree) throws Exception {
+    final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    final ConcurrentSkipListMap<Integer, Long> oracle = new ConcurrentSkipListMap<>();
+    final int pinned = 500;
+    for (int key = -pinned; key < 0; key++) {
+      tree.put(key, encode(key, 0));
+      oracle.put(key, encode(key, 0));
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      Thread worker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            Random rand = new Random(id);
+            for (int i = 1; i <= OPERATIONS_PER_THREAD && failure.get() == null; i++) {
+              int own = rand.nextInt(KEY_SPACE / threads) * threads + id;
+              switch (rand.nextInt(4)) {
+                case 0:
+                  assertEquals(oracle.remove(own), tree.remove(own));
+                  break;
+                case 1:
+                  tree.put(own, encode(own, i));
+                  oracle.put(own, encode(own, i));
+                  break;
+                case 2:
+                  assertEquals(oracle.get(own), tree.get(own));
+                  break;
+                default:
+                  int any = rand.nextInt(KEY_SPACE + pinned) - pinned;
+                  Long val = tree.get(any);
+                  if (any < 0) assertNotNull("pinned key " + any + " vanished", val);
+                  if (val != null) assertEquals(any, val >> 32);
+                  break;
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+      workers.add(worker);
+      worker.start();
+    }
+
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    if (failure.get() != null) throw new AssertionError(failure.get());
+
+    assertEquals(oracle.size(), tree.size());
+    for (int key = -pinned; key < KEY_SPACE; key++) {
+      assertEquals(oracle.get(key), tree.get(key));
+    }
+    for (Map.Entry<Integer, Long> e : oracle.entrySet()) {
+      assertEquals(e.getValue(), tree.get(e.getKey()));
+    }
+  }
+
+  // readers write nothing, not even a version, so several of them share the
+  // upper nodes without fighting over their cache lines and get through more
+  // lookups together than one does alone
+  @Test
+  public void readers_scale() throws Exception {
+    int readers = Math.min(4, Runtime.getRuntime().availableProcessors());
+    assumeTrue("needs more than one processor", readers > 1);
+    ConcurrentBTree<Integer, Integer> tree = new ConcurrentBTree<>();
+    Integer[] keys = new Integer[KEY_SPACE];
+    for (int key = 0; key < KEY_SPACE; key++) {
+      keys[key] = key;
+      tree.put(key, key);
+    }
+
+    lookups(tree, keys, readers);   // warm up
+    long alone = lookups(tree, keys, 1);
+    long together = lookups(tree, keys, readers);
+    assertTrue(readers + " readers made " + together + " lookups against " + alone + " for one",
+            together > alone * readers / 2);
+  }
+
+  // the lookups a number of readers make, all told, in a fixed time
+  private static long lookups(final ConcurrentBTree<Integer, Integer> tree, final Integer[] keys, int readers)
+          throws Exception {
+    final long nanos = 300 * 1000000L;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicLong total = new AtomicLong();
+    final AtomicLong wrong = new AtomicLong();
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < readers; t++) {
+      final int id = t;
+      Thread worker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          Random rand = new Random(id);
+          long deadline = System.nanoTime() + nanos;
+          long count = 0;
+          do {
+            for (int i = 0; i < 1024; i++) {
+              Integer key = keys[rand.nextInt(keys.length)];
+              if (!key.equals(tree.get(key))) wrong.incrementAndGet();
+            }
+            count += 1024;
+          } while (System.nanoTime() < deadline);
+          total.addAndGet(count);
+        }
+      });
+      workers.add(worker);
+      worker.start();
+    }
+
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals(0, wrong.get());
+    return total.get();
+  }
+
+  private static long encode(int key, int stamp) {
+    return ((long) key << 32) | (stamp & 0xffffffffL);
+  }
+}
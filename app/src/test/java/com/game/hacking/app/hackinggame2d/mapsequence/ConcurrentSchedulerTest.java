@@ -0,0 +1,273 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the skip list scheduler alone and with threads racing for the same
+ * entries: every entry must be handed out exactly once.
+ */
+public class ConcurrentSchedulerTest {
+  private static final int THREADS = 4;
+
+  @Test
+  public void singleThread_keepsTreeContract() throws Exception {
+    ConcurrentScheduler<Integer, String> scheduler = new ConcurrentScheduler<>();
+    assertEquals("", scheduler.toPrettyString());
+    scheduler.add(5, "e1");
+    scheduler.add(1, null);
+    scheduler.add(5, "e2");
+    scheduler.add(null, "ignored");
+    assertEquals(3, scheduler.size());
+    assertEquals("e1", scheduler.lookup(5));
+    assertNull(scheduler.lookup(4));
+    assertEquals("\n[null] [e1] [e2] ", scheduler.toPrettyString());
+
+    assertEquals("e1", scheduler.remove(5));
+    assertNull(scheduler.remove(5 - 1));
+    assertNull(scheduler.pollFirst());              // the null value stored under 1
+    assertEquals(Integer.valueOf(5), scheduler.peekDeadline());
+    assertEquals("e2", scheduler.pollFirst());
+    assertNull(scheduler.pollFirst());
+    assertEquals(0, scheduler.size());
+  }
+
+  @Test
+  public void cancel_acceptsOnlyOwnLiveHandles() throws Exception {
+    ConcurrentScheduler<Integer, String> scheduler = new ConcurrentScheduler<>();
+    ConcurrentScheduler<Integer, String> other = new ConcurrentScheduler<>();
+    Scheduler.Handle a = scheduler.schedule(1, "a");
+    other.schedule(1, "same key and sequence");
+    assertFalse(other.cancel(a));
+    assertFalse(scheduler.cancel(new BalancedScheduler<Integer, String>().schedule(1, "x")));
+    assertTrue(scheduler.cancel(a));
+    assertFalse(scheduler.cancel(a));
+    assertEquals(1, other.size());
+  }
+
+  @Test
+  public void pollDue_drainsInDeadlineOrderFifoOnTies() throws Exception {
+    ConcurrentScheduler<Integer, String> scheduler = new ConcurrentScheduler<>();
+    scheduler.schedule(5, "e1");
+    scheduler.schedule(1, "a");
+    scheduler.schedule(5, "e2");
+    scheduler.schedule(9, "late");
+    final List<String> due = new ArrayList<>();
+    assertEquals(3, scheduler.pollDue(5, new EventSink<Integer, String>() {
+      @Override
+      public void accept(Integer deadline, String task) {
+        due.add(task);
+      }
+    }));
+    assertEquals("[a, e1, e2]", due.toString());
+    assertEquals("late", scheduler.peekMin());
+  }
+
+  // producers add while consumers poll; each id must come out exactly once
+  @Test
+  public void concurrentAddAndPoll_handEachEntryOutOnce() throws Exception {
+    final int perProducer = 20000;
+    final ConcurrentScheduler<Integer, Integer> scheduler = new ConcurrentScheduler<>();
+    final AtomicLongArray seen = new AtomicLongArray(THREADS * perProducer);
+    final AtomicInteger producing = new AtomicInteger(THREADS);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    final List<Throwable> failures = new ArrayList<>();
+
+    for (int t = 0; t < THREADS; t++) {
+      final int producer = t;
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          awaitQuietly(start);
+          Random rand = new Random(producer);
+          for (int i = 0; i < perProducer; i++) {
+            scheduler.add(rand.nextInt(1000), producer * perProducer + i);
+          }
+          producing.decrementAndGet();
+        }
+      }));
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          awaitQuietly(start);
+          while (true) {
+            boolean done = producing.get() == 0;   // read before polling
+            Integer id = scheduler.pollFirst();
+            if (id == null) {
+              if (done) return;
+              continue;
+            }
+            if (seen.getAndIncrement(id) != 0) {
+              synchronized (failures) {
+                failures.add(new AssertionError("polled twice: " + id));
+              }
+            }
+          }
+        }
+      }));
+    }
+    runAll(threads, start);
+
+    assertTrue(failures.toString(), failures.isEmpty());
+    for (int id = 0; id < seen.length(); id++) assertEquals("id " + id, 1, seen.get(id));
+    assertEquals(0, scheduler.size());
+  }
+
+  // with the contents fixed, each consumer must see entries in increasing
+  // order, as it would if the polls happened one at a time
+  @Test
+  public void concurrentPolls_eachSeeIncreasingEntries() throws Exception {
+    final ConcurrentScheduler<Integer, Long> scheduler = new ConcurrentScheduler<>();
+    Random rand = new Random(7);
+    int count = 80000;
+    for (long seq = 0; seq < count; seq++) {
+      int key = rand.nextInt(500);
+      scheduler.add(key, ((long) key << 32) | seq);
+    }
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger total = new AtomicInteger();
+    final List<Throwable> failures = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          awaitQuietly(start);
+          long last = -1;
+          Long id;
+          while ((id = scheduler.pollFirst()) != null) {
+            if (id <= last) {
+              synchronized (failures) {
+                failures.add(new AssertionError(id + " after " + last));
+              }
+            }
+            last = id;
+            total.incrementAndGet();
+          }
+        }
+      }));
+    }
+    runAll(threads, start);
+
+    assertTrue(failures.toString(), failures.isEmpty());
+    assertEquals(count, total.get());
+  }
+
+  // threads cancel the same handles while another polls them: each task is
+  // won by exactly one of them
+  @Test
+  public void racingCancelAndPoll_succeedOncePerTask() throws Exception {
+    final ConcurrentScheduler<Integer, Integer> scheduler = new ConcurrentScheduler<>();
+    final int count = 50000;
+    final List<Scheduler.Handle> handles = new ArrayList<>();
+    for (int i = 0; i < count; i++) handles.add(scheduler.schedule(i % 100, i));
+
+    final AtomicLongArray won = new AtomicLongArray(count);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < THREADS - 1; t++) {
+      final int offset = t * 1000;
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          awaitQuietly(start);
+          for (int i = 0; i < count; i++) {
+            int id = (i + offset) % count;
+            if (scheduler.cancel(handles.get(id))) won.incrementAndGet(id);
+          }
+        }
+      }));
+    }
+    threads.add(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        awaitQuietly(start);
+        Integer id;
+        while ((id = scheduler.pollFirst()) != null) won.incrementAndGet(id);
+      }
+    }));
+    runAll(threads, start);
+
+    for (int id = 0; id < count; id++) assertEquals("id " + id, 1, won.get(id));
+    assertEquals(0, scheduler.size());
+  }
+
+  // batches and ranges taken one entry at a time keep the single thread order
+  @Test
+  public void batches_matchTreeMap() throws Exception {
+    batches(new ConcurrentScheduler<Integer, Long>());
+  }
+
+  private void batches(ConcurrentScheduler<Integer, Long> tree) {
+    TreeMap<Long, Long> oracle = new TreeMap<>();   // key << 32 | sequence
+    Random rand = new Random(21);
+    long seq = 0;
+    for (int round = 0; round < 400; round++) {
+      int lo = rand.nextInt(5000);
+      if (rand.nextInt(3) == 0) {
+        int hi = lo + rand.nextInt(rand.nextBoolean() ? 20 : 5000);
+        Map<Long, Long> range = oracle.subMap((long) lo << 32, (long) hi << 32);
+        int expected = range.size();
+        range.clear();
+        assertEquals(expected, tree.removeRange(lo, hi));
+      } else {
+        List<Map.Entry<Integer, Long>> batch = new ArrayList<>();
+        int key = lo;
+        for (int i = rand.nextInt(300); i >= 0; i--) {
+          key += rand.nextInt(rand.nextBoolean() ? 2 : 100);
+          long id = ((long) key << 32) | seq++;
+          batch.add(new AbstractMap.SimpleEntry<>(key, id));
+          oracle.put(id, id);
+        }
+        tree.addAll(batch);
+      }
+      assertEquals(oracle.size(), tree.size());
+      assertEquals(oracle.isEmpty() ? null : oracle.firstKey(), tree.peekMin());
+    }
+    while (!oracle.isEmpty()) assertEquals(oracle.pollFirstEntry().getValue(), tree.pollFirst());
+  }
+
+  @Test
+  public void addAll_rejectsUnsortedBatch() throws Exception {
+    ConcurrentScheduler<Integer, String> tree = new ConcurrentScheduler<>();
+    List<Map.Entry<Integer, String>> batch = new ArrayList<>();
+    batch.add(new AbstractMap.SimpleEntry<>(2, "b"));
+    batch.add(new AbstractMap.SimpleEntry<Integer, String>(null, "skipped"));
+    batch.add(new AbstractMap.SimpleEntry<>(1, "a"));
+    try {
+      tree.addAll(batch);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertEquals(0, tree.size());
+    }
+  }
+
+  private static void runAll(List<Thread> threads, CountDownLatch start) throws Exception {
+    for (Thread thread : threads) thread.start();
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join(60000);
+      assertFalse("thread hung", thread.isAlive());
+    }
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import com.game.hacking.app.hackinggame2d.grafiks.Vec2D;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the distance cache against fresh searches while the map changes
+ * under it.
+ */
+public class DistanceCacheTest {
+
+  @Test
+  public void smallGraph_answersAllPairsAfterOneMiss() throws Exception {
+    GameGraph<String> graph = new GameGraph<>();
+    List<Vec2D> at = line(graph, 4);
+    graph.addEdgeBetweenTwoVertices(2, at.get(0), at.get(1));
+    graph.addEdgeBetweenTwoVertices(3, at.get(1), at.get(2));
+    DistanceCache<String> cache = new DistanceCache<>(graph);
+
+    assertEquals(5, cache.distance(vertex(graph, at, 0), vertex(graph, at, 2)));
+    assertEquals(3, cache.distance(vertex(graph, at, 1), vertex(graph, at, 2)));
+    assertEquals(Long.MAX_VALUE, cache.distance(vertex(graph, at, 2), vertex(graph, at, 0)));
+    assertEquals(Long.MAX_VALUE, cache.distance(vertex(graph, at, 3), new Vertex<String>("elsewhere")));
+    assertEquals(1, cache.misses());
+    assertEquals(2, cache.hits());
+    assertEquals(4, cache.size());
+
+    // a new edge is repaired in place, without another search
+    graph.addEdgeBetweenTwoVertices(1, at.get(2), at.get(3));
+    graph.addEdgeBetweenTwoVertices(1, at.get(0), at.get(2));
+    assertEquals(2, cache.distance(vertex(graph, at, 0), vertex(graph, at, 3)));
+    assertEquals(1, cache.misses());
+
+    // only the trees that reached the removed vertex are dropped
+    cache.resetCounters();
+    graph.removeVertexFromGraph(at.get(0));
+    assertEquals(3, cache.size());
+    assertEquals(4, cache.distance(vertex(graph, at, 1), vertex(graph, at, 3)));
+    assertEquals(Long.MAX_VALUE, cache.distance(vertex(graph, at, 0), vertex(graph, at, 3)));
+    graph.removeVertexFromGraph(at.get(3));
+    assertEquals(0, cache.size());
+    assertEquals(3, cache.distance(vertex(graph, at, 1), vertex(graph, at, 2)));
+    assertEquals(1, cache.misses());
+    assertEquals(1, cache.hits());
+
+    cache.detach();
+    graph.addEdgeBetweenTwoVertices(1, at.get(2), at.get(1));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void largeGraph_keepsRecentlyUsedTrees() throws Exception {
+    GameGraph<String> graph = new GameGraph<>();
+    List<Vec2D> at = line(graph, 5);
+    for (int i = 0; i < 4; i++) graph.addEdgeBetweenTwoVertices(1, at.get(i), at.get(i + 1));
+    DistanceCache<String> cache = new DistanceCache<>(graph, 2, 3);
+
+    assertEquals(4, cache.distance(vertex(graph, at, 0), vertex(graph, at, 4)));
+    assertEquals(3, cache.distance(vertex(graph, at, 1), vertex(graph, at, 4)));
+    assertEquals(4, cache.distance(vertex(graph, at, 0), vertex(graph, at, 4)));
+    // the tree of 1 is the least recently used, so it goes
+    assertEquals(2, cache.distance(vertex(graph, at, 2), vertex(graph, at, 4)));
+    assertEquals(2, cache.size());
+    assertEquals(3, cache.distance(vertex(graph, at, 1), vertex(graph, at, 4)));
+    assertEquals(4, cache.misses());
+    assertEquals(1, cache.hits());
+  }
+
+  // random edits and questions against a search of the graph as it stands
+  @Test
+  public void randomEdits_matchFreshSearches() throws Exception {
+    Random rand = new Random(37);
+    for (int round = 0; round < 30; round++) {
+      int n = 2 + rand.nextInt(40);
+      GameGraph<String> graph = new GameGraph<>();
+      List<Vec2D> at = line(graph, n);
+      for (int i = rand.nextInt(2 * n); i > 0; i--)
+        graph.addEdgeBetweenTwoVertices(rand.nextInt(20), pick(at, rand), pick(at, rand));
+      boolean allPairs = round % 2 == 0;
+      DistanceCache<String> cache = allPairs ? new DistanceCache<String>(graph, 4, 1000) : new DistanceCache<String>(graph, 4, 0);
+
+      for (int step = 0; step < 200; step++) {
+        int op = rand.nextInt(10);
+        if (op < 3) {
+          graph.addEdgeBetweenTwoVertices(rand.nextInt(20), pick(at, rand), pick(at, rand));
+        } else if (op == 3) {
+          graph.removeVertexFromGraph(pick(at, rand));
+        } else if (op == 4) {
+          Vec2D fresh = new Vec2D(at.size(), 0);
+          at.add(fresh);
+          graph.addVertexToGraph("v" + at.size(), fresh);
+        } else if (op == 5) {
+          List<Edge<String>> edges = graph.getEdges();
+          if (!edges.isEmpty()) graph.removeEdge(edges.get(rand.nextInt(edges.size())));
+        } else {
+          List<Vertex<String>> live = graph.getVertices();
+          if (live.isEmpty()) continue;
+          Vertex<String> from = live.get(rand.nextInt(live.size()));
+          Vertex<String> to = live.get(rand.nextInt(live.size()));
+          FrozenGraph<String> frozen = graph.freeze();
+          long[] expected = new long[frozen.vertexCount()];
+          frozen.dijkstra(frozen.indexOf(from), expected);
+          assertEquals(expected[frozen.indexOf(to)], cache.distance(from, to));
+        }
+      }
+      assertTrue(cache.hits() > 0);
+    }
+  }
+
+  private static Vec2D pick(List<Vec2D> at, Random rand) {
+    return at.get(rand.nextInt(at.size()));
+  }
+
+  private static Vertex<String> vertex(GameGraph<String> graph, List<Vec2D> at, int i) {
+    return graph.getVertex(at.get(i));
+  }
+
+  private static List<Vec2D> line(GameGraph<String> graph, int n) {
+    List<Vec2D> at = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      at.add(new Vec2D(i, 0));
+      graph.addVertexToGraph("v" + i, at.get(i));
+    }
+    return at;
+  }
+}
@@ -0,0 +1,152 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import com.game.hacking.app.hackinggame2d.grafiks.Vec2D;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the compressed sparse row snapshot of a {@link GameGraph} against
+ * the linked edge lists it was taken from.
+ */
+public class FrozenGraphTest {
+
+  @Test
+  public void freeze_laysOutEdgesInAddedOrder() throws Exception {
+    GameGraph<String> graph = new GameGraph<>();
+    Vec2D[] at = line(graph, 5);
+    graph.addEdgeBetweenTwoVertices(7, at[0], at[2]);
+    graph.addEdgeBetweenTwoVertices(3, at[0], at[1]);
+    graph.addEdgeBetweenTwoVertices(4, at[2], at[3]);
+    graph.addEdgeBetweenTwoVertices(1, at[4], at[0]);
+    graph.addEdgeBetweenTwoVertices(2, at[3], at[4]);
+    graph.removeVertexFromGraph(at[4]);
+    // adding a vertex again moves it rather than listing it twice
+    Vec2D moved = new Vec2D(9, 9);
+    graph.addVertexToGraph(graph.getVertex(at[1]), moved);
+    assertNull(graph.getVertex(at[1]));
+    at[1] = moved;
+
+    FrozenGraph<String> frozen = graph.freeze();
+    assertEquals(4, frozen.vertexCount());
+    assertEquals(3, frozen.edgeCount());
+    assertEquals(0, frozen.edgeBegin(0));
+    assertEquals(2, frozen.edgeEnd(0));
+    assertEquals(2, frozen.target(0));
+    assertEquals(7, frozen.weight(0));
+    assertEquals(1, frozen.target(1));
+    assertEquals(frozen.edgeEnd(1), frozen.edgeBegin(2));
+    assertEquals(2, frozen.edgeBegin(2));
+    assertEquals(3, frozen.target(2));
+    assertEquals(3, frozen.edgeEnd(3));
+    for (int v = 0; v < 4; v++) assertEquals(v, frozen.indexOf(graph.getVertex(at[v])));
+    assertEquals(-1, frozen.indexOf(new Vertex<String>("elsewhere")));
+
+    // a newer snapshot renumbers, the last vertex having taken the place of
+    // the removed one; the old snapshot still finds its vertices
+    graph.removeVertexFromGraph(at[0]);
+    FrozenGraph<String> newer = graph.freeze();
+    assertEquals(0, newer.indexOf(graph.getVertex(at[3])));
+    assertEquals(3, frozen.indexOf(graph.getVertex(at[3])));
+    assertEquals(1, newer.edgeCount());
+  }
+
+  @Test
+  public void traversals_followEdgeDirections() throws Exception {
+    GameGraph<String> graph = new GameGraph<>();
+    Vec2D[] at = line(graph, 5);
+    graph.addEdgeBetweenTwoVertices(10, at[0], at[1]);
+    graph.addEdgeBetweenTwoVertices(1, at[0], at[2]);
+    graph.addEdgeBetweenTwoVertices(2, at[2], at[1]);
+    graph.addEdgeBetweenTwoVertices(5, at[1], at[3]);
+    graph.addEdgeBetweenTwoVertices(1, at[4], at[0]);
+    FrozenGraph<String> frozen = graph.freeze();
+
+    int[] hops = new int[5];
+    assertEquals(4, frozen.breadthFirst(0, hops));
+    assertEquals("[0, 1, 1, 2, -1]", Arrays.toString(hops));
+    long[] distances = new long[5];
+    assertEquals(4, frozen.dijkstra(0, distances));
+    assertEquals(Arrays.toString(new long[] {0, 3, 1, 8, Long.MAX_VALUE}), Arrays.toString(distances));
+    assertEquals("{0, 1, 2, 3}", frozen.reachableFrom(0).toString());
+    assertTrue(frozen.isReachable(4, 3));
+    assertFalse(frozen.isReachable(3, 0));
+    assertTrue(frozen.isReachable(3, 3));
+  }
+
+  @Test
+  public void dijkstra_rejectsNegativeDistances() throws Exception {
+    GameGraph<String> graph = new GameGraph<>();
+    Vec2D[] at = line(graph, 2);
+    graph.addEdgeBetweenTwoVertices(-1, at[0], at[1]);
+    FrozenGraph<String> frozen = graph.freeze();
+    assertEquals(2, frozen.breadthFirst(0, new int[2]));
+    try {
+      frozen.dijkstra(0, new long[2]);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  // random sparse maps against traversals of the edge lists themselves
+  @Test
+  public void randomGraphs_matchEdgeLists() throws Exception {
+    Random rand = new Random(17);
+    for (int round = 0; round < 30; round++) {
+      int n = 1 + rand.nextInt(60);
+      GameGraph<String> graph = new GameGraph<>();
+      Vec2D[] at = line(graph, n);
+      for (int i = rand.nextInt(3 * n); i > 0; i--)
+        graph.addEdgeBetweenTwoVertices(rand.nextInt(20), at[rand.nextInt(n)], at[rand.nextInt(n)]);
+      FrozenGraph<String> frozen = graph.freeze();
+      List<Vertex<String>> vertices = graph.getVertices();
+
+      int source = rand.nextInt(n);
+      long[] expected = bellmanFord(vertices, source);
+      long[] distances = new long[n];
+      int[] hops = new int[n];
+      int reached = frozen.dijkstra(source, distances);
+      assertEquals(reached, frozen.breadthFirst(source, hops));
+      assertEquals(Arrays.toString(expected), Arrays.toString(distances));
+      BitSet reachable = frozen.reachableFrom(source);
+      assertEquals(reached, reachable.cardinality());
+      for (int v = 0; v < n; v++) {
+        assertEquals(expected[v] != Long.MAX_VALUE, reachable.get(v));
+        assertEquals(reachable.get(v), hops[v] >= 0);
+        assertEquals(reachable.get(v), frozen.isReachable(source, v));
+      }
+    }
+  }
+
+  private static long[] bellmanFord(List<Vertex<String>> vertices, int source) {
+    long[] distances = new long[vertices.size()];
+    Arrays.fill(distances, Long.MAX_VALUE);
+    distances[source] = 0;
+    for (int pass = 0; pass < vertices.size(); pass++) {
+      for (int v = 0; v < vertices.size(); v++) {
+        if (distances[v] == Long.MAX_VALUE) continue;
+        for (Edge<String> edge : vertices.get(v).getOutgoingEdges()) {
+          int w = vertices.indexOf(edge.getDestination());
+          distances[w] = Math.min(distances[w], distances[v] + edge.getDistance());
+        }
+      }
+    }
+    return distances;
+  }
+
+  private static Vec2D[] line(GameGraph<String> graph, int n) {
+    List<Vec2D> at = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      at.add(new Vec2D(i, 0));
+      graph.addVertexToGraph("v" + i, at.get(i));
+    }
+    return at.toArray(new Vec2D[n]);
+  }
+}
@@ -0,0 +1,128 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the int-keyed B-tree against a {@link TreeMap}.
+ */
+public class IntBTreeTest {
+
+  @Test
+  public void randomOperations_matchTreeMap() throws Exception {
+    for (int order : new int[] {4, 6, 64}) {
+      Random rand = new Random(order);
+      IntBTree<Integer> tree = new IntBTree<>(order);
+      TreeMap<Integer, Integer> oracle = new TreeMap<>();
+
+      for (int i = 0; i < 100000; i++) {
+        int key = rand.nextInt(3000) - 1500;
+        if (rand.nextInt(3) == 0) {
+          assertEquals(oracle.remove(key), tree.remove(key));
+        } else {
+          oracle.put(key, i);
+          tree.put(key, i);
+        }
+        assertEquals(oracle.size(), tree.size());
+        assertEquals(oracle.get(key), tree.get(key));
+        assertEquals(oracle.floorKey(key), tree.floorKey(key));
+        assertEquals(oracle.ceilingKey(key), tree.ceilingKey(key));
+      }
+    }
+  }
+
+  @Test
+  public void bulkLoad_matchesSortedInput() throws Exception {
+    for (int size : new int[] {0, 1, 4, 999, 100000}) {
+      int[] keys = new int[size];
+      String[] values = new String[size];
+      for (int i = 0; i < size; i++) {
+        keys[i] = i * 3 - size;
+        values[i] = "v" + i;
+      }
+      IntBTree<String> tree = IntBTree.bulkLoad(keys, values, 64, 0.9);
+      assertEquals(size, tree.size());
+      IntBTree<String>.Cursor cursor = tree.cursor();
+      for (int i = 0; i < size; i++) {
+        assertEquals(keys[i], cursor.nextKey());
+        assertEquals(values[i], tree.get(keys[i]));
+      }
+      assertFalse(cursor.hasNext());
+      for (int i = 0; i < size; i += 2) {
+        assertEquals(values[i], tree.remove(keys[i]));
+      }
+      assertEquals(size / 2, tree.size());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void bulkLoad_rejectsUnsortedKeys() throws Exception {
+    IntBTree.bulkLoad(new int[] {5, 4}, new String[] {"a", "b"});
+  }
+
+  @Test
+  public void extremeKeys_areOrdered() throws Exception {
+    IntBTree<String> tree = new IntBTree<>();
+    tree.put(Integer.MAX_VALUE, "max");
+    tree.put(Integer.MIN_VALUE, "min");
+    tree.put(0, "zero");
+
+    IntBTree<String>.Cursor cursor = tree.cursor();
+    assertEquals(Integer.MIN_VALUE, cursor.nextKey());
+    assertEquals("min", cursor.value());
+    assertEquals(0, cursor.nextKey());
+    assertEquals(Integer.MAX_VALUE, cursor.nextKey());
+    assertEquals("max", cursor.value());
+    assertFalse(cursor.hasNext());
+  }
+
+  @Test
+  public void rangeCursor_walksKeysInOrder() throws Exception {
+    Random rand = new Random(11);
+    IntBTree<Integer> tree = new IntBTree<>(16);
+    TreeMap<Integer, Integer> oracle = new TreeMap<>();
+    for (int i = 0; i < 5000; i++) {
+      int key = rand.nextInt(10000);
+      tree.put(key, -key);
+      oracle.put(key, -key);
+    }
+
+    for (int i = 0; i < 200; i++) {
+      int lo = rand.nextInt(10000);
+      int hi = lo + rand.nextInt(500);
+      IntBTree<Integer>.Cursor cursor = tree.rangeCursor(lo, hi);
+      for (Map.Entry<Integer, Integer> e : oracle.subMap(lo, hi).entrySet()) {
+        assertTrue(cursor.hasNext());
+        assertEquals((int) e.getKey(), cursor.nextKey());
+        assertEquals(e.getValue(), cursor.value());
+      }
+      assertFalse(cursor.hasNext());
+    }
+  }
+
+  @Test
+  public void dump_matchesOutlineAndStopsAtLimits() throws Exception {
+    IntBTree<String> small = new IntBTree<>();
+    for (int key = 1; key <= 4; key++) small.put(key, "v" + key);
+    assertEquals("     1 v1\n     2 v2\n(3)\n     3 v3\n     4 v4\n\n", small.toString());
+
+    IntBTree<Integer> tree = new IntBTree<>(4);
+    for (int key = 0; key < 100000; key++) tree.put(key, key);
+    StringBuilder entries = new StringBuilder();
+    tree.dump(entries, Integer.MAX_VALUE, 10);
+    String[] lines = entries.toString().split("\n");
+    assertEquals(11, lines.length);
+    assertEquals("...", lines[10].trim());
+
+    StringBuilder shallow = new StringBuilder();
+    tree.dump(shallow, 1, Integer.MAX_VALUE);
+    for (String line : shallow.toString().split("\n")) {
+      assertTrue(line, line.trim().startsWith("(") || line.trim().equals("..."));
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the memory mapped B-tree, including recovery after the writing
+ * process is killed with SIGKILL in the middle of its commits.
+ */
+public class MappedBTreeTest {
+  private static final int BATCH = 1000;
+
+  private File file;
+
+  @Before
+  public void createFile() throws Exception {
+    file = File.createTempFile("mapped-btree", ".db");
+    assertTrue(file.delete());
+  }
+
+  @After
+  public void deleteFile() throws Exception {
+    file.delete();
+    new File(file.getPath() + ".wal").delete();
+  }
+
+  @Test
+  public void reopen_keepsCommittedEntries() throws Exception {
+    TreeMap<Long, Long> oracle = new TreeMap<>();
+    Random rand = new Random(9);
+    MappedBTree tree = new MappedBTree(file, 32);
+    for (int i = 0; i < 60000; i++) {
+      long key = rand.nextInt(30000) * 7L - 300000;
+      if (rand.nextInt(4) == 0) {
+        assertEquals(oracle.remove(key) != null, tree.remove(key));
+      } else {
+        assertEquals(oracle.put(key, (long) i) == null, tree.put(key, i));
+      }
+    }
+    assertEquals(oracle.size(), tree.size());
+    tree.close();
+
+    tree = new MappedBTree(file, 32);
+    assertSameContents(oracle, tree);
+    tree.close();
+  }
+
+  @Test
+  public void uncommittedChanges_areLostOnReopen() throws Exception {
+    MappedBTree tree = new MappedBTree(file);
+    tree.put(1, 10);
+    tree.commit();
+    tree.put(2, 20);
+    // dropped without close(), like a crash before the next commit
+    tree = new MappedBTree(file);
+    assertEquals(1, tree.size());
+    assertEquals(10, tree.get(1, -1));
+    assertFalse(tree.containsKey(2));
+    tree.close();
+  }
+
+  @Test
+  public void tornLog_isDiscarded() throws Exception {
+    MappedBTree tree = new MappedBTree(file);
+    tree.put(5, 50);
+    tree.close();
+
+    // a log cut off in the middle of its first page record
+    FileOutputStream wal = new FileOutputStream(file.getPath() + ".wal");
+    wal.write(new byte[] {0, 0, 0, 1, 42, 42, 42});
+    wal.close();
+
+    tree = new MappedBTree(file);
+    assertEquals(1, tree.size());
+    assertEquals(50, tree.get(5, -1));
+    assertEquals(0, new File(file.getPath() + ".wal").length());
+    tree.close();
+  }
+
+  @Test
+  public void killedWriter_recoversToLastCommit() throws Exception {
+    if (!System.getProperty("os.name").startsWith("Linux")) return;
+    Random rand = new Random(1);
+    long reported = 0;
+
+    for (int round = 0; round < 4; round++) {
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+              Writer.class.getName(), file.getPath());
+      pb.redirectErrorStream(true);
+      Process child = pb.start();
+      BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream()));
+      String pid = out.readLine();
+      assertNotNull(pid);
+
+      // let it commit a few batches, then kill it wherever it happens to be
+      int batches = 2 + rand.nextInt(20);
+      for (int i = 0; i < batches; i++) {
+        String line = out.readLine();
+        assertNotNull("writer died: " + pid, line);
+        reported = Long.parseLong(line);
+      }
+      Thread.sleep(rand.nextInt(15));
+      new ProcessBuilder("kill", "-9", pid).start().waitFor();
+      child.waitFor();
+      out.close();
+
+      MappedBTree tree = new MappedBTree(file, 64);
+      long size = tree.size();
+      assertTrue("lost committed batches: " + size + " < " + reported, size >= reported);
+      assertEquals("torn batch survived", 0, size % BATCH);
+      MappedBTree.Cursor cursor = tree.cursor();
+      for (long key = 0; key < size; key++) {
+        assertEquals(key, cursor.nextKey());
+        assertEquals(valueFor(key), cursor.value());
+      }
+      assertFalse(cursor.hasNext());
+      tree.close();
+    }
+  }
+
+  private static long valueFor(long key) {
+    return key * 31 + 7;
+  }
+
+  private static void assertSameContents(TreeMap<Long, Long> expected, MappedBTree tree)
+          throws IOException {
+    assertEquals(expected.size(), tree.size());
+    MappedBTree.Cursor cursor = tree.cursor();
+    for (Map.Entry<Long, Long> e : expected.entrySet()) {
+      assertEquals((long) e.getKey(), cursor.nextKey());
+      assertEquals((long) e.getValue(), cursor.value());
+      assertEquals((long) e.getValue(), tree.get(e.getKey(), -1));
+    }
+    assertFalse(cursor.hasNext());
+  }
+
+  /**
+   * Child process for the crash test: appends sequential keys in batches,
+   * committing each batch and reporting how many keys are durable.
+   */
+  public static final class Writer {
+    public static void main(String[] args) throws Exception {
+      String name = ManagementFactory.getRuntimeMXBean().getName();
+      System.out.println(name.substring(0, name.indexOf('@')));
+      System.out.flush();
+
+      MappedBTree tree = new MappedBTree(new File(args[0]), 64);
+      long next = tree.size();
+      while (true) {
+        for (long key = next; key < next + BATCH; key++) {
+          tree.put(key, valueFor(key));
+        }
+        tree.commit();
+        next += BATCH;
+        System.out.println(next);
+        System.out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import com.game.hacking.app.hackinggame2d.grafiks.Vec2D;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks Dijkstra and A* against each other and against the snapshot's own
+ * Dijkstra, and that repeated queries reuse their scratch.
+ */
+public class PathFinderTest {
+
+  @Test
+  public void pathTo_followsShortestRoute() throws Exception {
+    GameGraph<String> graph = new GameGraph<>();
+    Vec2D[] at = {new Vec2D(0, 0), new Vec2D(1, 0), new Vec2D(2, 0), new Vec2D(1, 5), new Vec2D(9, 9)};
+    for (int i = 0; i < at.length; i++) graph.addVertexToGraph("v" + i, at[i]);
+    graph.addEdgeBetweenTwoVertices(1, at[0], at[1]);
+    graph.addEdgeBetweenTwoVertices(1, at[1], at[2]);
+    graph.addEdgeBetweenTwoVertices(6, at[0], at[3]);
+    graph.addEdgeBetweenTwoVertices(6, at[3], at[2]);
+    graph.addEdgeBetweenTwoVertices(1, at[4], at[0]);
+    PathFinder<String> finder = new PathFinder<>(graph);
+
+    int[] path = new int[5];
+    for (int round = 0; round < 2; round++) {
+      long distance = (round == 0) ? finder.dijkstra(0, 2) : finder.aStar(0, 2);
+      assertEquals(2, distance);
+      assertEquals(3, finder.pathTo(2, path));
+      assertEquals("[0, 1, 2]", Arrays.toString(Arrays.copyOf(path, 3)));
+      assertEquals(1, finder.pathTo(0, path));
+      assertEquals(0, path[0]);
+    }
+    assertEquals(Long.MAX_VALUE, finder.aStar(0, 4));
+    assertEquals(0, finder.pathTo(4, path));
+    assertEquals(Long.MAX_VALUE, finder.distanceTo(4));
+
+    assertEquals(Long.MAX_VALUE, finder.dijkstra(4, -1));
+    assertEquals(7, finder.distanceTo(3));
+    assertEquals(3, finder.distanceTo(2));
+    assertEquals(4, finder.pathTo(2, path));
+    try {
+      finder.pathTo(2, new int[3]);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void negativeDistance_isRejected() throws Exception {
+    GameGraph<String> graph = new GameGraph<>();
+    Vec2D a = new Vec2D(0, 0);
+    Vec2D b = new Vec2D(1, 0);
+    graph.addVertexToGraph("a", a);
+    graph.addVertexToGraph("b", b);
+    graph.addEdgeBetweenTwoVertices(-2, a, b);
+    try {
+      new PathFinder<>(graph);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  // A* must agree with Dijkstra whether or not distances follow positions
+  @Test
+  public void randomMaps_aStarMatchesDijkstra() throws Exception {
+    Random rand = new Random(29);
+    for (int round = 0; round < 40; round++) {
+      boolean geometric = round % 2 == 0;
+      int n = 2 + rand.nextInt(80);
+      GameGraph<String> graph = new GameGraph<>();
+      Vec2D[] at = scatter(graph, n, rand);
+      for (int i = rand.nextInt(4 * n); i > 0; i--) {
+        int u = rand.nextInt(n);
+        int v = rand.nextInt(n);
+        int distance = geometric ? (int) Math.ceil(length(at[u], at[v])) + rand.nextInt(3) : rand.nextInt(50);
+        graph.addEdgeBetweenTwoVertices(distance, at[u], at[v]);
+      }
+      PathFinder<String> finder = new PathFinder<>(graph);
+      long[] expected = new long[n];
+      int[] path = new int[n];
+      for (int query = 0; query < 10; query++) {
+        int from = rand.nextInt(n);
+        int to = rand.nextInt(n);
+        finder.graph().dijkstra(from, expected);
+        assertEquals(expected[to], finder.aStar(from, to));
+        assertEquals(expected[to], finder.dijkstra(from, to));
+        if (expected[to] == Long.MAX_VALUE) continue;
+        // the path must exist edge by edge and add up to the distance
+        int length = finder.pathTo(to, path);
+        assertEquals(from, path[0]);
+        assertEquals(to, path[length - 1]);
+        long sum = 0;
+        for (int i = 1; i < length; i++) sum += shortestEdge(finder.graph(), path[i - 1], path[i]);
+        assertEquals(expected[to], sum);
+      }
+    }
+  }
+
+  @Test
+  public void repeatedQueries_allocateNothing() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) return;
+    com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+    if (!counter.isThreadAllocatedMemorySupported()) return;
+    counter.setThreadAllocatedMemoryEnabled(true);
+
+    Random rand = new Random(31);
+    int n = 2000;
+    GameGraph<String> graph = new GameGraph<>();
+    Vec2D[] at = scatter(graph, n, rand);
+    for (int i = 0; i < 4 * n; i++) {
+      int u = rand.nextInt(n);
+      int v = rand.nextInt(n);
+      graph.addEdgeBetweenTwoVertices((int) Math.ceil(length(at[u], at[v])), at[u], at[v]);
+    }
+    PathFinder<String> finder = new PathFinder<>(graph);
+    int[] path = new int[n];
+    long least = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long overhead = allocatedBytes(counter) - allocatedBytes(counter);
+      long before = allocatedBytes(counter);
+      for (int query = 0; query < 200; query++) {
+        finder.aStar(query, n - 1 - query);
+        finder.pathTo(n - 1 - query, path);
+        finder.dijkstra(query, -1);
+      }
+      least = Math.min(least, allocatedBytes(counter) - before + overhead);
+    }
+    assertEquals(0, least);
+  }
+
+  private static long shortestEdge(FrozenGraph<String> graph, int u, int v) {
+    long best = Long.MAX_VALUE;
+    for (int e = graph.edgeBegin(u); e < graph.edgeEnd(u); e++) {
+      if (graph.target(e) == v) best = Math.min(best, graph.weight(e));
+    }
+    return best;
+  }
+
+  private static Vec2D[] scatter(GameGraph<String> graph, int n, Random rand) {
+    Vec2D[] at = new Vec2D[n];
+    for (int i = 0; i < n; i++) {
+      at[i] = new Vec2D(rand.nextInt(100), rand.nextInt(100));
+      graph.addVertexToGraph("v" + i, at[i]);
+    }
+    return at;
+  }
+
+  private static double length(Vec2D a, Vec2D b) {
+    double dx = a.getX() - b.getX();
+    double dy = a.getY() - b.getY();
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  private static long allocatedBytes(com.sun.management.ThreadMXBean counter) {
+    return counter.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,87 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that every snapshot of the persistent B-tree keeps the contents it
+ * had when it was taken.
+ */
+public class PersistentBTreeTest {
+
+  @Test
+  public void snapshots_areFrozen() throws Exception {
+    for (int order : new int[] {4, 16}) {
+      Random rand = new Random(order);
+      PersistentBTree<Integer, Integer> tree = new PersistentBTree<>(order);
+      TreeMap<Integer, Integer> oracle = new TreeMap<>();
+      List<PersistentBTree.Snapshot<Integer, Integer>> snapshots = new ArrayList<>();
+      List<TreeMap<Integer, Integer>> expected = new ArrayList<>();
+
+      for (int i = 0; i < 60000; i++) {
+        int key = rand.nextInt(1500);
+        if (rand.nextInt(3) == 0) {
+          assertEquals(oracle.remove(key), tree.remove(key));
+        } else {
+          oracle.put(key, i);
+          tree.put(key, i);
+        }
+        assertEquals(oracle.size(), tree.size());
+        assertEquals(oracle.get(key), tree.get(key));
+        if (i % 5000 == 0) {
+          snapshots.add(tree.snapshot());
+          expected.add(new TreeMap<>(oracle));
+        }
+      }
+
+      for (int s = 0; s < snapshots.size(); s++) {
+        assertSameContents(expected.get(s), snapshots.get(s));
+      }
+    }
+  }
+
+  @Test
+  public void snapshot_floorCeilingAndRange() throws Exception {
+    PersistentBTree<Integer, String> tree = new PersistentBTree<>(4);
+    for (int i = 0; i < 100; i += 10) {
+      tree.put(i, "v" + i);
+    }
+    PersistentBTree.Snapshot<Integer, String> before = tree.snapshot();
+    tree.remove(50);
+    tree.put(55, "v55");
+
+    assertEquals(Integer.valueOf(50), before.floorKey(54));
+    assertEquals(Integer.valueOf(50), before.ceilingKey(41));
+    assertEquals(Integer.valueOf(40), tree.snapshot().floorKey(54));
+    assertEquals(Integer.valueOf(55), tree.snapshot().ceilingKey(41));
+    assertNull(before.floorKey(-1));
+    assertNull(before.ceilingKey(91));
+
+    PersistentBTree.RangeIterator<Integer, String> it = before.rangeIterator(30, 60);
+    assertEquals(Integer.valueOf(30), it.next());
+    assertEquals("v30", it.value());
+    assertEquals(Integer.valueOf(40), it.next());
+    assertEquals(Integer.valueOf(50), it.next());
+    assertFalse(it.hasNext());
+  }
+
+  private static void assertSameContents(TreeMap<Integer, Integer> expected,
+                                         PersistentBTree.Snapshot<Integer, Integer> snapshot) {
+    assertEquals(expected.size(), snapshot.size());
+    PersistentBTree.RangeIterator<Integer, Integer> it = snapshot.iterator();
+    for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+      assertEquals(e.getKey(), it.next());
+      assertEquals(e.getValue(), it.value());
+      assertEquals(e.getValue(), snapshot.get(e.getKey()));
+    }
+    assertFalse(it.hasNext());
+  }
+}
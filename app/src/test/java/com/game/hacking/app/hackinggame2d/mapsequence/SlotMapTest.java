@@ -0,0 +1,112 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import com.game.hacking.app.hackinggame2d.grafiks.Vec2D;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the slot map against a hash map of live handles, and that the
+ * graph built on it leaves nothing behind when vertices and edges go.
+ */
+public class SlotMapTest {
+
+  @Test
+  public void staleHandles_findNothing() throws Exception {
+    SlotMap<String> map = new SlotMap<>();
+    long a = map.add("a");
+    long b = map.add("b");
+    assertEquals("a", map.remove(a));
+    assertNull(map.remove(a));
+    long c = map.add("c");
+    // c reuses the slot of a, under a new generation
+    assertEquals((int) a, (int) c);
+    assertNull(map.get(a));
+    assertFalse(map.contains(a));
+    assertEquals("c", map.get(c));
+    assertEquals("b", map.get(b));
+    assertNull(map.get(SlotMap.NO_HANDLE));
+    assertEquals("[b, c]", map.asList().toString());
+  }
+
+  @Test
+  public void randomOps_matchHashMap() throws Exception {
+    Random rand = new Random(43);
+    SlotMap<Integer> map = new SlotMap<>();
+    Map<Long, Integer> live = new HashMap<>();
+    List<Long> handles = new ArrayList<>();
+    List<Long> dead = new ArrayList<>();
+    for (int step = 0; step < 100000; step++) {
+      if (handles.isEmpty() || rand.nextInt(5) < 3) {
+        long handle = map.add(step);
+        assertNull(live.put(handle, step));
+        handles.add(handle);
+      } else {
+        int i = rand.nextInt(handles.size());
+        long handle = handles.get(i);
+        handles.set(i, handles.get(handles.size() - 1));
+        handles.remove(handles.size() - 1);
+        assertEquals(live.remove(handle), map.remove(handle));
+        dead.add(handle);
+      }
+      assertEquals(live.size(), map.size());
+      if (!handles.isEmpty()) {
+        long handle = handles.get(rand.nextInt(handles.size()));
+        assertEquals(live.get(handle), map.get(handle));
+      }
+      if (!dead.isEmpty()) assertNull(map.get(dead.get(rand.nextInt(dead.size()))));
+    }
+    HashSet<Integer> listed = new HashSet<>(map.asList());
+    assertEquals(new HashSet<>(live.values()), listed);
+    for (int i = 0; i < map.size(); i++) assertEquals(map.at(i), map.get(map.handleAt(i)));
+  }
+
+  @Test
+  public void graphRemoval_leavesNothingBehind() throws Exception {
+    GameGraph<String> graph = new GameGraph<>();
+    Vec2D[] at = new Vec2D[4];
+    for (int i = 0; i < at.length; i++) {
+      at[i] = new Vec2D(i, 0);
+      graph.addVertexToGraph("v" + i, at[i]);
+    }
+    graph.addEdgeBetweenTwoVertices(1, at[0], at[1]);
+    graph.addEdgeBetweenTwoVertices(2, at[1], at[2]);
+    graph.addEdgeBetweenTwoVertices(3, at[2], at[1]);
+    graph.addEdgeBetweenTwoVertices(4, at[1], at[1]);
+    graph.addEdgeBetweenTwoVertices(5, at[3], at[2]);
+    Vertex<String> one = graph.getVertex(at[1]);
+    Vertex<String> two = graph.getVertex(at[2]);
+    long handle = graph.getHandle(one);
+    assertSame(one, graph.getVertex(handle));
+
+    Edge<String> last = graph.getEdges().get(4);
+    long edgeHandle = graph.getHandle(last);
+    assertTrue(graph.removeEdge(last));
+    assertFalse(graph.removeEdge(last));
+    assertNull(graph.getEdge(edgeHandle));
+    assertEquals(SlotMap.NO_HANDLE, graph.getHandle(last));
+    assertEquals(1, two.getIncomingEdges().size());
+
+    graph.removeVertexFromGraph(at[1]);
+    assertNull(graph.getVertex(handle));
+    assertEquals(SlotMap.NO_HANDLE, graph.getHandle(one));
+    assertNull(graph.getVertex(at[1]));
+    assertNull(graph.getCoordForVertex(one));
+    assertEquals(3, graph.getVertices().size());
+    assertEquals(0, graph.getEdges().size());
+    assertTrue(one.getOutgoingEdges().isEmpty());
+    assertTrue(one.getIncomingEdges().isEmpty());
+    assertTrue(two.getOutgoingEdges().isEmpty());
+    assertTrue(two.getIncomingEdges().isEmpty());
+    assertTrue(graph.getVertex(at[0]).getOutgoingEdges().isEmpty());
+    assertEquals(0, graph.getVerticesWithin(at[1], 0.5f).size());
+  }
+}
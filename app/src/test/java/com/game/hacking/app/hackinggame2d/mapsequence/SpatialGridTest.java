@@ -0,0 +1,129 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import com.game.hacking.app.hackinggame2d.grafiks.Vec2D;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the grid's queries against a scan of every item, and the graph's
+ * lookups by position.
+ */
+public class SpatialGridTest {
+
+  @Test
+  public void graph_findsVerticesByPosition() throws Exception {
+    GameGraph<String> graph = new GameGraph<>();
+    graph.addVertexToGraph("center", new Vec2D(0, 0));
+    graph.addVertexToGraph("corner", new Vec2D(2, 2));
+    graph.addVertexToGraph("far", new Vec2D(-4, 4));
+
+    // equal positions find the vertex, not just the same object
+    assertEquals("corner", graph.getVertex(new Vec2D(2, 2)).getData());
+    assertEquals("corner", graph.getNearestVertex(new Vec2D(1.6f, 1.5f), 1).getData());
+    assertNull(graph.getNearestVertex(new Vec2D(1, 1), 1));
+    assertEquals("far", graph.getNearestVertex(new Vec2D(-40, 40), Float.POSITIVE_INFINITY).getData());
+    assertEquals(3, graph.getNearestVertices(new Vec2D(0, 0), 5).size());
+    assertEquals("corner", graph.getNearestVertices(new Vec2D(3, 3), 2).get(0).getData());
+    assertEquals(2, graph.getVerticesWithin(new Vec2D(1, 1), 1.5f).size());
+
+    // moving the caller's vectors moves nothing in the graph
+    Vec2D handed = new Vec2D(6, 6);
+    graph.addVertexToGraph("moved", handed);
+    handed.setX(100);
+    graph.getCoordForVertex(graph.getVertex(new Vec2D(6, 6))).setY(100);
+    assertEquals("moved", graph.getVertex(new Vec2D(6, 6)).getData());
+    graph.removeVertexFromGraph(new Vec2D(6, 6));
+    assertNull(graph.getNearestVertex(new Vec2D(6, 6), 1));
+
+    graph.removeVertexFromGraph(new Vec2D(2, 2));
+    assertNull(graph.getVertex(new Vec2D(2, 2)));
+    assertEquals("center", graph.getNearestVertex(new Vec2D(2, 2), 10).getData());
+    assertEquals(2, graph.getVertices().size());
+  }
+
+  // random items, some of them far apart, against a scan of all of them
+  @Test
+  public void randomQueries_matchScan() throws Exception {
+    Random rand = new Random(41);
+    for (int round = 0; round < 40; round++) {
+      float spread = (round % 4 == 0) ? 10000 : 50;
+      SpatialGrid<Integer> grid = new SpatialGrid<>(0.5f + rand.nextInt(5));
+      List<float[]> points = new ArrayList<>();
+      // the grid compares items by identity, so each id is boxed once
+      Integer[] ids = new Integer[300];
+      for (int i = 0; i < ids.length; i++) ids[i] = Integer.valueOf(i);
+      for (int step = 0; step < 300; step++) {
+        if (!points.isEmpty() && rand.nextInt(4) == 0) {
+          int i = rand.nextInt(points.size());
+          float[] gone = points.get(i);
+          assertTrue(grid.remove(ids[(int) gone[2]], gone[0], gone[1]));
+          points.set(i, points.get(points.size() - 1));
+          points.remove(points.size() - 1);
+        } else {
+          float[] point = {coordinate(rand, spread), coordinate(rand, spread), step};
+          points.add(point);
+          grid.add(ids[step], point[0], point[1]);
+        }
+        assertEquals(points.size(), grid.size());
+
+        final float x = coordinate(rand, spread);
+        final float y = coordinate(rand, spread);
+        List<float[]> sorted = new ArrayList<>(points);
+        Collections.sort(sorted, new Comparator<float[]>() {
+          @Override
+          public int compare(float[] a, float[] b) {
+            return Double.compare(distance(a, x, y), distance(b, x, y));
+          }
+        });
+        float radius = rand.nextFloat() * spread / 4;
+        Integer nearest = grid.nearest(x, y, radius);
+        if (sorted.isEmpty() || distance(sorted.get(0), x, y) > (double) radius * radius) {
+          assertNull(nearest);
+        } else {
+          assertEquals(distance(sorted.get(0), x, y), distance(find(points, nearest), x, y), 0);
+        }
+
+        int k = rand.nextInt(8);
+        List<Integer> knn = grid.nearest(x, y, k);
+        assertEquals(Math.min(k, points.size()), knn.size());
+        for (int i = 0; i < knn.size(); i++)
+          assertEquals(distance(sorted.get(i), x, y), distance(find(points, knn.get(i)), x, y), 0);
+
+        HashSet<Integer> expected = new HashSet<>();
+        for (float[] point : points) {
+          if (distance(point, x, y) <= (double) radius * radius) expected.add((int) point[2]);
+        }
+        List<Integer> inside = grid.within(x, y, radius);
+        assertEquals(expected.size(), inside.size());
+        assertEquals(expected, new HashSet<>(inside));
+      }
+    }
+  }
+
+  private static float coordinate(Random rand, float spread) {
+    return (rand.nextFloat() - 0.5f) * spread;
+  }
+
+  private static float[] find(List<float[]> points, int id) {
+    for (float[] point : points) {
+      if ((int) point[2] == id) return point;
+    }
+    throw new AssertionError("no point " + id);
+  }
+
+  // squared, as the grid compares them
+  private static double distance(float[] point, float x, float y) {
+    double dx = (double) point[0] - x;
+    double dy = (double) point[1] - y;
+    return dx * dx + dy * dy;
+  }
+}
@@ -0,0 +1,117 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the timing wheel against a {@link TreeMap} ordered by deadline and
+ * scheduling order.
+ */
+public class TimingWheelSchedulerTest {
+
+  @Test
+  public void equalDeadlines_stayFifoAcrossCascades() throws Exception {
+    TimingWheelScheduler<String> wheel = new TimingWheelScheduler<>();
+    wheel.schedule(5000L, "far");        // starts in a coarse wheel
+    wheel.schedule(3L, "soon");
+    assertEquals(1, wheel.pollDue(4990L, collect(new ArrayList<String>())));
+    wheel.schedule(5000L, "near");       // goes straight into the finest wheel
+    wheel.schedule(4995L, "before");
+
+    List<String> due = new ArrayList<>();
+    assertEquals(3, wheel.pollDue(5000L, collect(due)));
+    assertEquals("[before, far, near]", due.toString());
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void pastDeadline_isDueAtNextPoll() throws Exception {
+    TimingWheelScheduler<String> wheel = new TimingWheelScheduler<>(100);
+    wheel.schedule(150L, "later");
+    wheel.schedule(50L, "late");
+    wheel.schedule(20L, "later still");
+    assertEquals("later still", wheel.peekMin());
+    assertEquals(Long.valueOf(20), wheel.peekDeadline());
+
+    List<String> due = new ArrayList<>();
+    assertEquals(2, wheel.pollDue(100L, collect(due)));
+    assertEquals("[later still, late]", due.toString());
+    assertEquals("later", wheel.peekMin());
+  }
+
+  @Test
+  public void cancel_acceptsEachLiveHandleOnce() throws Exception {
+    TimingWheelScheduler<String> wheel = new TimingWheelScheduler<>();
+    Scheduler.Handle a = wheel.schedule(10L, "a");
+    assertFalse(new TimingWheelScheduler<String>().cancel(a));
+    assertFalse(wheel.cancel(new BalancedScheduler<Long, String>().schedule(10L, "b")));
+    assertTrue(wheel.cancel(a));
+    assertFalse(wheel.cancel(a));
+    assertEquals(0, wheel.size());
+    assertNull(wheel.peekMin());
+    assertEquals(0, wheel.pollDue(100L, collect(new ArrayList<String>())));
+  }
+
+  @Test
+  public void randomSchedule_matchesTreeMap() throws Exception {
+    // deadlines reach every wheel, the overflow list and the past
+    int[] spreads = {50, 3000, 200000, 20000000, 1 << 30};
+    final TimingWheelScheduler<Long> wheel = new TimingWheelScheduler<>();
+    final TreeMap<Long, Long> oracle = new TreeMap<>();   // (deadline, sequence) packed
+    List<Scheduler.Handle> handles = new ArrayList<>();
+    List<Long> ids = new ArrayList<>();
+    Random rand = new Random(12);
+    long now = 0;
+
+    for (long seq = 0; seq < 200000; seq++) {
+      int op = rand.nextInt(10);
+      if (op < 5) {
+        long deadline = now - 20 + rand.nextInt(spreads[rand.nextInt(spreads.length)]);
+        long id = deadline << 20 | seq;
+        handles.add(wheel.schedule(deadline, id));
+        ids.add(id);
+        oracle.put(id, id);
+      } else if (op < 8 && !handles.isEmpty()) {
+        int pick = rand.nextInt(handles.size());
+        assertEquals(oracle.remove(ids.get(pick)) != null, wheel.cancel(handles.get(pick)));
+        handles.set(pick, handles.get(handles.size() - 1));
+        handles.remove(handles.size() - 1);
+        ids.set(pick, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+      } else {
+        now += rand.nextInt(10) == 0 ? rand.nextInt(1 << 25) : rand.nextInt(100);
+        final long limit = now;
+        wheel.pollDue(now, new EventSink<Long, Long>() {
+          @Override
+          public void accept(Long deadline, Long id) {
+            Map.Entry<Long, Long> expected = oracle.pollFirstEntry();
+            assertEquals(expected.getValue(), id);
+            assertTrue(deadline <= limit);
+            assertEquals((long) deadline, id >> 20);
+          }
+        });
+        assertTrue(oracle.isEmpty() || (oracle.firstKey() >> 20) > limit);
+      }
+      assertEquals(oracle.size(), wheel.size());
+      if (seq % 64 == 0) {
+        assertEquals(oracle.isEmpty() ? null : oracle.firstKey(), wheel.peekMin());
+      }
+    }
+  }
+
+  private static EventSink<Long, String> collect(final List<String> into) {
+    return new EventSink<Long, String>() {
+      @Override
+      public void accept(Long deadline, String task) {
+        into.add(task);
+      }
+    };
+  }
+}
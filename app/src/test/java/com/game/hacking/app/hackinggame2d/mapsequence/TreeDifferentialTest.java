@@ -0,0 +1,585 @@
+package com.game.hacking.app.hackinggame2d.mapsequence;
+
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs long seeded sequences of mixed operations against each tree engine
+ * and a {@link TreeMap} doing the same, comparing every answer and checking
+ * the engine's own invariants every few operations. A failing sequence is
+ * shrunk to a short one that still fails, which the failure message lists
+ * one operation per line. The seed and the number of operations per engine
+ * can be set with the tree.fuzz.seed and tree.fuzz.ops system properties,
+ * e.g. -Dtree.fuzz.ops=10000000 for a long soak.
+ */
+public class TreeDifferentialTest {
+  private static final long SEED = Long.getLong("tree.fuzz.seed", 20L);
+  private static final int OPS = Integer.getInteger("tree.fuzz.ops", 300000);
+  private static final int KEYS = 512;
+  private static final int CHECK_EVERY = 64;
+  // replays the shrinker may spend before reporting what it has
+  private static final int SHRINK_BUDGET = 20000;
+
+  private static final String[] SCHEDULER_OPS = {"add", "schedule", "remove", "cancel",
+          "pollFirst", "pollDue", "lookup", "removeRange", "addAll", "overlapping"};
+  private static final int[] SCHEDULER_WEIGHTS = {25, 15, 15, 10, 8, 5, 10, 4, 4, 4};
+  private static final String[] MAP_OPS = {"put", "putNull", "remove", "get", "floorCeiling",
+          "range", "removeRange", "addAll"};
+  private static final int[] MAP_WEIGHTS = {35, 5, 25, 10, 10, 5, 5, 5};
+  // IntBTree has no batch operations, so the last two kinds are left out
+  private static final int[] INT_MAP_WEIGHTS = {35, 5, 25, 10, 10, 5, 0, 0};
+
+  @Test
+  public void balancedScheduler_matchesTreeMap() throws Exception {
+    fuzz(new Factory("BalancedScheduler", SCHEDULER_OPS, SCHEDULER_WEIGHTS) {
+      @Override
+      Engine create() {
+        return new BalancedEngine(new BalancedScheduler<Integer, Long>(), false);
+      }
+    });
+  }
+
+  @Test
+  public void balancedSchedulerMultimap_matchesTreeMap() throws Exception {
+    fuzz(new Factory("BalancedScheduler(multimap)", SCHEDULER_OPS, SCHEDULER_WEIGHTS) {
+      @Override
+      Engine create() {
+        return new BalancedEngine(new BalancedScheduler<Integer, Long>(true), false);
+      }
+    });
+  }
+
+  @Test
+  public void balancedSchedulerIntervals_matchesTreeMap() throws Exception {
+    fuzz(new Factory("BalancedScheduler(intervals)", SCHEDULER_OPS, SCHEDULER_WEIGHTS) {
+      @Override
+      Engine create() {
+        return new BalancedEngine(new BalancedScheduler<Integer, Long>(), true);
+      }
+    });
+    fuzz(new Factory("BalancedScheduler(multimap, intervals)", SCHEDULER_OPS, SCHEDULER_WEIGHTS) {
+      @Override
+      Engine create() {
+        return new BalancedEngine(new BalancedScheduler<Integer, Long>(true), true);
+      }
+    });
+  }
+
+  @Test
+  public void compactBalancedScheduler_matchesTreeMap() throws Exception {
+    fuzz(new Factory("CompactBalancedScheduler", SCHEDULER_OPS, SCHEDULER_WEIGHTS) {
+      @Override
+      Engine create() {
+        return new CompactEngine();
+      }
+    });
+  }
+
+  @Test
+  public void bTree_matchesTreeMap() throws Exception {
+    for (final int order : new int[] {4, 6}) {
+      fuzz(new Factory("BTree(" + order + ")", MAP_OPS, MAP_WEIGHTS) {
+        @Override
+        Engine create() {
+          return new BTreeEngine(order);
+        }
+      });
+    }
+  }
+
+  @Test
+  public void intBTree_matchesTreeMap() throws Exception {
+    fuzz(new Factory("IntBTree", MAP_OPS, INT_MAP_WEIGHTS) {
+      @Override
+      Engine create() {
+        return new IntBTreeEngine();
+      }
+    });
+  }
+
+  // the harness itself: a planted bug must come back as its shortest trigger
+  @Test
+  public void failure_isShrunkToMinimalSequence() throws Exception {
+    Factory buggy = new Factory("buggy", MAP_OPS, INT_MAP_WEIGHTS) {
+      @Override
+      Engine create() {
+        return new IntBTreeEngine() {
+          @Override
+          public void apply(Op op) {
+            // forgets to remove keys whose low bits are all set
+            if (op.kind == 2 && (op.a & 15) == 15) {
+              oracle.remove(op.a - KEYS / 2);
+              assertEquals(oracle.size(), tree.size());
+              return;
+            }
+            super.apply(op);
+          }
+        };
+      }
+    };
+    try {
+      fuzz(buggy);
+    } catch (AssertionError expected) {
+      String message = expected.getMessage();
+      assertTrue(message, message.contains("shrunk to 2 operations:\n"));
+      assertTrue(message, message.matches("(?s).*\n  put\\((\\d+), \\d+\\)\n  remove\\(\\1, \\d+\\)$"));
+      return;
+    }
+    fail("planted bug went unnoticed");
+  }
+
+  /**************************************************************************
+   * The harness.
+   **************************************************************************/
+
+  // one operation: its kind, an index into the factory's names, and two
+  // arguments the engine derives keys, values and batches from
+  private static final class Op {
+    final int kind;
+    final int a;
+    final int b;
+
+    Op(int kind, int a, int b) {
+      this.kind = kind;
+      this.a = a;
+      this.b = b;
+    }
+  }
+
+  // an engine under test paired with an oracle that starts out empty
+  private interface Engine {
+    // applies op to both, failing on any difference in answers
+    void apply(Op op);
+
+    void checkInvariants();
+  }
+
+  private abstract static class Factory {
+    final String name;
+    final String[] kinds;
+    final int[] weights;
+
+    Factory(String name, String[] kinds, int[] weights) {
+      this.name = name;
+      this.kinds = kinds;
+      this.weights = weights;
+    }
+
+    abstract Engine create();
+
+    Op next(Random rand) {
+      int total = 0;
+      for (int weight : weights) total += weight;
+      int pick = rand.nextInt(total);
+      int kind = 0;
+      while (pick >= weights[kind]) pick -= weights[kind++];
+      return new Op(kind, rand.nextInt(KEYS), rand.nextInt(1 << 16));
+    }
+
+    String describe(Op op) {
+      return kinds[op.kind] + "(" + op.a + ", " + op.b + ")";
+    }
+  }
+
+  // run OPS operations drawn from the seed; on a failure, regenerate the
+  // sequence up to it, shrink it and fail with the result
+  private static void fuzz(Factory factory) {
+    Random rand = new Random(SEED);
+    Engine engine = factory.create();
+    for (int i = 0; i < OPS; i++) {
+      Throwable failure = step(engine, factory.next(rand), i % CHECK_EVERY == CHECK_EVERY - 1);
+      if (failure == null && i == OPS - 1) failure = check(engine);
+      if (failure == null) continue;
+
+      Random replay = new Random(SEED);
+      List<Op> ops = new ArrayList<>();
+      for (int j = 0; j <= i; j++) ops.add(factory.next(replay));
+      List<Op> shrunk = shrink(factory, ops);
+      StringBuilder message = new StringBuilder()
+              .append(factory.name).append(" broke at operation ").append(i + 1)
+              .append(" of seed ").append(SEED).append(": ").append(failure)
+              .append("\nfailing with ").append(run(factory, shrunk))
+              .append("\nshrunk to ").append(shrunk.size()).append(" operations:");
+      for (Op op : shrunk) message.append("\n  ").append(factory.describe(op));
+      AssertionError error = new AssertionError(message.toString());
+      error.initCause(failure);
+      throw error;
+    }
+  }
+
+  private static Throwable step(Engine engine, Op op, boolean check) {
+    try {
+      engine.apply(op);
+    } catch (RuntimeException | AssertionError e) {
+      return e;
+    }
+    return check ? check(engine) : null;
+  }
+
+  private static Throwable check(Engine engine) {
+    try {
+      engine.checkInvariants();
+    } catch (RuntimeException e) {
+      return e;
+    }
+    return null;
+  }
+
+  // replays ops on a fresh engine, checking the invariants after each one
+  private static Throwable run(Factory factory, List<Op> ops) {
+    Engine engine = factory.create();
+    for (Op op : ops) {
+      Throwable failure = step(engine, op, true);
+      if (failure != null) return failure;
+    }
+    return null;
+  }
+
+  // drop ever smaller runs of operations while the rest still fails, then
+  // pull each argument towards 0; the first failure found is kept each time
+  private static List<Op> shrink(Factory factory, List<Op> ops) {
+    int budget = SHRINK_BUDGET;
+    // the long prefix is cut down with sparse checks; once short, every
+    // candidate is checked after each operation
+    int chunk = ops.size() / 2;
+    while (chunk >= 1 && budget > 0) {
+      boolean dropped = false;
+      for (int from = 0; from < ops.size() && budget-- > 0; ) {
+        List<Op> candidate = new ArrayList<>(ops.subList(0, from));
+        candidate.addAll(ops.subList(Math.min(from + chunk, ops.size()), ops.size()));
+        if (fails(factory, candidate)) {
+          ops = candidate;
+          dropped = true;
+        } else {
+          from += chunk;
+        }
+      }
+      if (!dropped) chunk /= 2;
+      else chunk = Math.min(chunk, ops.size() / 2);
+    }
+    for (int i = 0; i < ops.size() && budget > 0; i++) {
+      boolean smaller = true;
+      while (smaller && budget-- > 0) {
+        Op op = ops.get(i);
+        smaller = tryReplace(factory, ops, i, new Op(op.kind, op.a / 2, op.b))
+                || tryReplace(factory, ops, i, new Op(op.kind, op.a, op.b / 2));
+      }
+    }
+    return ops;
+  }
+
+  private static boolean tryReplace(Factory factory, List<Op> ops, int i, Op smaller) {
+    Op old = ops.get(i);
+    if (smaller.a == old.a && smaller.b == old.b) return false;
+    ops.set(i, smaller);
+    if (fails(factory, ops)) return true;
+    ops.set(i, old);
+    return false;
+  }
+
+  private static boolean fails(Factory factory, List<Op> ops) {
+    if (ops.size() <= 4 * KEYS) return run(factory, ops) != null;
+    Engine engine = factory.create();
+    for (int i = 0; i < ops.size(); i++) {
+      if (step(engine, ops.get(i), i % CHECK_EVERY == CHECK_EVERY - 1) != null) return true;
+    }
+    return check(engine) != null;
+  }
+
+  /**************************************************************************
+   * The engines.
+   **************************************************************************/
+
+  // a scheduler against a TreeMap keyed by key << 32 | sequence, so equal
+  // keys come out in the order they went in; values are those same ids and
+  // the oracle maps each to the end of its interval
+  private abstract static class SchedulerEngine<T extends Tree<Integer, Long> & Scheduler<Integer, Long>>
+          implements Engine {
+    final T tree;
+    final boolean intervals;
+    final TreeMap<Long, Integer> oracle = new TreeMap<>();
+    final List<Scheduler.Handle> handles = new ArrayList<>();
+    final List<Long> ids = new ArrayList<>();
+    long sequence;
+
+    SchedulerEngine(T tree, boolean intervals) {
+      this.tree = tree;
+      this.intervals = intervals;
+    }
+
+    abstract Long pollFirst();
+
+    // schedules an interval in interval mode, a plain task otherwise
+    Scheduler.Handle schedule(int key, int end, long id) {
+      return tree.schedule(key, id);
+    }
+
+    // the entries overlapping [start, end], or null if not supported
+    List<Long> overlapping(int start, int end) {
+      return null;
+    }
+
+    @Override
+    public void apply(Op op) {
+      int key = op.a;
+      switch (op.kind) {
+        case 0:
+          long added = id(key);
+          tree.add(key, added);
+          oracle.put(added, key);
+          break;
+        case 1:
+          int end = intervals ? key + op.b % 16 : key;
+          long scheduled = id(key);
+          handles.add(schedule(key, end, scheduled));
+          ids.add(scheduled);
+          oracle.put(scheduled, end);
+          break;
+        case 2:
+          Long oldest = oldest(key);
+          if (oldest != null) oracle.remove(oldest);
+          assertEquals(oldest, tree.remove(key));
+          break;
+        case 3:
+          if (handles.isEmpty()) break;
+          int pick = op.b % handles.size();
+          assertEquals(oracle.remove(ids.get(pick)) != null, tree.cancel(handles.get(pick)));
+          handles.set(pick, handles.get(handles.size() - 1));
+          handles.remove(handles.size() - 1);
+          ids.set(pick, ids.get(ids.size() - 1));
+          ids.remove(ids.size() - 1);
+          break;
+        case 4:
+          Map.Entry<Long, Integer> head = oracle.pollFirstEntry();
+          assertEquals(head == null ? null : head.getKey(), pollFirst());
+          break;
+        case 5:
+          final int now = key / 4;
+          tree.pollDue(now, new EventSink<Integer, Long>() {
+            @Override
+            public void accept(Integer deadline, Long id) {
+              assertEquals(oracle.pollFirstEntry().getKey(), id);
+              assertEquals((long) deadline, id >> 32);
+            }
+          });
+          assertTrue(oracle.isEmpty() || oracle.firstKey() >> 32 > now);
+          break;
+        case 6:
+          assertEquals(oldest(key), tree.lookup(key));
+          break;
+        case 7:
+          int hi = key + op.b % 32;
+          Map<Long, Integer> range = oracle.subMap((long) key << 32, (long) hi << 32);
+          int expected = range.size();
+          range.clear();
+          assertEquals(expected, tree.removeRange(key, hi));
+          break;
+        case 8:
+          List<Map.Entry<Integer, Long>> batch = new ArrayList<>();
+          Random rand = new Random(op.b);
+          for (int i = op.b % 24, next = key; i > 0; i--, next += rand.nextInt(3)) {
+            long id = id(next);
+            batch.add(new AbstractMap.SimpleEntry<>(next, id));
+            oracle.put(id, next);
+          }
+          tree.addAll(batch);
+          break;
+        default:
+          int windowEnd = key + op.b % 16;
+          List<Long> found = overlapping(key, windowEnd);
+          if (found == null) break;
+          List<Long> scan = new ArrayList<>();
+          for (Map.Entry<Long, Integer> entry : oracle.headMap((long) (windowEnd + 1) << 32).entrySet()) {
+            if (entry.getValue() >= key) scan.add(entry.getKey());
+          }
+          assertEquals(scan, found);
+          break;
+      }
+      assertEquals(oracle.size(), tree.size());
+      assertEquals(oracle.isEmpty() ? null : oracle.firstKey(), tree.peekMin());
+      assertEquals(oracle.isEmpty() ? null : (int) (oracle.firstKey() >> 32), tree.peekDeadline());
+    }
+
+    private long id(int key) {
+      return ((long) key << 32) | sequence++;
+    }
+
+    private Long oldest(int key) {
+      Long id = oracle.ceilingKey((long) key << 32);
+      return (id == null || id >> 32 != key) ? null : id;
+    }
+  }
+
+  private static class BalancedEngine extends SchedulerEngine<BalancedScheduler<Integer, Long>> {
+    BalancedEngine(BalancedScheduler<Integer, Long> tree, boolean intervals) {
+      super(tree, intervals);
+    }
+
+    @Override
+    Long pollFirst() {
+      return tree.pollFirst();
+    }
+
+    @Override
+    Scheduler.Handle schedule(int key, int end, long id) {
+      return intervals ? tree.addInterval(key, end, id) : tree.schedule(key, id);
+    }
+
+    @Override
+    List<Long> overlapping(int start, int end) {
+      List<Map.Entry<Integer, Long>> out = new ArrayList<>();
+      assertEquals(tree.overlapping(start, end, out), out.size());
+      List<Long> found = new ArrayList<>();
+      for (Map.Entry<Integer, Long> entry : out) found.add(entry.getValue());
+      return found;
+    }
+
+    @Override
+    public void checkInvariants() {
+      tree.checkInvariants();
+    }
+  }
+
+  private static class CompactEngine extends SchedulerEngine<CompactBalancedScheduler<Integer, Long>> {
+    CompactEngine() {
+      super(new CompactBalancedScheduler<Integer, Long>(0), false);
+    }
+
+    @Override
+    Long pollFirst() {
+      return tree.pollFirst();
+    }
+
+    @Override
+    public void checkInvariants() {
+      tree.checkInvariants();
+    }
+  }
+
+  private static class BTreeEngine implements Engine {
+    final BTree<Integer, Integer> tree;
+    final TreeMap<Integer, Integer> oracle = new TreeMap<>();
+
+    BTreeEngine(int order) {
+      tree = new BTree<>(order);
+    }
+
+    @Override
+    public void apply(Op op) {
+      int key = op.a;
+      switch (op.kind) {
+        case 0:
+          tree.put(key, op.b);
+          oracle.put(key, op.b);
+          break;
+        case 1:
+          tree.put(key, null);
+          oracle.remove(key);
+          break;
+        case 2:
+          assertEquals(oracle.remove(key), tree.remove(key));
+          break;
+        case 3:
+          assertEquals(oracle.get(key), tree.get(key));
+          break;
+        case 4:
+          assertEquals(oracle.floorKey(key), tree.floorKey(key));
+          assertEquals(oracle.ceilingKey(key), tree.ceilingKey(key));
+          break;
+        case 5:
+          int hi = key + op.b % 32;
+          Iterator<Map.Entry<Integer, Integer>> expected =
+                  oracle.subMap(key, hi).entrySet().iterator();
+          for (BTree<Integer, Integer>.RangeIterator it = tree.rangeIterator(key, hi); it.hasNext(); ) {
+            Map.Entry<Integer, Integer> entry = expected.next();
+            assertEquals(entry.getKey(), it.next());
+            assertEquals(entry.getValue(), it.value());
+          }
+          assertFalse(expected.hasNext());
+          break;
+        case 6:
+          // now and then a range wide enough to empty whole subtrees
+          int end = key + ((op.b % 8 == 0) ? op.b % KEYS : op.b % 32);
+          Map<Integer, Integer> range = oracle.subMap(key, end);
+          int count = range.size();
+          range.clear();
+          assertEquals(count, tree.removeRange(key, end));
+          break;
+        default:
+          List<Map.Entry<Integer, Integer>> batch = new ArrayList<>();
+          Random rand = new Random(op.b);
+          for (int i = op.b % 24, next = key; i > 0; i--, next += rand.nextInt(3)) {
+            Integer value = (rand.nextInt(8) == 0) ? null : rand.nextInt(1000);
+            batch.add(new AbstractMap.SimpleEntry<>(next, value));
+            if (value == null) oracle.remove(next);
+            else oracle.put(next, value);
+          }
+          tree.addAll(batch);
+          break;
+      }
+      assertEquals(oracle.size(), tree.size());
+    }
+
+    @Override
+    public void checkInvariants() {
+      tree.checkInvariants();
+    }
+  }
+
+  // keys are shifted down by half the range so negative keys get exercised
+  private static class IntBTreeEngine implements Engine {
+    final IntBTree<Integer> tree = new IntBTree<>();
+    final TreeMap<Integer, Integer> oracle = new TreeMap<>();
+
+    @Override
+    public void apply(Op op) {
+      int key = op.a - KEYS / 2;
+      switch (op.kind) {
+        case 0:
+          tree.put(key, op.b);
+          oracle.put(key, op.b);
+          break;
+        case 1:
+          tree.put(key, null);
+          oracle.remove(key);
+          break;
+        case 2:
+          assertEquals(oracle.remove(key), tree.remove(key));
+          break;
+        case 3:
+          assertEquals(oracle.get(key), tree.get(key));
+          break;
+        case 4:
+          assertEquals(oracle.floorKey(key), tree.floorKey(key));
+          assertEquals(oracle.ceilingKey(key), tree.ceilingKey(key));
+          break;
+        default:
+          int hi = key + op.b % 32;
+          Iterator<Map.Entry<Integer, Integer>> expected =
+                  oracle.subMap(key, hi).entrySet().iterator();
+          for (IntBTree<Integer>.Cursor it = tree.rangeCursor(key, hi); it.hasNext(); ) {
+            Map.Entry<Integer, Integer> entry = expected.next();
+            assertEquals((int) entry.getKey(), it.nextKey());
+            assertEquals(entry.getValue(), it.value());
+          }
+          assertFalse(expected.hasNext());
+          break;
+      }
+      assertEquals(oracle.size(), tree.size());
+    }
+
+    @Override
+    public void checkInvariants() {
+      tree.checkInvariants();
+    }
+  }
+}